@@ -0,0 +1,517 @@
+package org.apache.cassandra.annotation;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import org.apache.cassandra.annotation.dataannotations.AbstractDataAnnotation;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.gms.*;
+import org.apache.cassandra.locator.IEndpointSnitch;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Node-local index of the Data Annotation capabilities announced by all nodes.
+ *
+ * Every node publishes the values it advertises in its CAPABILITIES gossip state, which is materialised here for
+ * all nodes, so a lookup never reads storage. For every annotation, each advertised value maps to a bitset over the
+ * known node tokens, so the set of nodes satisfying a set of annotations is computed by intersecting bitsets. The
+ * index is rebuilt lazily after a change of the capabilities or a gossip topology change. Nodes changing their
+ * capabilities or leaving the ring may invalidate placements, so they schedule an IndirectionRelocation.
+ */
+public class CapabilityIndex implements IEndpointStateChangeSubscriber
+{
+    public static final CapabilityIndex instance = new CapabilityIndex();
+
+    // version of the format of the CAPABILITIES state, which is "version;token;annotation=value,value;..." with
+    // URL encoded tokens, annotations and values
+    private static final String FormatVersion = "1";
+
+    private final AtomicLong versions = new AtomicLong();
+    private final ConcurrentMap<InetAddress, Announcement> announcements = new ConcurrentHashMap<>();
+    private volatile Snapshot snapshot = new Snapshot(0, Collections.<String, Map<String, Collection<String>>>emptyMap());
+    private volatile boolean stale = true;
+    // capabilities of this node announced before it owned tokens, published once it does
+    private volatile Map<String, Collection<String>> pending;
+
+    private CapabilityIndex() {}
+
+    public void register()
+    {
+        Gossiper.instance.register(this);
+        // nodes known before registering did not notify us
+        for (Map.Entry<InetAddress, EndpointState> entry : Gossiper.instance.getEndpointStates())
+            update(entry.getKey(), entry.getValue().getApplicationState(ApplicationState.CAPABILITIES));
+        invalidate();
+    }
+
+    /**
+     * Publishes the capabilities of this node, an empty map withdraws them.
+     *
+     * @param capabilities the advertised values per annotation
+     */
+    public void announce(Map<String, Collection<String>> capabilities)
+    {
+        // nodes are identified by their smallest token
+        List<String> tokens = IndirectionSupport.getLocalTokens();
+        if (tokens.isEmpty())
+        {
+            IndirectionSupport.sendToLog("This node does not own tokens yet, capabilities are announced once it joins the ring", false, true, "CapabilityIndex");
+            pending = capabilities;
+            return;
+        }
+        pending = null;
+        String value = encode(tokens.get(0), capabilities);
+        Gossiper.instance.addLocalApplicationState(ApplicationState.CAPABILITIES, StorageService.instance.valueFactory.capabilities(value));
+    }
+
+    public void invalidate()
+    {
+        stale = true;
+    }
+
+    public Snapshot get()
+    {
+        if (stale)
+        {
+            synchronized (this)
+            {
+                if (stale)
+                {
+                    // reset first, so invalidations arriving during the rebuild trigger another one
+                    stale = false;
+                    snapshot = new Snapshot(versions.incrementAndGet(), materialize());
+                    IndirectionSupport.sendToLog("Rebuilt capability index: " + snapshot, false, true, "CapabilityIndex");
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Replaces the index by the given capabilities, which stay in place until the next invalidation.
+     *
+     * @param capabilities the advertised values per node token, per annotation
+     */
+    @VisibleForTesting
+    public synchronized Snapshot load(Map<String, Map<String, Collection<String>>> capabilities)
+    {
+        stale = false;
+        snapshot = new Snapshot(versions.incrementAndGet(), capabilities);
+        return snapshot;
+    }
+
+    private Map<String, Map<String, Collection<String>>> materialize()
+    {
+        Map<String, Map<String, Collection<String>>> capabilities = new HashMap<>();
+        if (IndirectionSupport.DataAnnotationConfiguration == null)
+            return capabilities;
+
+        for (AbstractDataAnnotation<?> annotation : IndirectionSupport.DataAnnotationConfiguration.list.values())
+            capabilities.put(annotation.name, new HashMap<String, Collection<String>>());
+        for (Announcement announcement : announcements.values())
+        {
+            for (Map.Entry<String, Collection<String>> entry : announcement.capabilities.entrySet())
+            {
+                // nodes without abilities for an annotation are not listed, unknown annotations are ignored
+                Map<String, Collection<String>> nodes = capabilities.get(entry.getKey());
+                if (nodes != null && !entry.getValue().isEmpty())
+                    nodes.put(announcement.token, entry.getValue());
+            }
+        }
+        return capabilities;
+    }
+
+    private void update(InetAddress endpoint, VersionedValue value)
+    {
+        if (value == null)
+            return;
+
+        Announcement announcement;
+        try
+        {
+            announcement = decode(value.value);
+        }
+        catch (IllegalArgumentException e)
+        {
+            announcement = null;
+        }
+        if (announcement == null)
+        {
+            IndirectionSupport.sendToLog("Ignoring malformed capabilities of " + endpoint + ": " + value.value, true, false, "CapabilityIndex");
+            return;
+        }
+        Announcement previous = announcements.put(endpoint, announcement);
+        invalidate();
+        if (previous != null && !previous.state.equals(announcement.state))
+            IndirectionRelocation.instance.schedule();
+    }
+
+    private static String encode(String token, Map<String, Collection<String>> capabilities)
+    {
+        StringBuilder sb = new StringBuilder(FormatVersion).append(';').append(escape(token));
+        for (Map.Entry<String, Collection<String>> entry : capabilities.entrySet())
+        {
+            sb.append(';').append(escape(entry.getKey())).append('=');
+            boolean first = true;
+            for (String value : entry.getValue())
+            {
+                if (!first)
+                    sb.append(',');
+                sb.append(escape(value));
+                first = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    // returns null for a malformed state or one of an unknown format
+    private static Announcement decode(String state)
+    {
+        String[] parts = state.split(";", -1);
+        if (parts.length < 2 || !FormatVersion.equals(parts[0]))
+            return null;
+
+        Map<String, Collection<String>> capabilities = new HashMap<>();
+        for (int i = 2; i < parts.length; i++)
+        {
+            int separator = parts[i].indexOf('=');
+            if (separator < 0)
+                return null;
+            List<String> values = new ArrayList<>();
+            if (separator < parts[i].length() - 1)
+            {
+                for (String value : parts[i].substring(separator + 1).split(","))
+                    values.add(unescape(value));
+            }
+            capabilities.put(unescape(parts[i].substring(0, separator)), values);
+        }
+        return new Announcement(state, unescape(parts[1]), capabilities);
+    }
+
+    private static String escape(String s)
+    {
+        try
+        {
+            return URLEncoder.encode(s, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    // throws IllegalArgumentException for a malformed escape sequence
+    private static String unescape(String s)
+    {
+        try
+        {
+            return URLDecoder.decode(s, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    public void onJoin(InetAddress endpoint, EndpointState epState)
+    {
+        update(endpoint, epState.getApplicationState(ApplicationState.CAPABILITIES));
+        invalidate();
+    }
+
+    public void beforeChange(InetAddress endpoint, EndpointState currentState, ApplicationState newStateKey, VersionedValue newValue) {}
+
+    public void onChange(InetAddress endpoint, ApplicationState state, VersionedValue value)
+    {
+        if (state == ApplicationState.CAPABILITIES)
+            update(endpoint, value);
+        else if (state == ApplicationState.STATUS || state == ApplicationState.TOKENS || state == ApplicationState.DC || state == ApplicationState.RACK)
+        {
+            invalidate();
+            Map<String, Collection<String>> capabilities = pending;
+            if (capabilities != null && endpoint.equals(FBUtilities.getBroadcastAddress()))
+                announce(capabilities);
+        }
+    }
+
+    public void onAlive(InetAddress endpoint, EndpointState state)
+    {
+        invalidate();
+    }
+
+    public void onDead(InetAddress endpoint, EndpointState state) {}
+
+    public void onRestart(InetAddress endpoint, EndpointState state)
+    {
+        invalidate();
+    }
+
+    public void onRemove(InetAddress endpoint)
+    {
+        announcements.remove(endpoint);
+        invalidate();
+        IndirectionRelocation.instance.schedule();
+    }
+
+    /**
+     * The capabilities announced by one node.
+     */
+    private static class Announcement
+    {
+        private final String state;
+        private final String token;
+        private final Map<String, Collection<String>> capabilities;
+
+        private Announcement(String state, String token, Map<String, Collection<String>> capabilities)
+        {
+            this.state = state;
+            this.token = token;
+            this.capabilities = capabilities;
+        }
+    }
+
+    /**
+     * Immutable view of the capabilities of all nodes. Nodes are identified by their position in the token list.
+     */
+    public static class Snapshot
+    {
+        public final long version;
+        private final List<String> tokens = new ArrayList<>();
+        private final Map<String, Integer> tokenIds = new HashMap<>();
+        private final Map<String, AnnotationIndex> annotations = new HashMap<>();
+        private final Map<String, Map<String, Collection<String>>> capabilities;
+        private volatile Topology topology;
+
+        private Snapshot(long version, Map<String, Map<String, Collection<String>>> capabilities)
+        {
+            this.version = version;
+            this.capabilities = Collections.unmodifiableMap(capabilities);
+            for (Map.Entry<String, Map<String, Collection<String>>> annotation : capabilities.entrySet())
+            {
+                Map<String, BitSet> byValue = new HashMap<>();
+                for (Map.Entry<String, Collection<String>> node : annotation.getValue().entrySet())
+                {
+                    int id = getOrAddId(node.getKey());
+                    for (String value : node.getValue())
+                    {
+                        BitSet nodes = byValue.get(value);
+                        if (nodes == null)
+                            byValue.put(value, nodes = new BitSet());
+                        nodes.set(id);
+                    }
+                }
+                AbstractDataAnnotation<?> definition = IndirectionSupport.DataAnnotationConfiguration == null ? null : IndirectionSupport.DataAnnotationConfiguration.list.get(annotation.getKey());
+                if (definition != null)
+                    definition.expandValues(byValue);
+                annotations.put(annotation.getKey(), new AnnotationIndex(byValue));
+            }
+        }
+
+        private int getOrAddId(String token)
+        {
+            Integer id = tokenIds.get(token);
+            if (id == null)
+            {
+                id = tokens.size();
+                tokens.add(token);
+                tokenIds.put(token, id);
+            }
+            return id;
+        }
+
+        public int size()
+        {
+            return tokens.size();
+        }
+
+        public String getToken(int id)
+        {
+            return tokens.get(id);
+        }
+
+        public Integer getId(String token)
+        {
+            return tokenIds.get(token);
+        }
+
+        /**
+         * @return the advertised values per node token, per annotation, as announced
+         */
+        public Map<String, Map<String, Collection<String>>> getCapabilities()
+        {
+            return capabilities;
+        }
+
+        /**
+         * @return the datacenters and racks of the nodes, as known to the snitch when first requested
+         */
+        public Topology getTopology()
+        {
+            Topology current = topology;
+            if (current == null)
+                topology = current = new Topology(this);
+            return current;
+        }
+
+        public AnnotationIndex getAnnotationIndex(String annotation)
+        {
+            AnnotationIndex index = annotations.get(annotation);
+            return index == null ? AnnotationIndex.EMPTY : index;
+        }
+
+        /**
+         * @return the nodes satisfying all given annotations, the caller must have validated the parameters
+         */
+        public BitSet getSatisfyingNodes(Map<String, ? extends Set<String>> parameters)
+        {
+            BitSet result = null;
+            for (Map.Entry<String, ? extends Set<String>> entry : parameters.entrySet())
+            {
+                AbstractDataAnnotation<?> annotation = IndirectionSupport.DataAnnotationConfiguration.list.get(entry.getKey());
+                BitSet nodes = annotation.getSatisfyingNodes(getAnnotationIndex(entry.getKey()), entry.getValue());
+                if (result == null)
+                    result = nodes;
+                else
+                    result.and(nodes);
+            }
+            return result == null ? new BitSet() : result;
+        }
+
+        public HashSet<String> getTokens(BitSet nodes)
+        {
+            HashSet<String> result = new HashSet<>();
+            for (int i = nodes.nextSetBit(0); i >= 0; i = nodes.nextSetBit(i + 1))
+                result.add(tokens.get(i));
+            return result;
+        }
+
+        public String toString()
+        {
+            return "version " + version + ", " + tokens.size() + " nodes, annotations " + annotations.keySet();
+        }
+    }
+
+    /**
+     * The nodes of a snapshot by datacenter and by rack. Nodes unknown to the ring are in a datacenter and rack
+     * without a name.
+     */
+    public static class Topology
+    {
+        private final String[] racks;
+        private final Map<String, BitSet> datacenterNodes = new HashMap<>();
+        private final Map<String, BitSet> rackNodes = new HashMap<>();
+
+        private Topology(Snapshot snapshot)
+        {
+            IEndpointSnitch snitch = DatabaseDescriptor.getEndpointSnitch();
+            racks = new String[snapshot.size()];
+            for (int id = 0; id < snapshot.size(); id++)
+            {
+                InetAddress endpoint = StorageService.instance.getAssociatedEndpoint(snapshot.getToken(id));
+                String datacenter = endpoint == null ? "" : snitch.getDatacenter(endpoint);
+                racks[id] = getRack(datacenter, endpoint == null ? "" : snitch.getRack(endpoint));
+                add(datacenterNodes, datacenter, id);
+                add(rackNodes, racks[id], id);
+            }
+        }
+
+        private static void add(Map<String, BitSet> nodes, String location, int id)
+        {
+            BitSet locationNodes = nodes.get(location);
+            if (locationNodes == null)
+                nodes.put(location, locationNodes = new BitSet());
+            locationNodes.set(id);
+        }
+
+        /**
+         * @return the name of the rack of the given datacenter, which is unique across datacenters
+         */
+        public static String getRack(String datacenter, String rack)
+        {
+            return datacenter + ":" + rack;
+        }
+
+        public String getRack(int id)
+        {
+            return racks[id];
+        }
+
+        /**
+         * @return a copy of the nodes of the given datacenter, which may be modified by the caller
+         */
+        public BitSet getDatacenterNodes(String datacenter)
+        {
+            BitSet nodes = datacenterNodes.get(datacenter);
+            return nodes == null ? new BitSet() : (BitSet) nodes.clone();
+        }
+
+        /**
+         * @return the nodes of the given rack, which must not be modified
+         */
+        public BitSet getRackNodes(String rack)
+        {
+            BitSet nodes = rackNodes.get(rack);
+            return nodes == null ? new BitSet() : nodes;
+        }
+
+        /**
+         * @return the number of racks the given nodes are in
+         */
+        public int countRacks(BitSet nodes)
+        {
+            int count = 0;
+            for (BitSet rack : rackNodes.values())
+            {
+                if (rack.intersects(nodes))
+                    count++;
+            }
+            return count;
+        }
+
+        /**
+         * @return whether all nodes are in a single rack of a single datacenter
+         */
+        public boolean isFlat()
+        {
+            return rackNodes.size() <= 1;
+        }
+    }
+
+    /**
+     * Maps each advertised value of one annotation to the set of nodes advertising it.
+     */
+    public static class AnnotationIndex
+    {
+        private static final AnnotationIndex EMPTY = new AnnotationIndex(Collections.<String, BitSet>emptyMap());
+
+        private final Map<String, BitSet> byValue;
+
+        private AnnotationIndex(Map<String, BitSet> byValue)
+        {
+            this.byValue = byValue;
+        }
+
+        public Set<String> getValues()
+        {
+            return byValue.keySet();
+        }
+
+        /**
+         * @return a copy of the nodes advertising the given value, which may be modified by the caller
+         */
+        public BitSet getNodes(String value)
+        {
+            BitSet nodes = byValue.get(value);
+            return nodes == null ? new BitSet() : (BitSet) nodes.clone();
+        }
+    }
+}
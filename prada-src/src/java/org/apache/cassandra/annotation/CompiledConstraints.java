@@ -0,0 +1,284 @@
+package org.apache.cassandra.annotation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.cassandra.annotation.dataannotations.AbstractDataAnnotation;
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.io.IVersionedSerializer;
+
+/**
+ * Immutable, interned form of the Data Annotations of a statement or a reference row.
+ *
+ * Annotation names and their values are sorted and interned, so an instance is canonical: equal annotations are
+ * always the same instance and can be compared by identity. The annotation string, the hash and the serialized size
+ * are computed once, and merges are remembered per pair of instances, so comparing, merging and sending the
+ * annotations of a write allocate nothing once the instances are known.
+ */
+public final class CompiledConstraints
+{
+    public static final IVersionedSerializer<CompiledConstraints> serializer = new CompiledConstraintsSerializer();
+
+    private static final ConcurrentMap<CompiledConstraints, CompiledConstraints> instances = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, CompiledConstraints> byAnnotationString = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, String> strings = new ConcurrentHashMap<>();
+    // local ids of the annotation names, assigned on first use and never sent to other nodes
+    private static final ConcurrentMap<String, Integer> annotationIds = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextAnnotationId = new AtomicInteger();
+
+    private static final Pattern ANNOTATION = Pattern.compile("[\"']([^\"']*)[\"']\\s*=\\s*\\{([^}]*)\\}");
+    private static final Pattern VALUE = Pattern.compile("[\"']([^\"']*)[\"']");
+
+    public static final CompiledConstraints EMPTY = intern(new CompiledConstraints(new String[0], new String[0][]));
+
+    private final int[] ids;
+    private final String[] names;
+    private final String[][] values;
+    private final int hash;
+    private final String annotationString;
+    private final Map<String, Set<String>> parameters;
+    private final long serializedSize;
+    private final ConcurrentMap<CompiledConstraints, CompiledConstraints> merged = new ConcurrentHashMap<>();
+
+    private CompiledConstraints(String[] names, String[][] values)
+    {
+        this.names = names;
+        this.values = values;
+        this.ids = new int[names.length];
+        this.hash = 31 * Arrays.hashCode(names) + Arrays.deepHashCode(values);
+
+        Map<String, Set<String>> parameters = new LinkedHashMap<>();
+        long size = TypeSizes.NATIVE.sizeof((short) names.length);
+        String result = names.length == 0 ? "" : "WITH ANNOTATIONS ";
+        for (int i = 0; i < names.length; i++)
+        {
+            ids[i] = getAnnotationId(names[i]);
+            parameters.put(names[i], Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(values[i]))));
+            size += TypeSizes.NATIVE.sizeof(names[i]) + TypeSizes.NATIVE.sizeof((short) values[i].length);
+
+            result += (i == 0 ? "" : " AND ") + "\"" + names[i] + "\"" + " = {";
+            for (int j = 0; j < values[i].length; j++)
+            {
+                size += TypeSizes.NATIVE.sizeof(values[i][j]);
+                result += " \"" + values[i][j] + "\"" + (j < values[i].length - 1 ? "," : "");
+            }
+            result += " }";
+        }
+        this.parameters = Collections.unmodifiableMap(parameters);
+        this.annotationString = result;
+        this.serializedSize = size;
+    }
+
+    public static CompiledConstraints compile(Map<String, ? extends Collection<String>> parameters)
+    {
+        if (parameters.isEmpty())
+            return EMPTY;
+
+        String[] names = new TreeSet<>(parameters.keySet()).toArray(new String[parameters.size()]);
+        String[][] values = new String[names.length][];
+        for (int i = 0; i < names.length; i++)
+        {
+            TreeSet<String> sorted = new TreeSet<>(parameters.get(names[i]));
+            values[i] = new String[sorted.size()];
+            int j = 0;
+            for (String value : sorted)
+                values[i][j++] = internString(value);
+            names[i] = internString(names[i]);
+        }
+        return intern(new CompiledConstraints(names, values));
+    }
+
+    /**
+     * @return the constraints described by a string of annotations as stored in reference rows
+     */
+    public static CompiledConstraints fromAnnotationString(String annotationString)
+    {
+        CompiledConstraints compiled = byAnnotationString.get(annotationString);
+        if (compiled != null)
+            return compiled;
+
+        Map<String, List<String>> parameters = new HashMap<>();
+        Matcher annotation = ANNOTATION.matcher(annotationString);
+        while (annotation.find())
+        {
+            List<String> params = new ArrayList<>();
+            Matcher value = VALUE.matcher(annotation.group(2));
+            while (value.find())
+                params.add(value.group(1));
+            parameters.put(annotation.group(1), params);
+        }
+        compiled = compile(parameters);
+        byAnnotationString.putIfAbsent(annotationString, compiled);
+        return compiled;
+    }
+
+    private static CompiledConstraints intern(CompiledConstraints compiled)
+    {
+        CompiledConstraints previous = instances.putIfAbsent(compiled, compiled);
+        return previous == null ? compiled : previous;
+    }
+
+    private static String internString(String s)
+    {
+        String previous = strings.putIfAbsent(s, s);
+        return previous == null ? s : previous;
+    }
+
+    private static int getAnnotationId(String name)
+    {
+        Integer id = annotationIds.get(name);
+        if (id == null)
+        {
+            Integer previous = annotationIds.putIfAbsent(name, id = nextAnnotationId.getAndIncrement());
+            if (previous != null)
+                id = previous;
+        }
+        return id;
+    }
+
+    /**
+     * @return these constraints with the values of the given annotation replaced
+     */
+    public CompiledConstraints with(String name, Collection<String> params)
+    {
+        Map<String, Collection<String>> result = new HashMap<String, Collection<String>>(parameters);
+        result.put(name, params);
+        return compile(result);
+    }
+
+    /**
+     * @return the union of both constraints, minimized by the annotations of the Data Annotation configuration
+     */
+    public CompiledConstraints merge(CompiledConstraints other)
+    {
+        if (other == this || other.isEmpty())
+            return this;
+        if (isEmpty())
+            return other;
+
+        CompiledConstraints result = merged.get(other);
+        if (result != null)
+            return result;
+
+        Map<String, Set<String>> union = new HashMap<>();
+        for (CompiledConstraints c : Arrays.asList(this, other))
+        {
+            for (int i = 0; i < c.names.length; i++)
+            {
+                Set<String> set = union.get(c.names[i]);
+                if (set == null)
+                    union.put(c.names[i], set = new HashSet<>());
+                set.addAll(Arrays.asList(c.values[i]));
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : union.entrySet())
+        {
+            AbstractDataAnnotation<?> annotation = IndirectionSupport.DataAnnotationConfiguration.list.get(entry.getKey());
+            if (annotation != null)
+                annotation.minimize(entry.getValue());
+        }
+        result = compile(union);
+        merged.putIfAbsent(other, result);
+        return result;
+    }
+
+    public boolean isEmpty()
+    {
+        return names.length == 0;
+    }
+
+    public boolean hasAnnotation(String name)
+    {
+        Integer id = annotationIds.get(name);
+        if (id == null)
+            return false;
+        for (int i : ids)
+        {
+            if (i == id)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the values by annotation name, which must not be modified
+     */
+    public Map<String, Set<String>> getParameters()
+    {
+        return parameters;
+    }
+
+    /**
+     * @return the canonical string of the annotations, as stored in reference rows
+     */
+    public String getAnnotationString()
+    {
+        return annotationString;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (o == this)
+            return true;
+        if (!(o instanceof CompiledConstraints))
+            return false;
+        CompiledConstraints that = (CompiledConstraints) o;
+        return hash == that.hash && Arrays.equals(names, that.names) && Arrays.deepEquals(values, that.values);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return annotationString;
+    }
+
+    private static class CompiledConstraintsSerializer implements IVersionedSerializer<CompiledConstraints>
+    {
+        public void serialize(CompiledConstraints c, DataOutput out, int version) throws IOException
+        {
+            out.writeShort(c.names.length);
+            for (int i = 0; i < c.names.length; i++)
+            {
+                out.writeUTF(c.names[i]);
+                out.writeShort(c.values[i].length);
+                for (String value : c.values[i])
+                    out.writeUTF(value);
+            }
+        }
+
+        public CompiledConstraints deserialize(DataInput in, int version) throws IOException
+        {
+            int count = in.readUnsignedShort();
+            Map<String, List<String>> parameters = new HashMap<>();
+            for (int i = 0; i < count; i++)
+            {
+                String name = in.readUTF();
+                int valueCount = in.readUnsignedShort();
+                List<String> values = new ArrayList<>(valueCount);
+                for (int j = 0; j < valueCount; j++)
+                    values.add(in.readUTF());
+                parameters.put(name, values);
+            }
+            return compile(parameters);
+        }
+
+        public long serializedSize(CompiledConstraints c, int version)
+        {
+            return c.serializedSize;
+        }
+    }
+}
@@ -1,18 +1,55 @@
 package org.apache.cassandra.annotation;
 
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.apache.commons.lang3.StringUtils;
+
+import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.cql3.*;
 import org.apache.cassandra.cql3.statements.ParsedStatement;
-import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.filter.QueryFilter;
+import org.apache.cassandra.db.filter.SliceQueryFilter;
+import org.apache.cassandra.db.marshal.AsciiType;
+import org.apache.cassandra.db.marshal.LongType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.*;
 import org.apache.cassandra.service.ClientState;
 import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.service.StorageProxy;
+import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.transport.messages.ResultMessage;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.MerkleTree;
 
+/**
+ * CHECK CONSISTENCY and REPAIR CONSISTENCY compare the reference rows naming this node as a target with the
+ * redirected data stored on this node: data missing for a reference row, and orphaned data no reference row
+ * points to, which REPAIR CONSISTENCY deletes.
+ *
+ * The ring is checked per token range in parallel. For every range the keys of both sides are hashed into a
+ * MerkleTree each, reading both tables page by page; only the leaves whose hashes differ are read again to find the
+ * differing keys, so memory is bounded by the page size and the size of a leaf. Every range is reported as a row.
+ * As before, keys are compared by their text, so the table needs a text partition key.
+ */
 public class ConsistencyCheckStatement extends ParsedStatement implements CQLStatement {
 
+    // rows read per page from either table
+    private static final int PageSize = 1000;
+    // maximum number of leaves of the Merkle trees of a token range
+    private static final int MaxTreeSize = 1 << 12;
+
     private final String keyspace;
     private final String cf;
     private final String key;
@@ -42,69 +79,57 @@ public class ConsistencyCheckStatement extends ParsedStatement implements CQLSta
             throw new InvalidRequestException("Keyspace " + keyspace + " does not exist!");
         if (Schema.instance.getId(keyspace, cf) == null)
             throw new InvalidRequestException("ColumnFamily " + cf + " does not exist!");
+        if (Schema.instance.getCFMetaData(keyspace + IndirectionSupport.ReferenceKeyspacePostfix, cf) == null
+            || Schema.instance.getCFMetaData(keyspace + IndirectionSupport.DataKeyspacePostfix, cf) == null)
+            throw new InvalidRequestException("ColumnFamily " + cf + " has no reference or redirected data table!");
+
+        CFMetaData cfm = Schema.instance.getCFMetaData(keyspace, cf);
+        if (!(cfm.getKeyValidator() instanceof UTF8Type || cfm.getKeyValidator() instanceof AsciiType))
+            throw new InvalidRequestException("Consistency checks require a text partition key, " + StringUtils.join(cfm.getCfDef().keys.keySet(), ", ") + " is of type " + cfm.getKeyValidator().asCQL3Type());
     }
 
     @Override
     public ResultMessage execute(QueryState state, QueryOptions options) throws RequestValidationException, RequestExecutionException
     {
-        int goodCount = 0;
-        int badCount = 0;
+        IndirectionSupport.sendToLog("Start Consistency Check for keyspace: " + keyspace + ", ColumnFamily: " + cf + ", Key: " + key, false, false, "ConsistencyCheckStatement");
 
-        System.out.println("------------------------------Consistency Check START------------------------------");
-        System.out.println("Start Consistency Check for keyspace: " + keyspace + ", ColumnFamily: " + cf + ", Key: " + key);
+        Set<String> localTokens = new HashSet<>(IndirectionSupport.getLocalTokens());
 
-        UntypedResultSet referenceTable = QueryProcessor.process("SELECT * FROM " + keyspace + IndirectionSupport.ReferenceKeyspacePostfix + "." + cf + ";", ConsistencyLevel.ONE);
-        List<IndirectionInformation> refInfos = getRelevantRows(referenceTable);
+        DebuggableThreadPoolExecutor executor = DebuggableThreadPoolExecutor.createWithFixedPoolSize("ConsistencyCheck", FBUtilities.getAvailableProcessors());
+        List<Future<RangeResult>> futures = new ArrayList<>();
+        for (Range<Token<?>> range : getRanges())
+            futures.add(executor.submit(new RangeCheck(range, localTokens)));
 
-        // Perform Forward Check, i.e., check whether we have a data row for each Indirection Row
-        for (IndirectionInformation refInfo: refInfos)
+        ResultSet result = new ResultSet(getMetadata());
+        RangeResult total = new RangeResult(null);
+        try
         {
-            String query = "SELECT * FROM " + keyspace + IndirectionSupport.DataKeyspacePostfix + "." + cf + " WHERE " + key + " IN ('" + refInfo.getKey() + "');";
-            UntypedResultSet chk = QueryProcessor.process(query, ConsistencyLevel.ONE);
-            if (chk.size() == 1)
-                goodCount++;
-            else
-                badCount++;
+            for (Future<RangeResult> future : futures)
+            {
+                RangeResult range = future.get();
+                range.addTo(result);
+                total.add(range);
+            }
         }
-        System.out.println("Finished Forward Consistency Check for " + refInfos.size() + " relevant rows! Summary: " + goodCount + " rows OK, " + badCount + " rows inconsistent");
-
-        // Perform Reverse Check, i.e., check whether we have an indirection row for each Data Row
-        String query = "SELECT * FROM " + keyspace + IndirectionSupport.DataKeyspacePostfix + "." + cf + ";";
-        UntypedResultSet chk = QueryProcessor.process(query, ConsistencyLevel.ONE);
-        int orphanedCount = chk.size() - refInfos.size();
-
-        System.out.println("Finished Reverse Consistency Check for " + chk.size() + " rows! Summary: " + orphanedCount + " orphaned rows found!");
-
-        if (badCount == 0 && orphanedCount == 0)
+        catch (InterruptedException e)
         {
-            System.out.println("Finished Consistency Check without errors!");
+            throw new AssertionError(e);
         }
-        else
-            System.out.println("Finished Consistency Check with errors, check log!");
-
-        if (orphanedCount > 0)
+        catch (ExecutionException e)
         {
-            if (repair)
-            {
-                System.out.println("Start repair on orphaned rows");
-                List<UntypedResultSet.Row> orphanedRows = getOrphanedRows(chk, refInfos);
-                assert(orphanedCount == orphanedRows.size());
-                for (UntypedResultSet.Row row : orphanedRows)
-                {
-                    assert(row.has(key));
-                    String primaryKey = row.getString(key);
-                    QueryProcessor.process("DELETE FROM " + keyspace + IndirectionSupport.DataKeyspacePostfix + "." + cf + " WHERE " + key + " IN ('" + primaryKey + "');", ConsistencyLevel.ONE);
-                }
-                System.out.println("Successfully repaired " + orphanedRows.size() + " orphaned rows!");
-            }
-            else
-                System.out.println("Run REPAIR CONSISTENCY to repair orphaned rows");
+            if (e.getCause() instanceof RequestExecutionException)
+                throw (RequestExecutionException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
         }
-        else
-            System.out.println("No orphaned rows found, skipping repair!");
 
-        System.out.println("-------------------------------Consistency Check END-------------------------------");
-        return new ResultMessage.Void();
+        IndirectionSupport.sendToLog("Finished Consistency Check for " + keyspace + "." + cf + ": " + total.references + " references, "
+                                     + total.dataRows + " data rows, " + total.missing + " missing, " + total.orphaned + " orphaned, "
+                                     + total.repaired + " repaired", false, false, "ConsistencyCheckStatement");
+        return new ResultMessage.Rows(result);
     }
 
     @Override
@@ -119,36 +144,242 @@ public class ConsistencyCheckStatement extends ParsedStatement implements CQLSta
         return new Prepared(this);
     }
 
-    private List<IndirectionInformation> getRelevantRows(UntypedResultSet set)
+    private List<ColumnSpecification> getMetadata()
+    {
+        List<ColumnSpecification> columns = new ArrayList<>(6);
+        columns.add(new ColumnSpecification(keyspace, cf, new ColumnIdentifier("range", true), UTF8Type.instance));
+        for (String name : Arrays.asList("references", "data_rows", "missing", "orphaned", "repaired"))
+            columns.add(new ColumnSpecification(keyspace, cf, new ColumnIdentifier(name, true), LongType.instance));
+        return columns;
+    }
+
+    /**
+     * @return the ranges between the tokens of the ring, which cover it without overlap
+     */
+    private static List<Range<Token<?>>> getRanges()
     {
-        List<IndirectionInformation> result = new ArrayList<IndirectionInformation>();
-        for (UntypedResultSet.Row row : set)
+        List<Token<?>> tokens = new ArrayList<>();
+        for (Token<?> token : StorageService.instance.getTokenMetadata().sortedTokens())
+            tokens.add(token);
+        if (tokens.isEmpty())
         {
-            IndirectionInformation refInfo = new IndirectionInformation(row);
-            if (refInfo.selfIsReplica())
-                result.add(refInfo);
+            Token<?> minimum = StorageService.getPartitioner().getMinimumToken();
+            return Collections.singletonList(new Range<Token<?>>(minimum, minimum));
         }
-        return result;
+
+        List<Range<Token<?>>> ranges = new ArrayList<>(tokens.size());
+        for (int i = 0; i < tokens.size(); i++)
+            ranges.add(new Range<Token<?>>(tokens.get(i == 0 ? tokens.size() - 1 : i - 1), tokens.get(i)));
+        return ranges;
+    }
+
+    private interface RowVisitor
+    {
+        void visit(Row row);
     }
 
-    private List<UntypedResultSet.Row> getOrphanedRows(UntypedResultSet dataRows, List<IndirectionInformation> refInfos)
+    private class RangeCheck implements Callable<RangeResult>
     {
-        List<UntypedResultSet.Row> result = new ArrayList<UntypedResultSet.Row>();
-        for (UntypedResultSet.Row row : dataRows)
+        private final Range<Token<?>> range;
+        private final Set<String> localTokens;
+        private final RangeResult result;
+        private final long now = System.currentTimeMillis();
+
+        private RangeCheck(Range<Token<?>> range, Set<String> localTokens)
+        {
+            this.range = range;
+            this.localTokens = localTokens;
+            this.result = new RangeResult(range);
+        }
+
+        public RangeResult call() throws RequestExecutionException
+        {
+            final MerkleTree expected = newTree();
+            final MerkleTree actual = newTree();
+            scanReferences(range, new RowVisitor()
+            {
+                public void visit(Row row)
+                {
+                    result.references++;
+                    expected.get(row.key.token).addHash(hash(row.key));
+                }
+            });
+            scanData(range, new RowVisitor()
+            {
+                public void visit(Row row)
+                {
+                    result.dataRows++;
+                    actual.get(row.key.token).addHash(hash(row.key));
+                }
+            });
+            for (MerkleTree.TreeRange leaf : expected.invalids())
+                leaf.ensureHashInitialised();
+            for (MerkleTree.TreeRange leaf : actual.invalids())
+                leaf.ensureHashInitialised();
+
+            for (MerkleTree.TreeRange difference : MerkleTree.difference(expected, actual))
+                compare(new Range<Token<?>>(difference.left, difference.right));
+            return result;
+        }
+
+        // MerkleTree only takes ranges of raw tokens
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private MerkleTree newTree()
+        {
+            MerkleTree tree = new MerkleTree(DatabaseDescriptor.getPartitioner(), (Range) range, MerkleTree.RECOMMENDED_DEPTH, MaxTreeSize);
+            tree.init();
+            return tree;
+        }
+
+        private MerkleTree.RowHash hash(DecoratedKey dk)
+        {
+            MessageDigest digest = FBUtilities.newMessageDigest("MD5");
+            digest.update(dk.key.duplicate());
+            return new MerkleTree.RowHash(dk.token, digest.digest(), 1);
+        }
+
+        /**
+         * Reads the keys of both sides in the given leaf of the trees, reports and, if requested, repairs them.
+         */
+        private void compare(Range<Token<?>> leaf) throws RequestExecutionException
         {
-            boolean ok = false;
-            for (IndirectionInformation refInfo : refInfos)
+            final Set<DecoratedKey> expectedKeys = new HashSet<>();
+            final Set<DecoratedKey> dataKeys = new TreeSet<>();
+            scanReferences(leaf, new RowVisitor()
             {
-                if (row.getString(key).equals(refInfo.getKey()))
+                public void visit(Row row)
                 {
-                    ok = true;
-                    break;
+                    expectedKeys.add(row.key);
+                }
+            });
+            scanData(leaf, new RowVisitor()
+            {
+                public void visit(Row row)
+                {
+                    dataKeys.add(row.key);
+                }
+            });
+
+            for (DecoratedKey dk : expectedKeys)
+            {
+                if (!dataKeys.contains(dk))
+                {
+                    result.missing++;
+                    IndirectionSupport.sendToLog("Redirected data missing for key " + ByteBufferUtil.stringWOException(dk.key) + " of " + keyspace + "." + cf, true, false, "ConsistencyCheckStatement");
                 }
             }
-            if (!ok)
-                result.add(row);
+
+            List<RowMutation> deletes = new ArrayList<>();
+            ColumnFamilyStore dataCfs = Keyspace.open(keyspace + IndirectionSupport.DataKeyspacePostfix).getColumnFamilyStore(cf);
+            for (DecoratedKey dk : dataKeys)
+            {
+                if (expectedKeys.contains(dk))
+                    continue;
+                result.orphaned++;
+                IndirectionSupport.sendToLog("Orphaned redirected data for key " + ByteBufferUtil.stringWOException(dk.key) + " of " + keyspace + "." + cf, true, false, "ConsistencyCheckStatement");
+                if (repair)
+                {
+                    // delete what was read only, data written since is newer
+                    ColumnFamily data = dataCfs.getColumnFamily(QueryFilter.getIdentityFilter(dk, cf, now));
+                    if (data == null)
+                        continue;
+                    RowMutation rm = new RowMutation(keyspace + IndirectionSupport.DataKeyspacePostfix, dk.key);
+                    rm.delete(cf, data.maxTimestamp());
+                    deletes.add(rm);
+                }
+            }
+            for (RowMutation rm : deletes)
+                rm.apply();
+            result.repaired += deletes.size();
+        }
+
+        /**
+         * Visits the reference rows naming this node as a target, in token order.
+         */
+        private void scanReferences(Range<Token<?>> range, final RowVisitor visitor) throws RequestExecutionException
+        {
+            final String refKeyspace = keyspace + IndirectionSupport.ReferenceKeyspacePostfix;
+            for (Range<Token<?>> part : range.unwrap())
+            {
+                AbstractBounds<RowPosition> bounds = Range.makeRowRange(part.left, part.right, StorageService.getPartitioner());
+                while (bounds != null)
+                {
+                    SliceQueryFilter filter = new SliceQueryFilter(ByteBufferUtil.EMPTY_BYTE_BUFFER, ByteBufferUtil.EMPTY_BYTE_BUFFER, false, Integer.MAX_VALUE);
+                    List<Row> rows = StorageProxy.getRangeSlice(new RangeSliceCommand(refKeyspace, cf, now, filter, bounds, PageSize), ConsistencyLevel.ONE);
+                    for (Row row : rows)
+                    {
+                        ColumnFamily live = row.cf == null ? null : ColumnFamilyStore.removeDeleted(row.cf, Integer.MAX_VALUE);
+                        if (live == null || live.getColumnCount() == 0)
+                            continue;
+                        IndirectionInformation refInfo = IndirectionInformation.RowToIndirectionInformation(new Row(row.key, live));
+                        if (refInfo != null && !Collections.disjoint(refInfo.getNodesAsString(), localTokens))
+                            visitor.visit(row);
+                    }
+                    bounds = nextPage(rows, part);
+                }
+            }
+        }
+
+        /**
+         * Visits the live rows of the local redirected data table, in token order.
+         */
+        private void scanData(Range<Token<?>> range, RowVisitor visitor)
+        {
+            ColumnFamilyStore cfs = Keyspace.open(keyspace + IndirectionSupport.DataKeyspacePostfix).getColumnFamilyStore(cf);
+            for (Range<Token<?>> part : range.unwrap())
+            {
+                AbstractBounds<RowPosition> bounds = Range.makeRowRange(part.left, part.right, StorageService.getPartitioner());
+                while (bounds != null)
+                {
+                    SliceQueryFilter filter = new SliceQueryFilter(ByteBufferUtil.EMPTY_BYTE_BUFFER, ByteBufferUtil.EMPTY_BYTE_BUFFER, false, 1);
+                    List<Row> rows = cfs.getRangeSlice(bounds, null, filter, PageSize, now);
+                    for (Row row : rows)
+                    {
+                        if (row.cf != null && !row.cf.hasOnlyTombstones(now))
+                            visitor.visit(row);
+                    }
+                    bounds = nextPage(rows, part);
+                }
+            }
+        }
+
+        private AbstractBounds<RowPosition> nextPage(List<Row> rows, Range<Token<?>> part)
+        {
+            if (rows.size() < PageSize)
+                return null;
+            return new Range<RowPosition>(rows.get(rows.size() - 1).key, part.right.maxKeyBound());
+        }
+    }
+
+    private static class RangeResult
+    {
+        private final Range<Token<?>> range;
+        private long references;
+        private long dataRows;
+        private long missing;
+        private long orphaned;
+        private long repaired;
+
+        private RangeResult(Range<Token<?>> range)
+        {
+            this.range = range;
+        }
+
+        private void add(RangeResult other)
+        {
+            references += other.references;
+            dataRows += other.dataRows;
+            missing += other.missing;
+            orphaned += other.orphaned;
+            repaired += other.repaired;
+        }
+
+        private void addTo(ResultSet result)
+        {
+            result.addColumnValue(UTF8Type.instance.decompose(range.toString()));
+            for (long value : new long[]{ references, dataRows, missing, orphaned, repaired })
+                result.addColumnValue(LongType.instance.decompose(value));
         }
-        return result;
     }
 
 }
@@ -6,6 +6,7 @@ import java.util.*;
 
 import org.apache.cassandra.annotation.loadbalancing.LoadBalancer;
 import org.apache.cassandra.exceptions.*;
+import org.apache.cassandra.metrics.IndirectionMetrics;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
@@ -15,9 +16,10 @@ public class Constraints {
     private List<InetAddress> targets;
     private HashSet<String> allCandidates;
     private HashSet<InetAddress> allCandidateEndpoints;
-    private HashMap<String, HashSet<String>> parameters;
+    private CompiledConstraints compiled;
     private HashMap<InetAddress, ByteBuffer> tokens;
-    private String annotationString;
+    // satisfying nodes resolved for a version of the capability index, reused by prepared statements
+    private volatile Candidates candidates;
 
 
     public Constraints()
@@ -28,12 +30,18 @@ public class Constraints {
     public Constraints(ArrayList<InetAddress> target)
     {
         this.targets = target;
-        this.parameters = new HashMap<>();
+        this.compiled = CompiledConstraints.EMPTY;
         this.allCandidates = new HashSet<>();
         this.allCandidateEndpoints = new HashSet<>();
         this.tokens = new HashMap<>();
     }
 
+    public Constraints(CompiledConstraints compiled)
+    {
+        this();
+        this.compiled = compiled;
+    }
+
     private void useDirectEndpoint(InetAddress a)
     {
         this.targets.add(a);
@@ -66,8 +74,8 @@ public class Constraints {
     public void addAnnotationParameters(String key, ArrayList<String> params)
     {
         useRegular();
-        parameters.put(key, new HashSet<String>(params));
-        generateAnnotationString();
+        compiled = compiled.with(key, params);
+        candidates = null;
     }
 
     public boolean isDirect()
@@ -77,7 +85,7 @@ public class Constraints {
 
     public boolean hasAnnotations()
     {
-        return (parameters.size() > 0);
+        return !compiled.isEmpty();
     }
 
     public List<InetAddress> getTargets()
@@ -109,30 +117,77 @@ public class Constraints {
         return tokens;
     }
 
-    public Map<String, HashSet<String>> getParameters()
+    public Map<String, Set<String>> getParameters()
+    {
+        return compiled.getParameters();
+    }
+
+    /**
+     * @return the interned annotations, equal annotations are the same instance
+     */
+    public CompiledConstraints getCompiled()
     {
-        return parameters;
+        return compiled;
+    }
+
+    /**
+     * Creates the constraints of a single write from a parsed (and possibly prepared) statement. The statement's
+     * constraints are left untouched, so a prepared statement can be executed repeatedly.
+     */
+    public Constraints forWrite() throws RequestValidationException
+    {
+        Constraints c = new Constraints(new ArrayList<>(targets));
+        c.compiled = compiled;
+        c.tokens.putAll(tokens);
+        if (!isDirect() && hasAnnotations())
+            c.candidates = resolveCandidates();
+        return c;
+    }
+
+    private Candidates resolveCandidates() throws RequestValidationException
+    {
+        long start = System.nanoTime();
+        CapabilityIndex.Snapshot index = CapabilityIndex.instance.get();
+        Candidates current = candidates;
+        if (current != null && current.index.version == index.version)
+        {
+            IndirectionMetrics.constraintResolution.addNano(System.nanoTime() - start);
+            return current;
+        }
+
+        validateParameters();
+        BitSet nodes = index.getSatisfyingNodes(compiled.getParameters());
+        HashSet<String> satisfying = index.getTokens(nodes);
+        HashSet<InetAddress> endpoints = new HashSet<>();
+        HashMap<InetAddress, ByteBuffer> endpointTokens = new HashMap<>();
+        for (String target : satisfying)
+        {
+            InetAddress addr = StorageService.instance.getAssociatedEndpoint(target);
+            assert(addr!=null);
+            endpoints.add(addr);
+            endpointTokens.put(addr, ByteBufferUtil.bytes(target));
+        }
+        current = new Candidates(index, nodes, satisfying, endpoints, endpointTokens);
+        candidates = current;
+        IndirectionMetrics.constraintResolution.addNano(System.nanoTime() - start);
+        return current;
     }
 
     public void makeDirectWithAnnotations(int replicationFactor, String keyspace, ByteBuffer key) throws RequestValidationException
     {
         if (!isDirect() && hasAnnotations())
         {
-            allCandidates = getSatisfyingNodes();
-            allCandidateEndpoints = new HashSet<>();
-            for (String target : allCandidates)
-            {
-                InetAddress addr = StorageService.instance.getAssociatedEndpoint(target);
-                assert(addr!=null);
-                allCandidateEndpoints.add(addr);
-                tokens.put(addr, ByteBufferUtil.bytes(target));
-            }
+            Candidates resolved = candidates == null ? resolveCandidates() : candidates;
+            allCandidates = resolved.tokens;
+            allCandidateEndpoints = resolved.endpoints;
+            tokens.putAll(resolved.endpointTokens);
 
             if (allCandidateEndpoints.size() < replicationFactor)
-                throw new InvalidRequestException("Not enough nodes present satisfiying the Data Annotiations to achieve replication factor " + replicationFactor + ". Annotations: " + annotationString + ". Endpoint: " + FBUtilities.getBroadcastAddress().getHostAddress() + ". allCandidates: " + allCandidateEndpoints.toString());
+                throw new InvalidRequestException("Not enough nodes present satisfiying the Data Annotiations to achieve replication factor " + replicationFactor + ". Annotations: " + compiled + ". Endpoint: " + FBUtilities.getBroadcastAddress().getHostAddress() + ". allCandidates: " + allCandidateEndpoints.toString());
 
             if (!allCandidateEndpoints.isEmpty())
             {
+                long start = System.nanoTime();
                 List<InetAddress> TokensAfterLoadBalancing;
                 if (allCandidateEndpoints.size() == replicationFactor)
                     TokensAfterLoadBalancing = new ArrayList<>(allCandidateEndpoints);
@@ -142,9 +197,10 @@ public class Constraints {
                     if (allCandidateEndpoints.contains(cAddresses))
                         TokensAfterLoadBalancing = cAddresses;
                     else
-                        TokensAfterLoadBalancing = LoadBalancer.getInstance().getNodes(this, replicationFactor, keyspace);
+                        TokensAfterLoadBalancing = LoadBalancer.getInstance().getNodes(resolved.index, resolved.nodes, keyspace, replicationFactor);
                 }
                 useDirectEndpoints(TokensAfterLoadBalancing);
+                IndirectionMetrics.placement.addNano(System.nanoTime() - start);
             }
         }
 
@@ -153,34 +209,20 @@ public class Constraints {
     }
 
     public HashSet<String> getSatisfyingNodes() throws RequestValidationException
+    {
+        return new HashSet<>(resolveCandidates().tokens);
+    }
+
+    private void validateParameters() throws RequestValidationException
     {
       // Check for unsupported Data Annotations and throw exception if parameters are undefined
-        for (String name : parameters.keySet())
+        for (Map.Entry<String, Set<String>> entry : compiled.getParameters().entrySet())
         {
+            String name = entry.getKey();
             if (IndirectionSupport.DataAnnotationConfiguration.list.get(name) == null)
                 throw new InvalidRequestException("This node does not support the Data Annotation '" + name + "'!");
 
-            IndirectionSupport.DataAnnotationConfiguration.list.get(name).validateAnnotation(parameters.get(name));
-        }
-
-        try
-        {
-            String firstname = parameters.keySet().iterator().next();
-            HashSet<String> InitialSet = IndirectionSupport.DataAnnotationConfiguration.list.get(firstname).getSatisfyingNodes(parameters.get(firstname));
-
-            for (String name : parameters.keySet())
-            {
-                if (name.equals(firstname))
-                    continue;
-                InitialSet.retainAll(IndirectionSupport.DataAnnotationConfiguration.list.get(name).getSatisfyingNodes(parameters.get(name)));
-            }
-            return InitialSet;
-
-        }
-        catch (RequestExecutionException e)
-        {
-            e.printStackTrace();
-            throw new InvalidRequestException("An error occured during determining of nodes satisfying the data annotation. Check log!");
+            IndirectionSupport.DataAnnotationConfiguration.list.get(name).validateAnnotation(entry.getValue());
         }
     }
 
@@ -188,55 +230,14 @@ public class Constraints {
     {
         if (merge.hasAnnotations())
         {
-            for (String annotation : merge.getParameters().keySet())
-            {
-                if (parameters.containsKey(annotation))
-                    parameters.get(annotation).addAll(merge.getParameters().get(annotation));
-                else
-                    parameters.put(annotation, merge.getParameters().get(annotation));
-            }
-            minimizeAnnotationConstraints();
-        }
-    }
-
-    private void minimizeAnnotationConstraints()
-    {
-        for (String annotation : parameters.keySet())
-        {
-            IndirectionSupport.DataAnnotationConfiguration.list.get(annotation).minimize(parameters.get(annotation));
-        }
-        generateAnnotationString();
-    }
-
-    private void generateAnnotationString()
-    {
-        if (parameters.size() > 0)
-        {
-            String result = "WITH ANNOTATIONS ";
-            for (String annotation : parameters.keySet())
-            {
-                if (!result.equals("WITH ANNOTATIONS "))
-                    result += " AND ";
-                result += "\"" + annotation + "\"" + " = {";
-                for (String value : parameters.get(annotation))
-                {
-                    result += " \"" + value + "\",";
-                }
-                // Delete last ","
-                result = result.substring(0, result.length()-1);
-                result += " }";
-            }
-            annotationString = result;
-        }
-        else
-        {
-            annotationString = "";
+            compiled = compiled.merge(merge.compiled);
+            candidates = null;
         }
     }
 
     public String getAnnotationsAsString()
     {
-        return annotationString;
+        return compiled.getAnnotationString();
     }
 
     public String toString()
@@ -252,14 +253,33 @@ public class Constraints {
         else
         {
             str += "regular";
-            for (String key : parameters.keySet())
+            for (Map.Entry<String, Set<String>> entry : compiled.getParameters().entrySet())
             {
-                str += ", Data Annotation " + key + ":";
-                for (String p : parameters.get(key))
+                str += ", Data Annotation " + entry.getKey() + ":";
+                for (String p : entry.getValue())
                     str += " " + p;
             }
         }
         return str;
     }
 
+    private static class Candidates
+    {
+        private final CapabilityIndex.Snapshot index;
+        // ids of the satisfying nodes in index, shared with the load balancer and never modified
+        private final BitSet nodes;
+        private final HashSet<String> tokens;
+        private final HashSet<InetAddress> endpoints;
+        private final HashMap<InetAddress, ByteBuffer> endpointTokens;
+
+        private Candidates(CapabilityIndex.Snapshot index, BitSet nodes, HashSet<String> tokens, HashSet<InetAddress> endpoints, HashMap<InetAddress, ByteBuffer> endpointTokens)
+        {
+            this.index = index;
+            this.nodes = nodes;
+            this.tokens = tokens;
+            this.endpoints = endpoints;
+            this.endpointTokens = endpointTokens;
+        }
+    }
+
 }
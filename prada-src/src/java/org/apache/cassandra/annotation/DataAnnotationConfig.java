@@ -5,16 +5,13 @@ import java.util.*;
 import org.apache.cassandra.annotation.dataannotations.*;
 import org.apache.cassandra.annotation.dataannotations.IntegerDataAnnotation.IntegerComparators;
 import org.apache.cassandra.annotation.loadbalancing.*;
-import org.apache.cassandra.config.Schema;
-import org.apache.cassandra.cql3.QueryProcessor;
-import org.apache.cassandra.db.ConsistencyLevel;
-import org.apache.cassandra.exceptions.RequestExecutionException;
 import org.yaml.snakeyaml.*;
 
 public class DataAnnotationConfig {
 
     public HashMap<String, AbstractDataAnnotation<?>> list;
     public LoadBalancer.LoadBalancers loadBalancer;
+    // replication of the dataannotation keyspace, which is no longer created; still parsed so existing configurations load
     public int repFactor;
     public String repStrategy;
 
@@ -43,53 +40,22 @@ public class DataAnnotationConfig {
         return yaml.dump(this);
     }
 
+    /**
+     * Publishes the abilities of this node through gossip, see CapabilityIndex.
+     */
     public void announceCapabilities()
     {
-        try
-        {
-            for (String name : list.keySet())
-            {
-                AbstractDataAnnotation<?> annotation = list.get(name);
-                if (Schema.instance.getId(IndirectionSupport.DataAnnotationAbilities, name) == null)
-                {
-                    IndirectionSupport.sendToLog("Table for Data Annotation '" + name + "' does not exist! Create it...", false, true, "DataAnnotationConfig");
-                    QueryProcessor.process(annotation.createCreateTablestatement(), ConsistencyLevel.ONE);
-                }
-                if (annotation.hasAbilities())
-                {
-                    IndirectionSupport.sendToLog("Announce Abilities for Data Annotation '" + name + "'", false, true, "DataAnnotationConfig");
-                    QueryProcessor.process(annotation.createINSERTstatement(), ConsistencyLevel.ANY);
-                }
-            }
-        }
-        catch(RequestExecutionException e)
-        {
-            IndirectionSupport.sendToLog("An error occured during announcing Data Annotation Abilities: " + e.getMessage(), true, false, "DataAnnotationConfig");
-            e.printStackTrace();
-            System.exit(1);
-        }
-    }
-
-    public void dropAbility(String annotation)
-    {
-        assert(list.containsKey(annotation));
-        IndirectionSupport.sendToLog("Drop Ability for Data Annotation '" + annotation + "' from Table", false, true, "DataAnnotationConfig");
-        try
-        {
-            QueryProcessor.process("DELETE from " + IndirectionSupport.DataAnnotationAbilities + "." + annotation + " WHERE id IN ( '" + list.get(annotation).getOwnToken() + "' );", ConsistencyLevel.ANY);
-        }
-        catch(RequestExecutionException e)
-        {
-            IndirectionSupport.sendToLog("An error occured during dropping the Data Annotation Abilities for '" + annotation + "': " + e.getMessage(), true, false, "DataAnnotationConfig");
-            e.printStackTrace();
-        }
-
+        Map<String, Collection<String>> capabilities = new HashMap<String, Collection<String>>();
+        for (AbstractDataAnnotation<?> annotation : list.values())
+            capabilities.put(annotation.name, annotation.getAdvertisedValues());
+        IndirectionSupport.sendToLog("Announce Abilities for Data Annotations " + capabilities, false, true, "DataAnnotationConfig");
+        CapabilityIndex.instance.announce(capabilities);
     }
 
     public void dropAbilities()
     {
-        for (String name : list.keySet())
-            dropAbility(name);
+        IndirectionSupport.sendToLog("Withdraw Abilities for Data Annotations", false, true, "DataAnnotationConfig");
+        CapabilityIndex.instance.announce(Collections.<String, Collection<String>>emptyMap());
     }
 
 }
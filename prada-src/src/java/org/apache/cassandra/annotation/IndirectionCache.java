@@ -0,0 +1,97 @@
+package org.apache.cassandra.annotation;
+
+import java.nio.ByteBuffer;
+
+import org.apache.cassandra.cache.RowCacheKey;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.filter.QueryFilter;
+import org.apache.cassandra.service.CacheService;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.ObjectSizes;
+
+/**
+ * Resolves the reference information of keys through CacheService.indirectionCache, so the placement of hot keys
+ * is known without reading the reference tables.
+ *
+ * Entries are keyed by the id of the reference table and the key, and are removed by ColumnFamilyStore whenever
+ * the reference row is written, streamed, compacted away or truncated. Like the row cache, a load first places a
+ * sentinel, which an invalidation during the load removes, so a load never caches outdated information. Keys
+ * without reference information are cached as well, since every read of a regular keyspace looks them up.
+ */
+public class IndirectionCache
+{
+    public static final IndirectionCache instance = new IndirectionCache();
+
+    private static final IndirectionCacheEntry ABSENT = new Marker();
+
+    private IndirectionCache() {}
+
+    /**
+     * @return the reference information of the given key of the reference table or null if there is none
+     */
+    public IndirectionInformation get(CFMetaData refCfm, ByteBuffer key)
+    {
+        RowCacheKey cacheKey = new RowCacheKey(refCfm.cfId, key);
+        if (CacheService.instance.indirectionCache.getCapacity() == 0)
+            return toInformation(load(refCfm, key));
+
+        IndirectionCacheEntry cached = CacheService.instance.indirectionCache.get(cacheKey);
+        if (cached != null && !(cached instanceof Sentinel))
+            return toInformation(cached);
+
+        Sentinel sentinel = new Sentinel();
+        boolean sentinelSuccess = CacheService.instance.indirectionCache.putIfAbsent(cacheKey, sentinel);
+        IndirectionCacheEntry entry = null;
+        try
+        {
+            entry = load(refCfm, key);
+            if (sentinelSuccess)
+                CacheService.instance.indirectionCache.replace(cacheKey, sentinel, entry);
+            return toInformation(entry);
+        }
+        finally
+        {
+            if (sentinelSuccess && entry == null)
+                CacheService.instance.indirectionCache.remove(cacheKey);
+        }
+    }
+
+    /**
+     * Reads the reference row of the given key from the local reference table.
+     */
+    public IndirectionCacheEntry load(CFMetaData refCfm, ByteBuffer key)
+    {
+        ColumnFamilyStore cfs = Keyspace.open(refCfm.ksName).getColumnFamilyStore(refCfm.cfName);
+        DecoratedKey dk = StorageService.getPartitioner().decorateKey(key);
+        ColumnFamily cf = cfs.getColumnFamily(QueryFilter.getIdentityFilter(dk, refCfm.cfName, System.currentTimeMillis()));
+        if (cf == null)
+            return ABSENT;
+
+        // only live columns describe the placement, tombstones of reused keys do not
+        cf = ColumnFamilyStore.removeDeleted(cf, Integer.MAX_VALUE);
+        if (cf == null || cf.getColumnCount() == 0)
+            return ABSENT;
+
+        IndirectionInformation refInfo = IndirectionInformation.RowToIndirectionInformation(new Row(dk, cf));
+        return refInfo == null ? ABSENT : refInfo;
+    }
+
+    private static IndirectionInformation toInformation(IndirectionCacheEntry entry)
+    {
+        return entry instanceof IndirectionInformation ? (IndirectionInformation) entry : null;
+    }
+
+    private static class Marker implements IndirectionCacheEntry
+    {
+        public long memorySize()
+        {
+            return ObjectSizes.getFieldSize(0);
+        }
+    }
+
+    // compared by identity, so a load only replaces its own sentinel
+    private static class Sentinel extends Marker
+    {
+    }
+}
@@ -0,0 +1,11 @@
+package org.apache.cassandra.annotation;
+
+import org.apache.cassandra.cache.IMeasurableMemory;
+
+/**
+ * Value of the indirection cache: either the decoded reference information of a key, the marker for a key
+ * without reference information or a sentinel of a running load.
+ */
+public interface IndirectionCacheEntry extends IMeasurableMemory
+{
+}
@@ -3,39 +3,46 @@ package org.apache.cassandra.annotation;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.apache.cassandra.annotation.messages.AsyncUpdateReferencesCallback;
-import org.apache.cassandra.annotation.messages.IndirectionMessage;
-import org.apache.cassandra.annotation.messages.IndirectionUpdateReferencesMessage;
+import org.apache.cassandra.annotation.messages.IndirectionUpdateReferencesMessage.ReferenceUpdate;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.cql3.QueryProcessor;
 import org.apache.cassandra.cql3.UntypedResultSet;
-import org.apache.cassandra.cql3.statements.ParsedStatement;
-import org.apache.cassandra.cql3.statements.UpdateStatement;
+import org.apache.cassandra.cql3.statements.ModificationStatement;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.*;
-import org.apache.cassandra.net.MessageOut;
-import org.apache.cassandra.net.MessagingService;
-import org.apache.cassandra.service.LoadBroadcaster;
+import org.apache.cassandra.service.ClientState;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.ObjectSizes;
+import org.apache.cassandra.utils.Pair;
 
 
-public class IndirectionInformation {
+public class IndirectionInformation implements IndirectionCacheEntry {
 
     public static final String AnnotationRowName = "saved_annotations";
+    // reference tables created with placement groups store the id of the group instead of nodes and annotations
+    public static final String PlacementGroupColumnName = "placement_group";
 
     private final String key;
-    private final ArrayList<ByteBuffer> nodes = new ArrayList<>();
+    private final ArrayList<ByteBuffer> nodes;
     private final String keyspace;
     private final String columnFamily;
     private final String annotationString;
+    private final CompiledConstraints annotations;
+    // newest timestamp of the reference row this information was read from
+    private final long timestamp;
+    // group nodes and annotationString are shared with, null if they are not
+    private final UUID placementGroup;
+
+    // prepared reference inserts per reference table and number of nodes
+    private static final ConcurrentMap<Pair<UUID, Integer>, ModificationStatement> insertStatements = new ConcurrentHashMap<>();
 
     public IndirectionInformation(UntypedResultSet.Row row)
     {
@@ -48,21 +55,46 @@ public class IndirectionInformation {
         this.keyspace = ks;
         this.columnFamily = cf;
         this.annotationString = c.getAnnotationsAsString();
+        this.annotations = c.getCompiled();
+        this.timestamp = Long.MIN_VALUE;
+        this.placementGroup = null;
+        this.nodes = new ArrayList<>();
         for (InetAddress addr : c.getTargets())
             this.nodes.add(c.getTokens().get(addr));
     }
 
     private IndirectionInformation(UntypedResultSet.Row row, String ks, String cf)
+    {
+        this(row, ks, cf, Long.MIN_VALUE);
+    }
+
+    private IndirectionInformation(UntypedResultSet.Row row, String ks, String cf, long timestamp)
     {
         assert(row.has("key"));
-        assert(row.has(IndirectionInformation.AnnotationRowName));
+        assert(row.has(IndirectionInformation.AnnotationRowName) || row.has(IndirectionInformation.PlacementGroupColumnName));
 
         this.key = row.getString("key");
         this.keyspace = ks;
         this.columnFamily = cf;
+        this.annotations = null;
+        this.timestamp = timestamp;
 
         assert(keyspace.endsWith(IndirectionSupport.ReferenceKeyspacePostfix));
 
+        if (row.has(IndirectionInformation.PlacementGroupColumnName))
+        {
+            UUID id = row.getUUID(IndirectionInformation.PlacementGroupColumnName);
+            PlacementGroups.PlacementGroup group = PlacementGroups.instance.get(id, ks, row.getBytes("key"));
+            if (group == null)
+                throw new IllegalStateException("Unknown placement group " + id + " of key " + key + " in " + ks + "." + cf);
+            this.placementGroup = group.id;
+            this.nodes = group.tokens;
+            this.annotationString = group.annotationString;
+            return;
+        }
+
+        this.placementGroup = null;
+        this.nodes = new ArrayList<>();
         for (int i=1; i<row.hasCount()-1; i++)
         {
             assert(row.has("node" + i));
@@ -82,7 +114,7 @@ public class IndirectionInformation {
             String name = ByteBufferUtil.stringWOException(col.name()).replaceAll("[^\\p{Print}]", "");
             if (name.length() > 0)
             {
-                assert(name.startsWith("node") || name.equals(IndirectionInformation.AnnotationRowName));
+                assert(name.startsWith("node") || name.equals(IndirectionInformation.AnnotationRowName) || name.equals(IndirectionInformation.PlacementGroupColumnName));
                 columns.put(name, col.value());
             }
             else
@@ -90,55 +122,26 @@ public class IndirectionInformation {
                 columns.put("key", row.key.key);
             }
         }
-        return (columns.size() < 2 ? null : new IndirectionInformation(new UntypedResultSet.Row(columns), row.cf.metadata().ksName, row.cf.metadata().cfName));
+        return (columns.size() < 2 ? null : new IndirectionInformation(new UntypedResultSet.Row(columns), row.cf.metadata().ksName, row.cf.metadata().cfName, row.cf.maxTimestamp()));
     }
 
-    public boolean updateReferenceInformation() throws IndirectionException
+    public ReferenceUpdate toReferenceUpdate(long timestamp)
     {
-        CFMetaData cfMetaData = Schema.instance.getKSMetaData(keyspace).cfMetaData().get(columnFamily);
+        assert annotations != null : "Only reference information created for a write can be sent";
+        CFMetaData cfMetaData = Schema.instance.getCFMetaData(keyspace, columnFamily);
+        return new ReferenceUpdate(cfMetaData.cfId, cfMetaData.getKeyValidator().fromString(key), nodes, annotations, timestamp);
+    }
+
+    // Returns the live nodes holding the reference row of this key, closest first
+    public List<InetAddress> getReferenceEndpoints() throws IndirectionException
+    {
+        CFMetaData cfMetaData = Schema.instance.getCFMetaData(keyspace, columnFamily);
         Token t = StorageService.getPartitioner().getToken(cfMetaData.getKeyValidator().fromString(key));
         List<InetAddress> addresses = StorageService.instance.getLiveNaturalEndpoints(Keyspace.open(keyspace + IndirectionSupport.ReferenceKeyspacePostfix), t);
+        DatabaseDescriptor.getEndpointSnitch().sortByProximity(FBUtilities.getBroadcastAddress(), addresses);
         if (addresses.isEmpty())
             throw new IndirectionException("No node holding the corresponding indirection information is available.");
-        StringBuilder sb = new StringBuilder();
-        List<String> targetNodes = getNodesAsString();
-        sb.append(targetNodes.size()); sb.append(';');
-        for(String str : targetNodes)
-        {
-            sb.append(str); sb.append(';');
-        }
-        sb.append(keyspace); sb.append(';');
-        sb.append(columnFamily); sb.append(';');
-        sb.append(key); sb.append(';');
-        sb.append(annotationString);
-        MessageOut<IndirectionMessage> msgout = (new IndirectionUpdateReferencesMessage(ByteBufferUtil.bytes(sb.toString()))).createMessage();
-        boolean newReferences = true;
-        try
-        {
-            AsyncUpdateReferencesCallback cb = new AsyncUpdateReferencesCallback();
-            MessagingService.instance().sendRR(msgout, addresses.get(0), cb);
-            cb.waitForResponses(msgout.getTimeout(), TimeUnit.MILLISECONDS);
-            double diff = cb.getSize();
-            if (diff < 0)
-            {
-                throw new IndirectionException("Error updating indirection information: " + cb.getError());
-            }
-            if (diff > 0)
-            {
-                InetAddress ownAddr = FBUtilities.getBroadcastAddress();
-                for (InetAddress target : addresses)
-                {
-                    if (!ownAddr.equals(target))
-                        LoadBroadcaster.instance.updateLoadCache(target, diff);
-                }
-            }
-            else
-                newReferences = false;
-        } catch (TimeoutException e)
-        {
-            throw new IndirectionException("No node holding indirection information is avaiable.");
-        }
-        return newReferences;
+        return addresses;
     }
 
     public static IndirectionInformation getExistingIndirectionInformation(String keyspace, String cf, String Key)
@@ -146,16 +149,12 @@ public class IndirectionInformation {
         if (keyspace.equals(Keyspace.SYSTEM_KS) || keyspace.equals("system_traces") || keyspace.equals(IndirectionSupport.DataAnnotationAbilities) || keyspace.endsWith(IndirectionSupport.ReferenceKeyspacePostfix) || keyspace.endsWith(IndirectionSupport.DataKeyspacePostfix)) {
             return null;
 	}
-        String mks = keyspace + IndirectionSupport.ReferenceKeyspacePostfix;
-        UntypedResultSet referenceInfo = QueryProcessor.processInternal("SELECT * FROM " + mks + "." + cf + " WHERE key IN ('" + Key + "');", mks);
-        assert(referenceInfo.size() == 0 || referenceInfo.size() == 1);
-        if (referenceInfo.size() == 1)
-        {
-            IndirectionInformation refInfo = new IndirectionInformation(referenceInfo.one(), keyspace + IndirectionSupport.ReferenceKeyspacePostfix, cf);
-            assert(refInfo.getKey().equals(Key));
-            return refInfo;
-        }
-        return null;
+        CFMetaData refCfm = Schema.instance.getCFMetaData(keyspace + IndirectionSupport.ReferenceKeyspacePostfix, cf);
+        if (refCfm == null)
+            return null;
+        IndirectionInformation refInfo = IndirectionCache.instance.get(refCfm, ByteBufferUtil.bytes(Key));
+        assert(refInfo == null || refInfo.getKey().equals(Key));
+        return refInfo;
     }
 
     // Returns, whether requesting node is a replica node
@@ -163,8 +162,8 @@ public class IndirectionInformation {
     {
         for (String node : getNodesAsString())
         {
-            if (DatabaseDescriptor.getInitialTokens().contains(node))
-                    return true;
+            if (IndirectionSupport.isLocalToken(node))
+                return true;
         }
         return false;
     }
@@ -179,6 +178,11 @@ public class IndirectionInformation {
         return key;
     }
 
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
     public ArrayList<ByteBuffer> getNodes()
     {
         return nodes;
@@ -192,6 +196,11 @@ public class IndirectionInformation {
         return result;
     }
 
+    public String getAnnotationString()
+    {
+        return annotationString;
+    }
+
     public List<InetAddress> getEndpoints()
     {
         List<InetAddress> result = new ArrayList<InetAddress>();
@@ -210,22 +219,130 @@ public class IndirectionInformation {
         return columnFamily;
     }
 
-    public static String getInsertQuery(List<String> nodes, String keyspace, String columnFamily, String key, String annotationString)
+    /**
+     * Writes the reference row of the given key of a regular table to the local replica of the reference keyspace,
+     * the coordinator of the write sends the update to every replica.
+     *
+     * @return the number of bytes added to the reference table
+     */
+    public static double insertReferences(CFMetaData cfm, String key, List<ByteBuffer> nodes, String annotationString, long timestamp) throws RequestExecutionException, RequestValidationException
     {
-        String colNames = "";
-        String Tokens = "";
-        for (int i=0; i < nodes.size(); i++)
+        CFMetaData refCfm = Schema.instance.getCFMetaData(cfm.ksName + IndirectionSupport.ReferenceKeyspacePostfix, cfm.cfName);
+        if (refCfm == null)
+            throw new InvalidRequestException("No reference table for " + cfm.ksName + "." + cfm.cfName);
+
+        // the group has to be known locally before the row refers to it
+        if (usesPlacementGroups(refCfm))
+            PlacementGroups.instance.store(PlacementGroups.instance.intern(nodes, annotationString));
+
+        ModificationStatement statement = getInsertStatement(refCfm, nodes.size());
+        double size = 0;
+        for (IMutation mutation : statement.getMutations(getInsertValues(refCfm, key, nodes, annotationString), true, null, timestamp, false))
         {
-            colNames += ", node" + (i+1);
-            Tokens += ", '" + nodes.get(i) + "'";
+            mutation.apply();
+            for (ColumnFamily cf : mutation.getColumnFamilies())
+                size += cf.dataSize();
         }
-        colNames += ", " + IndirectionInformation.AnnotationRowName;
-        Tokens += ", '" + annotationString.replaceAll("'", "\"") + "'";
-        return "INSERT INTO " + keyspace + IndirectionSupport.ReferenceKeyspacePostfix + "." + columnFamily + " (Key" + colNames + ") VALUES ('" + key + "'" + Tokens + ");";
+        return size;
+    }
+
+    /**
+     * Rebuilds the reference row this information was read from, so cached information can be served like the
+     * row itself.
+     */
+    public ColumnFamily toReferenceRow(CFMetaData refCfm)
+    {
+        try
+        {
+            ModificationStatement statement = getInsertStatement(refCfm, nodes.size());
+            IMutation mutation = statement.getMutations(getInsertValues(refCfm, key, nodes, annotationString), true, null, timestamp, false).iterator().next();
+            return mutation.getColumnFamilies().iterator().next();
+        }
+        catch (RequestValidationException | RequestExecutionException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return whether the given reference table stores placement groups instead of nodes and annotations
+     */
+    public static boolean usesPlacementGroups(CFMetaData refCfm)
+    {
+        return refCfm.getColumnDefinition(ByteBufferUtil.bytes(PlacementGroupColumnName)) != null;
+    }
+
+    private static ModificationStatement getInsertStatement(CFMetaData refCfm, int nodeCount) throws RequestValidationException, RequestExecutionException
+    {
+        // the statement of a table with placement groups does not depend on the number of nodes
+        Pair<UUID, Integer> statementKey = Pair.create(refCfm.cfId, usesPlacementGroups(refCfm) ? 0 : nodeCount);
+        ModificationStatement statement = insertStatements.get(statementKey);
+        if (statement == null)
+        {
+            String colNames = "";
+            String markers = "";
+            if (usesPlacementGroups(refCfm))
+            {
+                colNames += ", " + IndirectionInformation.PlacementGroupColumnName;
+                markers += ", ?";
+            }
+            else
+            {
+                for (int i=0; i < nodeCount; i++)
+                {
+                    colNames += ", node" + (i+1);
+                    markers += ", ?";
+                }
+                colNames += ", " + IndirectionInformation.AnnotationRowName;
+                markers += ", ?";
+            }
+            String query = "INSERT INTO " + refCfm.ksName + "." + refCfm.cfName + " (Key" + colNames + ") VALUES (?" + markers + ");";
+            statement = (ModificationStatement) QueryProcessor.getStatement(query, ClientState.forInternalCalls()).statement;
+            ModificationStatement previous = insertStatements.putIfAbsent(statementKey, statement);
+            if (previous != null)
+                statement = previous;
+        }
+        return statement;
+    }
+
+    private static List<ByteBuffer> getInsertValues(CFMetaData refCfm, String key, List<ByteBuffer> nodes, String annotationString)
+    {
+        if (usesPlacementGroups(refCfm))
+            return Arrays.asList(ByteBufferUtil.bytes(key), PlacementGroups.instance.intern(nodes, annotationString).getIdBytes());
+
+        List<ByteBuffer> values = new ArrayList<>(nodes.size() + 2);
+        values.add(ByteBufferUtil.bytes(key));
+        values.addAll(nodes);
+        values.add(ByteBufferUtil.bytes(annotationString.replaceAll("'", "\"")));
+        return values;
+    }
+
+    public long memorySize()
+    {
+        long size = ObjectSizes.getFieldSize(7 * ObjectSizes.getReferenceSize() + 8)
+                  + sizeOf(key) + sizeOf(keyspace) + sizeOf(columnFamily);
+        // nodes and annotations of a placement group are shared by all its keys
+        if (placementGroup != null)
+            return size + ObjectSizes.getFieldSize(16);
+
+        size += sizeOf(annotationString) + ObjectSizes.getArraySize(nodes.size(), ObjectSizes.getReferenceSize());
+        for (ByteBuffer node : nodes)
+            size += ObjectSizes.getSize(node);
+        return size;
+    }
+
+    private static long sizeOf(String s)
+    {
+        // char[] value, int hash
+        return s == null ? 0 : ObjectSizes.getFieldSize(ObjectSizes.getReferenceSize() + 4) + ObjectSizes.getArraySize(s.length(), 2);
     }
 
     public String getInsertQuery()
     {
+        CFMetaData refCfm = Schema.instance.getCFMetaData(keyspace + IndirectionSupport.ReferenceKeyspacePostfix, columnFamily);
+        if (refCfm != null && usesPlacementGroups(refCfm))
+            return "INSERT INTO " + refCfm.ksName + "." + refCfm.cfName + " (Key, " + IndirectionInformation.PlacementGroupColumnName + ") VALUES ('" + key + "', " + PlacementGroups.instance.intern(nodes, annotationString).id + ");";
+
         String colNames = "";
         String Tokens = "";
         for (int i=0; i < nodes.size(); i++)
@@ -240,19 +357,7 @@ public class IndirectionInformation {
 
     public Constraints getConstraints()
     {
-        // We use dummy values for keyspace, cf and values since we are only interested in the Constraints
-        String queryStr = "INSERT INTO dummy.dummy (dummy) VALUES ('dummy') " + annotationString.replaceAll("\"", "'") + ";";
-        try
-        {
-            ParsedStatement stmt = QueryProcessor.parseStatement(queryStr);
-            assert(stmt instanceof UpdateStatement.ParsedInsert);
-            return ((UpdateStatement.ParsedInsert)stmt).annotations;
-        }
-        catch (SyntaxException e)
-        {
-            e.printStackTrace();
-            return null;
-        }
+        return new Constraints(annotations != null ? annotations : CompiledConstraints.fromAnnotationString(annotationString));
     }
 
     public String toString()
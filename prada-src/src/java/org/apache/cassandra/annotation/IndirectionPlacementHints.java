@@ -0,0 +1,223 @@
+package org.apache.cassandra.annotation;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.cache.ConcurrentLinkedHashCache;
+import org.apache.cassandra.cache.IMeasurableMemory;
+import org.apache.cassandra.cache.RowCacheKey;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.filter.SliceQueryFilter;
+import org.apache.cassandra.gms.FailureDetector;
+import org.apache.cassandra.net.IAsyncCallback;
+import org.apache.cassandra.net.MessageIn;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.service.StorageProxy;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.ObjectSizes;
+import org.apache.cassandra.utils.SimpleCondition;
+
+/**
+ * Remembers on a coordinator where the redirected data of annotated keys is stored, so reads can be sent straight
+ * to a target node instead of taking the hop over a reference replica.
+ *
+ * Hints are learned from annotated writes coordinated by this node, from reference rows read to verify hinted reads
+ * and, after a read went over a reference replica, from an additional read of the reference row. A hint is never
+ * trusted on its own: every hinted read is checked against the reference row read in parallel.
+ */
+public class IndirectionPlacementHints
+{
+    public static final IndirectionPlacementHints instance = new IndirectionPlacementHints();
+
+    private final ConcurrentLinkedHashCache<RowCacheKey, PlacementHint> hints;
+
+    private IndirectionPlacementHints()
+    {
+        hints = ConcurrentLinkedHashCache.create(DatabaseDescriptor.getIndirectionPlacementHintsSizeInMB() * 1024 * 1024);
+    }
+
+    public boolean isEnabled()
+    {
+        return hints.capacity() > 0;
+    }
+
+    /**
+     * @param cfId the id of the regular (not redirected) table
+     */
+    public PlacementHint get(UUID cfId, ByteBuffer key)
+    {
+        return isEnabled() ? hints.get(new RowCacheKey(cfId, key)) : null;
+    }
+
+    public void put(UUID cfId, ByteBuffer key, List<ByteBuffer> tokens, long timestamp)
+    {
+        if (isEnabled())
+            hints.put(new RowCacheKey(cfId, key), new PlacementHint(tokens, timestamp));
+    }
+
+    public void remove(UUID cfId, ByteBuffer key)
+    {
+        hints.remove(new RowCacheKey(cfId, key));
+    }
+
+    public int size()
+    {
+        return hints.size();
+    }
+
+    /**
+     * Reads the reference row of the key of the given command in the background, after the command was answered
+     * with redirected data but no hint was known.
+     */
+    public void learn(ReadCommand command)
+    {
+        CFMetaData cfm = Schema.instance.getCFMetaData(command.ksName, command.cfName);
+        if (!isEnabled() || cfm == null || get(cfm.cfId, command.key) != null)
+            return;
+
+        InetAddress endpoint = getReferenceEndpoint(command);
+        if (endpoint != null)
+            new ReferenceCheck(command, cfm.cfId).send(endpoint);
+    }
+
+    /**
+     * @return the closest live node holding the reference row of the key of the given command or null if the
+     * reference row is stored locally, in which case the read never takes the extra hop
+     */
+    public static InetAddress getReferenceEndpoint(ReadCommand command)
+    {
+        List<InetAddress> endpoints = StorageProxy.getLiveSortedEndpoints(Keyspace.open(command.ksName), command.key);
+        if (endpoints.isEmpty() || endpoints.contains(FBUtilities.getBroadcastAddress()))
+            return null;
+        return endpoints.get(0);
+    }
+
+    /**
+     * @return the node owning the given token, which stores the redirected data the token was chosen for by a
+     * reference replica, or null if the token left the ring
+     */
+    public static InetAddress getTargetEndpoint(ByteBuffer token)
+    {
+        return StorageService.instance.getAssociatedEndpoint(ByteBufferUtil.stringWOException(token));
+    }
+
+    /**
+     * @return the live nodes storing the redirected data of the given tokens, closest first
+     */
+    public static List<InetAddress> getLiveTargets(List<ByteBuffer> tokens)
+    {
+        List<InetAddress> targets = new ArrayList<>(tokens.size());
+        for (ByteBuffer token : tokens)
+        {
+            InetAddress target = getTargetEndpoint(token);
+            if (target != null && FailureDetector.instance.isAlive(target) && !targets.contains(target))
+                targets.add(target);
+        }
+        DatabaseDescriptor.getEndpointSnitch().sortByProximity(FBUtilities.getBroadcastAddress(), targets);
+        return targets;
+    }
+
+    public static class PlacementHint implements IMeasurableMemory
+    {
+        public final List<ByteBuffer> tokens;
+        public final long timestamp;
+
+        public PlacementHint(List<ByteBuffer> tokens, long timestamp)
+        {
+            this.tokens = tokens;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * @return the live target nodes of this hint, closest first
+         */
+        public List<InetAddress> getLiveTargets()
+        {
+            return IndirectionPlacementHints.getLiveTargets(tokens);
+        }
+
+        public long memorySize()
+        {
+            long size = ObjectSizes.getFieldSize(ObjectSizes.getReferenceSize() + 8) + ObjectSizes.getArraySize(tokens.size(), ObjectSizes.getReferenceSize());
+            for (ByteBuffer token : tokens)
+                size += ObjectSizes.getSize(token);
+            return size;
+        }
+    }
+
+    /**
+     * Reads the reference row of a key from a reference replica and updates the hint of the key with it.
+     */
+    public static class ReferenceCheck implements IAsyncCallback<ReadResponse>
+    {
+        private final ReadCommand command;
+        private final UUID cfId;
+        private final SimpleCondition condition = new SimpleCondition();
+        private volatile IndirectionInformation current;
+
+        public ReferenceCheck(ReadCommand command, UUID cfId)
+        {
+            this.command = command;
+            this.cfId = cfId;
+        }
+
+        public void send(InetAddress endpoint)
+        {
+            SliceQueryFilter filter = new SliceQueryFilter(ByteBufferUtil.EMPTY_BYTE_BUFFER, ByteBufferUtil.EMPTY_BYTE_BUFFER, false, Integer.MAX_VALUE);
+            ReadCommand referenceCommand = new SliceFromReadCommand(command.ksName + IndirectionSupport.ReferenceKeyspacePostfix, command.key, command.cfName, System.currentTimeMillis(), filter);
+            MessagingService.instance().sendRR(referenceCommand.createMessage(), endpoint, this);
+        }
+
+        public void response(MessageIn<ReadResponse> message)
+        {
+            Row row = message.payload.row();
+            ColumnFamily cf = row == null || row.cf == null ? null : ColumnFamilyStore.removeDeleted(row.cf, Integer.MAX_VALUE);
+            current = cf == null || cf.getColumnCount() == 0 ? null : IndirectionInformation.RowToIndirectionInformation(new Row(row.key, cf));
+            if (current == null)
+                instance.remove(cfId, command.key);
+            else
+                instance.put(cfId, command.key, current.getNodes(), current.getTimestamp());
+            condition.signalAll();
+        }
+
+        /**
+         * @return whether the reference row arrived before the given point in time
+         */
+        public boolean await(long deadlineNanos)
+        {
+            try
+            {
+                return condition.await(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                throw new AssertionError(e);
+            }
+        }
+
+        /**
+         * @return the reference information read or null if the key is not annotated (anymore)
+         */
+        public IndirectionInformation getCurrent()
+        {
+            return current;
+        }
+
+        public boolean isLatencyForSnitch()
+        {
+            return true;
+        }
+
+        public boolean done()
+        {
+            return condition.isSignaled();
+        }
+    }
+}
@@ -1,24 +1,40 @@
 package org.apache.cassandra.annotation;
 
+import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.*;
 
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.filter.*;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.dht.Bounds;
+import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.exceptions.*;
+import org.apache.cassandra.metrics.IndirectionMetrics;
 import org.apache.cassandra.service.*;
+import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.thrift.IndexExpression;
 import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.Pair;
 import org.apache.cassandra.db.*;
 
 
 public class IndirectionReadSupport {
 
-    private static AbstractReadExecutor startReadExecutor(Row IndRow) throws UnavailableException
+    // number of redirected rows requested from a target at once by a range scan
+    private static final int RedirectedRangePageSize = 100;
+    // number of reference rows read at once when looking for the targets of an indexed range scan
+    private static final int ReferenceScanPageSize = 1000;
+
+    private static AbstractReadExecutor startReadExecutor(Row IndRow, ConsistencyLevel cl) throws UnavailableException
     {
         DecoratedKey DataKey = IndRow.key;
         String cfName = IndRow.cf.metadata().cfName;
         String KeySpaceName = IndRow.cf.metadata().ksName;
-        ConsistencyLevel cl = ConsistencyLevel.ONE;
 
         assert (KeySpaceName.endsWith(IndirectionSupport.ReferenceKeyspacePostfix));
 
@@ -41,8 +57,13 @@ public class IndirectionReadSupport {
         return exec;
     }
 
-    public static List<Row> fetchRowsForIndirectionRows(List<Row> IndRows) throws UnavailableException
+    /**
+     * Reads the redirected data of the given reference rows from their targets. The consistency level refers to
+     * the targets of each key, as it does to the replicas for a regular read.
+     */
+    public static List<Row> fetchRowsForIndirectionRows(List<Row> IndRows, ConsistencyLevel cl) throws UnavailableException
     {
+        long start = System.nanoTime();
         List<AbstractReadExecutor> executors = new ArrayList<AbstractReadExecutor>();
         List<Row> Result = new ArrayList<Row>();
         for (Row row : IndRows)
@@ -55,7 +76,7 @@ public class IndirectionReadSupport {
                 // This condition allows us distinguish between rows which are really deleted and rows whose key was reused and the tombstone is still set
                 if (!(row.cf.asMap().size() == 0))
                 {
-                    AbstractReadExecutor ex = startReadExecutor(row);
+                    AbstractReadExecutor ex = startReadExecutor(row, cl);
                     if ( ex != null)
                         executors.add(ex);
                 }
@@ -63,24 +84,24 @@ public class IndirectionReadSupport {
             else
                 Result.add(row);
         }
+        for (AbstractReadExecutor exec : executors)
+            exec.maybeTryAdditionalReplicas();
+
         for (AbstractReadExecutor exec : executors)
         {
             try
             {
-                Row row = exec.get();
+                Row row = exec.getResolved();
                 if (row != null)
                     Result.add(row);
             }
-            catch (DigestMismatchException e)
-            {
-                e.printStackTrace();
-                throw new AssertionError(e); // full data requested from each node here, no digests should be sent
-            }
             catch (ReadTimeoutException e)
             {
-                throw new UnavailableException(ConsistencyLevel.ONE, 0, 0);
+                throw new UnavailableException(cl, 0, 0);
             }
         }
+        if (!executors.isEmpty())
+            IndirectionMetrics.readHop.addNano(System.nanoTime() - start);
         return Result;
     }
 
@@ -105,18 +126,14 @@ public class IndirectionReadSupport {
         // Only check for user keyspaces
         if (IndirectionSupport.isRegularKeyspace(keyspace.getName()))
         {
-            Collection<ColumnFamilyStore> CFs = (Keyspace.open(keyspace.getName() + IndirectionSupport.ReferenceKeyspacePostfix)).getColumnFamilyStores();
-            for (ColumnFamilyStore CFS : CFs)
+            CFMetaData refCfm = Schema.instance.getCFMetaData(keyspace.getName() + IndirectionSupport.ReferenceKeyspacePostfix, filter.cfName);
+            if (refCfm != null)
             {
-                if (CFS.name.equals(filter.cfName))
+                IndirectionInformation refInfo = IndirectionCache.instance.get(refCfm, filter.key.key);
+                if (refInfo != null)
                 {
-                    Row row = (Keyspace.open(keyspace.getName() + IndirectionSupport.ReferenceKeyspacePostfix)).getRow(filter);
-                    if (row.cf != null)
-                    {
-                        IndirectionSupport.sendToLog("Found Indirection Information for " + keyspace.getName() + "." + filter.cfName + " with key " + filter.key.toString(), false, true, "IndirectionReadSupport");
-                        Row IndRow = new Row(filter.key, row.cf, true);
-                        return IndRow;
-                    }
+                    IndirectionSupport.sendToLog("Found Indirection Information for " + keyspace.getName() + "." + filter.cfName + " with key " + filter.key.toString(), false, true, "IndirectionReadSupport");
+                    return new Row(filter.key, refInfo.toReferenceRow(refCfm), true);
                 }
             }
         }
@@ -127,16 +144,9 @@ public class IndirectionReadSupport {
 
     private static Row getIndirectionDataRow(Keyspace keyspace, QueryFilter filter)
     {
-        Collection<ColumnFamilyStore> CFs = Keyspace.open(keyspace.getName()).getColumnFamilyStores();
-        for (ColumnFamilyStore CFS : CFs)
-        {
-            if (CFS.name.equals(filter.cfName))
-            {
-                Row row = (Keyspace.open(keyspace.getName())).getRow(filter);
-                return row;
-            }
-        }
-        return null;
+        if (Schema.instance.getCFMetaData(keyspace.getName(), filter.cfName) == null)
+            return null;
+        return keyspace.getRow(filter);
     }
 
     public static List<Row> getIndirectionReferenceRows(String keyspace, String columnFamily, ExtendedFilter exFilter, List<IndexExpression> rowFilter)
@@ -144,14 +154,12 @@ public class IndirectionReadSupport {
         List<Row> Result = new ArrayList<Row>();
         if (IndirectionSupport.isRegularKeyspace(keyspace))
         {
-            ColumnFamilyStore cfs = Keyspace.open(keyspace + IndirectionSupport.ReferenceKeyspacePostfix).getColumnFamilyStore(columnFamily);
-
-            List<Row> result = new ArrayList<Row>();
-            if (cfs.indexManager.hasIndexFor(rowFilter))
-                result = cfs.search(exFilter);
-            else
-                result = cfs.getRangeSlice(exFilter);
+            // reference rows do not store the indexed columns, see getIndexedRangeSlice
+            if (rowFilter != null && !rowFilter.isEmpty())
+                return Result;
 
+            ColumnFamilyStore cfs = Keyspace.open(keyspace + IndirectionSupport.ReferenceKeyspacePostfix).getColumnFamilyStore(columnFamily);
+            List<Row> result = cfs.getRangeSlice(exFilter);
             for (Row row : result)
             {
                 IndirectionSupport.sendToLog("Found Indirection Information for " + keyspace + "." + columnFamily + " with key " + row.key.toString(), false, true, "IndirectionReadSupport");
@@ -168,6 +176,371 @@ public class IndirectionReadSupport {
         }
     }
 
+    /**
+     * Executes a range command on a replica of a regular keyspace, replacing the reference rows found by the
+     * redirected data they point to.
+     *
+     * Regular and reference rows are merged in token order and cut at the limit of the command before any redirected
+     * data is read, so only keys that can be part of the result are fetched. Every annotated key is read from the
+     * closest of its targets, which is paged through in token order, and the pages are merged with the regular rows.
+     * References whose data is gone leave the result short, so the local rows after the last merged key are read and
+     * resolved until the limit is reached or the range is exhausted; a short result ends the range for StorageProxy.
+     */
+    public static List<Row> getRangeSlice(AbstractRangeCommand command) throws UnavailableException, ReadTimeoutException
+    {
+        List<Row> rows = command.executeLocally();
+        if (!(command instanceof RangeSliceCommand) || !IndirectionSupport.isRegularKeyspace(command.keyspace))
+            return rows;
+        if (command.rowFilter != null && !command.rowFilter.isEmpty())
+            return getIndexedRangeSlice((RangeSliceCommand) command, rows);
+
+        List<Row> result = new ArrayList<Row>();
+        int count = 0;
+        AbstractBounds<RowPosition> range = command.keyRange;
+        while (true)
+        {
+            // executeLocally appends the reference rows to the regular rows, both in token order
+            List<Row> regular = new ArrayList<Row>(rows.size());
+            List<Row> references = new ArrayList<Row>();
+            for (Row row : rows)
+                (row.indirection ? references : regular).add(row);
+            if (references.isEmpty() && result.isEmpty())
+                return rows;
+
+            DecoratedKey lastKey = null;
+            List<Row> merged = new ArrayList<Row>(Math.min(rows.size(), command.limit() - count));
+            Map<DecoratedKey, RedirectedRangePager> pagerOf = new HashMap<DecoratedKey, RedirectedRangePager>();
+            Map<InetAddress, RedirectedRangePager> pagers = new HashMap<InetAddress, RedirectedRangePager>();
+            PeekingIterator<Row> regularIter = Iterators.peekingIterator(regular.iterator());
+            PeekingIterator<Row> referenceIter = Iterators.peekingIterator(references.iterator());
+            int merging = count;
+            while ((regularIter.hasNext() || referenceIter.hasNext()) && merging < command.limit())
+            {
+                Row row;
+                if (!referenceIter.hasNext() || (regularIter.hasNext() && regularIter.peek().key.compareTo(referenceIter.peek().key) < 0))
+                {
+                    row = regularIter.next();
+                    lastKey = row.key;
+                    merging += command.countCQL3Rows() ? row.getLiveCount(command.predicate, command.timestamp) : 1;
+                }
+                else
+                {
+                    row = referenceIter.next();
+                    lastKey = row.key;
+                    // the reference supersedes what is left of the regular row of an annotated key
+                    if (regularIter.hasNext() && regularIter.peek().key.equals(row.key))
+                        regularIter.next();
+
+                    // reference rows of deleted keys carry no targets
+                    IndirectionInformation refInfo = IndirectionInformation.RowToIndirectionInformation(row);
+                    if (refInfo == null)
+                        continue;
+
+                    List<InetAddress> targets = IndirectionPlacementHints.getLiveTargets(refInfo.getNodes());
+                    if (targets.isEmpty())
+                        throw new UnavailableException(ConsistencyLevel.ONE, 1, 0);
+                    RedirectedRangePager pager = pagers.get(targets.get(0));
+                    if (pager == null)
+                        pagers.put(targets.get(0), pager = new RedirectedRangePager((RangeSliceCommand) command, targets.get(0), row.key));
+                    pager.lastKey = row.key;
+                    pagerOf.put(row.key, pager);
+                    // the number of CQL rows of an annotated key is unknown until its data is read, but at least one
+                    merging++;
+                }
+                merged.add(row);
+            }
+
+            long start = System.nanoTime();
+            for (RedirectedRangePager pager : pagers.values())
+                pager.start();
+
+            for (Row row : merged)
+            {
+                if (row.indirection)
+                {
+                    row = pagerOf.get(row.key).get(row.key);
+                    if (row == null)
+                        continue;
+                }
+                result.add(row);
+                count += command.countCQL3Rows() ? row.getLiveCount(command.predicate, command.timestamp) : 1;
+            }
+            if (!pagers.isEmpty())
+            {
+                IndirectionMetrics.rangeFanOut.addNano(System.nanoTime() - start);
+                IndirectionMetrics.rangeFanOutTargets.update(pagers.size());
+            }
+
+            if (count >= command.limit() || lastKey == null)
+                return result;
+            range = remainder(range, lastKey);
+            if (range == null)
+                return result;
+            rows = command.forSubRange(range).executeLocally();
+        }
+    }
+
+    /**
+     * Executes an indexed range command on a replica of a regular keyspace. The expressions refer to columns the
+     * reference rows do not store, so they are pushed down to the targets instead: each evaluates them against the
+     * redirected rows it stores, using the indexes mirrored onto the table of redirected data (see
+     * IndirectionWriteSupport.syncIndexes).
+     *
+     * Only the placements of the reference rows in the range are read locally, and the closest live target of every
+     * placement is queried. A target may also store rows of keys outside the range of this replica or stale
+     * replicas, so returned rows are checked against their reference information, and a target is paged until it
+     * returned as many valid rows as the limit.
+     */
+    private static List<Row> getIndexedRangeSlice(RangeSliceCommand command, List<Row> regular) throws UnavailableException, ReadTimeoutException
+    {
+        CFMetaData refCfm = Schema.instance.getCFMetaData(command.keyspace + IndirectionSupport.ReferenceKeyspacePostfix, command.columnFamily);
+        if (refCfm == null)
+            return regular;
+
+        Set<InetAddress> candidates = new HashSet<InetAddress>();
+        for (List<ByteBuffer> placement : getPlacements(refCfm, command))
+        {
+            List<InetAddress> targets = IndirectionPlacementHints.getLiveTargets(placement);
+            if (targets.isEmpty())
+                throw new UnavailableException(ConsistencyLevel.ONE, 1, 0);
+            candidates.add(targets.get(0));
+        }
+        if (candidates.isEmpty())
+            return regular;
+
+        long start = System.nanoTime();
+        List<IndexedRangePager> pagers = new ArrayList<IndexedRangePager>(candidates.size());
+        for (InetAddress candidate : candidates)
+        {
+            IndexedRangePager pager = new IndexedRangePager(command, candidate);
+            pager.request(command.keyRange);
+            pagers.add(pager);
+        }
+
+        // keys stored on several candidates are taken from the first one
+        Map<DecoratedKey, Row> redirected = new HashMap<DecoratedKey, Row>();
+        for (IndexedRangePager pager : pagers)
+            pager.collect(refCfm, redirected);
+
+        List<Row> rows = new ArrayList<Row>(regular.size() + redirected.size());
+        for (Row row : regular)
+        {
+            // the reference supersedes what is left of the regular row of an annotated key
+            if (!redirected.containsKey(row.key) && IndirectionCache.instance.get(refCfm, row.key.key) == null)
+                rows.add(row);
+        }
+        rows.addAll(redirected.values());
+        Collections.sort(rows, new Comparator<Row>()
+        {
+            public int compare(Row r1, Row r2)
+            {
+                return r1.key.compareTo(r2.key);
+            }
+        });
+
+        List<Row> result = new ArrayList<Row>(Math.min(rows.size(), command.limit()));
+        int count = 0;
+        for (Row row : rows)
+        {
+            if (count >= command.limit())
+                break;
+            result.add(row);
+            count += command.countCQL3Rows() ? row.getLiveCount(command.predicate, command.timestamp) : 1;
+        }
+        IndirectionMetrics.rangeFanOut.addNano(System.nanoTime() - start);
+        IndirectionMetrics.rangeFanOutTargets.update(pagers.size());
+        return result;
+    }
+
+    /**
+     * @return the distinct targets of the reference rows in the range of the given command
+     */
+    private static Set<List<ByteBuffer>> getPlacements(CFMetaData refCfm, AbstractRangeCommand command)
+    {
+        ColumnFamilyStore cfs = Keyspace.open(refCfm.ksName).getColumnFamilyStore(refCfm.cfName);
+        SliceQueryFilter filter = new SliceQueryFilter(ByteBufferUtil.EMPTY_BYTE_BUFFER, ByteBufferUtil.EMPTY_BYTE_BUFFER, false, Integer.MAX_VALUE);
+        Set<List<ByteBuffer>> placements = new HashSet<List<ByteBuffer>>();
+        AbstractBounds<RowPosition> range = command.keyRange;
+        while (range != null)
+        {
+            ExtendedFilter exFilter = cfs.makeExtendedFilter(range, filter, Collections.<IndexExpression>emptyList(), ReferenceScanPageSize, false, false, command.timestamp);
+            List<Row> rows = cfs.getRangeSlice(exFilter);
+            for (Row row : rows)
+            {
+                IndirectionInformation refInfo = IndirectionInformation.RowToIndirectionInformation(row);
+                if (refInfo != null)
+                    placements.add(refInfo.getNodes());
+            }
+            range = rows.size() < ReferenceScanPageSize ? null : remainder(range, rows.get(rows.size() - 1).key);
+        }
+        return placements;
+    }
+
+    // the part of the range after the given key or null if there is none
+    static AbstractBounds<RowPosition> remainder(AbstractBounds<RowPosition> range, RowPosition key)
+    {
+        Pair<AbstractBounds<RowPosition>, AbstractBounds<RowPosition>> split = range.split(key);
+        return split == null ? null : split.right;
+    }
+
+    /**
+     * Pages through the rows of a target matching the expressions of an indexed range command.
+     */
+    private static class IndexedRangePager
+    {
+        private final RangeSliceCommand command;
+        private final InetAddress target;
+
+        private AbstractBounds<RowPosition> range;
+        private ReadCallback<RangeSliceReply, Iterable<Row>> handler;
+
+        private IndexedRangePager(RangeSliceCommand command, InetAddress target)
+        {
+            this.command = command;
+            this.target = target;
+        }
+
+        private void request(AbstractBounds<RowPosition> range)
+        {
+            // partitions are counted instead of CQL rows, so a page never ends within a partition
+            RangeSliceCommand pageCommand = new RangeSliceCommand(command.keyspace + IndirectionSupport.DataKeyspacePostfix, command.columnFamily, command.timestamp,
+                                                                  command.predicate, range, command.rowFilter, command.limit(), false, false);
+            RangeSliceResponseResolver resolver = new RangeSliceResponseResolver(pageCommand.keyspace, pageCommand.timestamp);
+            List<InetAddress> endpoints = Collections.singletonList(target);
+            resolver.setSources(endpoints);
+            this.range = range;
+            handler = new ReadCallback<RangeSliceReply, Iterable<Row>>(resolver, ConsistencyLevel.ONE, pageCommand, endpoints);
+            MessagingService.instance().sendRR(pageCommand.createMessage(), target, handler);
+        }
+
+        /**
+         * Adds the rows of which the target is a target to the given rows, unless a row of the key was added before.
+         */
+        private void collect(CFMetaData refCfm, Map<DecoratedKey, Row> redirected) throws ReadTimeoutException
+        {
+            int valid = 0;
+            while (true)
+            {
+                List<Row> page = new ArrayList<Row>();
+                try
+                {
+                    for (Row row : handler.get())
+                        page.add(row);
+                }
+                catch (DigestMismatchException e)
+                {
+                    throw new AssertionError(e); // no digests in range slices yet
+                }
+
+                for (Row row : page)
+                {
+                    IndirectionInformation refInfo = IndirectionCache.instance.get(refCfm, row.key.key);
+                    if (refInfo == null || !isTarget(refInfo))
+                        continue;
+                    valid++;
+                    if (!redirected.containsKey(row.key))
+                        redirected.put(row.key, row);
+                }
+
+                if (page.size() < command.limit() || valid >= command.limit())
+                    return;
+                AbstractBounds<RowPosition> next = remainder(range, page.get(page.size() - 1).key);
+                if (next == null)
+                    return;
+                request(next);
+            }
+        }
+
+        private boolean isTarget(IndirectionInformation refInfo)
+        {
+            for (ByteBuffer token : refInfo.getNodes())
+            {
+                if (target.equals(IndirectionPlacementHints.getTargetEndpoint(token)))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Pages through the redirected rows of a target between the first and the last annotated key read from it.
+     */
+    private static class RedirectedRangePager
+    {
+        private final RangeSliceCommand command;
+        private final InetAddress target;
+        private final DecoratedKey firstKey;
+        private DecoratedKey lastKey;
+
+        private ReadCallback<RangeSliceReply, Iterable<Row>> handler;
+        private PeekingIterator<Row> page;
+        private int pageSize;
+        private DecoratedKey lastReceived;
+
+        private RedirectedRangePager(RangeSliceCommand command, InetAddress target, DecoratedKey firstKey)
+        {
+            this.command = command;
+            this.target = target;
+            this.firstKey = firstKey;
+        }
+
+        private void start()
+        {
+            request(new Bounds<RowPosition>(firstKey, lastKey));
+        }
+
+        private void request(AbstractBounds<RowPosition> range)
+        {
+            // partitions are counted instead of CQL rows, so a page never ends within a partition
+            RangeSliceCommand pageCommand = new RangeSliceCommand(command.keyspace + IndirectionSupport.DataKeyspacePostfix, command.columnFamily, command.timestamp,
+                                                                  command.predicate, range, command.rowFilter, RedirectedRangePageSize, false, false);
+            RangeSliceResponseResolver resolver = new RangeSliceResponseResolver(pageCommand.keyspace, pageCommand.timestamp);
+            List<InetAddress> endpoints = Collections.singletonList(target);
+            resolver.setSources(endpoints);
+            handler = new ReadCallback<RangeSliceReply, Iterable<Row>>(resolver, ConsistencyLevel.ONE, pageCommand, endpoints);
+            MessagingService.instance().sendRR(pageCommand.createMessage(), target, handler);
+            page = null;
+        }
+
+        /**
+         * @return the redirected row of the given key or null if the target does not store it; keys have to be
+         * requested in token order
+         */
+        private Row get(DecoratedKey key) throws ReadTimeoutException
+        {
+            while (true)
+            {
+                if (page == null)
+                {
+                    List<Row> rows = new ArrayList<Row>();
+                    try
+                    {
+                        for (Row row : handler.get())
+                            rows.add(row);
+                    }
+                    catch (DigestMismatchException e)
+                    {
+                        throw new AssertionError(e); // no digests in range slices yet
+                    }
+                    pageSize = rows.size();
+                    if (!rows.isEmpty())
+                        lastReceived = rows.get(rows.size() - 1).key;
+                    page = Iterators.peekingIterator(rows.iterator());
+                }
+
+                while (page.hasNext() && page.peek().key.compareTo(key) < 0)
+                    page.next();
+                if (page.hasNext())
+                    return page.peek().key.equals(key) ? page.next() : null;
+
+                // a full page may be followed by further rows up to the last key
+                if (pageSize < RedirectedRangePageSize || lastReceived.compareTo(lastKey) >= 0)
+                    return null;
+                request(new Range<RowPosition>(lastReceived, lastKey));
+            }
+        }
+    }
+
     public static List<String> getIndirectionReplicas(String keyspace, String table, ByteBuffer key)
     {
         IndirectionInformation refInfo = IndirectionInformation.getExistingIndirectionInformation(keyspace, table, ByteBufferUtil.stringWOException(key));
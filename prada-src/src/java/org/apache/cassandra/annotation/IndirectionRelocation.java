@@ -0,0 +1,470 @@
+package org.apache.cassandra.annotation;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.RateLimiter;
+
+import org.apache.cassandra.annotation.loadbalancing.LoadBalancer;
+import org.apache.cassandra.annotation.messages.IndirectionUpdateReferencesMessage.ReferenceUpdate;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.filter.SliceQueryFilter;
+import org.apache.cassandra.dht.*;
+import org.apache.cassandra.exceptions.RequestValidationException;
+import org.apache.cassandra.gms.FailureDetector;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.service.StorageProxy;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.streaming.StreamPlan;
+import org.apache.cassandra.streaming.StreamSession;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Pair;
+import org.apache.cassandra.utils.WrappedRunnable;
+
+/**
+ * Moves redirected data whose placement became invalid, because a target left the ring, is leaving it or no longer
+ * satisfies the Data Annotations of its keys. The redirected data keyspaces use the LocalStrategy, so bootstrap,
+ * decommission and removenode never move them.
+ *
+ * The reference rows of a table are scanned page by page and every placement is checked once. Of the nodes holding
+ * a placement, the first live one still satisfying its annotations relocates it, or the first live one if none does,
+ * so running the relocation on every node moves every placement once. A leaving node relocates every placement it
+ * holds itself, so its decommission only proceeds once the data has left it. The keys of a placement are streamed to the
+ * new targets as sections of the sstables of the redirected data, then their reference rows are swapped, which
+ * deletes the data from the replaced targets. The swap is one microsecond newer than the reference row it replaces,
+ * so a key written after the scan keeps the placement of that write.
+ *
+ * The relocation runs on request (nodetool relocate), while decommissioning, and some time after a node changed its
+ * capabilities or left the ring.
+ */
+public class IndirectionRelocation implements IndirectionRelocationMBean
+{
+    public static final String MBEAN_NAME = "org.apache.cassandra.db:type=IndirectionRelocation";
+
+    public static final IndirectionRelocation instance = new IndirectionRelocation();
+
+    private static final int ReferenceScanPageSize = 1000;
+
+    private final RateLimiter limiter = RateLimiter.create(Double.MAX_VALUE);
+    private volatile int throughputInKB;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private ScheduledFuture<?> scheduled;
+
+    private volatile String status = "idle";
+    private final AtomicLong keysScanned = new AtomicLong();
+    private final AtomicLong placementsChecked = new AtomicLong();
+    private final AtomicLong placementsInvalid = new AtomicLong();
+    private final AtomicLong keysRelocated = new AtomicLong();
+    private final AtomicLong keysFailed = new AtomicLong();
+    private final AtomicLong bytesStreamed = new AtomicLong();
+
+    private IndirectionRelocation()
+    {
+        setThroughputInKB(DatabaseDescriptor.getAnnotationRelocationThroughputInKB());
+    }
+
+    public void start()
+    {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(this, new ObjectName(MBEAN_NAME));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Relocates the invalid placements this node is responsible for after annotation_relocation_delay_in_ms, a
+     * change before that postpones the relocation.
+     */
+    public synchronized void schedule()
+    {
+        long delay = DatabaseDescriptor.getAnnotationRelocationDelay();
+        if (delay < 0)
+            return;
+
+        if (scheduled != null)
+            scheduled.cancel(false);
+        scheduled = StorageService.optionalTasks.schedule(new WrappedRunnable()
+        {
+            protected void runMayThrow()
+            {
+                if (running.get())
+                {
+                    // the running relocation may have missed the change
+                    schedule();
+                    return;
+                }
+                relocate(null);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    public void relocate(String keyspace)
+    {
+        run(keyspace);
+    }
+
+    /**
+     * Relocates the redirected data of all keyspaces like relocate, after waiting for a relocation which is running
+     * already. That one may have started before the change asking for the relocation.
+     *
+     * @return the number of keys which could not be relocated
+     */
+    public long relocateAll() throws InterruptedException
+    {
+        while (true)
+        {
+            synchronized (running)
+            {
+                while (running.get())
+                    running.wait();
+            }
+            try
+            {
+                return run(null);
+            }
+            catch (IllegalStateException e)
+            {
+                // another relocation started in the meantime
+            }
+        }
+    }
+
+    // returns the number of keys which could not be relocated
+    private long run(String keyspace)
+    {
+        if (keyspace != null && (!IndirectionSupport.isRegularKeyspace(keyspace) || Schema.instance.getKSMetaData(keyspace) == null))
+            throw new IllegalArgumentException("Unknown keyspace " + keyspace);
+        if (!running.compareAndSet(false, true))
+            throw new IllegalStateException("Redirected data is being relocated already");
+
+        try
+        {
+            for (AtomicLong counter : Arrays.asList(keysScanned, placementsChecked, placementsInvalid, keysRelocated, keysFailed, bytesStreamed))
+                counter.set(0);
+
+            Collection<String> keyspaces = keyspace == null ? Schema.instance.getNonSystemKeyspaces() : Collections.singletonList(keyspace);
+            for (String ks : keyspaces)
+            {
+                if (!IndirectionSupport.isRegularKeyspace(ks))
+                    continue;
+                for (CFMetaData cfm : Schema.instance.getKSMetaData(ks).cfMetaData().values())
+                {
+                    if (Schema.instance.getCFMetaData(ks + IndirectionSupport.ReferenceKeyspacePostfix, cfm.cfName) != null
+                        && Schema.instance.getCFMetaData(ks + IndirectionSupport.DataKeyspacePostfix, cfm.cfName) != null)
+                        relocateTable(cfm);
+                }
+            }
+            IndirectionSupport.sendToLog("Relocation of redirected data finished: " + getProgress(), false, false, "IndirectionRelocation");
+            return keysFailed.get();
+        }
+        finally
+        {
+            status = "idle";
+            synchronized (running)
+            {
+                running.set(false);
+                running.notifyAll();
+            }
+        }
+    }
+
+    private void relocateTable(CFMetaData cfm)
+    {
+        status = "relocating " + cfm.ksName + "." + cfm.cfName;
+        CFMetaData refCfm = Schema.instance.getCFMetaData(cfm.ksName + IndirectionSupport.ReferenceKeyspacePostfix, cfm.cfName);
+        ColumnFamilyStore dataCfs = Keyspace.open(cfm.ksName + IndirectionSupport.DataKeyspacePostfix).getColumnFamilyStore(cfm.cfName);
+        // only data in sstables is streamed
+        dataCfs.forceBlockingFlush();
+
+        int replicationFactor = Keyspace.open(cfm.ksName).getReplicationStrategy().getReplicationFactor();
+        Map<Pair<List<ByteBuffer>, String>, Relocation> relocations = new HashMap<>();
+        SliceQueryFilter filter = new SliceQueryFilter(ByteBufferUtil.EMPTY_BYTE_BUFFER, ByteBufferUtil.EMPTY_BYTE_BUFFER, false, Integer.MAX_VALUE);
+        Token<?> minimum = StorageService.getPartitioner().getMinimumToken();
+        AbstractBounds<RowPosition> range = Range.makeRowRange(minimum, minimum, StorageService.getPartitioner());
+        while (range != null)
+        {
+            List<Row> rows;
+            try
+            {
+                rows = StorageProxy.getRangeSlice(new RangeSliceCommand(refCfm.ksName, refCfm.cfName, System.currentTimeMillis(), filter, range, ReferenceScanPageSize), ConsistencyLevel.ONE);
+            }
+            catch (Exception e)
+            {
+                IndirectionSupport.sendToLog("Scanning the reference rows of " + cfm.ksName + "." + cfm.cfName + " failed: " + e.getMessage(), true, false, "IndirectionRelocation");
+                return;
+            }
+
+            Map<Relocation, List<IndirectionInformation>> page = new LinkedHashMap<>();
+            for (Row row : rows)
+            {
+                IndirectionInformation refInfo = row.cf == null ? null : IndirectionInformation.RowToIndirectionInformation(row);
+                if (refInfo == null)
+                    continue;
+                keysScanned.incrementAndGet();
+
+                Pair<List<ByteBuffer>, String> placement = Pair.<List<ByteBuffer>, String>create(refInfo.getNodes(), refInfo.getAnnotationString());
+                if (!relocations.containsKey(placement))
+                    relocations.put(placement, plan(cfm.ksName, refInfo.getNodes(), refInfo.getAnnotationString(), replicationFactor));
+                Relocation relocation = relocations.get(placement);
+                if (relocation == null)
+                    continue;
+                if (relocation == Relocation.FAILED)
+                {
+                    keysFailed.incrementAndGet();
+                    continue;
+                }
+
+                List<IndirectionInformation> keys = page.get(relocation);
+                if (keys == null)
+                    page.put(relocation, keys = new ArrayList<>());
+                keys.add(refInfo);
+            }
+            for (Map.Entry<Relocation, List<IndirectionInformation>> entry : page.entrySet())
+                relocateKeys(cfm, dataCfs, entry.getKey(), entry.getValue());
+
+            range = rows.size() < ReferenceScanPageSize ? null : IndirectionReadSupport.remainder(range, rows.get(rows.size() - 1).key);
+        }
+    }
+
+    /**
+     * @return the relocation of the given placement, null if it is valid or relocated by another node, or
+     * Relocation.FAILED if this node holds it but cannot relocate it
+     */
+    @VisibleForTesting
+    Relocation plan(String keyspace, List<ByteBuffer> tokens, String annotationString, int replicationFactor)
+    {
+        placementsChecked.incrementAndGet();
+        String local = null;
+        for (ByteBuffer bytes : tokens)
+        {
+            String token = ByteBufferUtil.stringWOException(bytes);
+            if (IndirectionSupport.isLocalToken(token))
+                local = token;
+        }
+
+        CompiledConstraints annotations = CompiledConstraints.fromAnnotationString(annotationString);
+        Set<String> satisfying;
+        try
+        {
+            satisfying = new Constraints(annotations).getSatisfyingNodes();
+        }
+        catch (RequestValidationException e)
+        {
+            IndirectionSupport.sendToLog("Cannot check the placement " + tokens + " [" + annotationString + "]: " + e.getMessage(), true, false, "IndirectionRelocation");
+            return local == null ? null : Relocation.FAILED;
+        }
+
+        List<String> valid = new ArrayList<>();
+        List<String> holders = new ArrayList<>();
+        for (ByteBuffer bytes : tokens)
+        {
+            String token = ByteBufferUtil.stringWOException(bytes);
+            if (satisfying.contains(token) && isInRing(token))
+                valid.add(token);
+            InetAddress endpoint = StorageService.instance.getAssociatedEndpoint(token);
+            if (endpoint != null && FailureDetector.instance.isAlive(endpoint))
+                holders.add(token);
+        }
+        if (valid.size() == tokens.size())
+            return null;
+        placementsInvalid.incrementAndGet();
+
+        List<String> sources = new ArrayList<>(valid);
+        sources.retainAll(holders);
+        if (sources.isEmpty())
+            sources = holders;
+        if (sources.isEmpty())
+        {
+            IndirectionSupport.sendToLog("No live node holds the placement " + tokens + " [" + annotationString + "]", true, false, "IndirectionRelocation");
+            return null;
+        }
+        Collections.sort(sources);
+        boolean leaving = StorageService.instance.getTokenMetadata().isLeaving(FBUtilities.getBroadcastAddress());
+        if (!(leaving && local != null) && !IndirectionSupport.isLocalToken(sources.get(0)))
+            return null;
+
+        // targets still satisfying the annotations keep their data, the load balancer chooses the others
+        List<String> chosen = new ArrayList<>(valid);
+        if (chosen.size() < replicationFactor)
+        {
+            CapabilityIndex.Snapshot index = CapabilityIndex.instance.get();
+            BitSet candidates = new BitSet();
+            for (String token : satisfying)
+            {
+                Integer id = index.getId(token);
+                if (id != null && !chosen.contains(token) && isInRing(token))
+                    candidates.set(id);
+            }
+            if (candidates.cardinality() < replicationFactor - chosen.size())
+            {
+                IndirectionSupport.sendToLog("Not enough nodes satisfy the placement " + tokens + " [" + annotationString + "] to relocate it", true, false, "IndirectionRelocation");
+                return Relocation.FAILED;
+            }
+            chosen.addAll(LoadBalancer.getInstance().getTokens(index, candidates, keyspace, new ArrayList<>(chosen), replicationFactor - chosen.size()));
+        }
+
+        List<ByteBuffer> newTokens = new ArrayList<>(chosen.size());
+        List<InetAddress> targets = new ArrayList<>();
+        for (String token : chosen)
+        {
+            newTokens.add(ByteBufferUtil.bytes(token));
+            if (!valid.contains(token))
+                targets.add(StorageService.instance.getAssociatedEndpoint(token));
+        }
+        IndirectionSupport.sendToLog("Relocate the placement " + tokens + " [" + annotationString + "] to " + chosen, false, true, "IndirectionRelocation");
+        return new Relocation(newTokens, annotations, targets);
+    }
+
+    private static boolean isInRing(String token)
+    {
+        InetAddress endpoint = StorageService.instance.getAssociatedEndpoint(token);
+        TokenMetadata tokenMetadata = StorageService.instance.getTokenMetadata();
+        return endpoint != null && tokenMetadata.isMember(endpoint) && !tokenMetadata.isLeaving(endpoint);
+    }
+
+    private void relocateKeys(CFMetaData cfm, ColumnFamilyStore dataCfs, Relocation relocation, List<IndirectionInformation> refInfos)
+    {
+        List<DecoratedKey> keys = new ArrayList<>(refInfos.size());
+        List<ReferenceUpdate> updates = new ArrayList<>(refInfos.size());
+        for (IndirectionInformation refInfo : refInfos)
+        {
+            ByteBuffer key = cfm.getKeyValidator().fromString(refInfo.getKey());
+            keys.add(StorageService.getPartitioner().decorateKey(key));
+            updates.add(new ReferenceUpdate(cfm.cfId, key, relocation.tokens, relocation.annotations, refInfo.getTimestamp() + 1));
+        }
+        Collections.sort(keys);
+
+        try
+        {
+            stream(dataCfs, relocation.targets, keys);
+            IndirectionWriteSupport.swapReferences(updates);
+            keysRelocated.addAndGet(keys.size());
+        }
+        catch (Exception e)
+        {
+            keysFailed.addAndGet(keys.size());
+            IndirectionSupport.sendToLog("Relocating " + keys.size() + " keys of " + cfm.ksName + "." + cfm.cfName + " to " + relocation.targets + " failed: " + e.getMessage(), true, false, "IndirectionRelocation");
+        }
+    }
+
+    // Streams the rows of the given sorted keys from the local sstables to every target
+    private void stream(ColumnFamilyStore dataCfs, Collection<InetAddress> targets, List<DecoratedKey> keys) throws Exception
+    {
+        AbstractBounds<RowPosition> bounds = new Bounds<RowPosition>(keys.get(0), keys.get(keys.size() - 1));
+        StreamPlan plan = new StreamPlan("Relocation");
+        long bytes = 0;
+        for (InetAddress target : targets)
+        {
+            // every session releases the sstables it streamed, so each target references them on its own
+            List<StreamSession.SSTableStreamingSections> details = new ArrayList<>();
+            for (SSTableReader sstable : dataCfs.markReferenced(bounds).sstables)
+            {
+                List<Pair<Long, Long>> sections = getSections(sstable, keys);
+                if (sections.isEmpty())
+                {
+                    sstable.releaseReference();
+                    continue;
+                }
+                for (Pair<Long, Long> section : sections)
+                    bytes += section.right - section.left;
+                details.add(new StreamSession.SSTableStreamingSections(sstable, sections, keys.size()));
+            }
+            if (!details.isEmpty())
+                plan.transferFiles(target, details);
+        }
+        if (plan.isEmpty())
+            return;
+
+        limiter.acquire((int) Math.min(Integer.MAX_VALUE, Math.max(1, bytes / 1024)));
+        plan.execute().get();
+        bytesStreamed.addAndGet(bytes);
+    }
+
+    // The sections of the sstable holding the given sorted keys, adjacent rows form a single section
+    private static List<Pair<Long, Long>> getSections(SSTableReader sstable, List<DecoratedKey> keys)
+    {
+        List<Pair<Long, Long>> sections = new ArrayList<>();
+        for (DecoratedKey key : keys)
+        {
+            RowIndexEntry entry = sstable.getPosition(key, SSTableReader.Operator.EQ, false);
+            if (entry == null)
+                continue;
+            RowIndexEntry next = sstable.getPosition(key, SSTableReader.Operator.GT, false);
+            long end = next == null ? sstable.uncompressedLength() : next.position;
+
+            int last = sections.size() - 1;
+            if (last >= 0 && sections.get(last).right == entry.position)
+                sections.set(last, Pair.create(sections.get(last).left, end));
+            else
+                sections.add(Pair.create(entry.position, end));
+        }
+        return sections;
+    }
+
+    public String getStatus()
+    {
+        return status;
+    }
+
+    public Map<String, Long> getProgress()
+    {
+        Map<String, Long> progress = new LinkedHashMap<>();
+        progress.put("KeysScanned", keysScanned.get());
+        progress.put("PlacementsChecked", placementsChecked.get());
+        progress.put("PlacementsInvalid", placementsInvalid.get());
+        progress.put("KeysRelocated", keysRelocated.get());
+        progress.put("KeysFailed", keysFailed.get());
+        progress.put("BytesStreamed", bytesStreamed.get());
+        return progress;
+    }
+
+    public int getThroughputInKB()
+    {
+        return throughputInKB;
+    }
+
+    public void setThroughputInKB(int throughputInKB)
+    {
+        this.throughputInKB = throughputInKB;
+        limiter.setRate(throughputInKB == 0 ? Double.MAX_VALUE : throughputInKB);
+    }
+
+    /**
+     * The new placement of the keys of an invalid one.
+     */
+    static class Relocation
+    {
+        static final Relocation FAILED = new Relocation(null, null, null);
+
+        final List<ByteBuffer> tokens;
+        final CompiledConstraints annotations;
+        // the chosen nodes which do not hold the data yet
+        final List<InetAddress> targets;
+
+        private Relocation(List<ByteBuffer> tokens, CompiledConstraints annotations, List<InetAddress> targets)
+        {
+            this.tokens = tokens;
+            this.annotations = annotations;
+            this.targets = targets;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.apache.cassandra.annotation;
+
+import java.util.Map;
+
+public interface IndirectionRelocationMBean
+{
+    /**
+     * Relocates the redirected data of invalid placements this node is responsible for, blocking until done.
+     *
+     * @param keyspace the keyspace to relocate or null for all keyspaces
+     */
+    public void relocate(String keyspace);
+
+    /**
+     * @return what the relocation is doing, "idle" if it is not running
+     */
+    public String getStatus();
+
+    /**
+     * @return the counters of the current or last relocation, by name
+     */
+    public Map<String, Long> getProgress();
+
+    public int getThroughputInKB();
+
+    /**
+     * @param throughputInKB the maximum rate at which redirected data is relocated, 0 for no limit
+     */
+    public void setThroughputInKB(int throughputInKB);
+}
@@ -6,14 +6,19 @@ import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.antlr.runtime.*;
+import org.apache.cassandra.annotation.loadbalancing.LoadBalancer;
 import org.apache.cassandra.config.DatabaseDescriptor;
-import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.exceptions.RequestExecutionException;
 import org.apache.cassandra.exceptions.SyntaxException;
 import org.apache.cassandra.transport.messages.ResultMessage;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.db.*;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
 import org.apache.log4j.helpers.Loader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,73 +33,84 @@ public class IndirectionSupport {
     public static final String DataKeyspacePostfix = "_redirecteddata";
     // Keyspace Postfix for Keyspace holding the reference information
     public static final String ReferenceKeyspacePostfix = "_references";
-    // Keyspace name for Keyspace holding the Data Annotation abilities of the nodes
+    // Keyspace name for Keyspace holding the Data Annotation abilities of the nodes in earlier versions, which now
+    // gossip them (see CapabilityIndex); it is still excluded from redirection
     public static final String DataAnnotationAbilities = "dataannotation";
 
     public static DataAnnotationConfig DataAnnotationConfiguration;
 
 
-    public static void Bootstrap()
+    /**
+     * Loads the Data Annotation configuration and announces the abilities of this node. No schema is created, the
+     * placement groups are kept in the system keyspace.
+     */
+    public static void Bootstrap() throws ConfigurationException
     {
         DataAnnotationConfiguration = loadDataAnnotationConfig();
         IndirectionSupport.sendToLog("Data Annotation Settings loaded: " + DataAnnotationConfiguration.toString(), false, true, "IndirectionSupport");
 
-        if (Schema.instance.getKeyspaceInstance(DataAnnotationAbilities) == null)
-        {
-            IndirectionSupport.sendToLog("Keyspace for Data Annotations does not exist, create it!", false, true, "IndirectionSupport");
-            try
-            {
-                QueryProcessor.process("CREATE KEYSPACE " + DataAnnotationAbilities + " WITH REPLICATION = { 'class' : '" + DataAnnotationConfiguration.repStrategy + "', 'replication_factor' : '" + DataAnnotationConfiguration.repFactor + "' };", ConsistencyLevel.ONE);
-            }
-            catch (RequestExecutionException e)
-            {
-                IndirectionSupport.sendToLog("Error creating '" + IndirectionSupport.DataAnnotationAbilities + "' keyspace!", true, false, "IndirectionSupport");
-                e.printStackTrace();
-                System.exit(1);
-            }
-        }
-
+        // the abilities of the nodes are gossiped, see CapabilityIndex
+        CapabilityIndex.instance.register();
         DataAnnotationConfiguration.announceCapabilities();
+        LoadBalancer.getInstance();
+        IndirectionRelocation.instance.start();
     }
 
-    private static DataAnnotationConfig loadDataAnnotationConfig()
+    private static DataAnnotationConfig loadDataAnnotationConfig() throws ConfigurationException
     {
         URL configUrl = Loader.getResource("annotations.conf");
-        if (configUrl != null)
+        if (configUrl == null)
+            throw new ConfigurationException("Data Annotation configuration file annotations.conf not found");
+
+        try
         {
-            try
-            {
-                CharStream stream = new ANTLRFileStream(configUrl.getFile().toString());
-                configLexer lexer = new configLexer(stream);
-                TokenStream tokenStream = new CommonTokenStream(lexer);
-                configParser parser = new configParser(tokenStream);
-
-                DataAnnotationConfig config = parser.result();
-
-                lexer.throwLastRecognitionError();
-                parser.throwLastRecognitionError();
-
-                return config;
-            }
-            catch (IOException e)
-            {
-                IndirectionSupport.sendToLog("Error reading Data Annotation config!", true, false, "IndirectionSupport");
-                e.printStackTrace();
-                System.exit(1);
-            }
-            catch (SyntaxException|RecognitionException e)
-            {
-                IndirectionSupport.sendToLog("Configuration file annotation.conf malformed!", true, false, "IndirectionSupport");
-                e.printStackTrace();
-                System.exit(1);
-            }
+            CharStream stream = new ANTLRFileStream(configUrl.getFile().toString());
+            configLexer lexer = new configLexer(stream);
+            TokenStream tokenStream = new CommonTokenStream(lexer);
+            configParser parser = new configParser(tokenStream);
+
+            DataAnnotationConfig config = parser.result();
+
+            lexer.throwLastRecognitionError();
+            parser.throwLastRecognitionError();
+
+            return config;
         }
-        else
+        catch (IOException e)
+        {
+            throw new ConfigurationException("Error reading Data Annotation configuration file annotations.conf: " + e.getMessage());
+        }
+        catch (SyntaxException|RecognitionException e)
         {
-            IndirectionSupport.sendToLog("Data Annotation Configuration file not found!", true, false, "IndirectionSupport");
-            System.exit(1);
+            throw new ConfigurationException("Data Annotation configuration file annotations.conf malformed: " + e.getMessage());
         }
-        return new DataAnnotationConfig();
+    }
+
+    /**
+     * @return the tokens of this node as they identify it in reference rows and capabilities, smallest first; empty
+     * while the node does not own tokens
+     */
+    public static List<String> getLocalTokens()
+    {
+        TokenMetadata metadata = StorageService.instance.getTokenMetadata();
+        List<String> tokens = new ArrayList<String>();
+        for (Token<?> token : metadata.sortedTokens())
+        {
+            if (FBUtilities.getBroadcastAddress().equals(metadata.getEndpoint(token)))
+                tokens.add(tokenToString(token));
+        }
+        return tokens;
+    }
+
+    public static boolean isLocalToken(String token)
+    {
+        return FBUtilities.getBroadcastAddress().equals(StorageService.instance.getAssociatedEndpoint(token));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static String tokenToString(Token<?> token)
+    {
+        return StorageService.getPartitioner().getTokenFactory().toString(token);
     }
 
     public static boolean isRegularKeyspace(String KeySpaceName)
@@ -121,7 +137,7 @@ public class IndirectionSupport {
         if (IndirectionSupport.DataAnnotationConfiguration != null)
             IndirectionSupport.DataAnnotationConfiguration.dropAbilities();
 
-        Evaluation.printTimestamps();
+        Evaluation.export();
     }
 
     public static void sendToLog(String msg, boolean error, boolean onlyOnDebugMode, String context)
@@ -3,24 +3,35 @@ package org.apache.cassandra.annotation;
 import java.net.InetAddress;
 import java.nio.*;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Pattern;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+
 import org.apache.cassandra.annotation.messages.*;
+import org.apache.cassandra.annotation.messages.IndirectionUpdateReferencesMessage.ReferenceUpdate;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.cql3.*;
 import org.apache.cassandra.cql3.statements.*;
+import org.apache.cassandra.gms.FailureDetector;
+import org.apache.cassandra.metrics.IndirectionMetrics;
 import org.apache.cassandra.net.*;
 import org.apache.cassandra.service.*;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.HeapAllocator;
+import org.apache.cassandra.utils.Pair;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.exceptions.*;
 
-import com.google.common.base.Predicate;
-
 public class IndirectionWriteSupport {
 
     public static void initKeyspaces(CreateKeyspaceStatement ksStatement) throws RequestValidationException
@@ -49,13 +60,8 @@ public class IndirectionWriteSupport {
             return;
 
         String TableName = stmt.columnFamily();
-        int replicationFactor = Keyspace.open(keyspace).getReplicationStrategy().getReplicationFactor();
-        String colNames = "";
-        for (int i=0; i < replicationFactor; i++)
-        {
-            colNames += ", node" + (i+1) + " varchar";
-        }
-        colNames += ", " + IndirectionInformation.AnnotationRowName + " varchar";
+        // reference rows only store the id of their placement group, see PlacementGroups
+        String colNames = ", " + IndirectionInformation.PlacementGroupColumnName + " uuid";
 
         IndirectionSupport.queryDB(queryStr.replaceFirst(Pattern.quote(keyspace + "."), keyspace + IndirectionSupport.DataKeyspacePostfix + "."), ConsistencyLevel.ONE);
         IndirectionSupport.queryDB("CREATE TABLE " + keyspace + IndirectionSupport.ReferenceKeyspacePostfix + "." + TableName + " (Key varchar PRIMARY KEY" + colNames + ");", ConsistencyLevel.ONE);
@@ -79,87 +85,464 @@ public class IndirectionWriteSupport {
         }
     }
 
-    public static boolean insertData(UpdateStatement.ParsedInsert statement, String queryStr, ClientState clientState) throws RequestValidationException, IndirectionException, SyntaxException
+    /**
+     * Mirrors the secondary indexes of a table onto its table of redirected data, so every node indexes the
+     * redirected rows it stores and indexed queries can be evaluated where the data is.
+     */
+    public static void syncIndexes(String keyspace, String table) throws ConfigurationException
+    {
+        if (!IndirectionSupport.isRegularKeyspace(keyspace))
+            return;
+
+        CFMetaData cfm = Schema.instance.getCFMetaData(keyspace, table);
+        CFMetaData dataCfm = Schema.instance.getCFMetaData(keyspace + IndirectionSupport.DataKeyspacePostfix, table);
+        if (cfm == null || dataCfm == null)
+            return;
+
+        CFMetaData updated = dataCfm.clone();
+        boolean changed = false;
+        for (ColumnDefinition def : updated.allColumns())
+        {
+            ColumnDefinition source = cfm.getColumnDefinition(def.name);
+            if (source == null
+                || (source.getIndexType() == def.getIndexType()
+                    && Objects.equals(source.getIndexName(), def.getIndexName())
+                    && Objects.equals(source.getIndexOptions(), def.getIndexOptions())))
+                continue;
+
+            def.setIndex(source.getIndexName(), source.getIndexType(), source.getIndexOptions());
+            changed = true;
+        }
+        if (changed)
+            MigrationManager.announceColumnFamilyUpdate(updated, false);
+    }
+
+    public static boolean insertData(ModificationStatement statement, QueryState queryState, QueryOptions options) throws RequestValidationException, RequestExecutionException
     {
         if (!IndirectionSupport.isRegularKeyspace(statement.keyspace()))
             return false;
 
-        CQLStatement cqlstatem = statement.prepare().statement;
-        assert(cqlstatem instanceof UpdateStatement);
+        insertData(Collections.singletonList(new AnnotatedWrite(statement, options.getValues(), queryState.getTimestamp())), options.getConsistency());
+        return true;
+    }
 
-        if (Schema.instance.getKeyspaceInstance(statement.keyspace()) == null)
-            throw new InvalidRequestException("Keyspace " + statement.keyspace() + " does not exist");
-        Keyspace keyspace = Keyspace.open(statement.keyspace());
-        // We look for nodes which fulfill the annotations and let the LoadBalancer choose a subset of these
-        // according to the replication factor. Then we specify the chosen nodes directly in the query expression
-        //(afterwards the expression is direct)
-        statement.annotations.makeDirectWithAnnotations(keyspace.getReplicationStrategy().getReplicationFactor(), keyspace.getName(), ((UpdateStatement) cqlstatem).PrimaryKey); // insert regardless of nodes which may hold existing data
+    /**
+     * Writes a set of annotated rows. Rows are grouped by their chosen target nodes, so every target receives a
+     * single data message and every reference replica a single reference update, regardless of the number of rows.
+     * Targets which are down, or do not answer in time, get their rows through hinted handoff.
+     *
+     * @param cl the consistency level requested by the client, used for the reference leg unless
+     * annotation_reference_consistency is configured
+     */
+    public static void insertData(List<AnnotatedWrite> writes, ConsistencyLevel cl) throws RequestValidationException, RequestExecutionException
+    {
+        try
+        {
+            Uninterruptibles.getUninterruptibly(startInsert(writes, cl));
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RequestExecutionException)
+                throw (RequestExecutionException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
 
-        if (statement.annotations.isDirect())
+    /**
+     * Starts writing a set of annotated rows like insertData, without waiting for the answers of the nodes. The
+     * returned future completes on the callbacks of the messages, or fails once the write timed out.
+     *
+     * At most annotation_max_async_writes writes are in flight this way. Beyond that the calling thread waits for
+     * the write as insertData does, which pushes back on the clients.
+     */
+    public static ListenableFuture<Void> insertDataAsync(List<AnnotatedWrite> writes, ConsistencyLevel cl) throws RequestValidationException, RequestExecutionException
+    {
+        IndirectionMetrics.asyncWrites.inc();
+        if (IndirectionMetrics.asyncWrites.count() > DatabaseDescriptor.getAnnotationMaxAsyncWrites())
         {
-            HashSet<InetAddress> addresses = new HashSet<>(statement.annotations.getTargets());
+            IndirectionMetrics.asyncWrites.dec();
+            insertData(writes, cl);
+            return Futures.immediateFuture(null);
+        }
 
-            if (addresses.size() != statement.annotations.getTargets().size())
-                throw new InvalidRequestException("One or more target tokens belong to the same endpoint!");
-            if (statement.annotations.getTargets().size() != keyspace.getReplicationStrategy().getReplicationFactor())
-                throw new InvalidRequestException("Exactly " + keyspace.getReplicationStrategy().getReplicationFactor() + " target nodes must be specified");
+        ListenableFuture<Void> written;
+        try
+        {
+            written = startInsert(writes, cl);
+        }
+        catch (RequestValidationException | RequestExecutionException | RuntimeException e)
+        {
+            IndirectionMetrics.asyncWrites.dec();
+            throw e;
+        }
+        written.addListener(new Runnable()
+        {
+            public void run()
+            {
+                IndirectionMetrics.asyncWrites.dec();
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return written;
+    }
+
+    private static ListenableFuture<Void> startInsert(List<AnnotatedWrite> writes, ConsistencyLevel cl) throws RequestValidationException, RequestExecutionException
+    {
+        Map<Pair<UUID, ByteBuffer>, AnnotatedRow> rows = new LinkedHashMap<>();
+        for (AnnotatedWrite write : writes)
+        {
+            ModificationStatement statement = write.statement;
+            if (Schema.instance.getKeyspaceInstance(statement.keyspace()) == null)
+                throw new InvalidRequestException("Keyspace " + statement.keyspace() + " does not exist");
 
-            // Send data to all target nodes
-            IndirectionDataPredicate pred = new IndirectionDataPredicate();
-            AsyncMultipleResponses<IndirectionMessage> cb =
-                    sendMessageToNodes(addresses, new IndirectionDataMessage(ByteBufferUtil.bytes(queryStr), clientState), pred, ConsistencyLevel.ONE, keyspace);
+            RowMutation rm = redirectMutation(statement, write.variables, write.timestamp);
+            Pair<UUID, ByteBuffer> rowKey = Pair.create(statement.cfm.cfId, rm.key());
+            AnnotatedRow row = rows.get(rowKey);
+            if (row != null)
+            {
+                // several statements for the same row have to agree on its placement
+                if (row.annotations.getCompiled() != statement.getAnnotations().getCompiled())
+                    throw new InvalidRequestException("Conflicting Data Annotations for key " + statement.cfm.getKeyValidator().getString(rm.key()) + " in batch");
+                row.mutation.addAll(rm);
+                row.timestamp = Math.max(row.timestamp, write.timestamp);
+                continue;
+            }
 
-            assert (cqlstatem instanceof UpdateStatement);
-            assert (((UpdateStatement) cqlstatem).PrimaryKey != ByteBufferUtil.EMPTY_BYTE_BUFFER);
+            Keyspace keyspace = Keyspace.open(statement.keyspace());
+            int replicationFactor = keyspace.getReplicationStrategy().getReplicationFactor();
+            Constraints annotations = statement.getAnnotations().forWrite();
+            // We look for nodes which fulfill the annotations and let the LoadBalancer choose a subset of these
+            // according to the replication factor. Then we specify the chosen nodes directly in the query expression
+            //(afterwards the expression is direct)
+            annotations.makeDirectWithAnnotations(replicationFactor, keyspace.getName(), rm.key()); // insert regardless of nodes which may hold existing data
 
-            IndirectionInformation refInfo = new IndirectionInformation(ByteBufferUtil.stringWOException(((UpdateStatement) cqlstatem).PrimaryKey), statement.keyspace(), statement.columnFamily(), statement.annotations);
+            if (!annotations.isDirect())
+                throw new InvalidRequestException("No target nodes could be chosen for the Data Annotations " + annotations.getAnnotationsAsString());
+            if (new HashSet<>(annotations.getTargets()).size() != annotations.getTargets().size())
+                throw new InvalidRequestException("One or more target tokens belong to the same endpoint!");
+            if (annotations.getTargets().size() != replicationFactor)
+                throw new InvalidRequestException("Exactly " + replicationFactor + " target nodes must be specified");
 
-            boolean newData = refInfo.updateReferenceInformation();
+            IndirectionInformation refInfo = new IndirectionInformation(statement.cfm.getKeyValidator().getString(rm.key()), statement.keyspace(), statement.columnFamily(), annotations);
+            rows.put(rowKey, new AnnotatedRow(rm, annotations, refInfo, write.timestamp));
+        }
 
-            try {
-                if(!cb.waitForResponses(DatabaseDescriptor.getTimeout(MessagingService.Verb.INDIRECTION_DATA_MESSAGE), TimeUnit.MILLISECONDS))
+        // Group the rows by target node and by replica of their reference information
+        ConsistencyLevel dataConsistency = DatabaseDescriptor.getAnnotationDataConsistency();
+        ConsistencyLevel referenceConsistency = getReferenceConsistency(cl);
+        int[] dataBlockFor = new int[rows.size()];
+        int[] referenceBlockFor = new int[rows.size()];
+        final Map<InetAddress, List<RowMutation>> dataByTarget = new HashMap<>();
+        Map<InetAddress, List<RowMutation>> hintsByTarget = new HashMap<>();
+        Map<InetAddress, BitSet> dataRows = new HashMap<>();
+        Map<InetAddress, List<ReferenceUpdate>> referencesByNode = new HashMap<>();
+        Map<InetAddress, BitSet> referenceRows = new HashMap<>();
+        final List<ReferenceUpdate> rowUpdates = new ArrayList<>(rows.size());
+        int rowId = 0;
+        for (AnnotatedRow row : rows.values())
+        {
+            List<InetAddress> targets = row.annotations.getTargets();
+            dataBlockFor[rowId] = dataConsistency.blockFor(Keyspace.open(row.references.getKeyspace()));
+            int liveTargets = 0;
+            for (InetAddress target : targets)
+            {
+                if (!FailureDetector.instance.isAlive(target))
                 {
-                    throw new SyntaxException("WannabeIndirectionException: Error inserting redirected data");
+                    // down targets do not count towards the data consistency, they get the row once they are back
+                    if (StorageProxy.shouldHint(target))
+                        addMutation(hintsByTarget, target, row.mutation);
+                    continue;
                 }
-            } catch (TimeoutException e1) {
-                throw new SyntaxException("WannabeIndirectionException: Insertion of redirected data timed out");
+                addMutation(dataByTarget, target, row.mutation);
+                addRow(dataRows, target, rowId);
+                liveTargets++;
+            }
+            if (liveTargets < dataBlockFor[rowId])
+                throw new UnavailableException(dataConsistency, dataBlockFor[rowId], liveTargets);
+
+            List<InetAddress> referenceNodes = row.references.getReferenceEndpoints();
+            referenceBlockFor[rowId] = referenceConsistency.blockFor(Keyspace.open(row.references.getKeyspace() + IndirectionSupport.ReferenceKeyspacePostfix));
+            if (referenceNodes.size() < referenceBlockFor[rowId])
+                throw new UnavailableException(referenceConsistency, referenceBlockFor[rowId], referenceNodes.size());
+            ReferenceUpdate update = row.references.toReferenceUpdate(row.timestamp);
+            rowUpdates.add(update);
+            for (InetAddress referenceNode : referenceNodes)
+            {
+                List<ReferenceUpdate> updates = referencesByNode.get(referenceNode);
+                if (updates == null)
+                    referencesByNode.put(referenceNode, updates = new ArrayList<>());
+                updates.add(update);
+                addRow(referenceRows, referenceNode, rowId);
+            }
+            rowId++;
+        }
+
+        if (!hintsByTarget.isEmpty())
+        {
+            if (StorageProxy.instance.getHintsInProgress() > StorageProxy.instance.getMaxHintsInProgress())
+                throw new OverloadedException("Too many in flight hints: " + StorageProxy.instance.getHintsInProgress());
+            hintData(hintsByTarget);
+        }
+
+        // Send data and reference updates at once and wait for all of them, including the deletes of stale
+        // replicas reported by the reference replicas, on a single handler
+        WriteType writeType = writes.size() > 1 ? WriteType.UNLOGGED_BATCH : WriteType.SIMPLE;
+        final IndirectionWriteHandler handler = new IndirectionWriteHandler(writeType, rowUpdates,
+                                                                            dataConsistency, dataBlockFor, dataRows,
+                                                                            referenceConsistency, referenceBlockFor, referenceRows);
+        handler.expireAfter(DatabaseDescriptor.getTimeout(MessagingService.Verb.INDIRECTION_DATA_MESSAGE));
+        for (Map.Entry<InetAddress, List<RowMutation>> entry : dataByTarget.entrySet())
+        {
+            IndirectionSupport.sendToLog("Send redirected data to node with Address " + entry.getKey(), false, true, "IndirectionWriteSupport");
+            MessagingService.instance().sendRR(new IndirectionDataMessage(entry.getValue()).createMessage(), entry.getKey(), handler);
+        }
+        for (Map.Entry<InetAddress, List<ReferenceUpdate>> entry : referencesByNode.entrySet())
+            MessagingService.instance().sendRR(new IndirectionUpdateReferencesMessage(entry.getValue()).createMessage(), entry.getKey(), handler);
+
+        ListenableFuture<Void> written = Futures.transform(handler, new Function<Void, Void>()
+        {
+            public Void apply(Void input)
+            {
+                // later reads coordinated by this node can go straight to the targets
+                for (ReferenceUpdate update : rowUpdates)
+                    IndirectionPlacementHints.instance.put(update.cfId, update.key, update.tokens, update.timestamp);
+                return null;
             }
-            if (newData)
+        });
+        return Futures.withFallback(written, new FutureFallback<Void>()
+        {
+            public ListenableFuture<Void> create(Throwable t)
             {
-                InetAddress ownAddr = FBUtilities.getBroadcastAddress();
-                for (InetAddress target : addresses)
+                if (t instanceof WriteTimeoutException)
                 {
-                    if (!ownAddr.equals(target))
-                        LoadBroadcaster.instance.updateLoadCache(target, pred.getDiff());
+                    // targets which did not answer may have missed their rows, as with regular writes they get hints
+                    Map<InetAddress, List<RowMutation>> unanswered = new HashMap<>();
+                    for (InetAddress target : handler.getUnansweredTargets())
+                    {
+                        if (StorageProxy.shouldHint(target))
+                            unanswered.put(target, dataByTarget.get(target));
+                    }
+                    hintData(unanswered);
                 }
+                return Futures.immediateFailedFuture(t);
+            }
+        });
+    }
+
+    /**
+     * Starts deleting the redirected data of the partitions deleted by the given mutations, which are written to
+     * the regular keyspaces as usual by the caller.
+     *
+     * The reference rows are deleted on the reference replicas, which report the nodes holding the data of their
+     * rows; the coordinator deletes the data there, one message per node for all rows. If the coordinator knows the
+     * placement of a row from IndirectionPlacementHints, its deletes are sent right away, the nodes reported later
+     * only receive the deletes they did not get yet. Keys the coordinator knows not to be annotated, see
+     * isKnownNotAnnotated, are left out.
+     *
+     * @param cl the consistency level requested by the client, used for the reference rows unless
+     * annotation_reference_consistency is configured; datacenter local levels are replaced by their global
+     * counterparts
+     * @return the handler to wait on or null if no mutation deletes a partition of an annotated key
+     */
+    public static IndirectionWriteHandler deleteData(Collection<? extends IMutation> mutations, ConsistencyLevel cl) throws InvalidRequestException, RequestExecutionException
+    {
+        ConsistencyLevel referenceConsistency = getDeleteReferenceConsistency(cl);
+        List<ReferenceUpdate> deletions = new ArrayList<>();
+        for (IMutation mutation : mutations)
+        {
+            if (!(mutation instanceof RowMutation) || !IndirectionSupport.isRegularKeyspace(mutation.getKeyspaceName()))
+                continue;
+
+            for (ColumnFamily cf : mutation.getColumnFamilies())
+            {
+                DeletionTime deletion = cf.deletionInfo().getTopLevelDeletion();
+                CFMetaData refCfm = Schema.instance.getCFMetaData(cf.metadata().ksName + IndirectionSupport.ReferenceKeyspacePostfix, cf.metadata().cfName);
+                if (deletion.equals(DeletionTime.LIVE) || refCfm == null || isKnownNotAnnotated(cf.metadata(), refCfm, mutation.key(), referenceConsistency))
+                    continue;
+                deletions.add(ReferenceUpdate.deletion(cf.metadata().cfId, mutation.key(), deletion.markedForDeleteAt));
             }
+        }
+        if (deletions.isEmpty())
+            return null;
+
+        ConsistencyLevel dataConsistency = DatabaseDescriptor.getAnnotationDataConsistency();
+        int[] deleteBlockFor = new int[deletions.size()];
+        int[] referenceBlockFor = new int[deletions.size()];
+        Map<InetAddress, List<ReferenceUpdate>> referencesByNode = new HashMap<>();
+        Map<InetAddress, BitSet> referenceRows = new HashMap<>();
+        Map<InetAddress, BitSet> hintedRows = new HashMap<>();
+        for (int rowId = 0; rowId < deletions.size(); rowId++)
+        {
+            ReferenceUpdate deletion = deletions.get(rowId);
+            CFMetaData cfm = Schema.instance.getCFMetaData(deletion.cfId);
+            deleteBlockFor[rowId] = dataConsistency.blockFor(Keyspace.open(cfm.ksName));
+
+            addReferenceNodes(deletion, rowId, referenceConsistency, referenceBlockFor, referencesByNode, referenceRows);
 
-            return true;
+            IndirectionPlacementHints.PlacementHint hint = IndirectionPlacementHints.instance.get(deletion.cfId, deletion.key);
+            if (hint != null)
+            {
+                for (InetAddress target : hint.getLiveTargets())
+                    addRow(hintedRows, target, rowId);
+                IndirectionPlacementHints.instance.remove(deletion.cfId, deletion.key);
+            }
+        }
+
+        WriteType writeType = deletions.size() > 1 ? WriteType.UNLOGGED_BATCH : WriteType.SIMPLE;
+        IndirectionWriteHandler handler = IndirectionWriteHandler.forDeletes(writeType, deletions,
+                                                                             dataConsistency, deleteBlockFor,
+                                                                             referenceConsistency, referenceBlockFor, referenceRows);
+        handler.deleteReplicas(hintedRows);
+        for (Map.Entry<InetAddress, List<ReferenceUpdate>> entry : referencesByNode.entrySet())
+            MessagingService.instance().sendRR(new IndirectionUpdateReferencesMessage(entry.getValue()).createMessage(), entry.getKey(), handler);
+        return handler;
+    }
+
+    /**
+     * Points the reference rows of the given keys at new targets, which hold the data already. The replaced targets
+     * are reported as stale by the reference replicas and deleted, as for a write; an update older than the
+     * reference row it would replace changes nothing.
+     */
+    public static void swapReferences(List<ReferenceUpdate> updates) throws InvalidRequestException, RequestExecutionException
+    {
+        ConsistencyLevel referenceConsistency = getReferenceConsistency(ConsistencyLevel.QUORUM);
+        int[] referenceBlockFor = new int[updates.size()];
+        Map<InetAddress, List<ReferenceUpdate>> referencesByNode = new HashMap<>();
+        Map<InetAddress, BitSet> referenceRows = new HashMap<>();
+        for (int rowId = 0; rowId < updates.size(); rowId++)
+            addReferenceNodes(updates.get(rowId), rowId, referenceConsistency, referenceBlockFor, referencesByNode, referenceRows);
+
+        WriteType writeType = updates.size() > 1 ? WriteType.UNLOGGED_BATCH : WriteType.SIMPLE;
+        IndirectionWriteHandler handler = new IndirectionWriteHandler(writeType, updates,
+                                                                      DatabaseDescriptor.getAnnotationDataConsistency(), new int[updates.size()], Collections.<InetAddress, BitSet>emptyMap(),
+                                                                      referenceConsistency, referenceBlockFor, referenceRows);
+        for (Map.Entry<InetAddress, List<ReferenceUpdate>> entry : referencesByNode.entrySet())
+            MessagingService.instance().sendRR(new IndirectionUpdateReferencesMessage(entry.getValue()).createMessage(), entry.getKey(), handler);
+        handler.await(DatabaseDescriptor.getTimeout(MessagingService.Verb.INDIRECTION_UPDATE_REFERENCES_MESSAGE));
+
+        for (ReferenceUpdate update : updates)
+            IndirectionPlacementHints.instance.put(update.cfId, update.key, update.tokens, update.timestamp);
+    }
+
+    // Adds the live replicas of the reference row of the given update to the reference leg
+    private static void addReferenceNodes(ReferenceUpdate update, int rowId, ConsistencyLevel referenceConsistency, int[] referenceBlockFor,
+                                          Map<InetAddress, List<ReferenceUpdate>> referencesByNode, Map<InetAddress, BitSet> referenceRows) throws UnavailableException
+    {
+        CFMetaData cfm = Schema.instance.getCFMetaData(update.cfId);
+        Keyspace referenceKeyspace = Keyspace.open(cfm.ksName + IndirectionSupport.ReferenceKeyspacePostfix);
+        List<InetAddress> referenceNodes = StorageService.instance.getLiveNaturalEndpoints(referenceKeyspace, StorageService.getPartitioner().getToken(update.key));
+        referenceBlockFor[rowId] = referenceConsistency.blockFor(referenceKeyspace);
+        if (referenceNodes.size() < referenceBlockFor[rowId])
+            throw new UnavailableException(referenceConsistency, referenceBlockFor[rowId], referenceNodes.size());
+        for (InetAddress referenceNode : referenceNodes)
+        {
+            List<ReferenceUpdate> updates = referencesByNode.get(referenceNode);
+            if (updates == null)
+                referencesByNode.put(referenceNode, updates = new ArrayList<>());
+            updates.add(update);
+            addRow(referenceRows, referenceNode, rowId);
         }
+    }
 
-        return false;
+    /**
+     * A key is known not to be annotated if this node holds its reference row, has none and its answer alone
+     * satisfies the reference consistency, as it would for a read at that level. Annotated writes coordinated by
+     * this node leave a placement hint, which rules out the check.
+     */
+    private static boolean isKnownNotAnnotated(CFMetaData cfm, CFMetaData refCfm, ByteBuffer key, ConsistencyLevel referenceConsistency)
+    {
+        if (referenceConsistency.blockFor(Keyspace.open(refCfm.ksName)) > 1 || IndirectionPlacementHints.instance.get(cfm.cfId, key) != null)
+            return false;
+        if (!StorageService.instance.getNaturalEndpoints(refCfm.ksName, key).contains(FBUtilities.getBroadcastAddress()))
+            return false;
+        return IndirectionCache.instance.get(refCfm, key) == null;
+    }
+
+    // Deletes are regular writes, which accept any level; the reference rows are deleted at the closest supported one
+    private static ConsistencyLevel getDeleteReferenceConsistency(ConsistencyLevel requested) throws InvalidRequestException
+    {
+        if (DatabaseDescriptor.getAnnotationReferenceConsistency() == null && (requested == ConsistencyLevel.LOCAL_QUORUM || requested == ConsistencyLevel.EACH_QUORUM))
+            return ConsistencyLevel.QUORUM;
+        return getReferenceConsistency(requested);
     }
 
-    public static AsyncMultipleResponses<IndirectionMessage> sendMessageToNodes(Collection<InetAddress> addresses, IndirectionMessage msg, Predicate<IndirectionMessage> pred, ConsistencyLevel cl, Keyspace keyspace)
+    private static ConsistencyLevel getReferenceConsistency(ConsistencyLevel requested) throws InvalidRequestException
     {
-        MessageOut<IndirectionMessage> msgout = (MessageOut<IndirectionMessage>) msg.createMessage();
-        AsyncMultipleResponses<IndirectionMessage> callback = new AsyncMultipleResponses<>(pred, cl, keyspace, addresses.size());
-        for (InetAddress addr : addresses)
+        if (DatabaseDescriptor.getAnnotationReferenceConsistency() != null)
+            return DatabaseDescriptor.getAnnotationReferenceConsistency();
+
+        switch (requested)
         {
-            IndirectionSupport.sendToLog("Send message to Node node with Address " + addr.toString(), false, true, "IndirectionWriteSupport");
-            MessagingService.instance().sendRR(msgout, addr, callback);
+        case ANY:
+        case LOCAL_ONE:
+            return ConsistencyLevel.ONE;
+        case ONE:
+        case TWO:
+        case THREE:
+        case QUORUM:
+        case ALL:
+            return requested;
+        default:
+            throw new InvalidRequestException("Consistency level " + requested + " is not supported for writes with Data Annotations");
         }
-        return callback;
     }
 
-    public static AsyncMultipleResponses<IndirectionMessage> sendMessageToNodes(Collection<String> Tokens, Keyspace keyspace, IndirectionMessage msg, Predicate<IndirectionMessage> pred, ConsistencyLevel cl)
+    /**
+     * Stores hints for the given rows of redirected data. The redirected data keyspace uses the LocalStrategy, so
+     * its rows are never hinted by the regular write path; the HintedHandOffManager replays them like any other hint
+     * once the target is back, at the configured hinted handoff throttle.
+     */
+    private static void hintData(Map<InetAddress, List<RowMutation>> mutationsByTarget)
     {
-        List<InetAddress> addresses = new ArrayList<InetAddress>();
-        for (String Token : Tokens)
+        for (Map.Entry<InetAddress, List<RowMutation>> entry : mutationsByTarget.entrySet())
         {
-            addresses.add(StorageService.instance.getAssociatedEndpoint(Token));
+            // a node cannot hint itself, see StorageProxy.submitHint
+            if (entry.getKey().equals(FBUtilities.getBroadcastAddress()))
+                continue;
+            IndirectionSupport.sendToLog("Hint " + entry.getValue().size() + " redirected rows for node with Address " + entry.getKey(), false, true, "IndirectionWriteSupport");
+            for (RowMutation rm : entry.getValue())
+            {
+                StorageProxy.submitHint(rm, entry.getKey(), null);
+                IndirectionMetrics.redirectedHints.inc();
+            }
         }
-        return sendMessageToNodes(addresses, msg, pred, cl, keyspace);
+    }
+
+    private static void addMutation(Map<InetAddress, List<RowMutation>> mutations, InetAddress node, RowMutation rm)
+    {
+        List<RowMutation> nodeMutations = mutations.get(node);
+        if (nodeMutations == null)
+            mutations.put(node, nodeMutations = new ArrayList<>());
+        nodeMutations.add(rm);
+    }
+
+    private static void addRow(Map<InetAddress, BitSet> rows, InetAddress node, int row)
+    {
+        BitSet nodeRows = rows.get(node);
+        if (nodeRows == null)
+            rows.put(node, nodeRows = new BitSet());
+        nodeRows.set(row);
+    }
+
+    // Builds the mutation of a single row insert and moves it to the redirected data keyspace
+    private static RowMutation redirectMutation(ModificationStatement statement, List<ByteBuffer> variables, long now) throws RequestValidationException, RequestExecutionException
+    {
+        Collection<? extends IMutation> mutations = statement.getMutations(variables, false, ConsistencyLevel.ONE, now, false);
+        if (mutations.size() != 1 || !(mutations.iterator().next() instanceof RowMutation))
+            throw new InvalidRequestException("Data Annotations are only supported for inserts of a single regular row");
+
+        RowMutation original = (RowMutation) mutations.iterator().next();
+        CFMetaData dataCfm = Schema.instance.getCFMetaData(statement.keyspace() + IndirectionSupport.DataKeyspacePostfix, statement.columnFamily());
+        if (dataCfm == null)
+            throw new InvalidRequestException("No redirected data table for " + statement.keyspace() + "." + statement.columnFamily());
+
+        RowMutation rm = new RowMutation(dataCfm.ksName, original.key());
+        for (ColumnFamily cf : original.getColumnFamilies())
+        {
+            ColumnFamily redirected = ArrayBackedSortedColumns.factory.create(dataCfm);
+            redirected.addAll(cf, HeapAllocator.instance);
+            rm.add(redirected);
+        }
+        return rm;
     }
 
     // Returns for a Collection of Keys (e.g. [A,'B',C]) the concatenated form used for CQL queries, i.e. "'A','B','C'"
@@ -177,22 +560,36 @@ public class IndirectionWriteSupport {
         return result.substring(0, result.length()-1);
     }
 
-    public static class IndirectionDataPredicate implements Predicate<IndirectionMessage>
+    /**
+     * An annotated statement of a single insert or a batch together with its bound values.
+     */
+    public static class AnnotatedWrite
     {
-        private double value = -1;
+        public final ModificationStatement statement;
+        public final List<ByteBuffer> variables;
+        public final long timestamp;
 
-        @Override
-        public boolean apply(IndirectionMessage msg)
+        public AnnotatedWrite(ModificationStatement statement, List<ByteBuffer> variables, long timestamp)
         {
-            double diff = ByteBufferUtil.toDouble(msg.content);
-            if (value < 0 && diff >= 0)
-                value = diff;
-            return diff >= 0;
+            this.statement = statement;
+            this.variables = variables;
+            this.timestamp = timestamp;
         }
- 
-        public double getDiff()
+    }
+
+    private static class AnnotatedRow
+    {
+        private final RowMutation mutation;
+        private final Constraints annotations;
+        private final IndirectionInformation references;
+        private long timestamp;
+
+        private AnnotatedRow(RowMutation mutation, Constraints annotations, IndirectionInformation references, long timestamp)
         {
-            return value > 0 ? value : 0;
+            this.mutation = mutation;
+            this.annotations = annotations;
+            this.references = references;
+            this.timestamp = timestamp;
         }
     }
 }
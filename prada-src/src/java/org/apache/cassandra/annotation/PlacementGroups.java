@@ -0,0 +1,221 @@
+package org.apache.cassandra.annotation;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.cassandra.cql3.statements.ModificationStatement;
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.filter.SliceQueryFilter;
+import org.apache.cassandra.db.marshal.ListType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.exceptions.RequestExecutionException;
+import org.apache.cassandra.exceptions.RequestValidationException;
+import org.apache.cassandra.net.AsyncOneResponse;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.service.ClientState;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.UUIDGen;
+
+/**
+ * Interns the placements of annotated keys. A placement group is the sorted set of target tokens together with the
+ * annotations of a key; reference rows only store the id of their group, while the groups themselves are stored once
+ * per node in the local placement_groups table of the system keyspace.
+ *
+ * The id of a group is a name based UUID of its content, so every node derives the same id for a placement without
+ * coordination and a stored group never changes. Resolved groups are therefore cached for good; there are only few
+ * distinct placements. A node reading a reference row of an unknown group copies the group from the replicas of the
+ * row once.
+ */
+public class PlacementGroups
+{
+    private static final ListType<String> NodesType = ListType.getInstance(UTF8Type.instance);
+
+    public static final PlacementGroups instance = new PlacementGroups();
+
+    private final ConcurrentMap<UUID, PlacementGroup> groups = new ConcurrentHashMap<>();
+    // groups stored in the local placement_groups table
+    private final Set<UUID> persisted = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+    // end of the last failed copy of groups missing locally
+    private final ConcurrentMap<UUID, Long> failures = new ConcurrentHashMap<>();
+    private volatile ModificationStatement insertStatement;
+
+    private PlacementGroups() {}
+
+    /**
+     * @return the group of the given targets and annotations, which is only known locally until stored
+     */
+    public PlacementGroup intern(List<ByteBuffer> tokens, String annotationString)
+    {
+        List<ByteBuffer> sorted = new ArrayList<>(tokens);
+        Collections.sort(sorted);
+        UUID id = makeId(sorted, annotationString);
+        PlacementGroup group = groups.get(id);
+        if (group == null)
+        {
+            group = new PlacementGroup(id, sorted, annotationString);
+            PlacementGroup previous = groups.putIfAbsent(id, group);
+            if (previous != null)
+                group = previous;
+        }
+        return group;
+    }
+
+    /**
+     * Stores the given group in the local placement_groups table, unless it is stored already. Every reference
+     * replica stores the groups of the reference rows it writes before writing them, so it never depends on other
+     * nodes to resolve its own rows.
+     */
+    public void store(PlacementGroup group) throws RequestExecutionException, RequestValidationException
+    {
+        if (persisted.contains(group.id))
+            return;
+
+        List<ByteBuffer> values = Arrays.asList(group.getIdBytes(), NodesType.decompose(group.getNodesAsString()), ByteBufferUtil.bytes(group.annotationString));
+        for (IMutation mutation : getInsertStatement().getMutations(values, true, null, FBUtilities.timestampMicros(), false))
+            mutation.apply();
+        persisted.add(group.id);
+        failures.remove(group.id);
+    }
+
+    /**
+     * @return the group with the given id or null if it is not stored locally
+     */
+    public PlacementGroup get(UUID id)
+    {
+        PlacementGroup group = groups.get(id);
+        if (group != null)
+            return group;
+
+        UntypedResultSet result = QueryProcessor.processInternal("SELECT * FROM " + Keyspace.SYSTEM_KS + "." + SystemKeyspace.PLACEMENT_GROUPS_CF + " WHERE id = " + id + ";");
+        if (result == null || result.isEmpty())
+            return null;
+
+        UntypedResultSet.Row row = result.one();
+        List<ByteBuffer> tokens = new ArrayList<>();
+        for (String node : row.getList("nodes", UTF8Type.instance))
+            tokens.add(ByteBufferUtil.bytes(node));
+        group = new PlacementGroup(id, tokens, row.getString(IndirectionInformation.AnnotationRowName));
+
+        PlacementGroup previous = groups.putIfAbsent(id, group);
+        persisted.add(id);
+        return previous == null ? group : previous;
+    }
+
+    /**
+     * @return the group with the given id, copied from the other replicas of the given reference row if it is not
+     * stored locally, or null if none of them returned it within the read timeout
+     */
+    public PlacementGroup get(UUID id, String refKeyspace, ByteBuffer key)
+    {
+        PlacementGroup group = get(id);
+        return group == null ? copy(id, refKeyspace, key) : group;
+    }
+
+    /**
+     * Copies a group from the closest replica of a reference row referring to it which knows it. Reference rows reach
+     * a node without their group when it coordinates a read or when they were streamed or repaired to it; the
+     * replicas they were written to store the group. After a failed copy, the group is not requested again for the
+     * read timeout, so rows of a lost group do not block every read.
+     */
+    private PlacementGroup copy(UUID id, String refKeyspace, ByteBuffer key)
+    {
+        long start = System.currentTimeMillis();
+        Long failed = failures.get(id);
+        if (failed != null && start - failed < DatabaseDescriptor.getReadRpcTimeout())
+            return null;
+
+        SliceQueryFilter filter = new SliceQueryFilter(ByteBufferUtil.EMPTY_BYTE_BUFFER, ByteBufferUtil.EMPTY_BYTE_BUFFER, false, Integer.MAX_VALUE);
+        ReadCommand command = new SliceFromReadCommand(Keyspace.SYSTEM_KS, ByteBuffer.wrap(UUIDGen.decompose(id)), SystemKeyspace.PLACEMENT_GROUPS_CF, start, filter);
+        Token<?> token = StorageService.getPartitioner().getToken(key);
+        List<InetAddress> endpoints = StorageService.instance.getLiveNaturalEndpoints(Keyspace.open(refKeyspace), token);
+        endpoints.remove(FBUtilities.getBroadcastAddress());
+        DatabaseDescriptor.getEndpointSnitch().sortByProximity(FBUtilities.getBroadcastAddress(), endpoints);
+        for (InetAddress endpoint : endpoints)
+        {
+            long timeout = DatabaseDescriptor.getReadRpcTimeout() - (System.currentTimeMillis() - start);
+            if (timeout <= 0)
+                break;
+            AsyncOneResponse<ReadResponse> response = MessagingService.instance().sendRR(command.createMessage(), endpoint);
+            try
+            {
+                Row row = response.get(timeout, TimeUnit.MILLISECONDS).row();
+                if (row == null || row.cf == null || row.cf.getColumnCount() == 0)
+                    continue;
+                // groups never change, so the copy of any replica is as good as our own
+                new RowMutation(Keyspace.SYSTEM_KS, row.key.key, row.cf).apply();
+                PlacementGroup group = get(id);
+                if (group != null)
+                {
+                    failures.remove(id);
+                    return group;
+                }
+            }
+            catch (TimeoutException e)
+            {
+                break;
+            }
+        }
+
+        IndirectionSupport.sendToLog("Placement group " + id + " of key " + ByteBufferUtil.bytesToHex(key) + " in " + refKeyspace + " is neither stored locally nor by another live replica", true, false, "PlacementGroups");
+        failures.put(id, System.currentTimeMillis());
+        return null;
+    }
+
+    private ModificationStatement getInsertStatement() throws RequestValidationException, RequestExecutionException
+    {
+        // groups are written by every reference replica, the statement is prepared once
+        if (insertStatement == null)
+        {
+            String query = "INSERT INTO " + Keyspace.SYSTEM_KS + "." + SystemKeyspace.PLACEMENT_GROUPS_CF + " (id, nodes, " + IndirectionInformation.AnnotationRowName + ") VALUES (?, ?, ?);";
+            insertStatement = (ModificationStatement) QueryProcessor.getStatement(query, ClientState.forInternalCalls()).statement;
+        }
+        return insertStatement;
+    }
+
+    private static UUID makeId(List<ByteBuffer> sortedTokens, String annotationString)
+    {
+        String name = "";
+        for (ByteBuffer token : sortedTokens)
+            name += ByteBufferUtil.stringWOException(token) + "\n";
+        return UUID.nameUUIDFromBytes(ByteBufferUtil.getArray(ByteBufferUtil.bytes(name + annotationString)));
+    }
+
+    public static class PlacementGroup
+    {
+        public final UUID id;
+        // sorted and shared by the reference information of all keys of the group, must not be modified
+        public final ArrayList<ByteBuffer> tokens;
+        public final String annotationString;
+
+        private PlacementGroup(UUID id, List<ByteBuffer> tokens, String annotationString)
+        {
+            this.id = id;
+            this.tokens = new ArrayList<>(tokens);
+            this.annotationString = annotationString;
+        }
+
+        public List<String> getNodesAsString()
+        {
+            List<String> result = new ArrayList<>(tokens.size());
+            for (ByteBuffer token : tokens)
+                result.add(ByteBufferUtil.stringWOException(token));
+            return result;
+        }
+
+        public ByteBuffer getIdBytes()
+        {
+            return ByteBuffer.wrap(UUIDGen.decompose(id));
+        }
+    }
+}
@@ -173,7 +173,7 @@ collections returns [HashMap<String, HashSet<String>> collections]
 
 INT : ('0'..'9')+;
 REPLICATIONSTRATEGY: (S I M P L E S T R A T E G Y);
-LOADBALANCER: ('SimpleLoadBalancer' | 'RandomLoadBalancer' | 'LRULoadBalancer' | 'SimpleScoringLoadBalancer' | 'CounterMinLoadBalancer');
+LOADBALANCER: ('SimpleLoadBalancer' | 'RandomLoadBalancer' | 'LRULoadBalancer' | 'SimpleScoringLoadBalancer' | 'CounterMinLoadBalancer' | 'PowerOfChoicesLoadBalancer');
 COMPARATORS: (L E S S | E Q U A L | G R E A T E R | L E S S E Q U A L | G R E A T E R E Q U A L);
 BOOL: (T R U E | F A L S E);
 NEWLINE: ('\n' | '\r')+;
@@ -2,9 +2,8 @@ package org.apache.cassandra.annotation.dataannotations;
 
 import java.util.*;
 
+import org.apache.cassandra.annotation.CapabilityIndex;
 import org.apache.cassandra.annotation.IndirectionSupport;
-import org.apache.cassandra.config.DatabaseDescriptor;
-import org.apache.cassandra.exceptions.RequestExecutionException;
 import org.apache.cassandra.exceptions.RequestValidationException;
 
 public abstract class AbstractDataAnnotation<T>
@@ -25,20 +24,18 @@ public abstract class AbstractDataAnnotation<T>
         this.max = max;
     }
 
-    public String getOwnToken()
-    {
-        assert (DatabaseDescriptor.getInitialTokens().iterator().hasNext());
-        // Returns with first Token
-        return DatabaseDescriptor.getInitialTokens().iterator().next();
-    }
-
-
-    public abstract String createINSERTstatement();
-    public abstract String createCreateTablestatement();
     public abstract boolean hasAbilities();
-    public abstract HashSet<String> getSatisfyingNodes(Set<String> params) throws RequestExecutionException;
+    // the values this node advertises in its CAPABILITIES gossip state
+    public abstract Collection<String> getAdvertisedValues();
+    public abstract BitSet getSatisfyingNodes(CapabilityIndex.AnnotationIndex index, Set<String> params);
     public abstract void validateAnnotation(Set<String> params) throws RequestValidationException;
     public abstract void minimize(Set<String> set);
 
+    // Hook to precompute values derived from the advertised ones (e.g. collections) when the CapabilityIndex is built
+    public void expandValues(Map<String, BitSet> byValue)
+    {
+        // noop
+    }
+
 
 }
@@ -2,8 +2,6 @@ package org.apache.cassandra.annotation.dataannotations;
 
 import java.util.*;
 
-import org.apache.cassandra.cql3.*;
-import org.apache.cassandra.db.ConsistencyLevel;
 import org.apache.cassandra.exceptions.*;
 import org.apache.cassandra.annotation.*;
 
@@ -16,35 +14,21 @@ public class BoolDataAnnotation extends AbstractDataAnnotation<Boolean>
         this.supportedValues.add(value);
     }
 
-    public String createINSERTstatement()
-    {
-        return "INSERT INTO " + IndirectionSupport.DataAnnotationAbilities + "." + this.name + " ( id, value ) VALUES ( '" + getOwnToken() + "', " + (supportedValues.contains(true)) + " );";
-    }
-
-    public String createCreateTablestatement()
-    {
-        return "CREATE TABLE " + IndirectionSupport.DataAnnotationAbilities + "." + this.name + " ( id varchar PRIMARY KEY, value boolean );";
-    }
-
     public boolean hasAbilities()
     {
         return (supportedValues.contains(true));
     }
 
-    public HashSet<String> getSatisfyingNodes(Set<String> params) throws RequestExecutionException
+    public Collection<String> getAdvertisedValues()
     {
-        String query = "SELECT * FROM " + IndirectionSupport.DataAnnotationAbilities + "." + this.name + ";";
-        HashSet<String> set = new HashSet<String>();
-
-        UntypedResultSet result = QueryProcessor.processInternal(query, IndirectionSupport.DataAnnotationAbilities);
+        if (hasAbilities())
+            return Collections.singleton("true");
+        return Collections.emptySet();
+    }
 
-        for (Iterator<UntypedResultSet.Row> it = result.iterator(); it.hasNext();)
-        {
-            UntypedResultSet.Row row = it.next();
-            if (row.getBoolean("value") == true)
-                set.add(row.getString("id"));
-        }
-        return set;
+    public BitSet getSatisfyingNodes(CapabilityIndex.AnnotationIndex index, Set<String> params)
+    {
+        return index.getNodes("true");
     }
 
     public void validateAnnotation(Set<String> params) throws RequestValidationException
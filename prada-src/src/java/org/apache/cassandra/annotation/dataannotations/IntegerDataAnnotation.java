@@ -2,9 +2,6 @@ package org.apache.cassandra.annotation.dataannotations;
 
 import java.util.*;
 
-import org.apache.cassandra.cql3.QueryProcessor;
-import org.apache.cassandra.cql3.UntypedResultSet;
-import org.apache.cassandra.db.ConsistencyLevel;
 import org.apache.cassandra.exceptions.*;
 import org.apache.cassandra.annotation.*;
 
@@ -21,57 +18,38 @@ public class IntegerDataAnnotation extends AbstractDataAnnotation<Integer> {
         this.Comparator = comp;
     }
 
-    public String createINSERTstatement()
-    {
-        assert (supportedValues.size() > 0 && supportedValues.size() <= max);
-        String str = "INSERT INTO " + IndirectionSupport.DataAnnotationAbilities + "." + this.name + " ( id";
-        String str2 = "";
-        Iterator<Integer> it = supportedValues.iterator();
-        for (int i=0; i < supportedValues.size(); i++)
-        {
-            str += ", " + "value" + i;
-            str2 += ", " + it.next();
-        }
-        str += " ) VALUES ( '" + getOwnToken() + "' " + str2;
-        return str + " );";
-    }
-
-    public String createCreateTablestatement()
-    {
-        assert (max != -1 && max > 0);
-        String str = "CREATE TABLE " + IndirectionSupport.DataAnnotationAbilities + "." + this.name + " ( id varchar PRIMARY KEY";
-        for (int i = 0; i < max; i++)
-        {
-            str += ", value" + i + " int";
-        }
-        return  str + " );";
-    }
-
     public boolean hasAbilities()
     {
         return (this.supportedValues.size() > 0);
     }
 
-    public HashSet<String> getSatisfyingNodes(Set<String> params) throws RequestExecutionException
+    public Collection<String> getAdvertisedValues()
     {
-        String query = "SELECT * FROM " + IndirectionSupport.DataAnnotationAbilities + "." + this.name + ";";
-        HashSet<String> set = new HashSet<String>();
-
-        UntypedResultSet result = QueryProcessor.processInternal(query, IndirectionSupport.DataAnnotationAbilities);
+        List<String> values = new ArrayList<String>();
+        for (Integer value : supportedValues)
+            values.add(String.valueOf(value));
+        return values;
+    }
 
-        for (Iterator<UntypedResultSet.Row> it = result.iterator(); it.hasNext();)
+    public BitSet getSatisfyingNodes(CapabilityIndex.AnnotationIndex index, Set<String> params)
+    {
+        BitSet result = null;
+        for (String param : params)
         {
-            UntypedResultSet.Row row = it.next();
-            int count = 0;
-
-            for (String param : params)
-                if (containsParameter(row, param))
-                    count++;
-
-            if (params.size() == count)
-                set.add(row.getString("id"));
+            // A node satisfies a parameter if any of its values does, and it has to satisfy all parameters
+            int p = Integer.parseInt(param);
+            BitSet nodes = new BitSet();
+            for (String value : index.getValues())
+            {
+                if (compare(p, Integer.parseInt(value)))
+                    nodes.or(index.getNodes(value));
+            }
+            if (result == null)
+                result = nodes;
+            else
+                result.and(nodes);
         }
-        return set;
+        return result == null ? new BitSet() : result;
     }
 
     public void validateAnnotation(Set<String> params) throws RequestValidationException
@@ -89,24 +67,6 @@ public class IntegerDataAnnotation extends AbstractDataAnnotation<Integer> {
         }
     }
 
-    private boolean containsParameter(UntypedResultSet.Row row, String param)
-    {
-        for (int i = 0; i < max; i++)
-        {
-            if (row.has("value" + i))
-            {
-                if (compare(Integer.parseInt(param), row.getInt("value" + i)))
-                    return true;
-            }
-            else
-            {
-                // The first non-existing column indicates that no more columns with data exists, since we insert all data-containing columns with ascending indices
-                break;
-            }
-        }
-        return false;
-    }
-
     private boolean compare (int a, int b)
     {
         switch(Comparator)
@@ -2,9 +2,6 @@ package org.apache.cassandra.annotation.dataannotations;
 
 import java.util.*;
 
-import org.apache.cassandra.cql3.QueryProcessor;
-import org.apache.cassandra.cql3.UntypedResultSet;
-import org.apache.cassandra.db.ConsistencyLevel;
 import org.apache.cassandra.exceptions.*;
 import org.apache.cassandra.annotation.*;
 
@@ -21,85 +18,39 @@ public class StringDataAnnotation extends AbstractDataAnnotation<String> {
         this.collectionValues = collectionValues;
     }
 
-    public String createINSERTstatement()
-    {
-        assert (max > 0 && supportedValues.size() <= max);
-        String str = "INSERT INTO " + IndirectionSupport.DataAnnotationAbilities + "." + this.name + " ( id";
-        String str2 = "";
-        Iterator<String> it = supportedValues.iterator();
-        for (int i=0; i < supportedValues.size(); i++)
-        {
-            str += ", " + "value" + i;
-            str2 += ", '" + it.next() + "'";
-        }
-        str += " ) VALUES ( '" + getOwnToken() + "' " + str2;
-        return str + " );";
-    }
-
-    public String createCreateTablestatement()
-    {
-        assert (max > 0 && supportedValues.size() <= max);
-        String str = "CREATE TABLE " + IndirectionSupport.DataAnnotationAbilities + "." + this.name + " ( id varchar PRIMARY KEY";
-        for (int i = 0; i < max; i++)
-        {
-            str += ", value" + i + " varchar";
-        }
-        return  str + " );";
-    }
-
     public boolean hasAbilities()
     {
         return (this.supportedValues.size() > 0);
     }
 
-    public HashSet<String> getSatisfyingNodes(Set<String> params) throws RequestExecutionException
+    public Collection<String> getAdvertisedValues()
     {
-        String query = "SELECT * FROM " + IndirectionSupport.DataAnnotationAbilities + "." + this.name + ";";
-        HashSet<String> set = new HashSet<String>();
-
-        UntypedResultSet result = QueryProcessor.processInternal(query, IndirectionSupport.DataAnnotationAbilities);
+        return new ArrayList<String>(supportedValues);
+    }
 
-        for (Iterator<UntypedResultSet.Row> it = result.iterator(); it.hasNext();)
+    @Override
+    public void expandValues(Map<String, BitSet> byValue)
+    {
+        // A collection parameter is satisfied by every node supporting one of its members
+        for (Map.Entry<String, HashSet<String>> collection : collectionValues.entrySet())
         {
-            UntypedResultSet.Row row = it.next();
-
-loop:       for (String param : params)
+            BitSet nodes = new BitSet();
+            for (String member : collection.getValue())
             {
-                if (containsParameter(row, param))
-                {
-                    set.add(row.getString("id"));
-                    break loop;
-                }
+                BitSet memberNodes = byValue.get(member);
+                if (memberNodes != null)
+                    nodes.or(memberNodes);
             }
+            byValue.put(collection.getKey(), nodes);
         }
-        return set;
     }
 
-    private boolean containsParameter(UntypedResultSet.Row row, String param)
+    public BitSet getSatisfyingNodes(CapabilityIndex.AnnotationIndex index, Set<String> params)
     {
-        assert (row.getColumns().size() <= max+1);
-        for (int i = 0; i < max; i++)
-        {
-            if (row.has("value" + i))
-            {
-                if (collectionValues.keySet().contains(param))
-                {
-                    if (collectionValues.get(param).contains(row.getString("value" + i)))
-                        return true;
-                }
-                else
-                {
-                    if (row.getString("value" + i).equals(param))
-                        return true;
-                }
-            }
-            else
-            {
-                // The first non-existing column indicates that no more columns with data exists, since we insert all data-containing columns with ascending indices
-                break;
-            }
-        }
-        return false;
+        BitSet result = new BitSet();
+        for (String param : params)
+            result.or(index.getNodes(param));
+        return result;
     }
 
     public void validateAnnotation(Set<String> params) throws RequestValidationException
@@ -1,108 +1,100 @@
 package org.apache.cassandra.annotation.loadbalancing;
 
-import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.cassandra.annotation.*;
-import org.apache.cassandra.cql3.QueryProcessor;
-import org.apache.cassandra.cql3.UntypedResultSet;
-import org.apache.cassandra.db.ConsistencyLevel;
-import org.apache.cassandra.exceptions.RequestExecutionException;
 import org.apache.cassandra.service.StorageService;
 
+/**
+ * Chooses the candidates with the smallest scores. Scores are calculated from the capabilities of the
+ * CapabilityIndex by a background task on StorageService.scheduledTasks and published as an immutable ScoreSnapshot,
+ * so choosing nodes never waits for a calculation. Nodes without a score yet are chosen last and trigger an early refresh.
+ */
 public abstract class AbstractScoringLoadBalancer extends LoadBalancer {
 
-    public Date lastUpdate;
-    public TreeMap<String, Double> Scorings;
-    // Defines the time (in ms) after which a scoring update is enforced
+    // Defines the time (in ms) after which the scorings are refreshed
     public static final int updateTolerance = 3600000;
 
+    private volatile ScoreSnapshot scorings = new ScoreSnapshot(Collections.<String, Double>emptyMap(), null);
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
 
-    public AbstractScoringLoadBalancer()
+    @Override
+    protected void start()
     {
-        this.lastUpdate = new Date(0);
-        this.Scorings = new TreeMap<String, Double>();
+        Runnable refresh = new Runnable()
+        {
+            public void run()
+            {
+                refreshPending.set(true);
+                updateScorings();
+            }
+        };
+        StorageService.scheduledTasks.scheduleWithFixedDelay(refresh, 0, updateTolerance, TimeUnit.MILLISECONDS);
     }
 
-    public List<InetAddress> getNodes(Constraints c, int replicationFactor, String keyspace)
+    protected int[] select(final CapabilityIndex.Snapshot index, BitSet candidates, int replicationFactor)
     {
-        assert (c.getAllCandidateEndpoints().size() >= replicationFactor);
-
-        HashSet<String> Tokens = c.getAllCandidates();
-        Date currentTime = new Date();
-        if (lastUpdate.getTime() == 0 || ((currentTime.getTime() - lastUpdate.getTime()) > updateTolerance ) || !Scorings.keySet().containsAll(Tokens))
+        ScoreSnapshot current = scorings;
+        if (current.index != index)
         {
-            try
+            // the nodes changed since the last refresh, realign the order in the background
+            requestUpdate();
+            final Map<String, Double> scores = current.scores;
+            return smallest(candidates, replicationFactor, new Scores()
             {
-                Set<String> TokensToUpdate = new HashSet<String>(Tokens);
-                // If we do not update due to too big time difference to last update, we can only update Tokens for which we haven't any Scoring yet
-                if (!((currentTime.getTime() - lastUpdate.getTime()) > updateTolerance ))
+                public double score(int id)
                 {
-                    Set<String> intersection = new HashSet<String>(Scorings.keySet());
-                    intersection.retainAll(Tokens);
-                    TokensToUpdate.removeAll(intersection);
+                    Double score = scores.get(index.getToken(id));
+                    return score == null ? Double.MAX_VALUE : score;
                 }
-                updateScorings(TokensToUpdate);
-                lastUpdate = currentTime;
-            }
-            catch (RequestExecutionException e)
-            {
-                IndirectionSupport.sendToLog("Error updating Scorings! Fall back to simple mode...", true, false, "AbstractScoringLoadBalancer");
-                e.printStackTrace();
-                ArrayList<String> result = new ArrayList<String>(Tokens);
-                return new ArrayList<InetAddress>(c.getAllCandidateEndpoints()).subList(0, replicationFactor);
-            }
+            });
         }
 
-        ArrayList<InetAddress> result = new ArrayList<>();
-        TreeMap<String, Double> tmp = new TreeMap<String, Double>();
-        for (String token : Tokens)
-            tmp.put(token, Scorings.get(token));
-
-        assert(Tokens.size() == tmp.size() && Scorings.keySet().containsAll(Tokens));
+        // walk the nodes in the order of their scores up to the replicationFactor-th candidate
+        int[] result = new int[replicationFactor];
+        int found = 0;
+        for (int i = 0; i < current.order.length && found < replicationFactor; i++)
+        {
+            if (candidates.get(current.order[i]))
+                result[found++] = current.order[i];
+        }
+        assert (found == replicationFactor);
+        return result;
+    }
 
-        // Select the elements with smallest Scoring, if we want the elements with highest Scoring, calculateScorings is responsible to calculate reciprocal values
-        Map.Entry<String, Double> smallest = null;
-        while(result.size() < replicationFactor)
+    private void requestUpdate()
+    {
+        if (refreshPending.compareAndSet(false, true))
         {
-            for (Map.Entry<String, Double> entry : tmp.entrySet())
+            StorageService.scheduledTasks.execute(new Runnable()
             {
-                if (smallest == null || smallest.getValue() > entry.getValue())
-                    smallest = entry;
-            }
-            result.add(StorageService.instance.getAssociatedEndpoint(smallest.getKey()));
-            tmp.remove(smallest.getKey());
+                public void run()
+                {
+                    updateScorings();
+                }
+            });
         }
-
-        assert(result.size() == replicationFactor);
-        assert(Tokens.containsAll(result));
-        assert(tmp.size() + result.size() == Tokens.size());
-
-        return result;
     }
 
-    private void updateScorings(Set<String> Tokens) throws RequestExecutionException
+    private void updateScorings()
     {
-        IndirectionSupport.sendToLog("Updating Scorings for Tokens " + Tokens.toString(), false, true, "AbstractScoringLoadBalancer");
+        try
+        {
+            CapabilityIndex.Snapshot index = CapabilityIndex.instance.get();
+            IndirectionSupport.sendToLog("Updating Scorings for " + index.size() + " nodes", false, true, "AbstractScoringLoadBalancer");
 
-        HashMap<String, UntypedResultSet> abilities = new HashMap<String, UntypedResultSet>();
-        String tokenstring = "";
-        for (String s : Tokens)
+            scorings = new ScoreSnapshot(calculateScorings(index.getCapabilities()), index);
+        }
+        catch (Exception e)
         {
-            if (tokenstring != "")
-                tokenstring += ", ";
-            tokenstring += "'" + s + "'";
+            IndirectionSupport.sendToLog("Error updating Scorings, keeping previous Scorings: " + e, true, false, "AbstractScoringLoadBalancer");
         }
-
-        for (String name : IndirectionSupport.DataAnnotationConfiguration.list.keySet())
+        finally
         {
-            String queryStr = "SELECT * FROM " + IndirectionSupport.DataAnnotationAbilities + "." + name + " WHERE id IN ( " + tokenstring + " );";
-            abilities.put(name, QueryProcessor.process(queryStr, ConsistencyLevel.ONE));
+            refreshPending.set(false);
         }
-
-        assert(abilities.size() == IndirectionSupport.DataAnnotationConfiguration.list.size());
-
-        Scorings.putAll(calculateScorings(abilities));
     }
 
     protected Map<String, Double> getReciprocalMap(Map<String, Double> values)
@@ -112,6 +104,53 @@ public abstract class AbstractScoringLoadBalancer extends LoadBalancer {
         return values;
     }
 
-    protected abstract Map<String, Double> calculateScorings(HashMap<String, UntypedResultSet> abilities);
+    /**
+     * @param capabilities the advertised values per node token, per annotation
+     * @return the score per node token
+     */
+    protected abstract Map<String, Double> calculateScorings(Map<String, Map<String, Collection<String>>> capabilities);
+
+    /**
+     * Scores by token and, for the capability index snapshot current at calculation, the ids of all nodes ordered
+     * by score. Never modified after publication.
+     */
+    private static class ScoreSnapshot
+    {
+        private final Map<String, Double> scores;
+        private final CapabilityIndex.Snapshot index;
+        private final int[] order;
+
+        private ScoreSnapshot(Map<String, Double> scores, CapabilityIndex.Snapshot index)
+        {
+            this.scores = Collections.unmodifiableMap(new HashMap<>(scores));
+            this.index = index;
+            if (index == null)
+            {
+                this.order = new int[0];
+                return;
+            }
+
+            // scores of the given index, so select() orders candidates without map lookups
+            final double[] byId = new double[index.size()];
+            Integer[] ids = new Integer[index.size()];
+            for (int id = 0; id < ids.length; id++)
+            {
+                Double score = this.scores.get(index.getToken(id));
+                byId[id] = score == null ? Double.MAX_VALUE : score;
+                ids[id] = id;
+            }
+            Arrays.sort(ids, new Comparator<Integer>()
+            {
+                public int compare(Integer a, Integer b)
+                {
+                    int cmp = Double.compare(byId[a], byId[b]);
+                    return cmp != 0 ? cmp : Integer.compare(a, b);
+                }
+            });
+            this.order = new int[ids.length];
+            for (int i = 0; i < ids.length; i++)
+                order[i] = ids[i];
+        }
+    }
 
 }
@@ -1,45 +1,32 @@
 package org.apache.cassandra.annotation.loadbalancing;
 
-import java.net.InetAddress;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.cassandra.annotation.Constraints;
+import org.apache.cassandra.annotation.CapabilityIndex;
 
 public class LRULoadBalancer extends LoadBalancer {
 
-    private ArrayList<InetAddress> history = new ArrayList<>();
+    // last use of each node (by token) on a logical clock, nodes never used count as used at 0
+    private final ConcurrentMap<String, Long> lastUse = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
 
-
-    public List<InetAddress> getNodes(Constraints c, int replicationFactor, String keyspace)
+    protected int[] select(final CapabilityIndex.Snapshot index, BitSet candidates, int replicationFactor)
     {
-        ArrayList<InetAddress> result = new ArrayList<>();
-
-        // Put tokens never used at the top of the list
-        for (InetAddress addr : c.getAllCandidateEndpoints())
-        {
-            if (!history.contains(addr))
-                history.add(0, addr);
-        }
-
-        // Use the topmost tokens which satisfy the annotations as result
-        for (InetAddress addr : history)
+        int[] result = smallest(candidates, replicationFactor, new Scores()
         {
-            if (c.getAllCandidateEndpoints().contains(addr))
-                result.add(addr);
-            if (result.size() == replicationFactor)
-                break;
-        }
-
-        assert(result.size() == replicationFactor);
-
-        // Remove chosen tokens and append them at the end of the history
-        for (InetAddress addr : result)
-        {
-            history.remove(addr);
-            history.add(addr);
-        }
-
+            public double score(int id)
+            {
+                Long used = lastUse.get(index.getToken(id));
+                return used == null ? 0 : used;
+            }
+        });
+
+        // concurrent writes may choose the same nodes, which only weakens the rotation for a moment
+        for (int id : result)
+            lastUse.put(index.getToken(id), clock.incrementAndGet());
         return result;
     }
 
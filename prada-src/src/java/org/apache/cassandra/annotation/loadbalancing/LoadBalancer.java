@@ -3,46 +3,179 @@ package org.apache.cassandra.annotation.loadbalancing;
 import java.net.InetAddress;
 import java.util.*;
 
-import org.apache.cassandra.annotation.Constraints;
+import org.apache.cassandra.annotation.CapabilityIndex;
 import org.apache.cassandra.annotation.IndirectionSupport;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.service.StorageService;
 
+/**
+ * Chooses the targets of an annotated write among the nodes satisfying its annotations.
+ *
+ * Candidates are given as a bitset over the node ids of a CapabilityIndex snapshot. Implementations must be safe for
+ * concurrent use and must not block: state needed for a decision is either read from concurrent structures or
+ * taken from an immutable snapshot published by a background task.
+ */
 public abstract class LoadBalancer {
 
-    private static LoadBalancer instance = null;
+    private static volatile LoadBalancer instance;
 
-    public abstract List<InetAddress> getNodes(Constraints c, int replicationFactor, String keyspace);
+    /**
+     * @return the ids of replicationFactor nodes among the candidates, which must not be modified
+     */
+    protected abstract int[] select(CapabilityIndex.Snapshot index, BitSet candidates, int replicationFactor);
 
+    /**
+     * Starts background work of the load balancer, called once the Data Annotation configuration is loaded.
+     */
+    protected void start()
+    {
+    }
+
+    public List<InetAddress> getNodes(CapabilityIndex.Snapshot index, BitSet candidates, int replicationFactor)
+    {
+        return toEndpoints(getTokens(index, candidates, replicationFactor));
+    }
+
+    /**
+     * @return replicationFactor nodes among the candidates for a key of the given keyspace, spread over datacenters
+     * and racks unless annotation_topology_aware_placement is disabled, see TopologyAwarePlacement
+     */
+    public List<InetAddress> getNodes(CapabilityIndex.Snapshot index, BitSet candidates, String keyspace, int replicationFactor)
+    {
+        return toEndpoints(getTokens(index, candidates, keyspace, Collections.<String>emptyList(), replicationFactor));
+    }
+
+    /**
+     * @return the tokens of count further nodes among the candidates for a key of the given keyspace which is placed
+     * on the chosen tokens already, the candidates must not contain them
+     */
+    public List<String> getTokens(CapabilityIndex.Snapshot index, BitSet candidates, String keyspace, Collection<String> chosen, int count)
+    {
+        assert (candidates.cardinality() >= count);
+
+        if (!DatabaseDescriptor.isAnnotationTopologyAwarePlacement())
+            return getTokens(index, candidates, count);
+        return TopologyAwarePlacement.choose(this, index, candidates, keyspace, chosen, count);
+    }
+
+    private static List<InetAddress> toEndpoints(List<String> tokens)
+    {
+        List<InetAddress> result = new ArrayList<>(tokens.size());
+        for (String token : tokens)
+            result.add(StorageService.instance.getAssociatedEndpoint(token));
+        return result;
+    }
+
+    /**
+     * @return the tokens of replicationFactor nodes among the candidates
+     */
+    public List<String> getTokens(CapabilityIndex.Snapshot index, BitSet candidates, int replicationFactor)
+    {
+        assert (candidates.cardinality() >= replicationFactor);
+
+        int[] ids = select(index, candidates, replicationFactor);
+        assert (ids.length == replicationFactor);
+
+        List<String> result = new ArrayList<>(ids.length);
+        for (int id : ids)
+            result.add(index.getToken(id));
+        return result;
+    }
 
     public static LoadBalancer getInstance()
     {
-        if (instance == null)
+        LoadBalancer current = instance;
+        if (current == null)
         {
-            switch (IndirectionSupport.DataAnnotationConfiguration.loadBalancer)
+            synchronized (LoadBalancer.class)
             {
-            case SimpleLoadBalancer:
-                instance = new SimpleLoadBalancer();
-                break;
-            case RandomLoadBalancer:
-                instance = new RandomLoadBalancer();
-                break;
-            case LRULoadBalancer:
-                instance = new LRULoadBalancer();
-                break;
-            case SimpleScoringLoadBalancer:
-                instance = new SimpleScoringLoadBalancer();
-                break;
-            case CounterMinLoadBalancer:
-                instance = new CounterMinLoadBalancer();
-            default:
-                break;
+                current = instance;
+                if (current == null)
+                {
+                    current = create(IndirectionSupport.DataAnnotationConfiguration.loadBalancer);
+                    instance = current;
+                }
             }
         }
-        return instance;
+        return current;
+    }
+
+    /**
+     * @return a new, started load balancer of the given type, independent of the shared instance
+     */
+    public static LoadBalancer create(LoadBalancers type)
+    {
+        LoadBalancer balancer;
+        switch (type)
+        {
+        case RandomLoadBalancer:
+            balancer = new RandomLoadBalancer();
+            break;
+        case LRULoadBalancer:
+            balancer = new LRULoadBalancer();
+            break;
+        case SimpleScoringLoadBalancer:
+            balancer = new SimpleScoringLoadBalancer();
+            break;
+        case CounterMinLoadBalancer:
+            balancer = new CounterMinLoadBalancer();
+            break;
+        case PowerOfChoicesLoadBalancer:
+            balancer = new PowerOfChoicesLoadBalancer();
+            break;
+        case SimpleLoadBalancer:
+        default:
+            balancer = new SimpleLoadBalancer();
+            break;
+        }
+        balancer.start();
+        return balancer;
+    }
+
+    /**
+     * @return the ids of the k candidates with the smallest scores, ties broken by id, in O(n log k) for n candidates
+     */
+    protected static int[] smallest(BitSet candidates, int k, Scores scores)
+    {
+        // every score is read once, so scores changing concurrently cannot break the heap order
+        final double[] scoreOf = new double[candidates.length()];
+        for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1))
+            scoreOf[id] = scores.score(id);
+
+        // max-heap of the k smallest so far, the largest of them on top
+        PriorityQueue<Integer> heap = new PriorityQueue<>(k, new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                int cmp = Double.compare(scoreOf[b], scoreOf[a]);
+                return cmp != 0 ? cmp : Integer.compare(b, a);
+            }
+        });
+        for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1))
+        {
+            if (heap.size() < k)
+                heap.add(id);
+            else if (heap.comparator().compare(id, heap.peek()) > 0)
+            {
+                heap.poll();
+                heap.add(id);
+            }
+        }
+
+        int[] result = new int[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--)
+            result[i] = heap.poll();
+        return result;
+    }
+
+    protected interface Scores
+    {
+        double score(int id);
     }
 
     public enum LoadBalancers
     {
-        SimpleLoadBalancer, RandomLoadBalancer, SimpleScoringLoadBalancer, LRULoadBalancer, CounterMinLoadBalancer
+        SimpleLoadBalancer, RandomLoadBalancer, SimpleScoringLoadBalancer, LRULoadBalancer, CounterMinLoadBalancer, PowerOfChoicesLoadBalancer
     }
 
 }
@@ -0,0 +1,97 @@
+package org.apache.cassandra.annotation.loadbalancing;
+
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.common.util.concurrent.AtomicDouble;
+
+import org.apache.cassandra.annotation.CapabilityIndex;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.locator.DynamicEndpointSnitch;
+import org.apache.cassandra.locator.IEndpointSnitch;
+import org.apache.cassandra.service.LoadBroadcaster;
+import org.apache.cassandra.service.StorageService;
+
+/**
+ * Chooses every target as the least busy of indirection_placement_choices randomly sampled candidates (power of d
+ * choices), so hot nodes of small candidate sets are avoided without herding all writes on the same idle node.
+ *
+ * A node is rated by its latency score of the DynamicEndpointSnitch, the pending tasks of its INDIRECTION_DATA_MESSAGE
+ * stage and its load, as broadcast via gossip plus the data written to it since. Each of them is taken relative to
+ * the largest value among the sampled nodes, so the three are weighted equally.
+ */
+public class PowerOfChoicesLoadBalancer extends LoadBalancer {
+
+    private static final int LATENCY = 0, PENDING = 1, LOAD = 2;
+
+    protected int[] select(CapabilityIndex.Snapshot index, BitSet candidates, int replicationFactor)
+    {
+        int[] ids = new int[candidates.cardinality()];
+        int n = 0;
+        for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1))
+            ids[n++] = id;
+
+        Map<InetAddress, Double> latencies = getLatencyScores();
+        Random random = ThreadLocalRandom.current();
+        int choices = DatabaseDescriptor.getIndirectionPlacementChoices();
+        for (int i = 0; i < replicationFactor; i++)
+        {
+            // sample among the candidates not chosen yet, moving the sampled ones to positions i..i+d-1
+            int d = Math.min(choices, n - i);
+            double[][] stats = new double[d][];
+            double[] max = new double[3];
+            for (int j = 0; j < d; j++)
+            {
+                swap(ids, i + j, i + j + random.nextInt(n - i - j));
+                stats[j] = getStats(StorageService.instance.getAssociatedEndpoint(index.getToken(ids[i + j])), latencies);
+                for (int s = 0; s < max.length; s++)
+                    max[s] = Math.max(max[s], stats[j][s]);
+            }
+
+            int best = 0;
+            double bestScore = Double.MAX_VALUE;
+            for (int j = 0; j < d; j++)
+            {
+                double score = 0;
+                for (int s = 0; s < max.length; s++)
+                    score += max[s] > 0 ? stats[j][s] / max[s] : 0;
+                if (score < bestScore)
+                {
+                    best = j;
+                    bestScore = score;
+                }
+            }
+            swap(ids, i, i + best);
+        }
+        return Arrays.copyOf(ids, replicationFactor);
+    }
+
+    private static Map<InetAddress, Double> getLatencyScores()
+    {
+        IEndpointSnitch snitch = DatabaseDescriptor.getEndpointSnitch();
+        if (snitch instanceof DynamicEndpointSnitch)
+            return ((DynamicEndpointSnitch) snitch).getScores();
+        return Collections.emptyMap();
+    }
+
+    private static double[] getStats(InetAddress endpoint, Map<InetAddress, Double> latencies)
+    {
+        double[] stats = new double[3];
+        Double latency = latencies.get(endpoint);
+        stats[LATENCY] = latency == null ? 0 : latency;
+        stats[PENDING] = LoadBroadcaster.instance.getPendingTasks(endpoint);
+        Double load = LoadBroadcaster.instance.getLoadInfo().get(endpoint);
+        AtomicDouble cache = LoadBroadcaster.instance.getLoadInfoCache().get(endpoint);
+        stats[LOAD] = (load == null ? 0 : load) + (cache == null ? 0 : cache.get());
+        return stats;
+    }
+
+    private static void swap(int[] ids, int i, int j)
+    {
+        int tmp = ids[i];
+        ids[i] = ids[j];
+        ids[j] = tmp;
+    }
+
+}
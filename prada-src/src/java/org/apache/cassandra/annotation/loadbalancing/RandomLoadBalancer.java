@@ -1,23 +1,29 @@
 package org.apache.cassandra.annotation.loadbalancing;
 
-import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
-import org.apache.cassandra.annotation.Constraints;
+import org.apache.cassandra.annotation.CapabilityIndex;
 
 public class RandomLoadBalancer extends LoadBalancer {
 
-    public List<InetAddress> getNodes(Constraints c, int replicationFactor, String keyspace)
+    protected int[] select(CapabilityIndex.Snapshot index, BitSet candidates, int replicationFactor)
     {
-        ArrayList<InetAddress> list = new ArrayList<>(c.getAllCandidateEndpoints());
-        ArrayList<InetAddress> result = new ArrayList<>();
-        for (int i=0; i < replicationFactor; i++)
+        int[] ids = new int[candidates.cardinality()];
+        int n = 0;
+        for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1))
+            ids[n++] = id;
+
+        // partial Fisher-Yates shuffle, the first replicationFactor ids are the result
+        Random random = ThreadLocalRandom.current();
+        for (int i = 0; i < replicationFactor; i++)
         {
-            int rand = (int) (Math.random()*(list.size()));
-            result.add(list.get(rand));
-            list.remove(rand);
+            int j = i + random.nextInt(n - i);
+            int tmp = ids[i];
+            ids[i] = ids[j];
+            ids[j] = tmp;
         }
-        return result;
+        return Arrays.copyOf(ids, replicationFactor);
     }
 
 }
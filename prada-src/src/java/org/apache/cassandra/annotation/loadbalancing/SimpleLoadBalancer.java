@@ -1,15 +1,18 @@
 package org.apache.cassandra.annotation.loadbalancing;
 
-import java.net.InetAddress;
 import java.util.*;
 
-import org.apache.cassandra.annotation.Constraints;
+import org.apache.cassandra.annotation.CapabilityIndex;
 
 public class SimpleLoadBalancer extends LoadBalancer {
 
-    public List<InetAddress> getNodes(Constraints c, int replicationFactor, String keyspace)
+    protected int[] select(CapabilityIndex.Snapshot index, BitSet candidates, int replicationFactor)
     {
-        return new ArrayList<InetAddress>(c.getAllCandidateEndpoints()).subList(0, replicationFactor);
+        int[] result = new int[replicationFactor];
+        int id = candidates.nextSetBit(0);
+        for (int i = 0; i < replicationFactor; i++, id = candidates.nextSetBit(id + 1))
+            result[i] = id;
+        return result;
     }
 
 }
@@ -2,23 +2,21 @@ package org.apache.cassandra.annotation.loadbalancing;
 
 import java.util.*;
 
-import org.apache.cassandra.cql3.UntypedResultSet;
-
 public class SimpleScoringLoadBalancer extends AbstractScoringLoadBalancer {
 
-    protected Map<String, Double> calculateScorings(HashMap<String, UntypedResultSet> abilities)
+    protected Map<String, Double> calculateScorings(Map<String, Map<String, Collection<String>>> capabilities)
     {
         HashMap<String, Double> values = new HashMap<String, Double>();
 
-        for (String name : abilities.keySet())
+        // one point per advertised value of any annotation
+        for (Map<String, Collection<String>> nodes : capabilities.values())
         {
-            for (Iterator<UntypedResultSet.Row> RowIt = abilities.get(name).iterator(); RowIt.hasNext();)
+            for (Map.Entry<String, Collection<String>> node : nodes.entrySet())
             {
-                UntypedResultSet.Row row = RowIt.next();
                 double prev = 0;
-                if (values.get(row.getString("id")) != null)
-                    prev = values.get(row.getString("id"));
-                values.put(row.getString("id"), prev + (row.hasCount()-1));
+                if (values.get(node.getKey()) != null)
+                    prev = values.get(node.getKey());
+                values.put(node.getKey(), prev + node.getValue().size());
             }
         }
         return values;
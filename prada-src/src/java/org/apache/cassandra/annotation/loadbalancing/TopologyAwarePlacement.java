@@ -0,0 +1,102 @@
+package org.apache.cassandra.annotation.loadbalancing;
+
+import java.net.InetAddress;
+import java.util.*;
+
+import org.apache.cassandra.annotation.CapabilityIndex;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.locator.AbstractReplicationStrategy;
+import org.apache.cassandra.locator.IEndpointSnitch;
+import org.apache.cassandra.locator.NetworkTopologyStrategy;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Spreads the targets of an annotated key over the datacenters and racks of the nodes satisfying its annotations.
+ *
+ * For a keyspace using the NetworkTopologyStrategy, every datacenter first gets as many targets as its replication
+ * factor asks for, as far as it has candidates. Remaining targets are taken from the datacenter of this node, then
+ * from any datacenter. Within each step, racks without a target are used first; the load balancer chooses among the
+ * candidates of a step.
+ */
+class TopologyAwarePlacement
+{
+    private TopologyAwarePlacement() {}
+
+    /**
+     * @return the tokens of count nodes among the candidates, which must not contain the chosen tokens
+     */
+    static List<String> choose(LoadBalancer balancer, CapabilityIndex.Snapshot index, BitSet candidates, String keyspace, Collection<String> chosen, int count)
+    {
+        CapabilityIndex.Topology topology = index.getTopology();
+        if (topology.isFlat())
+            return balancer.getTokens(index, candidates, count);
+
+        IEndpointSnitch snitch = DatabaseDescriptor.getEndpointSnitch();
+        Map<String, Integer> placed = new HashMap<>();
+        Set<String> usedRacks = new HashSet<>();
+        for (String token : chosen)
+        {
+            InetAddress endpoint = StorageService.instance.getAssociatedEndpoint(token);
+            if (endpoint == null)
+                continue;
+            String datacenter = snitch.getDatacenter(endpoint);
+            Integer inDatacenter = placed.get(datacenter);
+            placed.put(datacenter, inDatacenter == null ? 1 : inDatacenter + 1);
+            usedRacks.add(CapabilityIndex.Topology.getRack(datacenter, snitch.getRack(endpoint)));
+        }
+
+        BitSet remaining = (BitSet) candidates.clone();
+        List<String> result = new ArrayList<>(count);
+        AbstractReplicationStrategy strategy = Keyspace.open(keyspace).getReplicationStrategy();
+        if (strategy instanceof NetworkTopologyStrategy)
+        {
+            NetworkTopologyStrategy networkStrategy = (NetworkTopologyStrategy) strategy;
+            for (String datacenter : networkStrategy.getDatacenters())
+            {
+                Integer inDatacenter = placed.get(datacenter);
+                int wanted = networkStrategy.getReplicationFactor(datacenter) - (inDatacenter == null ? 0 : inDatacenter);
+                spread(balancer, index, topology, topology.getDatacenterNodes(datacenter), Math.min(wanted, count - result.size()), remaining, usedRacks, result);
+            }
+        }
+
+        spread(balancer, index, topology, topology.getDatacenterNodes(snitch.getDatacenter(FBUtilities.getBroadcastAddress())), count - result.size(), remaining, usedRacks, result);
+        spread(balancer, index, topology, (BitSet) remaining.clone(), count - result.size(), remaining, usedRacks, result);
+        assert (result.size() == count);
+        return result;
+    }
+
+    /**
+     * Adds up to wanted of the remaining candidates among the given nodes to the result, one per rack as long as
+     * some of their racks have no target yet.
+     */
+    private static void spread(LoadBalancer balancer, CapabilityIndex.Snapshot index, CapabilityIndex.Topology topology, BitSet nodes, int wanted, BitSet remaining, Set<String> usedRacks, List<String> result)
+    {
+        nodes.and(remaining);
+        while (wanted > 0 && !nodes.isEmpty())
+        {
+            BitSet pool = nodes;
+            int batch = Math.min(wanted, nodes.cardinality());
+            // nothing to spread over within a single rack, so the load balancer chooses all targets at once
+            if (topology.countRacks(nodes) > 1)
+            {
+                pool = (BitSet) nodes.clone();
+                for (String rack : usedRacks)
+                    pool.andNot(topology.getRackNodes(rack));
+                if (pool.isEmpty())
+                    pool = nodes;
+                batch = 1;
+            }
+
+            for (int id : balancer.select(index, pool, batch))
+            {
+                result.add(index.getToken(id));
+                usedRacks.add(topology.getRack(id));
+                nodes.clear(id);
+                remaining.clear(id);
+            }
+            wanted -= batch;
+        }
+    }
+}
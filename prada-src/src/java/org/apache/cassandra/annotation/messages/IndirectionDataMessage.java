@@ -1,35 +1,62 @@
 package org.apache.cassandra.annotation.messages;
 
-import java.nio.ByteBuffer;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
-import org.apache.cassandra.service.ClientState;
-import org.apache.cassandra.utils.ByteBufferUtil;
 
+/**
+ * Carries the mutations of one or more annotated rows, already addressed to the redirected data keyspace,
+ * so the target node can apply them without parsing CQL.
+ */
 public class IndirectionDataMessage extends IndirectionMessage {
 
-    public IndirectionDataMessage(ByteBuffer content)
+    public static final IndirectionDataMessageSerializer serializer = new IndirectionDataMessageSerializer();
+
+    public final List<RowMutation> mutations;
+
+    public IndirectionDataMessage(List<RowMutation> mutations)
     {
-        super(content, IndirectionMessageType.DATA);
+        super(IndirectionMessageType.DATA);
+        this.mutations = mutations;
     }
 
-    public IndirectionDataMessage(ByteBuffer content, ClientState state)
+    public MessageOut<IndirectionMessage> createMessage()
     {
-        this(content);
-        if (state.getRawKeyspace() != null)
-        {
-            String contentString = ByteBufferUtil.stringWOException(content);
-            if (contentString.substring(0, contentString.indexOf("(")).indexOf(".") == -1)
-            {
-                contentString = contentString.replaceFirst("(?i)INSERT INTO ", "INSERT INTO " + state.getRawKeyspace() + ".");
-            }
-            this.content = ByteBufferUtil.bytes(contentString);
-        }
+        return new MessageOut<IndirectionMessage>(MessagingService.Verb.INDIRECTION_DATA_MESSAGE, this, IndirectionMessage.serializer);
     }
 
-    public MessageOut<IndirectionMessage> createMessage()
+    public static class IndirectionDataMessageSerializer implements IVersionedSerializer<IndirectionDataMessage>
     {
-        return new MessageOut<IndirectionMessage>(MessagingService.Verb.INDIRECTION_DATA_MESSAGE, this, serializer);
+        public void serialize(IndirectionDataMessage message, DataOutput out, int version) throws IOException
+        {
+            out.writeInt(message.mutations.size());
+            for (RowMutation rm : message.mutations)
+                RowMutation.serializer.serialize(rm, out, version);
+        }
+
+        public IndirectionDataMessage deserialize(DataInput in, int version) throws IOException
+        {
+            int count = in.readInt();
+            List<RowMutation> mutations = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                mutations.add(RowMutation.serializer.deserialize(in, version));
+            return new IndirectionDataMessage(mutations);
+        }
+
+        public long serializedSize(IndirectionDataMessage message, int version)
+        {
+            long size = TypeSizes.NATIVE.sizeof(message.mutations.size());
+            for (RowMutation rm : message.mutations)
+                size += RowMutation.serializer.serializedSize(rm, version);
+            return size;
+        }
     }
 }
@@ -4,41 +4,88 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 
 import org.apache.cassandra.db.TypeSizes;
 import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.UUIDSerializer;
 
+/**
+ * Requests the deletion of redirected data rows which are no longer referenced, all rows of a node in one message.
+ */
 public class IndirectionDeleteMessage extends IndirectionMessage {
 
-    public IndirectionDeleteMessage(ByteBuffer content)
+    public static final IndirectionDeleteMessageSerializer serializer = new IndirectionDeleteMessageSerializer();
+
+    public final List<RowDeletion> deletions;
+
+    public IndirectionDeleteMessage(List<RowDeletion> deletions)
     {
-        super(content, IndirectionMessageType.DELETE);
+        super(IndirectionMessageType.DELETE);
+        this.deletions = deletions;
     }
 
     public MessageOut<IndirectionMessage> createMessage()
     {
-        return new MessageOut<IndirectionMessage>(MessagingService.Verb.INDIRECTION_DELETE_MESSAGE, this, serializer);
+        return new MessageOut<IndirectionMessage>(MessagingService.Verb.INDIRECTION_DELETE_MESSAGE, this, IndirectionMessage.serializer);
+    }
+
+    public static class RowDeletion
+    {
+        // id of the regular (not redirected) table
+        public final UUID cfId;
+        public final ByteBuffer key;
+        public final long timestamp;
+
+        public RowDeletion(UUID cfId, ByteBuffer key, long timestamp)
+        {
+            this.cfId = cfId;
+            this.key = key;
+            this.timestamp = timestamp;
+        }
     }
 
     public static class IndirectionDeleteMessageSerializer implements IVersionedSerializer<IndirectionDeleteMessage>
     {
         public void serialize(IndirectionDeleteMessage message, DataOutput out, int version) throws IOException
         {
-            ByteBufferUtil.writeWithShortLength(message.content, out);
+            out.writeInt(message.deletions.size());
+            for (RowDeletion deletion : message.deletions)
+            {
+                UUIDSerializer.serializer.serialize(deletion.cfId, out, version);
+                ByteBufferUtil.writeWithShortLength(deletion.key, out);
+                out.writeLong(deletion.timestamp);
+            }
         }
 
         public IndirectionDeleteMessage deserialize(DataInput in, int version) throws IOException
         {
-            return new IndirectionDeleteMessage(ByteBufferUtil.readWithShortLength(in));
+            int count = in.readInt();
+            List<RowDeletion> deletions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                UUID cfId = UUIDSerializer.serializer.deserialize(in, version);
+                ByteBuffer key = ByteBufferUtil.readWithShortLength(in);
+                deletions.add(new RowDeletion(cfId, key, in.readLong()));
+            }
+            return new IndirectionDeleteMessage(deletions);
         }
 
         public long serializedSize(IndirectionDeleteMessage message, int version)
         {
-            int length = message.content.remaining();
-            return TypeSizes.NATIVE.sizeof((short) length) + length;
+            long size = TypeSizes.NATIVE.sizeof(message.deletions.size());
+            for (RowDeletion deletion : message.deletions)
+            {
+                size += UUIDSerializer.serializer.serializedSize(deletion.cfId, version)
+                      + TypeSizes.NATIVE.sizeofWithShortLength(deletion.key)
+                      + TypeSizes.NATIVE.sizeof(deletion.timestamp);
+            }
+            return size;
         }
     }
 
@@ -4,6 +4,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.*;
 
 import org.apache.cassandra.db.TypeSizes;
 import org.apache.cassandra.io.IVersionedSerializer;
@@ -12,13 +13,11 @@ import org.apache.cassandra.utils.ByteBufferUtil;
 
 public abstract class IndirectionMessage {
 
-    public ByteBuffer content;
-    private IndirectionMessageType type;
+    private final IndirectionMessageType type;
     public static final IndirectionMessageSerializer serializer = new IndirectionMessageSerializer();
 
-    public IndirectionMessage(ByteBuffer content, IndirectionMessageType type)
+    public IndirectionMessage(IndirectionMessageType type)
     {
-        this.content = content;
         this.type = type;
     }
 
@@ -33,38 +32,92 @@ public abstract class IndirectionMessage {
     {
         public void serialize(IndirectionMessage message, DataOutput out, int version) throws IOException
         {
-            out.write(message.getType().ordinal());
-            ByteBufferUtil.writeWithShortLength(message.content, out);
+            out.writeByte(message.getType().ordinal());
+            switch (message.getType())
+            {
+            case DATA:
+                IndirectionDataMessage.serializer.serialize((IndirectionDataMessage) message, out, version);
+                break;
+            case DELETE:
+                IndirectionDeleteMessage.serializer.serialize((IndirectionDeleteMessage) message, out, version);
+                break;
+            case UPDATE_REFERENCES:
+                IndirectionUpdateReferencesMessage.serializer.serialize((IndirectionUpdateReferencesMessage) message, out, version);
+                break;
+            case RESPONSE:
+                IndirectionResponse.serializer.serialize((IndirectionResponse) message, out, version);
+                break;
+            }
         }
 
         public IndirectionMessage deserialize(DataInput in, int version) throws IOException
         {
             int t = in.readByte();
-            IndirectionMessage msg = null;
             switch (IndirectionMessageType.values()[t])
             {
             case DATA:
-                msg = new IndirectionDataMessage(ByteBufferUtil.readWithShortLength(in));
-                break;
+                return IndirectionDataMessage.serializer.deserialize(in, version);
             case DELETE:
-                msg = new IndirectionDeleteMessage(ByteBufferUtil.readWithShortLength(in));
-                break;
+                return IndirectionDeleteMessage.serializer.deserialize(in, version);
             case UPDATE_REFERENCES:
-                msg = new IndirectionUpdateReferencesMessage(ByteBufferUtil.readWithShortLength(in));
-                break;
+                return IndirectionUpdateReferencesMessage.serializer.deserialize(in, version);
+            case RESPONSE:
+                return IndirectionResponse.serializer.deserialize(in, version);
             }
-            return msg;
+            throw new IOException("Unknown indirection message type " + t);
         }
 
         public long serializedSize(IndirectionMessage message, int version)
         {
-            int length = message.content.remaining();
-            return TypeSizes.NATIVE.sizeof((short) length) + 1 + length;
+            long size = 1;
+            switch (message.getType())
+            {
+            case DATA:
+                size += IndirectionDataMessage.serializer.serializedSize((IndirectionDataMessage) message, version);
+                break;
+            case DELETE:
+                size += IndirectionDeleteMessage.serializer.serializedSize((IndirectionDeleteMessage) message, version);
+                break;
+            case UPDATE_REFERENCES:
+                size += IndirectionUpdateReferencesMessage.serializer.serializedSize((IndirectionUpdateReferencesMessage) message, version);
+                break;
+            case RESPONSE:
+                size += IndirectionResponse.serializer.serializedSize((IndirectionResponse) message, version);
+                break;
+            }
+            return size;
         }
     }
 
+    // Helpers shared by the serializers of the individual message types
+
+    static void serializeTokens(List<ByteBuffer> tokens, DataOutput out) throws IOException
+    {
+        out.writeShort(tokens.size());
+        for (ByteBuffer token : tokens)
+            ByteBufferUtil.writeWithShortLength(token, out);
+    }
+
+    static List<ByteBuffer> deserializeTokens(DataInput in) throws IOException
+    {
+        int count = in.readUnsignedShort();
+        List<ByteBuffer> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            tokens.add(ByteBufferUtil.readWithShortLength(in));
+        return tokens;
+    }
+
+    static long tokensSerializedSize(List<ByteBuffer> tokens)
+    {
+        long size = TypeSizes.NATIVE.sizeof((short) tokens.size());
+        for (ByteBuffer token : tokens)
+            size += TypeSizes.NATIVE.sizeofWithShortLength(token);
+        return size;
+    }
+
+    // remember to add new types at the end, since we serialize by ordinal
     public enum IndirectionMessageType
     {
-        DATA, DELETE, UPDATE_REFERENCES
+        DATA, DELETE, UPDATE_REFERENCES, RESPONSE
     }
 }
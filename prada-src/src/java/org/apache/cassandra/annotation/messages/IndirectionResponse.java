@@ -0,0 +1,112 @@
+package org.apache.cassandra.annotation.messages;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.io.IVersionedSerializer;
+import org.apache.cassandra.net.CompactEndpointSerializationHelper;
+import org.apache.cassandra.net.MessageOut;
+import org.apache.cassandra.net.MessagingService;
+
+/**
+ * Reply to DATA, DELETE and UPDATE_REFERENCES messages.
+ *
+ * size is the number of bytes the request added to the replying node (negative if the request failed).
+ * Replies to reference updates list, for every update of the request, the nodes still holding a now stale
+ * replica of the row.
+ */
+public class IndirectionResponse extends IndirectionMessage
+{
+    public static final IndirectionResponseSerializer serializer = new IndirectionResponseSerializer();
+
+    public final IndirectionMessageType requestType;
+    public final double size;
+    public final List<List<InetAddress>> staleReplicas;
+    public final String error;
+
+    public IndirectionResponse(IndirectionMessageType requestType, double size, List<List<InetAddress>> staleReplicas, String error)
+    {
+        super(IndirectionMessageType.RESPONSE);
+        this.requestType = requestType;
+        this.size = size;
+        this.staleReplicas = staleReplicas;
+        this.error = error;
+    }
+
+    public IndirectionResponse(IndirectionMessageType requestType, double size, String error)
+    {
+        this(requestType, size, Collections.<List<InetAddress>>emptyList(), error);
+    }
+
+    public IndirectionResponse(IndirectionMessageType requestType, double size)
+    {
+        this(requestType, size, null);
+    }
+
+    public boolean isSuccess()
+    {
+        return size >= 0;
+    }
+
+    public MessageOut<IndirectionMessage> createMessage()
+    {
+        return new MessageOut<IndirectionMessage>(MessagingService.Verb.INTERNAL_RESPONSE, this, IndirectionMessage.serializer);
+    }
+
+    public static class IndirectionResponseSerializer implements IVersionedSerializer<IndirectionResponse>
+    {
+        public void serialize(IndirectionResponse response, DataOutput out, int version) throws IOException
+        {
+            out.writeByte(response.requestType.ordinal());
+            out.writeDouble(response.size);
+            out.writeInt(response.staleReplicas.size());
+            for (List<InetAddress> nodes : response.staleReplicas)
+            {
+                out.writeShort(nodes.size());
+                for (InetAddress node : nodes)
+                    CompactEndpointSerializationHelper.serialize(node, out);
+            }
+            out.writeBoolean(response.error != null);
+            if (response.error != null)
+                out.writeUTF(response.error);
+        }
+
+        public IndirectionResponse deserialize(DataInput in, int version) throws IOException
+        {
+            IndirectionMessageType requestType = IndirectionMessageType.values()[in.readByte()];
+            double size = in.readDouble();
+            int count = in.readInt();
+            List<List<InetAddress>> staleReplicas = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                int nodeCount = in.readUnsignedShort();
+                List<InetAddress> nodes = new ArrayList<>(nodeCount);
+                for (int j = 0; j < nodeCount; j++)
+                    nodes.add(CompactEndpointSerializationHelper.deserialize(in));
+                staleReplicas.add(nodes);
+            }
+            String error = in.readBoolean() ? in.readUTF() : null;
+            return new IndirectionResponse(requestType, size, staleReplicas, error);
+        }
+
+        public long serializedSize(IndirectionResponse response, int version)
+        {
+            long size = 1 + 8 + TypeSizes.NATIVE.sizeof(response.staleReplicas.size()) + TypeSizes.NATIVE.sizeof(true);
+            for (List<InetAddress> nodes : response.staleReplicas)
+            {
+                size += TypeSizes.NATIVE.sizeof((short) nodes.size());
+                for (InetAddress node : nodes)
+                    size += CompactEndpointSerializationHelper.serializedSize(node);
+            }
+            if (response.error != null)
+                size += TypeSizes.NATIVE.sizeof(response.error);
+            return size;
+        }
+    }
+}
@@ -1,19 +1,116 @@
 package org.apache.cassandra.annotation.messages;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.*;
 
+import org.apache.cassandra.annotation.CompiledConstraints;
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.UUIDSerializer;
 
+/**
+ * Updates the reference information of one or more keys: for each key the tokens of the chosen target nodes
+ * and the annotations the placement was made for. The message is sent to every replica of the reference
+ * keyspace, which apply it locally using the timestamp of the write. An update without tokens deletes the
+ * reference information of its key.
+ */
 public class IndirectionUpdateReferencesMessage extends IndirectionMessage
 {
-    public IndirectionUpdateReferencesMessage(ByteBuffer content)
+    public static final IndirectionUpdateReferencesMessageSerializer serializer = new IndirectionUpdateReferencesMessageSerializer();
+
+    public final List<ReferenceUpdate> updates;
+
+    public IndirectionUpdateReferencesMessage(List<ReferenceUpdate> updates)
     {
-        super(content, IndirectionMessageType.UPDATE_REFERENCES);
+        super(IndirectionMessageType.UPDATE_REFERENCES);
+        this.updates = updates;
     }
 
     public MessageOut<IndirectionMessage> createMessage()
     {
-        return new MessageOut<IndirectionMessage>(MessagingService.Verb.INDIRECTION_UPDATE_REFERENCES_MESSAGE, this, serializer);
+        return new MessageOut<IndirectionMessage>(MessagingService.Verb.INDIRECTION_UPDATE_REFERENCES_MESSAGE, this, IndirectionMessage.serializer);
+    }
+
+    public static class ReferenceUpdate
+    {
+        // id of the regular (not redirected) table
+        public final UUID cfId;
+        public final ByteBuffer key;
+        public final List<ByteBuffer> tokens;
+        public final CompiledConstraints annotations;
+        public final long timestamp;
+
+        public ReferenceUpdate(UUID cfId, ByteBuffer key, List<ByteBuffer> tokens, CompiledConstraints annotations, long timestamp)
+        {
+            this.cfId = cfId;
+            this.key = key;
+            this.tokens = tokens;
+            this.annotations = annotations;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * @return an update deleting the reference row of the given key, the replicas report all nodes holding it
+         */
+        public static ReferenceUpdate deletion(UUID cfId, ByteBuffer key, long timestamp)
+        {
+            return new ReferenceUpdate(cfId, key, Collections.<ByteBuffer>emptyList(), CompiledConstraints.EMPTY, timestamp);
+        }
+
+        public boolean isDeletion()
+        {
+            return tokens.isEmpty();
+        }
+    }
+
+    public static class IndirectionUpdateReferencesMessageSerializer implements IVersionedSerializer<IndirectionUpdateReferencesMessage>
+    {
+        public void serialize(IndirectionUpdateReferencesMessage message, DataOutput out, int version) throws IOException
+        {
+            out.writeInt(message.updates.size());
+            for (ReferenceUpdate update : message.updates)
+            {
+                UUIDSerializer.serializer.serialize(update.cfId, out, version);
+                ByteBufferUtil.writeWithShortLength(update.key, out);
+                serializeTokens(update.tokens, out);
+                CompiledConstraints.serializer.serialize(update.annotations, out, version);
+                out.writeLong(update.timestamp);
+            }
+        }
+
+        public IndirectionUpdateReferencesMessage deserialize(DataInput in, int version) throws IOException
+        {
+            int count = in.readInt();
+            List<ReferenceUpdate> updates = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                UUID cfId = UUIDSerializer.serializer.deserialize(in, version);
+                ByteBuffer key = ByteBufferUtil.readWithShortLength(in);
+                List<ByteBuffer> tokens = deserializeTokens(in);
+                CompiledConstraints annotations = CompiledConstraints.serializer.deserialize(in, version);
+                updates.add(new ReferenceUpdate(cfId, key, tokens, annotations, in.readLong()));
+            }
+            return new IndirectionUpdateReferencesMessage(updates);
+        }
+
+        public long serializedSize(IndirectionUpdateReferencesMessage message, int version)
+        {
+            long size = TypeSizes.NATIVE.sizeof(message.updates.size());
+            for (ReferenceUpdate update : message.updates)
+            {
+                size += UUIDSerializer.serializer.serializedSize(update.cfId, version)
+                      + TypeSizes.NATIVE.sizeofWithShortLength(update.key)
+                      + tokensSerializedSize(update.tokens)
+                      + CompiledConstraints.serializer.serializedSize(update.annotations, version)
+                      + TypeSizes.NATIVE.sizeof(update.timestamp);
+            }
+            return size;
+        }
     }
 }
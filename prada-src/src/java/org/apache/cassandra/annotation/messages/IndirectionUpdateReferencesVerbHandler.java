@@ -2,23 +2,21 @@ package org.apache.cassandra.annotation.messages;
 
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.cassandra.annotation.IndirectionInformation;
 import org.apache.cassandra.annotation.IndirectionSupport;
-import org.apache.cassandra.cql3.QueryOptions;
-import org.apache.cassandra.cql3.QueryProcessor;
-import org.apache.cassandra.db.ConsistencyLevel;
-
+import org.apache.cassandra.annotation.messages.IndirectionUpdateReferencesMessage.ReferenceUpdate;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.RowMutation;
 import org.apache.cassandra.exceptions.RequestExecutionException;
 import org.apache.cassandra.exceptions.RequestValidationException;
 import org.apache.cassandra.net.IVerbHandler;
 import org.apache.cassandra.net.MessageIn;
-import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
-import org.apache.cassandra.service.QueryState;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.ByteBufferUtil;
 
@@ -27,82 +25,101 @@ public class IndirectionUpdateReferencesVerbHandler implements IVerbHandler<Indi
     @Override
     public void doVerb(MessageIn<IndirectionMessage> message, int id)
     {
-        String query = ByteBufferUtil.stringWOException(message.payload.content);
-        String[] args = query.split(";");
-        assert(args.length > 0);
-        int nodesCount = Integer.parseInt(args[0]);
-        assert(args.length == nodesCount + 5);
-        List<String> chosenNodes = new LinkedList<String>();
-        int i;
-        for(i = 1; i <= nodesCount; i++)
-            chosenNodes.add(args[i]);
-        String keyspace = args[i];
-        String cf = args[i+1];
-        String key = args[i+2];
-        String annotations = args[i+3];
-        IndirectionInformation exRefInfo = IndirectionInformation.getExistingIndirectionInformation(keyspace, cf, key);
-
-        List<String> existingNodes = null;
-        if (exRefInfo != null)
-            existingNodes = exRefInfo.getNodesAsString();
+        IndirectionUpdateReferencesMessage msg = (IndirectionUpdateReferencesMessage) message.payload;
 
-        IndirectionMessage msg = null;
-        int delCount = 0;
+        List<List<InetAddress>> staleReplicas = new ArrayList<List<InetAddress>>(msg.updates.size());
         double size = 0;
         String error = null;
 
-        if (existingNodes == null)
-        {
-            // we inserted a new key, everything is fine
-            IndirectionSupport.sendToLog("Inserted new key with annotations.", false, true, "IndirectionWriteSupport");
-        }
-        else
+        for (ReferenceUpdate update : msg.updates)
         {
-            // we inserted an existing key, check whether we have to delete data from nodes
-            IndirectionSupport.sendToLog("Inserted an existing key with annotations.", false, true, "IndirectionWriteSupport");
-            existingNodes.removeAll(chosenNodes);
-            if (existingNodes.isEmpty())
+            CFMetaData cfm = Schema.instance.getCFMetaData(update.cfId);
+            if (cfm == null)
             {
-                IndirectionSupport.sendToLog("Set of chosen nodes contains all existing nodes.", false, true, "IndirectionWriteSupport");
+                size = -1;
+                error = "IND_REF_UPDATE_FAILED:UNKNOWN_TABLE";
+                break;
             }
-            else
+
+            String key = cfm.getKeyValidator().getString(update.key);
+            List<String> chosenNodes = new ArrayList<String>(update.tokens.size());
+            for (ByteBuffer token : update.tokens)
+                chosenNodes.add(ByteBufferUtil.stringWOException(token));
+
+            IndirectionInformation exRefInfo = IndirectionInformation.getExistingIndirectionInformation(cfm.ksName, cfm.cfName, key);
+
+            List<String> existingNodes = null;
+            if (exRefInfo != null)
+                existingNodes = exRefInfo.getNodesAsString();
+
+            // the coordinator deletes the stale replicas once the first reference replica reported them
+            List<InetAddress> addresses = new LinkedList<InetAddress>();
+            staleReplicas.add(addresses);
+
+            if (update.isDeletion())
             {
-                IndirectionSupport.sendToLog("Set of chosen nodes does not contain all existing nodes.", false, true, "IndirectionWriteSupport");
-                List<InetAddress> addresses = new LinkedList<InetAddress>();
-                for (String node : existingNodes)
+                // every node holding data older than the delete is stale, newer reference information is kept
+                if (existingNodes != null && exRefInfo.getTimestamp() <= update.timestamp)
                 {
-                    addresses.add(StorageService.instance.getAssociatedEndpoint(node));
+                    for (String node : existingNodes)
+                    {
+                        InetAddress endpoint = StorageService.instance.getAssociatedEndpoint(node);
+                        if (endpoint != null)
+                            addresses.add(endpoint);
+                    }
                 }
-                delCount = addresses.size();
+                RowMutation rm = new RowMutation(cfm.ksName + IndirectionSupport.ReferenceKeyspacePostfix, update.key);
+                rm.delete(cfm.cfName, update.timestamp);
+                rm.apply();
+                continue;
+            }
 
-                String delMsgStr = keyspace + ";" + cf + ";" + key + ";" + id + ";" + message.from.getHostAddress();
-                MessageOut<IndirectionMessage> delMsg = new IndirectionDeleteMessage(ByteBufferUtil.bytes(delMsgStr)).createMessage();
-                for (InetAddress addr : addresses)
-                    MessagingService.instance().sendOneWay(delMsg, addr);
+            if (existingNodes == null)
+            {
+                // we inserted a new key, everything is fine
+                IndirectionSupport.sendToLog("Inserted new key with annotations.", false, true, "IndirectionWriteSupport");
             }
-        }
-        try
-        {
-            if(msg == null)
+            else if (exRefInfo.getTimestamp() > update.timestamp)
             {
-                QueryState queryState = QueryState.forInternalCalls();
-                QueryProcessor.process(IndirectionInformation.getInsertQuery(chosenNodes, keyspace, cf, key, annotations), queryState, new QueryOptions(ConsistencyLevel.ONE, Collections.<ByteBuffer>emptyList()));
-                if (existingNodes == null && queryState.getSizeDiff() > 0)
-                    size = queryState.getSizeDiff();
+                // the newer reference information is kept, so its nodes are not stale
+                IndirectionSupport.sendToLog("Inserted an existing key with older annotations.", false, true, "IndirectionWriteSupport");
+            }
+            else
+            {
+                // we inserted an existing key, check whether we have to delete data from nodes
+                IndirectionSupport.sendToLog("Inserted an existing key with annotations.", false, true, "IndirectionWriteSupport");
+                existingNodes.removeAll(chosenNodes);
+                if (existingNodes.isEmpty())
+                {
+                    IndirectionSupport.sendToLog("Set of chosen nodes contains all existing nodes.", false, true, "IndirectionWriteSupport");
+                }
+                else
+                {
+                    IndirectionSupport.sendToLog("Set of chosen nodes does not contain all existing nodes.", false, true, "IndirectionWriteSupport");
+                    for (String node : existingNodes)
+                    {
+                        // nodes which left the ring took their data with them
+                        InetAddress endpoint = StorageService.instance.getAssociatedEndpoint(node);
+                        if (endpoint != null)
+                            addresses.add(endpoint);
+                    }
+                }
+            }
+            try
+            {
+                double diff = IndirectionInformation.insertReferences(cfm, key, update.tokens, update.annotations.getAnnotationString(), update.timestamp);
+                if (existingNodes == null && diff > 0)
+                    size += diff;
+            }
+            catch(RequestExecutionException | RequestValidationException e)
+            {
+                e.printStackTrace();
+                size = -1;
+                error = "IND_REF_UPDATE_FAILED:INSERT_FAILED";
+                break;
             }
         }
-        catch(RequestExecutionException | RequestValidationException e)
-        {
-            e.printStackTrace();
-            size = -1;
-            error = "IND_REF_UPDATE_FAILED:INSERT_FAILED";
-        }
-        StringBuilder sb = new StringBuilder();
-        sb.append(size).append(";").append(delCount);
-        if (error != null)
-            sb.append(";").append(error);
-        msg = new IndirectionUpdateReferencesMessage(ByteBufferUtil.bytes(sb.toString()));
-        MessageOut<IndirectionMessage> msgout = new MessageOut<>(MessagingService.Verb.INTERNAL_RESPONSE, msg, IndirectionMessage.serializer);
-        MessagingService.instance().sendReply(msgout, id, message.from);
+        IndirectionResponse response = new IndirectionResponse(IndirectionMessage.IndirectionMessageType.UPDATE_REFERENCES, size, staleReplicas, error);
+        MessagingService.instance().sendReply(response.createMessage(), id, message.from);
     }
 }
@@ -0,0 +1,394 @@
+package org.apache.cassandra.annotation.messages;
+
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.apache.cassandra.annotation.IndirectionSupport;
+import org.apache.cassandra.annotation.messages.IndirectionDeleteMessage.RowDeletion;
+import org.apache.cassandra.annotation.messages.IndirectionUpdateReferencesMessage.ReferenceUpdate;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.WriteType;
+import org.apache.cassandra.exceptions.IndirectionException;
+import org.apache.cassandra.exceptions.RequestExecutionException;
+import org.apache.cassandra.exceptions.WriteTimeoutException;
+import org.apache.cassandra.metrics.IndirectionMetrics;
+import org.apache.cassandra.metrics.LatencyMetrics;
+import org.apache.cassandra.net.IAsyncCallback;
+import org.apache.cassandra.net.MessageIn;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.service.LoadBroadcaster;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Tracks all legs of an annotated write at once: the redirected data on the target nodes, the reference update
+ * on the replicas of the reference keyspace and the deletes of stale replicas.
+ *
+ * Rows are numbered by the coordinator; for every node the handler knows which rows were sent to it, so a single
+ * message may carry several rows. The reference replicas report the stale replicas of their rows, which are deleted
+ * right away with one message per node, so neither leg waits for a particular replica. Stale replicas reported after
+ * the future completed are deleted as well. The future completes once
+ * every row reached the block for of both legs and the deletes were acknowledged, and fails as soon as a row can no
+ * longer reach it. The time until a leg reached its block for is recorded in the IndirectionMetrics.
+ *
+ * A write waits for every delete it issued. An annotated delete (see forDeletes) has no data leg, its deletes are
+ * its data leg instead: every row waits for the acknowledgements its delete consistency level requires from the
+ * nodes reported to hold it.
+ */
+public class IndirectionWriteHandler extends AbstractFuture<Void> implements IAsyncCallback<IndirectionMessage>
+{
+    private final WriteType writeType;
+    private final Leg data;
+    private final Leg references;
+    private final List<ReferenceUpdate> updates;
+    private final Map<InetAddress, BitSet> deletesIssued = new HashMap<>();
+    private final long start = System.nanoTime();
+    private int pendingDeletes;
+    // null for writes, which wait for all deletes
+    private final ConsistencyLevel deleteConsistency;
+    private final int[] deleteBlockFor;
+    private final int[] deleteTargets;
+    private final int[] deleteAcks;
+
+    public IndirectionWriteHandler(WriteType writeType, List<ReferenceUpdate> updates,
+                                   ConsistencyLevel dataConsistency, int[] dataBlockFor, Map<InetAddress, BitSet> dataRows,
+                                   ConsistencyLevel referenceConsistency, int[] referenceBlockFor, Map<InetAddress, BitSet> referenceRows)
+    {
+        this(writeType, updates, dataConsistency, dataBlockFor, dataRows, referenceConsistency, referenceBlockFor, referenceRows, null, null);
+    }
+
+    private IndirectionWriteHandler(WriteType writeType, List<ReferenceUpdate> updates,
+                                    ConsistencyLevel dataConsistency, int[] dataBlockFor, Map<InetAddress, BitSet> dataRows,
+                                    ConsistencyLevel referenceConsistency, int[] referenceBlockFor, Map<InetAddress, BitSet> referenceRows,
+                                    ConsistencyLevel deleteConsistency, int[] deleteBlockFor)
+    {
+        this.writeType = writeType;
+        this.updates = updates;
+        this.data = new Leg("redirected data", IndirectionMetrics.dataSend, dataConsistency, dataBlockFor, dataRows);
+        this.references = new Leg("indirection information", IndirectionMetrics.referenceUpdate, referenceConsistency, referenceBlockFor, referenceRows);
+        this.deleteConsistency = deleteConsistency;
+        this.deleteBlockFor = deleteBlockFor;
+        this.deleteTargets = new int[updates.size()];
+        this.deleteAcks = new int[updates.size()];
+    }
+
+    /**
+     * Creates the handler of annotated deletes, whose updates delete the reference rows.
+     *
+     * @param deleteBlockFor the number of nodes which have to acknowledge the delete of each row, reduced to the
+     * number of nodes holding the row
+     */
+    public static IndirectionWriteHandler forDeletes(WriteType writeType, List<ReferenceUpdate> updates,
+                                                     ConsistencyLevel deleteConsistency, int[] deleteBlockFor,
+                                                     ConsistencyLevel referenceConsistency, int[] referenceBlockFor, Map<InetAddress, BitSet> referenceRows)
+    {
+        return new IndirectionWriteHandler(writeType, updates,
+                                           deleteConsistency, new int[updates.size()], Collections.<InetAddress, BitSet>emptyMap(),
+                                           referenceConsistency, referenceBlockFor, referenceRows,
+                                           deleteConsistency, deleteBlockFor);
+    }
+
+    @Override
+    public synchronized void response(MessageIn<IndirectionMessage> message)
+    {
+        IndirectionResponse response = (IndirectionResponse) message.payload;
+        if (isDone())
+        {
+            // replicas answering late may still report stale replicas, which are not deleted by anybody else
+            if (response.requestType == IndirectionMessage.IndirectionMessageType.UPDATE_REFERENCES && response.isSuccess())
+                deleteStaleReplicas(message.from, response);
+            return;
+        }
+
+        switch (response.requestType)
+        {
+        case DATA:
+            data.response(message.from, response);
+            break;
+        case UPDATE_REFERENCES:
+            references.response(message.from, response);
+            if (response.isSuccess())
+                deleteStaleReplicas(message.from, response);
+            break;
+        default:
+            break;
+        }
+
+        maybeComplete();
+    }
+
+    private void maybeComplete()
+    {
+        if (!isDone() && data.pending == 0 && references.pending == 0 && deletesComplete())
+            set(null);
+    }
+
+    private boolean deletesComplete()
+    {
+        if (deleteConsistency == null)
+            return pendingDeletes <= 0;
+        return incompleteDelete() < 0;
+    }
+
+    // returns the first row lacking acknowledgements of its delete, -1 if there is none
+    private int incompleteDelete()
+    {
+        for (int i = 0; i < deleteAcks.length; i++)
+        {
+            if (deleteAcks[i] < Math.min(deleteBlockFor[i], deleteTargets[i]))
+                return i;
+        }
+        return -1;
+    }
+
+    private void deleteStaleReplicas(InetAddress from, IndirectionResponse response)
+    {
+        BitSet nodeRows = references.rows.get(from);
+        if (nodeRows == null)
+            return;
+
+        // the stale replicas are listed in the order of the updates, which is the order of the row numbers
+        Map<InetAddress, BitSet> stale = new HashMap<>();
+        int update = 0;
+        for (int i = nodeRows.nextSetBit(0); i >= 0 && update < response.staleReplicas.size(); i = nodeRows.nextSetBit(i + 1), update++)
+        {
+            for (InetAddress node : response.staleReplicas.get(update))
+            {
+                BitSet rows = stale.get(node);
+                if (rows == null)
+                    stale.put(node, rows = new BitSet());
+                rows.set(i);
+            }
+        }
+        deleteReplicas(stale);
+    }
+
+    /**
+     * Deletes the given rows from the given nodes, unless they were deleted there before. Used for the stale
+     * replicas reported by the reference replicas and for the placement known to the coordinator before.
+     */
+    public synchronized void deleteReplicas(Map<InetAddress, BitSet> nodeRows)
+    {
+        for (Map.Entry<InetAddress, BitSet> entry : nodeRows.entrySet())
+        {
+            BitSet issued = deletesIssued.get(entry.getKey());
+            if (issued == null)
+                deletesIssued.put(entry.getKey(), issued = new BitSet());
+            BitSet rows = (BitSet) entry.getValue().clone();
+            rows.andNot(issued);
+            if (rows.isEmpty())
+                continue;
+            issued.or(rows);
+
+            List<RowDeletion> deletions = new ArrayList<>(rows.cardinality());
+            for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1))
+            {
+                ReferenceUpdate row = updates.get(i);
+                deletions.add(new RowDeletion(row.cfId, row.key, row.timestamp));
+                deleteTargets[i]++;
+            }
+            pendingDeletes++;
+            MessagingService.instance().sendRR(new IndirectionDeleteMessage(deletions).createMessage(), entry.getKey(), new DeleteCallback(rows));
+        }
+    }
+
+    /**
+     * @return the nodes which were sent redirected data and did not answer yet
+     */
+    public synchronized Set<InetAddress> getUnansweredTargets()
+    {
+        Set<InetAddress> unanswered = new HashSet<>(data.rows.keySet());
+        unanswered.removeAll(data.answered);
+        return unanswered;
+    }
+
+    /**
+     * Waits for the completion of all legs, converting a timeout into the WriteTimeoutException of the first
+     * incomplete leg.
+     */
+    public void await(long timeoutMillis) throws RequestExecutionException
+    {
+        try
+        {
+            get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            throw timeout();
+        }
+        catch (InterruptedException e)
+        {
+            throw new AssertionError(e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RequestExecutionException)
+                throw (RequestExecutionException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Fails the handler with the timeout of its first incomplete leg unless it completes within the given time, so
+     * the handler completes without anybody waiting on it.
+     */
+    public void expireAfter(long timeoutMillis)
+    {
+        final ScheduledFuture<?> expiration = StorageService.tasks.schedule(new Runnable()
+        {
+            public void run()
+            {
+                synchronized (IndirectionWriteHandler.this)
+                {
+                    if (!isDone())
+                        setException(timeout());
+                }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        addListener(new Runnable()
+        {
+            public void run()
+            {
+                expiration.cancel(false);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    private synchronized RequestExecutionException timeout()
+    {
+        if (data.pending > 0)
+            return data.timeout(writeType);
+        if (references.pending > 0)
+            return references.timeout(writeType);
+        int row = deleteConsistency == null ? -1 : incompleteDelete();
+        if (row >= 0)
+            return new WriteTimeoutException(writeType, deleteConsistency, deleteAcks[row], Math.min(deleteBlockFor[row], deleteTargets[row]));
+        return new IndirectionException("Timed out waiting for the removal of " + pendingDeletes + " stale replicas");
+    }
+
+    @Override
+    public boolean isLatencyForSnitch()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean done()
+    {
+        return isDone();
+    }
+
+    // acknowledges the rows of one delete message
+    private class DeleteCallback implements IAsyncCallback<IndirectionMessage>
+    {
+        private final BitSet rows;
+
+        private DeleteCallback(BitSet rows)
+        {
+            this.rows = rows;
+        }
+
+        public void response(MessageIn<IndirectionMessage> message)
+        {
+            synchronized (IndirectionWriteHandler.this)
+            {
+                pendingDeletes--;
+                IndirectionResponse response = (IndirectionResponse) message.payload;
+                if (response.error != null)
+                    IndirectionSupport.sendToLog("Deleting stale replica on " + message.from + " failed: " + response.error, true, false, "IndirectionWriteHandler");
+                else
+                {
+                    for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1))
+                        deleteAcks[i]++;
+                }
+                maybeComplete();
+            }
+        }
+
+        public boolean isLatencyForSnitch()
+        {
+            return false;
+        }
+
+        public boolean done()
+        {
+            return isDone();
+        }
+    }
+
+    private class Leg
+    {
+        private final String name;
+        private final LatencyMetrics metrics;
+        private final ConsistencyLevel consistency;
+        private final int[] blockFor;
+        private final int[] targets;
+        private final int[] acks;
+        private final int[] failures;
+        private final Map<InetAddress, BitSet> rows;
+        private final Set<InetAddress> answered = new HashSet<>();
+        private int pending;
+
+        private Leg(String name, LatencyMetrics metrics, ConsistencyLevel consistency, int[] blockFor, Map<InetAddress, BitSet> rows)
+        {
+            this.name = name;
+            this.metrics = metrics;
+            this.consistency = consistency;
+            this.blockFor = blockFor;
+            this.targets = new int[blockFor.length];
+            this.acks = new int[blockFor.length];
+            this.failures = new int[blockFor.length];
+            this.rows = rows;
+            for (int required : blockFor)
+            {
+                if (required > 0)
+                    pending++;
+            }
+            for (BitSet nodeRows : rows.values())
+            {
+                for (int i = nodeRows.nextSetBit(0); i >= 0; i = nodeRows.nextSetBit(i + 1))
+                    targets[i]++;
+            }
+        }
+
+        private void response(InetAddress from, IndirectionResponse response)
+        {
+            BitSet nodeRows = rows.get(from);
+            if (nodeRows == null)
+                return;
+            answered.add(from);
+
+            if (response.isSuccess() && response.size > 0 && !from.equals(FBUtilities.getBroadcastAddress()))
+                LoadBroadcaster.instance.updateLoadCache(from, response.size);
+
+            for (int i = nodeRows.nextSetBit(0); i >= 0; i = nodeRows.nextSetBit(i + 1))
+            {
+                if (response.isSuccess())
+                {
+                    if (++acks[i] == blockFor[i] && --pending == 0)
+                        metrics.addNano(System.nanoTime() - start);
+                }
+                else if (targets[i] - ++failures[i] < blockFor[i])
+                {
+                    setException(new IndirectionException("Error writing " + name + " on " + from + ": " + response.error));
+                    return;
+                }
+            }
+        }
+
+        private WriteTimeoutException timeout(WriteType writeType)
+        {
+            int row = 0;
+            while (acks[row] >= blockFor[row])
+                row++;
+            return new WriteTimeoutException(writeType, consistency, acks[row], blockFor[row]);
+        }
+    }
+}
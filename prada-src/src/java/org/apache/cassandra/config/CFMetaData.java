@@ -279,6 +279,12 @@ public final class CFMetaData
                                                                  + "PRIMARY KEY (id)"
                                                                  + ") WITH COMMENT='show all compaction history' AND DEFAULT_TIME_TO_LIVE=604800");
 
+    public static final CFMetaData PlacementGroupsCf = compile("CREATE TABLE " + SystemKeyspace.PLACEMENT_GROUPS_CF + " ("
+                                                               + "id uuid PRIMARY KEY,"
+                                                               + "nodes list<varchar>,"
+                                                               + "saved_annotations varchar"
+                                                               + ") WITH COMMENT='placement groups of the local reference rows'");
+
     public enum Caching
     {
         ALL, KEYS_ONLY, ROWS_ONLY, NONE;
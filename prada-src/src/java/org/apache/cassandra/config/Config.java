@@ -19,6 +19,7 @@ package org.apache.cassandra.config;
 
 import org.apache.cassandra.config.EncryptionOptions.ClientEncryptionOptions;
 import org.apache.cassandra.config.EncryptionOptions.ServerEncryptionOptions;
+import org.apache.cassandra.db.ConsistencyLevel;
 import org.apache.cassandra.io.util.NativeAllocator;
 import org.apache.cassandra.utils.FBUtilities;
 
@@ -190,6 +191,39 @@ public class Config
 
     public int load_broadcast_interval = 60000;
 
+    /* consistency required for the redirected data and the reference update of an annotated write,
+     * the reference update uses the consistency level of the request if none is configured */
+    public ConsistencyLevel annotation_data_consistency = ConsistencyLevel.ONE;
+    public ConsistencyLevel annotation_reference_consistency = null;
+
+    /* relocation of redirected data whose placement became invalid, see IndirectionRelocation; the relocation starts
+     * this long after a node changed its capabilities or left the ring, a negative delay disables it */
+    public int annotation_relocation_throughput_in_kb = 16384;
+    public long annotation_relocation_delay_in_ms = 60000;
+
+    /* spread the targets of annotated keys over datacenters and racks, honouring the replication factor per
+     * datacenter of keyspaces using the NetworkTopologyStrategy, see TopologyAwarePlacement */
+    public boolean annotation_topology_aware_placement = true;
+
+    /* annotated writes of the native transport complete on the callbacks of their messages, up to this many at once;
+     * further writes wait for their completion on the transport thread */
+    public int annotation_max_async_writes = 1024;
+
+    /* decoded reference information of annotated keys, "auto" (null) means min(2% of Heap (in MB), 50MB) */
+    public Long indirection_cache_size_in_mb = null;
+    public volatile int indirection_cache_save_period = 14400;
+    public int indirection_cache_keys_to_save = Integer.MAX_VALUE;
+
+    /* placement of annotated keys remembered by coordinators to read redirected data without the hop over a
+     * reference replica, "auto" (null) means min(1% of Heap (in MB), 16MB), 0 disables hinted reads */
+    public Long indirection_placement_hints_size_in_mb = null;
+
+    /* number of candidates sampled per target by the PowerOfChoicesLoadBalancer */
+    public int indirection_placement_choices = 2;
+
+    /* directory the IndirectionMetrics are written to as text on shutdown, null disables the export */
+    public String indirection_metrics_export_directory = null;
+
     public static boolean getOutboundBindAny()
     {
         return outboundBindAny;
@@ -34,6 +34,7 @@ import org.apache.cassandra.config.Config.RequestSchedulerId;
 import org.apache.cassandra.config.EncryptionOptions.ClientEncryptionOptions;
 import org.apache.cassandra.config.EncryptionOptions.ServerEncryptionOptions;
 import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.ConsistencyLevel;
 import org.apache.cassandra.db.DefsTables;
 import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.dht.IPartitioner;
@@ -85,6 +86,8 @@ public class DatabaseDescriptor
     private static RequestSchedulerOptions requestSchedulerOptions;
 
     private static long keyCacheSizeInMB;
+    private static long indirectionCacheSizeInMB;
+    private static long indirectionPlacementHintsSizeInMB;
     private static IAllocator memoryAllocator;
 
     private static String localDC;
@@ -195,6 +198,11 @@ public class DatabaseDescriptor
 
         logger.info("disk_failure_policy is " + conf.disk_failure_policy);
 
+        if (!isSupportedAnnotationConsistency(conf.annotation_data_consistency))
+            throw new ConfigurationException("annotation_data_consistency must be one of ONE, TWO, THREE, QUORUM or ALL");
+        if (conf.annotation_reference_consistency != null && !isSupportedAnnotationConsistency(conf.annotation_reference_consistency))
+            throw new ConfigurationException("annotation_reference_consistency must be one of ONE, TWO, THREE, QUORUM or ALL");
+
         /* Authentication and authorization backend, implementing IAuthenticator and IAuthorizer */
         if (conf.authenticator != null)
             authenticator = FBUtilities.newAuthenticator(conf.authenticator);
@@ -462,6 +470,24 @@ public class DatabaseDescriptor
                     + conf.key_cache_size_in_mb + "', supported values are <integer> >= 0.");
         }
 
+        indirectionCacheSizeInMB = (conf.indirection_cache_size_in_mb == null)
+            ? Math.min(Math.max(1, (int) (Runtime.getRuntime().totalMemory() * 0.02 / 1024 / 1024)), 50)
+            : conf.indirection_cache_size_in_mb;
+        if (indirectionCacheSizeInMB < 0)
+            throw new ConfigurationException("indirection_cache_size_in_mb option was set incorrectly to '"
+                    + conf.indirection_cache_size_in_mb + "', supported values are <integer> >= 0.");
+
+        indirectionPlacementHintsSizeInMB = (conf.indirection_placement_hints_size_in_mb == null)
+            ? Math.min(Math.max(1, (int) (Runtime.getRuntime().totalMemory() * 0.01 / 1024 / 1024)), 16)
+            : conf.indirection_placement_hints_size_in_mb;
+        if (indirectionPlacementHintsSizeInMB < 0)
+            throw new ConfigurationException("indirection_placement_hints_size_in_mb option was set incorrectly to '"
+                    + conf.indirection_placement_hints_size_in_mb + "', supported values are <integer> >= 0.");
+
+        if (conf.indirection_placement_choices < 1)
+            throw new ConfigurationException("indirection_placement_choices option was set incorrectly to '"
+                    + conf.indirection_placement_choices + "', supported values are <integer> >= 1.");
+
         memoryAllocator = FBUtilities.newOffHeapAllocator(conf.memory_allocator);
 
         if(conf.encryption_options != null)
@@ -1365,4 +1391,75 @@ public class DatabaseDescriptor
     {
         return conf.load_broadcast_interval;
     }
+
+    private static boolean isSupportedAnnotationConsistency(ConsistencyLevel cl)
+    {
+        return cl == ConsistencyLevel.ONE || cl == ConsistencyLevel.TWO || cl == ConsistencyLevel.THREE
+            || cl == ConsistencyLevel.QUORUM || cl == ConsistencyLevel.ALL;
+    }
+
+    public static ConsistencyLevel getAnnotationDataConsistency()
+    {
+        return conf.annotation_data_consistency;
+    }
+
+    public static ConsistencyLevel getAnnotationReferenceConsistency()
+    {
+        return conf.annotation_reference_consistency;
+    }
+
+    public static int getAnnotationRelocationThroughputInKB()
+    {
+        return conf.annotation_relocation_throughput_in_kb;
+    }
+
+    public static long getAnnotationRelocationDelay()
+    {
+        return conf.annotation_relocation_delay_in_ms;
+    }
+
+    public static boolean isAnnotationTopologyAwarePlacement()
+    {
+        return conf.annotation_topology_aware_placement;
+    }
+
+    public static int getAnnotationMaxAsyncWrites()
+    {
+        return conf.annotation_max_async_writes;
+    }
+
+    public static long getIndirectionCacheSizeInMB()
+    {
+        return indirectionCacheSizeInMB;
+    }
+
+    public static int getIndirectionCacheSavePeriod()
+    {
+        return conf.indirection_cache_save_period;
+    }
+
+    public static void setIndirectionCacheSavePeriod(int indirectionCacheSavePeriod)
+    {
+        conf.indirection_cache_save_period = indirectionCacheSavePeriod;
+    }
+
+    public static int getIndirectionCacheKeysToSave()
+    {
+        return conf.indirection_cache_keys_to_save;
+    }
+
+    public static long getIndirectionPlacementHintsSizeInMB()
+    {
+        return indirectionPlacementHintsSizeInMB;
+    }
+
+    public static int getIndirectionPlacementChoices()
+    {
+        return conf.indirection_placement_choices;
+    }
+
+    public static String getIndirectionMetricsExportDirectory()
+    {
+        return conf.indirection_metrics_export_directory;
+    }
 }
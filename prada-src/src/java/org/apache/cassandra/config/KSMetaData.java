@@ -93,7 +93,8 @@ public final class KSMetaData
                                                 CFMetaData.CompactionLogCf,
                                                 CFMetaData.CompactionHistoryCf,
                                                 CFMetaData.PaxosCf,
-                                                CFMetaData.SSTableActivityCF);
+                                                CFMetaData.SSTableActivityCF,
+                                                CFMetaData.PlacementGroupsCf);
         return new KSMetaData(Keyspace.SYSTEM_KS, LocalStrategy.class, Collections.<String, String>emptyMap(), true, cfDefs);
     }
 
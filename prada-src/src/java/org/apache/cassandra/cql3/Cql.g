@@ -455,20 +455,29 @@ usingClauseDelete[Attributes.Raw attrs]
  *   DELETE name3, name4 FROM <CF> WHERE key = <key>
  *   ...
  * APPLY BATCH
+ *
+ * OR
+ *
+ * BEGIN BATCH
+ *   INSERT INTO <CF> (KEY, <name>) VALUES ('<key>', '<value>');
+ *   ...
+ * APPLY BATCH WITH ANNOTATIONS '<annotation>' = { '<value>' }
  */
 batchStatement returns [BatchStatement.Parsed expr]
     @init {
         BatchStatement.Type type = BatchStatement.Type.LOGGED;
         List<ModificationStatement.Parsed> statements = new ArrayList<ModificationStatement.Parsed>();
         Attributes.Raw attrs = new Attributes.Raw();
+        Constraints ann = new Constraints();
     }
     : K_BEGIN
       ( K_UNLOGGED { type = BatchStatement.Type.UNLOGGED; } | K_COUNTER { type = BatchStatement.Type.COUNTER; } )?
       K_BATCH ( usingClause[attrs] )?
           ( s=batchStatementObjective ';'? { statements.add(s); } )*
       K_APPLY K_BATCH
+      ( K_WITH annotationClause[ann] )?
       {
-          return new BatchStatement.Parsed(type, attrs, statements);
+          return new BatchStatement.Parsed(type, attrs, statements, ann);
       }
     ;
 
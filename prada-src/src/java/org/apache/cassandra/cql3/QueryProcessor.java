@@ -21,7 +21,11 @@ import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import com.google.common.base.Function;
 import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import com.googlecode.concurrentlinkedhashmap.EntryWeigher;
 
@@ -36,6 +40,7 @@ import org.apache.cassandra.db.*;
 import org.apache.cassandra.exceptions.*;
 import org.apache.cassandra.service.ClientState;
 import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.metrics.IndirectionMetrics;
 import org.apache.cassandra.tracing.Tracing;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.MD5Digest;
@@ -51,6 +56,14 @@ public class QueryProcessor
     private static final long MAX_CACHE_PREPARED_MEMORY = Runtime.getRuntime().maxMemory() / 256;
     private static final int MAX_CACHE_PREPARED_COUNT = 10000;
 
+    private static final Function<Void, ResultMessage> VOID_RESULT = new Function<Void, ResultMessage>()
+    {
+        public ResultMessage apply(Void input)
+        {
+            return new ResultMessage.Void();
+        }
+    };
+
     private static EntryWeigher<MD5Digest, CQLStatement> cqlMemoryUsageWeigher = new EntryWeigher<MD5Digest, CQLStatement>()
     {
         @Override
@@ -215,38 +228,67 @@ public class QueryProcessor
     public static ResultMessage process(String queryString, QueryState queryState, QueryOptions options)
             throws RequestExecutionException, RequestValidationException
     {
-        ResultMessage m;
-        if (Evaluation.evalMode && Evaluation.details)
+        long start = System.nanoTime();
+        try
         {
-            Evaluation.addStartTimestamp("QueryProcessor.process(String, QueryState, QueryOptions)", queryString);
-            try
-            {
-                m = _process(queryString, queryState, options);
-            }
-            finally
+            return _process(queryString, queryState, options);
+        }
+        finally
+        {
+            IndirectionMetrics.query.addNano(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Processes a query like process(), except that annotated writes are only started by the calling thread and
+     * complete on the callbacks of their messages, see IndirectionWriteSupport.insertDataAsync. Other statements
+     * are executed right away.
+     */
+    public static ListenableFuture<ResultMessage> processAsync(String queryString, QueryState queryState, QueryOptions options)
+    throws RequestExecutionException, RequestValidationException
+    {
+        final long start = System.nanoTime();
+        ListenableFuture<ResultMessage> result;
+        try
+        {
+            CQLStatement prepared = getStatement(queryString, queryState.getClientState()).statement;
+            if (prepared.getBoundTerms() != options.getValues().size())
+                throw new InvalidRequestException("Invalid amount of bind variables");
+
+            result = isAnnotatedWrite(prepared)
+                   ? processStatementAsync(prepared, queryState, options)
+                   : Futures.immediateFuture(processParsed(prepared, queryState, options, queryString));
+        }
+        catch (RequestExecutionException | RequestValidationException | RuntimeException e)
+        {
+            IndirectionMetrics.query.addNano(System.nanoTime() - start);
+            throw e;
+        }
+        result.addListener(new Runnable()
+        {
+            public void run()
             {
-                Evaluation.addEndTimestamp();
+                IndirectionMetrics.query.addNano(System.nanoTime() - start);
             }
-        }
-        else
-            m = _process(queryString, queryState, options);
-        return m;
+        }, MoreExecutors.sameThreadExecutor());
+        return result;
     }
 
     public static ResultMessage _process(String queryString, QueryState queryState, QueryOptions options)
     throws RequestExecutionException, RequestValidationException
     {
         ParsedStatement.Prepared statement = getStatement(queryString, queryState.getClientState());
-
-        // null indicates that the statement is already executed due to data annotation specific commands, therefore exit with void ResultMessage
-        if (statement == null)
-            return new ResultMessage.Void();
-
         CQLStatement prepared = statement.statement;
 
         if (prepared.getBoundTerms() != options.getValues().size())
             throw new InvalidRequestException("Invalid amount of bind variables");
 
+        return processParsed(prepared, queryState, options, queryString);
+    }
+
+    private static ResultMessage processParsed(CQLStatement prepared, QueryState queryState, QueryOptions options, String queryString)
+    throws RequestExecutionException, RequestValidationException
+    {
         if (prepared.isCreate())
         {
             IndirectionWriteSupport.initTables(queryString, (CreateTableStatement) prepared);
@@ -376,6 +418,25 @@ public class QueryProcessor
 
     public static ResultMessage processPrepared(CQLStatement statement, QueryState queryState, QueryOptions options)
     throws RequestExecutionException, RequestValidationException
+    {
+        validateVariables(statement, options);
+        return processStatement(statement, queryState, options, null);
+    }
+
+    /**
+     * Processes a prepared statement like processPrepared(), except that annotated writes complete asynchronously,
+     * see processAsync().
+     */
+    public static ListenableFuture<ResultMessage> processPreparedAsync(CQLStatement statement, QueryState queryState, QueryOptions options)
+    throws RequestExecutionException, RequestValidationException
+    {
+        validateVariables(statement, options);
+        return isAnnotatedWrite(statement)
+             ? processStatementAsync(statement, queryState, options)
+             : Futures.immediateFuture(processStatement(statement, queryState, options, null));
+    }
+
+    private static void validateVariables(CQLStatement statement, QueryOptions options) throws InvalidRequestException
     {
         List<ByteBuffer> variables = options.getValues();
         // Check to see if there are any bound variables to verify
@@ -392,8 +453,38 @@ public class QueryProcessor
                 for (int i = 0; i < variables.size(); i++)
                     logger.trace("[{}] '{}'", i+1, variables.get(i));
         }
+    }
 
-        return processStatement(statement, queryState, options, null);
+    // Annotated writes are only executed asynchronously without execution hooks, which expect the statement to be
+    // complete once it returns
+    private static boolean isAnnotatedWrite(CQLStatement statement)
+    {
+        if (!preExecutionHooks.isEmpty() || !postExecutionHooks.isEmpty())
+            return false;
+        if (statement instanceof BatchStatement)
+            return ((BatchStatement) statement).isAnnotated();
+        return statement instanceof ModificationStatement && ((ModificationStatement) statement).isAnnotated();
+    }
+
+    private static ListenableFuture<ResultMessage> processStatementAsync(CQLStatement statement, QueryState queryState, QueryOptions options)
+    throws RequestExecutionException, RequestValidationException
+    {
+        logger.trace("Process {} @CL.{} asynchronously", statement, options.getConsistency());
+        ClientState clientState = queryState.getClientState();
+        statement.checkAccess(clientState);
+        statement.validate(clientState);
+
+        ListenableFuture<Void> written;
+        if (statement instanceof BatchStatement)
+        {
+            BatchStatement batch = (BatchStatement) statement;
+            written = batch.executeAnnotatedAsync(options.getConsistency(), queryState, Collections.nCopies(batch.getStatements().size(), options.getValues()));
+        }
+        else
+        {
+            written = ((ModificationStatement) statement).executeAnnotatedAsync(queryState, options);
+        }
+        return Futures.transform(written, VOID_RESULT);
     }
 
     public static ResultMessage processBatch(BatchStatement batch,
@@ -415,6 +506,26 @@ public class QueryProcessor
         return new ResultMessage.Void();
     }
 
+    /**
+     * Processes a batch like processBatch(), except that batches of annotated writes only complete asynchronously,
+     * see processAsync().
+     */
+    public static ListenableFuture<ResultMessage> processBatchAsync(BatchStatement batch,
+                                                                    ConsistencyLevel cl,
+                                                                    QueryState queryState,
+                                                                    List<List<ByteBuffer>> variables,
+                                                                    List<Object> queryOrIdList)
+    throws RequestExecutionException, RequestValidationException
+    {
+        if (!isAnnotatedWrite(batch))
+            return Futures.immediateFuture(processBatch(batch, cl, queryState, variables, queryOrIdList));
+
+        ClientState clientState = queryState.getClientState();
+        batch.checkAccess(clientState);
+        batch.validate(clientState);
+        return Futures.transform(batch.executeAnnotatedAsync(cl, queryState, variables), VOID_RESULT);
+    }
+
     private static void executeBatchWithHooks(BatchStatement batch, ConsistencyLevel cl, BatchExecutionContext context)
     throws RequestExecutionException, RequestValidationException
     {
@@ -438,14 +549,6 @@ public class QueryProcessor
             ((CFStatement)statement).prepareKeyspace(clientState);
 
         Tracing.trace("Preparing statement");
-
-        // Check for Data Annotations and Insert Data with Indirection if required
-        if (statement.hasAnnotations())
-        {
-            if (IndirectionWriteSupport.insertData((UpdateStatement.ParsedInsert) statement, queryStr, clientState) == true)
-                return null;
-        }
-
         return statement.prepare();
     }
 
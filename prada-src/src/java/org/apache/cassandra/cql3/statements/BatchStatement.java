@@ -20,8 +20,11 @@ package org.apache.cassandra.cql3.statements;
 import java.nio.ByteBuffer;
 import java.util.*;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import org.github.jamm.MemoryMeter;
 
+import org.apache.cassandra.annotation.Constraints;
+import org.apache.cassandra.annotation.IndirectionWriteSupport;
 import org.apache.cassandra.cql3.*;
 import org.apache.cassandra.db.ConsistencyLevel;
 import org.apache.cassandra.db.IMutation;
@@ -97,11 +100,21 @@ public class BatchStatement implements CQLStatement, MeasurableForPreparedCache
         if (attrs.isTimeToLiveSet())
             throw new InvalidRequestException("Global TTL on the BATCH statement is not supported.");
 
+        boolean hasAnnotated = false;
+        boolean hasPlain = false;
         for (ModificationStatement statement : statements)
         {
             if (attrs.isTimestampSet() && statement.isTimestampSet())
                 throw new InvalidRequestException("Timestamp must be set either on BATCH or individual statements");
+            if (statement.isAnnotated())
+                hasAnnotated = true;
+            else
+                hasPlain = true;
         }
+
+        // annotated rows are not written through the batchlog, so they could not be applied atomically with the others
+        if (type == Type.LOGGED && hasAnnotated && hasPlain)
+            throw new InvalidRequestException("Statements with and without Data Annotations cannot be mixed in a LOGGED batch, use an UNLOGGED batch instead");
     }
 
     public List<ModificationStatement> getStatements()
@@ -114,7 +127,10 @@ public class BatchStatement implements CQLStatement, MeasurableForPreparedCache
     {
         Map<Pair<String, ByteBuffer>, IMutation> mutations = new HashMap<Pair<String, ByteBuffer>, IMutation>();
         for (ModificationStatement statement : statements)
-            addStatementMutations(statement, variables, local, cl, now, mutations);
+        {
+            if (!statement.isAnnotated())
+                addStatementMutations(statement, variables, local, cl, now, mutations);
+        }
 
         return mutations.values();
     }
@@ -127,7 +143,8 @@ public class BatchStatement implements CQLStatement, MeasurableForPreparedCache
         {
             ModificationStatement statement = statements.get(i);
             List<ByteBuffer> statementVariables = variables.get(i);
-            addStatementMutations(statement, statementVariables, false, cl, now, mutations);
+            if (!statement.isAnnotated())
+                addStatementMutations(statement, statementVariables, false, cl, now, mutations);
         }
         return mutations.values();
     }
@@ -162,7 +179,9 @@ public class BatchStatement implements CQLStatement, MeasurableForPreparedCache
         if (options.getConsistency() == null)
             throw new InvalidRequestException("Invalid empty consistency level");
 
-        execute(getMutations(options.getValues(), false, options.getConsistency(), queryState.getTimestamp()), options.getConsistency());
+        long now = queryState.getTimestamp();
+        executeAnnotated(Collections.nCopies(statements.size(), options.getValues()), options.getConsistency(), now);
+        execute(getMutations(options.getValues(), false, options.getConsistency(), now), options.getConsistency());
         return null;
     }
 
@@ -171,17 +190,71 @@ public class BatchStatement implements CQLStatement, MeasurableForPreparedCache
         if (cl == null)
             throw new InvalidRequestException("Invalid empty consistency level");
 
-        execute(getMutations(variables, cl, queryState.getTimestamp()), cl);
+        long now = queryState.getTimestamp();
+        executeAnnotated(variables, cl, now);
+        execute(getMutations(variables, cl, now), cl);
+    }
+
+    /**
+     * @return whether all statements of the batch are annotated, only such batches can be executed asynchronously
+     */
+    public boolean isAnnotated()
+    {
+        for (ModificationStatement statement : statements)
+        {
+            if (!statement.isAnnotated())
+                return false;
+        }
+        return !statements.isEmpty();
+    }
+
+    /**
+     * Starts the writes of a batch of annotated statements without waiting for them, see
+     * IndirectionWriteSupport.insertDataAsync.
+     */
+    public ListenableFuture<Void> executeAnnotatedAsync(ConsistencyLevel cl, QueryState queryState, List<List<ByteBuffer>> variables) throws RequestExecutionException, RequestValidationException
+    {
+        assert isAnnotated();
+        if (cl == null)
+            throw new InvalidRequestException("Invalid empty consistency level");
+        return IndirectionWriteSupport.insertDataAsync(getAnnotatedWrites(variables, queryState.getTimestamp()), cl);
+    }
+
+    /**
+     * Writes the rows of all annotated statements through the indirection layer, grouped by their target nodes.
+     */
+    private void executeAnnotated(List<List<ByteBuffer>> variables, ConsistencyLevel cl, long now) throws RequestExecutionException, RequestValidationException
+    {
+        List<IndirectionWriteSupport.AnnotatedWrite> writes = getAnnotatedWrites(variables, now);
+        if (!writes.isEmpty())
+            IndirectionWriteSupport.insertData(writes, cl);
+    }
+
+    private List<IndirectionWriteSupport.AnnotatedWrite> getAnnotatedWrites(List<List<ByteBuffer>> variables, long now) throws InvalidRequestException
+    {
+        List<IndirectionWriteSupport.AnnotatedWrite> writes = new ArrayList<IndirectionWriteSupport.AnnotatedWrite>();
+        for (int i = 0; i < statements.size(); i++)
+        {
+            ModificationStatement statement = statements.get(i);
+            if (statement.isAnnotated())
+                writes.add(new IndirectionWriteSupport.AnnotatedWrite(statement, variables.get(i), attrs.getTimestamp(now, variables.get(i))));
+        }
+        return writes;
     }
 
     private void execute(Collection<? extends IMutation> mutations, ConsistencyLevel cl) throws RequestExecutionException, RequestValidationException
     {
+        if (mutations.isEmpty())
+            return;
+
         boolean mutateAtomic = (type == Type.LOGGED && mutations.size() > 1);
         StorageProxy.mutateWithTriggers(mutations, cl, mutateAtomic);
     }
 
     public ResultMessage executeInternal(QueryState queryState) throws RequestValidationException, RequestExecutionException
     {
+        // getMutations skips the annotated statements, they are written through the indirection layer
+        executeAnnotated(Collections.nCopies(statements.size(), Collections.<ByteBuffer>emptyList()), ConsistencyLevel.ONE, queryState.getTimestamp());
         for (IMutation mutation : getMutations(Collections.<ByteBuffer>emptyList(), true, null, queryState.getTimestamp()))
             mutation.apply();
         return null;
@@ -197,13 +270,20 @@ public class BatchStatement implements CQLStatement, MeasurableForPreparedCache
         private final Type type;
         private final Attributes.Raw attrs;
         private final List<ModificationStatement.Parsed> parsedStatements;
+        private final Constraints annotations;
 
         public Parsed(Type type, Attributes.Raw attrs, List<ModificationStatement.Parsed> parsedStatements)
+        {
+            this(type, attrs, parsedStatements, new Constraints());
+        }
+
+        public Parsed(Type type, Attributes.Raw attrs, List<ModificationStatement.Parsed> parsedStatements, Constraints annotations)
         {
             super(null);
             this.type = type;
             this.attrs = attrs;
             this.parsedStatements = parsedStatements;
+            this.annotations = annotations;
         }
 
         @Override
@@ -220,6 +300,15 @@ public class BatchStatement implements CQLStatement, MeasurableForPreparedCache
             List<ModificationStatement> statements = new ArrayList<ModificationStatement>(parsedStatements.size());
             for (ModificationStatement.Parsed parsed : parsedStatements)
             {
+                // Annotations of the batch apply to all inserts without annotations of their own
+                if (annotations.hasAnnotations() || annotations.isDirect())
+                {
+                    if (!(parsed instanceof UpdateStatement.ParsedInsert))
+                        throw new InvalidRequestException("Only INSERT statements are allowed in batches with Data Annotations");
+                    if (!parsed.annotations.hasAnnotations() && !parsed.annotations.isDirect())
+                        parsed.annotations = annotations;
+                }
+
                 ModificationStatement stmt = parsed.prepare(boundNames);
                 if (stmt.hasConditions())
                     throw new InvalidRequestException("Conditional updates are not allowed in batches");
@@ -22,6 +22,7 @@ import java.util.Collections;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.annotation.IndirectionWriteSupport;
 import org.apache.cassandra.auth.Permission;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
@@ -113,6 +114,7 @@ public class CreateIndexStatement extends SchemaAlteringStatement
         cd.setIndexName(indexName);
         cfm.addDefaultIndexNames();
         MigrationManager.announceColumnFamilyUpdate(cfm, false);
+        IndirectionWriteSupport.syncIndexes(keyspace(), columnFamily());
     }
 
     public ResultMessage.SchemaChange.Change changeType()
@@ -17,6 +17,7 @@
  */
 package org.apache.cassandra.cql3.statements;
 
+import org.apache.cassandra.annotation.IndirectionWriteSupport;
 import org.apache.cassandra.auth.Permission;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
@@ -68,6 +69,7 @@ public class DropIndexStatement extends SchemaAlteringStatement
 
         CFMetaData updatedCfm = updateCFMetadata(cfm);
         MigrationManager.announceColumnFamilyUpdate(updatedCfm, false);
+        IndirectionWriteSupport.syncIndexes(cfm.ksName, cfm.cfName);
     }
 
     private CFMetaData updateCFMetadata(CFMetaData cfm)
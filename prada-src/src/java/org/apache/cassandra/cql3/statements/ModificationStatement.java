@@ -47,6 +47,7 @@ import org.apache.cassandra.utils.Pair;
 import org.apache.cassandra.utils.ByteBufferUtil;
 
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
 
 /*
  * Abstract parent class of individual modifications, i.e. INSERT, UPDATE and DELETE.
@@ -66,7 +67,7 @@ public abstract class ModificationStatement implements CQLStatement, MeasurableF
     private boolean ifNotExists;
 
     // DataAnnotations
-    public ByteBuffer PrimaryKey;
+    private Constraints annotations;
 
     public ModificationStatement(CFMetaData cfm, Attributes attrs)
     {
@@ -379,6 +380,17 @@ public abstract class ModificationStatement implements CQLStatement, MeasurableF
         return map;
     }
 
+    public Constraints getAnnotations()
+    {
+        return annotations;
+    }
+
+    public boolean isAnnotated()
+    {
+        // WITH ANNOTATIONS REDIRECT names the targets directly, without any annotation
+        return annotations != null && (annotations.hasAnnotations() || annotations.isDirect()) && IndirectionSupport.isRegularKeyspace(keyspace());
+    }
+
     public boolean hasConditions()
     {
         return ifNotExists || (columnConditions != null && !columnConditions.isEmpty());
@@ -393,11 +405,35 @@ public abstract class ModificationStatement implements CQLStatement, MeasurableF
         if (hasConditions() && options.getProtocolVersion() == 1)
             throw new InvalidRequestException("Conditional updates are not supported by the protocol version in use. You need to upgrade to a driver using the native protocol v2.");
 
+        if (isAnnotated())
+        {
+            if (hasConditions())
+                throw new InvalidRequestException("Conditional updates are not supported with Data Annotations");
+            if (IndirectionWriteSupport.insertData(this, queryState, options))
+                return null;
+        }
+
         return hasConditions()
              ? executeWithCondition(queryState, options)
              : executeWithoutCondition(queryState, options);
     }
 
+    /**
+     * Starts the write of an annotated statement without waiting for it, see IndirectionWriteSupport.insertDataAsync.
+     */
+    public ListenableFuture<Void> executeAnnotatedAsync(QueryState queryState, QueryOptions options)
+    throws RequestExecutionException, RequestValidationException
+    {
+        assert isAnnotated();
+        if (options.getConsistency() == null)
+            throw new InvalidRequestException("Invalid empty consistency level");
+        if (hasConditions())
+            throw new InvalidRequestException("Conditional updates are not supported with Data Annotations");
+
+        IndirectionWriteSupport.AnnotatedWrite write = new IndirectionWriteSupport.AnnotatedWrite(this, options.getValues(), queryState.getTimestamp());
+        return IndirectionWriteSupport.insertDataAsync(Collections.singletonList(write), options.getConsistency());
+    }
+
     private double updateLoadCache(ByteBuffer key, ColumnFamily cf)
     {
         double size = cf.dataSize();
@@ -533,6 +569,14 @@ public abstract class ModificationStatement implements CQLStatement, MeasurableF
         if (hasConditions())
             throw new UnsupportedOperationException();
 
+        // annotated rows only exist behind their reference rows, so they cannot be applied locally
+        if (isAnnotated())
+        {
+            IndirectionWriteSupport.AnnotatedWrite write = new IndirectionWriteSupport.AnnotatedWrite(this, Collections.<ByteBuffer>emptyList(), queryState.getTimestamp());
+            IndirectionWriteSupport.insertData(Collections.singletonList(write), ConsistencyLevel.ONE);
+            return null;
+        }
+
         for (IMutation mutation : getMutations(Collections.<ByteBuffer>emptyList(), true, null, queryState.getTimestamp(), false))
             mutation.apply();
         return null;
@@ -650,6 +694,7 @@ public abstract class ModificationStatement implements CQLStatement, MeasurableF
             preparedAttributes.collectMarkerSpecification(boundNames);
 
             ModificationStatement stmt = prepareInternal(cfDef, boundNames, preparedAttributes);
+            stmt.annotations = annotations;
 
             if (ifNotExists || (conditions != null && !conditions.isEmpty()))
             {
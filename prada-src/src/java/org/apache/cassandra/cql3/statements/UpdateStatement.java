@@ -135,7 +135,7 @@ public class UpdateStatement extends ModificationStatement
         @Override
         public boolean hasAnnotations()
         {
-            return annotations.hasAnnotations();
+            return annotations.hasAnnotations() || annotations.isDirect();
         }
 
         protected ModificationStatement prepareInternal(CFDefinition cfDef, VariableSpecifications boundNames, Attributes attrs) throws InvalidRequestException
@@ -164,7 +164,7 @@ public class UpdateStatement extends ModificationStatement
 
                 switch (name.kind)
                 {
-                    case KEY_ALIAS: stmt.PrimaryKey = ByteBufferUtil.bytes(value.getRawText()); //Removes '' from Key Raw value
+                    case KEY_ALIAS:
                     case COLUMN_ALIAS:
                         Term t = value.prepare(name);
                         t.collectMarkerSpecification(boundNames);
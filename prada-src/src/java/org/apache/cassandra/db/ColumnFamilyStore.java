@@ -38,6 +38,7 @@ import org.cliffc.high_scale_lib.NonBlockingHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.annotation.IndirectionSupport;
 import org.apache.cassandra.cache.IRowCacheEntry;
 import org.apache.cassandra.cache.RowCacheKey;
 import org.apache.cassandra.cache.RowCacheSentinel;
@@ -86,6 +87,8 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     public final IPartitioner partitioner;
     private final String mbeanName;
     private volatile boolean valid = true;
+    /* reference tables of Data Annotations, their rows are cached in decoded form by the IndirectionCache */
+    private final boolean holdsIndirectionInformation;
 
     /* Memtables and SSTables on disk for this column family */
     private final DataTracker data;
@@ -238,6 +241,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         assert metadata != null : "null metadata for " + keyspace + ":" + columnFamilyName;
 
         this.keyspace = keyspace;
+        this.holdsIndirectionInformation = keyspace.getName().endsWith(IndirectionSupport.ReferenceKeyspacePostfix);
         name = columnFamilyName;
         this.metadata = metadata;
         this.minCompactionThreshold = new DefaultInteger(metadata.getMinCompactionThreshold());
@@ -345,6 +349,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         for (RowCacheKey key : CacheService.instance.rowCache.getKeySet())
             if (key.cfId == metadata.cfId)
                 invalidateCachedRow(key);
+        invalidateIndirectionCache();
     }
 
     /**
@@ -596,6 +601,23 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                         name);
     }
 
+    // must be called after all sstables are loaded since saved keys are re-read from the reference table
+    public void initIndirectionCache()
+    {
+        if (!holdsIndirectionInformation || CacheService.instance.indirectionCache.getCapacity() == 0)
+            return;
+
+        long start = System.nanoTime();
+
+        int cachedKeysRead = CacheService.instance.indirectionCache.loadSaved(this);
+        if (cachedKeysRead > 0)
+            logger.info("completed loading ({} ms; {} keys) indirection cache for {}.{}",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                        cachedKeysRead,
+                        keyspace.getName(),
+                        name);
+    }
+
     /**
      * See #{@code StorageService.loadNewSSTables(String, String)} for more info
      *
@@ -889,6 +911,8 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         Memtable mt = getMemtableThreadSafe();
         mt.put(key, columnFamily, indexer);
         maybeUpdateRowCache(key);
+        if (holdsIndirectionInformation)
+            CacheService.instance.indirectionCache.remove(new RowCacheKey(metadata.cfId, key));
         metric.writeLatency.addNano(System.nanoTime() - start);
 
         // recompute liveRatio, if we have doubled the number of ops since last calculated
@@ -1572,6 +1596,16 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             if (key.cfId == metadata.cfId && !Range.isInRanges(dk.token, ranges))
                 invalidateCachedRow(dk);
         }
+
+        if (holdsIndirectionInformation)
+        {
+            for (RowCacheKey key : CacheService.instance.indirectionCache.getKeySet())
+            {
+                DecoratedKey dk = partitioner.decorateKey(ByteBuffer.wrap(key.key));
+                if (key.cfId.equals(metadata.cfId) && !Range.isInRanges(dk.token, ranges))
+                    CacheService.instance.indirectionCache.remove(key);
+            }
+        }
     }
 
     public static abstract class AbstractScanIterator extends AbstractIterator<Row> implements CloseableIterator<Row>
@@ -1929,6 +1963,20 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     public void invalidateCachedRow(RowCacheKey key)
     {
         CacheService.instance.rowCache.remove(key);
+        if (holdsIndirectionInformation)
+            CacheService.instance.indirectionCache.remove(key);
+    }
+
+    private void invalidateIndirectionCache()
+    {
+        if (!holdsIndirectionInformation)
+            return;
+
+        for (RowCacheKey key : CacheService.instance.indirectionCache.getKeySet())
+        {
+            if (key.cfId.equals(metadata.cfId))
+                CacheService.instance.indirectionCache.remove(key);
+        }
     }
 
     public void invalidateCachedRow(DecoratedKey key)
@@ -2055,6 +2103,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                     if (key.cfId == metadata.cfId)
                         invalidateCachedRow(key);
                 }
+                invalidateIndirectionCache();
             }
         };
 
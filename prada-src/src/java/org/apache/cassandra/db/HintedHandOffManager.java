@@ -39,6 +39,7 @@ import com.google.common.util.concurrent.Uninterruptibles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.annotation.IndirectionSupport;
 import org.apache.cassandra.concurrent.JMXEnabledThreadPoolExecutor;
 import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.config.DatabaseDescriptor;
@@ -59,6 +60,7 @@ import org.apache.cassandra.gms.Gossiper;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.SSTable;
 import org.apache.cassandra.metrics.HintedHandoffMetrics;
+import org.apache.cassandra.metrics.IndirectionMetrics;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.service.*;
@@ -447,11 +449,14 @@ public class HintedHandOffManager implements HintedHandOffManagerMBean
 
                 MessageOut<RowMutation> message = rm.createMessage();
                 rateLimiter.acquire(message.serializedSize(MessagingService.current_version));
+                final boolean redirected = rm.getKeyspaceName().endsWith(IndirectionSupport.DataKeyspacePostfix);
                 Runnable callback = new Runnable()
                 {
                     public void run()
                     {
                         rowsReplayed.incrementAndGet();
+                        if (redirected)
+                            IndirectionMetrics.redirectedHintsReplayed.inc();
                         deleteHint(hostIdBytes, hint.name(), hint.maxTimestamp());
                     }
                 };
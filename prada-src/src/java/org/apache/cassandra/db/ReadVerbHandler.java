@@ -24,6 +24,7 @@ import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.cassandra.annotation.IndirectionInformation;
+import org.apache.cassandra.annotation.IndirectionPlacementHints;
 import org.apache.cassandra.annotation.IndirectionSupport;
 import org.apache.cassandra.net.IVerbHandler;
 import org.apache.cassandra.net.MessageIn;
@@ -50,18 +51,23 @@ public class ReadVerbHandler implements IVerbHandler<ReadCommand>
         row = command.getRow(keyspace);
 
         IndirectionInformation ind = null;
+        InetAddress addr = null;
         if (row.indirection && (ind = IndirectionInformation.RowToIndirectionInformation(row)) != null)
         {
             assert(!command.ksName.contains(IndirectionSupport.ReferenceKeyspacePostfix));
-            String newKs = command.ksName + IndirectionSupport.DataKeyspacePostfix;
-            ReadCommand newCommand = command.copy(newKs);
-            MessageOut<ReadCommand> msgout = new MessageOut<ReadCommand>(MessagingService.Verb.READ, newCommand, ReadCommand.serializer);
             List<InetAddress> addrs = StorageService.instance.getNaturalEndpoints(command.ksName, command.key);
             int i = addrs.indexOf(FBUtilities.getBroadcastAddress());
             assert(i >= 0);
             assert(i < ind.getNodes().size());
-            org.apache.cassandra.dht.Token tk = StorageService.getPartitioner().getTokenFactory().fromString(ByteBufferUtil.stringWOException(ind.getNodes().get(i)));
-            InetAddress addr = StorageService.instance.getNaturalEndpoints(command.ksName, tk).get(0);
+            // a target which left the ring cannot answer, the coordinator gets the reference row instead
+            addr = IndirectionPlacementHints.getTargetEndpoint(ind.getNodes().get(i));
+        }
+
+        if (addr != null)
+        {
+            String newKs = command.ksName + IndirectionSupport.DataKeyspacePostfix;
+            ReadCommand newCommand = command.copy(newKs);
+            MessageOut<ReadCommand> msgout = new MessageOut<ReadCommand>(MessagingService.Verb.READ, newCommand, ReadCommand.serializer);
             MessagingService.instance().sendOneWay(msgout, id, addr);
         }
         else
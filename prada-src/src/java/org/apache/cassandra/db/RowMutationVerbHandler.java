@@ -20,19 +20,13 @@ package org.apache.cassandra.db;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.apache.cassandra.annotation.IndirectionInformation;
-import org.apache.cassandra.annotation.IndirectionSupport;
-import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.io.util.FastByteArrayInputStream;
 import org.apache.cassandra.net.*;
 import org.apache.cassandra.service.LoadBroadcaster;
-import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.tracing.Tracing;
-import org.apache.cassandra.utils.ByteBufferUtil;
 
 public class RowMutationVerbHandler implements IVerbHandler<RowMutation>
 {
@@ -59,51 +53,11 @@ public class RowMutationVerbHandler implements IVerbHandler<RowMutation>
                 replyTo = InetAddress.getByAddress(from);
             }
 
-            boolean ind = false;
-            if (!rm.getColumnFamilies().isEmpty())
-            {
-                ColumnFamily cf = rm.getColumnFamilies().iterator().next();
-                if (!cf.deletionInfo().isLive() && cf.deletionInfo().isDeleted(null, System.currentTimeMillis()) && IndirectionSupport.isRegularKeyspace(rm.getKeyspaceName()))
-                {
-                    String key = ByteBufferUtil.stringWOException(rm.key());
-                    IndirectionInformation exRefInfo = IndirectionInformation.getExistingIndirectionInformation(rm.getKeyspaceName(), cf.metadata().cfName, key);
-                    List<String> existingNodes = null;
-                    if (exRefInfo != null)
-                        existingNodes = exRefInfo.getNodesAsString();
-                    if (existingNodes != null && from == null)
-                    {
-                        ind = true;
-                        CFMetaData cfm = Keyspace.open(rm.getKeyspaceName() + IndirectionSupport.DataKeyspacePostfix).getColumnFamilyStore(cf.metadata().cfName).metadata;
-                        ColumnFamily dcf = TreeMapBackedSortedColumns.factory.create(cfm);
-                        dcf.delete(new DeletionInfo(cf.deletionInfo().getTopLevelDeletion().markedForDeleteAt, cf.deletionInfo().getTopLevelDeletion().localDeletionTime));
-                        MessageOut<RowMutation> delMsg = new MessageOut<RowMutation>(message.verb, new RowMutation(rm.key(), dcf), RowMutation.serializer).withParameter(RowMutation.FORWARD_FROM, message.from.getAddress());
-                        for (String node : existingNodes)
-                            MessagingService.instance().sendOneWay(delMsg, id, StorageService.instance.getAssociatedEndpoint(node));
-                    }
-                    else if (existingNodes == null)
-                    {
-                        rm.apply();
-                    }
-                    if (existingNodes != null)
-                    {
-                        CFMetaData cfm = Keyspace.open(rm.getKeyspaceName() + IndirectionSupport.ReferenceKeyspacePostfix).getColumnFamilyStore(cf.metadata().cfName).metadata;
-                        ColumnFamily dcf = TreeMapBackedSortedColumns.factory.create(cfm);
-                        dcf.delete(new DeletionInfo(cf.deletionInfo().getTopLevelDeletion().markedForDeleteAt, cf.deletionInfo().getTopLevelDeletion().localDeletionTime));
-                        RowMutation refMut = new RowMutation(rm.key(), dcf);
-                        refMut.apply();
-                    }
-                }
-                else
-                    rm.apply();
-            }
-            else
-                rm.apply();
-            if (!ind)
-            {
-                WriteResponse response = new WriteResponse();
-                Tracing.trace("Enqueuing response to {}", replyTo);
-                MessagingService.instance().sendReply(response.createMessage(), id, replyTo);
-            }
+            rm.apply();
+
+            WriteResponse response = new WriteResponse();
+            Tracing.trace("Enqueuing response to {}", replyTo);
+            MessagingService.instance().sendReply(response.createMessage(), id, replyTo);
             for (ColumnFamily c : rm.getColumnFamilies())
                 LoadBroadcaster.instance.updateLoadCache(null, c.dataSize());
         }
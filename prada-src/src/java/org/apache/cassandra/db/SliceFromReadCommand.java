@@ -77,7 +77,7 @@ public class SliceFromReadCommand extends ReadCommand
         // Check if Indirection Information exists
         Row IndRow;
         IndRow = IndirectionReadSupport.getIndirectionRow(keyspace, new QueryFilter(dk, cfName, filter, timestamp));
-        if (IndRow != null && IndRow.cf.getColumnCount() > 1)
+        if (IndRow != null && IndRow.cf != null && IndRow.cf.getColumnCount() > 1)
             return IndRow;
 
         return keyspace.getRow(new QueryFilter(dk, cfName, filter, timestamp));
@@ -33,9 +33,9 @@ public enum ApplicationState
     NET_VERSION,
     HOST_ID,
     TOKENS,
+    INDIRECTION_LOAD,
+    CAPABILITIES,
     // pad to allow adding new states to existing cluster
-    X1,
-    X2,
     X3,
     X4,
     X5,
@@ -145,6 +145,16 @@ public class VersionedValue implements Comparable<VersionedValue>
             return new VersionedValue(String.valueOf(load));
         }
 
+        public VersionedValue indirectionLoad(long pendingTasks)
+        {
+            return new VersionedValue(String.valueOf(pendingTasks));
+        }
+
+        public VersionedValue capabilities(String capabilities)
+        {
+            return new VersionedValue(capabilities);
+        }
+
         public VersionedValue schema(UUID newVersion)
         {
             return new VersionedValue(newVersion.toString());
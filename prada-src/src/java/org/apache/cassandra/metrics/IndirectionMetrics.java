@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Histogram;
+
+/**
+ * Metrics of the stages of reads and writes with Data Annotations.
+ */
+public class IndirectionMetrics
+{
+    public static final String TYPE_NAME = "Indirection";
+
+    private static final MetricNameFactory factory = new DefaultNameFactory(TYPE_NAME);
+
+    /** Processing of CQL queries, annotated or not */
+    public static final LatencyMetrics query = new LatencyMetrics(factory, "Query");
+    /** Resolution of the nodes satisfying the Data Annotations of a write */
+    public static final LatencyMetrics constraintResolution = new LatencyMetrics(factory, "ConstraintResolution");
+    /** Choice of the target nodes among the satisfying nodes */
+    public static final LatencyMetrics placement = new LatencyMetrics(factory, "Placement");
+    /** Writes of redirected data, until every row reached the data consistency */
+    public static final LatencyMetrics dataSend = new LatencyMetrics(factory, "DataSend");
+    /** Writes of reference rows, until every row reached the reference consistency */
+    public static final LatencyMetrics referenceUpdate = new LatencyMetrics(factory, "ReferenceUpdate");
+    /** Reads of redirected data from the targets named by reference rows */
+    public static final LatencyMetrics readHop = new LatencyMetrics(factory, "ReadHop");
+    /** Reads of the redirected data of a range scan */
+    public static final LatencyMetrics rangeFanOut = new LatencyMetrics(factory, "RangeFanOut");
+    /** Number of targets a range scan reads redirected data from */
+    public static final Histogram rangeFanOutTargets = Metrics.newHistogram(factory.createMetricName("RangeFanOutTargets"), true);
+    /** Rows of redirected data hinted for targets which were down or did not answer */
+    public static final Counter redirectedHints = Metrics.newCounter(factory.createMetricName("RedirectedHints"));
+    /** Hinted rows of redirected data replayed to their targets */
+    public static final Counter redirectedHintsReplayed = Metrics.newCounter(factory.createMetricName("RedirectedHintsReplayed"));
+    /** Annotated writes of the native transport in flight without a thread waiting for them */
+    public static final Counter asyncWrites = Metrics.newCounter(factory.createMetricName("AsyncWrites"));
+
+    /**
+     * @return the latency metrics of all stages by their name prefix, in the order of a request
+     */
+    public static Map<String, LatencyMetrics> stages()
+    {
+        Map<String, LatencyMetrics> stages = new LinkedHashMap<>();
+        stages.put("Query", query);
+        stages.put("ConstraintResolution", constraintResolution);
+        stages.put("Placement", placement);
+        stages.put("DataSend", dataSend);
+        stages.put("ReferenceUpdate", referenceUpdate);
+        stages.put("ReadHop", readHop);
+        stages.put("RangeFanOut", rangeFanOut);
+        return stages;
+    }
+}
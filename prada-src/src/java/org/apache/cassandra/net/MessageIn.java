@@ -27,8 +27,6 @@ import com.google.common.collect.ImmutableMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.apache.cassandra.annotation.messages.IndirectionDeleteMessage;
-import org.apache.cassandra.annotation.messages.IndirectionUpdateReferencesMessage;
 import org.apache.cassandra.concurrent.Stage;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.RangeSliceReply;
@@ -53,7 +51,7 @@ public class MessageIn<T>
         this.parameters = parameters;
         this.verb = verb;
         this.version = version;
-        drop = (payload != null) && ((payload.getClass() != IndirectionUpdateReferencesMessage.class) && (payload.getClass() != IndirectionDeleteMessage.class) && (payload.getClass() != RangeSliceReply.class));
+        drop = (payload != null) && (payload.getClass() != RangeSliceReply.class);
     }
 
     public boolean dropCBImmediately()
@@ -245,7 +245,7 @@ public final class MessagingService implements MessagingServiceMBean
         put(Verb.PAXOS_PROPOSE, BooleanSerializer.serializer);
 
         put(Verb.INDIRECTION_UPDATE_REFERENCES_MESSAGE, IndirectionMessage.serializer);
-        put(Verb.INDIRECTION_DATA_MESSAGE, IndirectionDataMessage.serializer);
+        put(Verb.INDIRECTION_DATA_MESSAGE, IndirectionMessage.serializer);
         put(Verb.INDIRECTION_DELETE_MESSAGE, IndirectionMessage.serializer);
     }};
 
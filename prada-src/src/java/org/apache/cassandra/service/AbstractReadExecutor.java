@@ -21,6 +21,7 @@ import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.google.common.collect.Iterables;
 import org.slf4j.Logger;
@@ -28,7 +29,9 @@ import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.concurrent.Stage;
 import org.apache.cassandra.concurrent.StageManager;
+import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.CFMetaData.SpeculativeRetry.RetryType;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.config.ReadRepairDecision;
 import org.apache.cassandra.db.ColumnFamilyStore;
@@ -37,16 +40,20 @@ import org.apache.cassandra.db.ReadCommand;
 import org.apache.cassandra.db.ReadResponse;
 import org.apache.cassandra.db.Row;
 import org.apache.cassandra.db.Keyspace;
-import org.apache.cassandra.db.SliceFromReadCommand;
 import org.apache.cassandra.exceptions.ReadTimeoutException;
 import org.apache.cassandra.exceptions.UnavailableException;
 import org.apache.cassandra.metrics.ReadRepairMetrics;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.service.StorageProxy.LocalReadRunnable;
+import org.apache.cassandra.tracing.Tracing;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
 
+import org.apache.cassandra.annotation.IndirectionInformation;
+import org.apache.cassandra.annotation.IndirectionPlacementHints;
+import org.apache.cassandra.annotation.IndirectionPlacementHints.PlacementHint;
+import org.apache.cassandra.annotation.IndirectionPlacementHints.ReferenceCheck;
 import org.apache.cassandra.annotation.IndirectionSupport;
 
 /**
@@ -62,16 +69,27 @@ public abstract class AbstractReadExecutor
     private static final Logger logger = LoggerFactory.getLogger(AbstractReadExecutor.class);
 
     protected final ReadCommand command;
+    protected final ConsistencyLevel consistencyLevel;
     protected final List<InetAddress> targetReplicas;
     protected final RowDigestResolver resolver;
     protected final ReadCallback<ReadResponse, Row> handler;
 
     AbstractReadExecutor(ReadCommand command, ConsistencyLevel consistencyLevel, List<InetAddress> targetReplicas)
+    {
+        this(command, consistencyLevel, Keyspace.open(command.ksName), targetReplicas);
+    }
+
+    /**
+     * @param keyspace the keyspace whose replication the consistency level refers to, which differs from the
+     * keyspace of the command for redirected data
+     */
+    AbstractReadExecutor(ReadCommand command, ConsistencyLevel consistencyLevel, Keyspace keyspace, List<InetAddress> targetReplicas)
     {
         this.command = command;
+        this.consistencyLevel = consistencyLevel;
         this.targetReplicas = targetReplicas;
         resolver = new RowDigestResolver(command.ksName, command.key);
-        handler = new ReadCallback<>(resolver, consistencyLevel, command, targetReplicas);
+        handler = new ReadCallback<>(resolver, consistencyLevel, consistencyLevel.blockFor(keyspace), command, keyspace, targetReplicas);
     }
 
     private static boolean isLocalRequest(InetAddress replica)
@@ -145,13 +163,78 @@ public abstract class AbstractReadExecutor
         return handler.get();
     }
 
+    /**
+     * Like get(), but resolves a digest mismatch right away by a full data read from the contacted replicas,
+     * repairing the ones that are out of date. Used for reads not going through StorageProxy.fetchRows.
+     */
+    public Row getResolved() throws ReadTimeoutException
+    {
+        try
+        {
+            Row row = get();
+            // feeds the latency percentile speculative retry is based on, StorageProxy.read does so for regular reads
+            Keyspace.open(command.ksName).getColumnFamilyStore(command.cfName).metric.coordinatorReadLatency.update(System.nanoTime() - handler.start, TimeUnit.NANOSECONDS);
+            return row;
+        }
+        catch (DigestMismatchException e)
+        {
+            Tracing.trace("Digest mismatch: {}", e);
+            ReadRepairMetrics.repairedBlocking.mark();
+
+            RowDataResolver repairResolver = new RowDataResolver(command.ksName, command.key, command.filter(), command.timestamp);
+            ReadCallback<ReadResponse, Row> repairHandler = new ReadCallback<>(repairResolver,
+                                                                               ConsistencyLevel.ALL,
+                                                                               getContactedReplicas().size(),
+                                                                               command,
+                                                                               Keyspace.open(command.ksName),
+                                                                               handler.endpoints);
+            MessageOut<ReadCommand> message = command.createMessage();
+            for (InetAddress endpoint : getContactedReplicas())
+                MessagingService.instance().sendRR(message, endpoint, repairHandler);
+
+            Row row;
+            try
+            {
+                row = repairHandler.get();
+            }
+            catch (DigestMismatchException ex)
+            {
+                throw new AssertionError(ex); // full data requested from each node here, no digests should be sent
+            }
+
+            try
+            {
+                FBUtilities.waitOnFutures(repairResolver.repairResults, DatabaseDescriptor.getWriteRpcTimeout());
+            }
+            catch (TimeoutException ex)
+            {
+                throw new ReadTimeoutException(consistencyLevel, handler.blockfor - 1, handler.blockfor, true);
+            }
+            return row;
+        }
+    }
+
     /**
      * @return an executor appropriate for the configured speculative read policy
      */
     public static AbstractReadExecutor getReadExecutor(ReadCommand command, ConsistencyLevel consistencyLevel) throws UnavailableException
+    {
+        AbstractReadExecutor hinted = getHintedIndirectionReadExecutor(command, consistencyLevel);
+        return hinted == null ? getReplicaReadExecutor(command, consistencyLevel) : hinted;
+    }
+
+    private static AbstractReadExecutor getReplicaReadExecutor(ReadCommand command, ConsistencyLevel consistencyLevel) throws UnavailableException
     {
         Keyspace keyspace = Keyspace.open(command.ksName);
-        List<InetAddress> allReplicas = StorageProxy.getLiveSortedEndpoints(keyspace, command.key);
+        return getReadExecutor(command, consistencyLevel, keyspace, StorageProxy.getLiveSortedEndpoints(keyspace, command.key));
+    }
+
+    /**
+     * @param keyspace the keyspace whose replication the consistency level refers to
+     * @param allReplicas the live replicas of the key, closest first
+     */
+    private static AbstractReadExecutor getReadExecutor(ReadCommand command, ConsistencyLevel consistencyLevel, Keyspace keyspace, List<InetAddress> allReplicas) throws UnavailableException
+    {
         ReadRepairDecision repairDecision = Schema.instance.getCFMetaData(command.ksName, command.cfName).newReadRepairDecision();
         List<InetAddress> targetReplicas = consistencyLevel.filterForQuery(keyspace, allReplicas, repairDecision);
 
@@ -161,24 +244,24 @@ public abstract class AbstractReadExecutor
         // Fat client. Speculating read executors need access to cfs metrics and sampled latency, and fat clients
         // can't provide that. So, for now, fat clients will always use NeverSpeculatingReadExecutor.
         if (StorageService.instance.isClientMode())
-            return new NeverSpeculatingReadExecutor(command, consistencyLevel, targetReplicas);
+            return new NeverSpeculatingReadExecutor(command, consistencyLevel, keyspace, targetReplicas);
 
         if (repairDecision != ReadRepairDecision.NONE)
             ReadRepairMetrics.attempted.mark();
 
-        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(command.cfName);
+        ColumnFamilyStore cfs = Keyspace.open(command.ksName).getColumnFamilyStore(command.cfName);
         RetryType retryType = cfs.metadata.getSpeculativeRetry().type;
 
         // Speculative retry is disabled *OR* there are simply no extra replicas to speculate.
         if (retryType == RetryType.NONE || consistencyLevel.blockFor(keyspace) == allReplicas.size())
-            return new NeverSpeculatingReadExecutor(command, consistencyLevel, targetReplicas);
+            return new NeverSpeculatingReadExecutor(command, consistencyLevel, keyspace, targetReplicas);
 
         if (targetReplicas.size() == allReplicas.size())
         {
             // CL.ALL, RRD.GLOBAL or RRD.DC_LOCAL and a single-DC.
             // We are going to contact every node anyway, so ask for 2 full data requests instead of 1, for redundancy
             // (same amount of requests in total, but we turn 1 digest request into a full blown data request).
-            return new AlwaysSpeculatingReadExecutor(cfs, command, consistencyLevel, targetReplicas);
+            return new AlwaysSpeculatingReadExecutor(cfs, command, consistencyLevel, keyspace, targetReplicas);
         }
 
         // RRD.NONE or RRD.DC_LOCAL w/ multiple DCs.
@@ -199,30 +282,55 @@ public abstract class AbstractReadExecutor
         targetReplicas.add(extraReplica);
 
         if (retryType == RetryType.ALWAYS)
-            return new AlwaysSpeculatingReadExecutor(cfs, command, consistencyLevel, targetReplicas);
+            return new AlwaysSpeculatingReadExecutor(cfs, command, consistencyLevel, keyspace, targetReplicas);
         else // PERCENTILE or CUSTOM.
-            return new SpeculatingReadExecutor(cfs, command, consistencyLevel, targetReplicas);
+            return new SpeculatingReadExecutor(cfs, command, consistencyLevel, keyspace, targetReplicas);
+    }
+
+    /**
+     * @return an executor reading the redirected data of an annotated key directly from the node remembered by the
+     * placement hints or null if there is no usable hint
+     */
+    private static AbstractReadExecutor getHintedIndirectionReadExecutor(ReadCommand command, ConsistencyLevel consistencyLevel)
+    {
+        // a single answer is verified against a single reference row, higher consistency levels use the reference replicas
+        if (consistencyLevel != ConsistencyLevel.ONE && consistencyLevel != ConsistencyLevel.LOCAL_ONE)
+            return null;
+        if (!IndirectionPlacementHints.instance.isEnabled() || StorageService.instance.isClientMode() || !IndirectionSupport.isRegularKeyspace(command.ksName))
+            return null;
+
+        CFMetaData cfm = Schema.instance.getCFMetaData(command.ksName, command.cfName);
+        PlacementHint hint = cfm == null ? null : IndirectionPlacementHints.instance.get(cfm.cfId, command.key);
+        if (hint == null)
+            return null;
+
+        InetAddress referenceEndpoint = IndirectionPlacementHints.getReferenceEndpoint(command);
+        List<InetAddress> targets = hint.getLiveTargets();
+        if (referenceEndpoint == null || targets.isEmpty())
+            return null;
+
+        return new HintedIndirectionReadExecutor(command, consistencyLevel, targets.subList(0, 1), hint, new ReferenceCheck(command, cfm.cfId), referenceEndpoint);
     }
 
-    public static AbstractReadExecutor getReadExecutorForIndirectionRequest(ReadCommand command, ConsistencyLevel consistencyLevel, List<ByteBuffer> Targets) throws UnavailableException
+    /**
+     * @return an executor reading redirected data from the given annotated targets, which take the place of the
+     * replicas of the regular keyspace; the consistency level, speculative retry and read repair behave as for a
+     * regular read of the table
+     */
+    public static AbstractReadExecutor getReadExecutorForIndirectionRequest(ReadCommand command, ConsistencyLevel consistencyLevel, List<ByteBuffer> targets) throws UnavailableException
     {
-        assert(command instanceof SliceFromReadCommand);
-        assert(((SliceFromReadCommand) command).secondKey != ByteBufferUtil.EMPTY_BYTE_BUFFER && ((SliceFromReadCommand) command).keyIsToken);
+        assert command.ksName.endsWith(IndirectionSupport.DataKeyspacePostfix);
 
-        List<InetAddress> targetReplicas = new ArrayList<InetAddress>();
-        for (ByteBuffer target : Targets)
-        {
-            org.apache.cassandra.dht.Token tk = StorageService.getPartitioner().getTokenFactory().fromString(ByteBufferUtil.stringWOException(target));
-            targetReplicas.add(StorageService.instance.getNaturalEndpoints(command.ksName.replaceAll(IndirectionSupport.DataKeyspacePostfix, ""), tk).get(0));
-        }
-        return new IndirectionReadExecutor(command, consistencyLevel, targetReplicas);
+        // the keyspace of redirected data is replicated locally only
+        String keyspaceName = command.ksName.substring(0, command.ksName.length() - IndirectionSupport.DataKeyspacePostfix.length());
+        return getReadExecutor(command, consistencyLevel, Keyspace.open(keyspaceName), IndirectionPlacementHints.getLiveTargets(targets));
     }
 
     private static class NeverSpeculatingReadExecutor extends AbstractReadExecutor
     {
-        public NeverSpeculatingReadExecutor(ReadCommand command, ConsistencyLevel consistencyLevel, List<InetAddress> targetReplicas)
+        public NeverSpeculatingReadExecutor(ReadCommand command, ConsistencyLevel consistencyLevel, Keyspace keyspace, List<InetAddress> targetReplicas)
         {
-            super(command, consistencyLevel, targetReplicas);
+            super(command, consistencyLevel, keyspace, targetReplicas);
         }
 
         public void executeAsync()
@@ -243,22 +351,81 @@ public abstract class AbstractReadExecutor
         }
     }
 
-    // This Read Executor is used to fetch IndirectionDataRows. It sends a DataRequest to ONE replica.
-    private static class IndirectionReadExecutor extends NeverSpeculatingReadExecutor
+    // Reads redirected data straight from the hinted target node and the reference row from a reference replica at
+    // the same time. The data is only returned if the reference row still points to the node it was read from,
+    // otherwise the read is repeated over the reference replicas.
+    private static class HintedIndirectionReadExecutor extends AbstractReadExecutor
     {
-        public IndirectionReadExecutor(ReadCommand command, ConsistencyLevel consistencyLevel, List<InetAddress> targetReplicas)
+        private final PlacementHint hint;
+        private final ReferenceCheck check;
+        private final InetAddress referenceEndpoint;
+
+        public HintedIndirectionReadExecutor(ReadCommand command, ConsistencyLevel consistencyLevel, List<InetAddress> targetReplicas,
+                                             PlacementHint hint, ReferenceCheck check, InetAddress referenceEndpoint)
         {
             super(command, consistencyLevel, targetReplicas);
+            this.hint = hint;
+            this.check = check;
+            this.referenceEndpoint = referenceEndpoint;
         }
 
         public void executeAsync()
         {
-            String oldKeyspace = command.ksName.replace(IndirectionSupport.DataKeyspacePostfix, "");
-            List<InetAddress> addrs = StorageService.instance.getNaturalEndpoints(oldKeyspace, command.key);
-            int i = addrs.indexOf(FBUtilities.getBroadcastAddress());
-            assert(i >= 0);
-            assert(i < targetReplicas.size());
-            makeDataRequests(Collections.singletonList(targetReplicas.get(i)));
+            ReadCommand dataCommand = command.copy(command.ksName + IndirectionSupport.DataKeyspacePostfix);
+            InetAddress target = targetReplicas.get(0);
+            IndirectionSupport.sendToLog("Make hinted Data Request to node with IP " + target.toString(), false, true, "AbstractReadExecutor");
+            if (isLocalRequest(target))
+                StageManager.getStage(Stage.READ).execute(new LocalReadRunnable(dataCommand, handler));
+            else
+                MessagingService.instance().sendRR(dataCommand.createMessage(), target, handler);
+            check.send(referenceEndpoint);
+        }
+
+        public void maybeTryAdditionalReplicas()
+        {
+            // no-op
+        }
+
+        public Collection<InetAddress> getContactedReplicas()
+        {
+            return targetReplicas;
+        }
+
+        @Override
+        public Row get() throws ReadTimeoutException, DigestMismatchException
+        {
+            Row row = handler.get();
+            if (!check.await(handler.start + TimeUnit.MILLISECONDS.toNanos(command.getTimeout())))
+                throw new ReadTimeoutException(consistencyLevel, handler.getReceivedCount(), handler.blockfor, true);
+
+            IndirectionInformation current = check.getCurrent();
+            if (current != null && (current.getTimestamp() == hint.timestamp || isTarget(current, targetReplicas.get(0))))
+                return row;
+
+            // the key was moved or is not annotated anymore since the hint was taken
+            IndirectionSupport.sendToLog("Stale placement hint for key " + ByteBufferUtil.bytesToHex(command.key) + ", reading over the reference replicas", false, true, "AbstractReadExecutor");
+            AbstractReadExecutor fallback;
+            try
+            {
+                fallback = getReplicaReadExecutor(command, consistencyLevel);
+            }
+            catch (UnavailableException e)
+            {
+                throw new ReadTimeoutException(consistencyLevel, 0, handler.blockfor, false);
+            }
+            fallback.executeAsync();
+            fallback.maybeTryAdditionalReplicas();
+            return fallback.get();
+        }
+
+        private boolean isTarget(IndirectionInformation current, InetAddress endpoint)
+        {
+            for (ByteBuffer token : current.getNodes())
+            {
+                if (endpoint.equals(IndirectionPlacementHints.getTargetEndpoint(token)))
+                    return true;
+            }
+            return false;
         }
     }
 
@@ -270,9 +437,10 @@ public abstract class AbstractReadExecutor
         public SpeculatingReadExecutor(ColumnFamilyStore cfs,
                                        ReadCommand command,
                                        ConsistencyLevel consistencyLevel,
+                                       Keyspace keyspace,
                                        List<InetAddress> targetReplicas)
         {
-            super(command, consistencyLevel, targetReplicas);
+            super(command, consistencyLevel, keyspace, targetReplicas);
             this.cfs = cfs;
         }
 
@@ -341,9 +509,10 @@ public abstract class AbstractReadExecutor
         public AlwaysSpeculatingReadExecutor(ColumnFamilyStore cfs,
                                              ReadCommand command,
                                              ConsistencyLevel consistencyLevel,
+                                             Keyspace keyspace,
                                              List<InetAddress> targetReplicas)
         {
-            super(command, consistencyLevel, targetReplicas);
+            super(command, consistencyLevel, keyspace, targetReplicas);
             this.cfs = cfs;
         }
 
@@ -35,6 +35,8 @@ import com.google.common.util.concurrent.Futures;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.annotation.IndirectionCache;
+import org.apache.cassandra.annotation.IndirectionCacheEntry;
 import org.apache.cassandra.cache.*;
 import org.apache.cassandra.cache.AutoSavingCache.CacheSerializer;
 import org.apache.cassandra.concurrent.Stage;
@@ -60,7 +62,8 @@ public class CacheService implements CacheServiceMBean
     public static enum CacheType
     {
         KEY_CACHE("KeyCache"),
-        ROW_CACHE("RowCache");
+        ROW_CACHE("RowCache"),
+        INDIRECTION_CACHE("IndirectionCache");
 
         private final String name;
 
@@ -79,6 +82,7 @@ public class CacheService implements CacheServiceMBean
 
     public final AutoSavingCache<KeyCacheKey, RowIndexEntry> keyCache;
     public final AutoSavingCache<RowCacheKey, IRowCacheEntry> rowCache;
+    public final AutoSavingCache<RowCacheKey, IndirectionCacheEntry> indirectionCache;
 
     private CacheService()
     {
@@ -95,6 +99,7 @@ public class CacheService implements CacheServiceMBean
 
         keyCache = initKeyCache();
         rowCache = initRowCache();
+        indirectionCache = initIndirectionCache();
     }
 
     /**
@@ -147,6 +152,29 @@ public class CacheService implements CacheServiceMBean
         return rowCache;
     }
 
+    /**
+     * @return initialized cache of decoded reference information, keyed like the row cache of the reference tables
+     */
+    private AutoSavingCache<RowCacheKey, IndirectionCacheEntry> initIndirectionCache()
+    {
+        logger.info("Initializing indirection cache with capacity of {} MBs.", DatabaseDescriptor.getIndirectionCacheSizeInMB());
+
+        long indirectionCacheInMemoryCapacity = DatabaseDescriptor.getIndirectionCacheSizeInMB() * 1024 * 1024;
+
+        ICache<RowCacheKey, IndirectionCacheEntry> ic = ConcurrentLinkedHashCache.create(indirectionCacheInMemoryCapacity);
+        AutoSavingCache<RowCacheKey, IndirectionCacheEntry> indirectionCache = new AutoSavingCache<RowCacheKey, IndirectionCacheEntry>(ic, CacheType.INDIRECTION_CACHE, new IndirectionCacheSerializer());
+
+        int indirectionCacheKeysToSave = DatabaseDescriptor.getIndirectionCacheKeysToSave();
+
+        logger.info("Scheduling indirection cache save to each {} seconds (going to save {} keys).",
+                DatabaseDescriptor.getIndirectionCacheSavePeriod(),
+                    indirectionCacheKeysToSave == Integer.MAX_VALUE ? "all" : indirectionCacheKeysToSave);
+
+        indirectionCache.scheduleSaving(DatabaseDescriptor.getIndirectionCacheSavePeriod(), indirectionCacheKeysToSave);
+
+        return indirectionCache;
+    }
+
     public long getKeyCacheHits()
     {
         return keyCache.getMetrics().hits.count();
@@ -241,6 +269,43 @@ public class CacheService implements CacheServiceMBean
         rowCache.clear();
     }
 
+    public int getIndirectionCacheSavePeriodInSeconds()
+    {
+        return DatabaseDescriptor.getIndirectionCacheSavePeriod();
+    }
+
+    public void setIndirectionCacheSavePeriodInSeconds(int seconds)
+    {
+        if (seconds < 0)
+            throw new RuntimeException("IndirectionCacheSavePeriodInSeconds must be non-negative.");
+
+        DatabaseDescriptor.setIndirectionCacheSavePeriod(seconds);
+        indirectionCache.scheduleSaving(seconds, DatabaseDescriptor.getIndirectionCacheKeysToSave());
+    }
+
+    public void invalidateIndirectionCache()
+    {
+        indirectionCache.clear();
+    }
+
+    public long getIndirectionCacheCapacityInMB()
+    {
+        return indirectionCache.getMetrics().capacity.value() / 1024 / 1024;
+    }
+
+    public void setIndirectionCacheCapacityInMB(long capacity)
+    {
+        if (capacity < 0)
+            throw new RuntimeException("capacity should not be negative.");
+
+        indirectionCache.setCapacity(capacity * 1024 * 1024);
+    }
+
+    public long getIndirectionCacheEntries()
+    {
+        return indirectionCache.size();
+    }
+
     public long getRowCacheCapacityInBytes()
     {
         return rowCache.getMetrics().capacity.value();
@@ -299,11 +364,12 @@ public class CacheService implements CacheServiceMBean
 
     public void saveCaches() throws ExecutionException, InterruptedException
     {
-        List<Future<?>> futures = new ArrayList<Future<?>>(2);
+        List<Future<?>> futures = new ArrayList<Future<?>>(3);
         logger.debug("submitting cache saves");
 
         futures.add(keyCache.submitWrite(DatabaseDescriptor.getKeyCacheKeysToSave()));
         futures.add(rowCache.submitWrite(DatabaseDescriptor.getRowCacheKeysToSave()));
+        futures.add(indirectionCache.submitWrite(DatabaseDescriptor.getIndirectionCacheKeysToSave()));
 
         FBUtilities.waitOnFutures(futures);
         logger.debug("cache saves completed");
@@ -331,6 +397,28 @@ public class CacheService implements CacheServiceMBean
         }
     }
 
+    public class IndirectionCacheSerializer implements CacheSerializer<RowCacheKey, IndirectionCacheEntry>
+    {
+        public void serialize(RowCacheKey key, DataOutput out) throws IOException
+        {
+            ByteBufferUtil.writeWithLength(key.key, out);
+        }
+
+        public Future<Pair<RowCacheKey, IndirectionCacheEntry>> deserialize(DataInputStream in, final ColumnFamilyStore cfs) throws IOException
+        {
+            final ByteBuffer buffer = ByteBufferUtil.readWithLength(in);
+            return StageManager.getStage(Stage.READ).submit(new Callable<Pair<RowCacheKey, IndirectionCacheEntry>>()
+            {
+                public Pair<RowCacheKey, IndirectionCacheEntry> call() throws Exception
+                {
+                    // reference information is always re-read, it may have changed since the cache was saved
+                    IndirectionCacheEntry entry = IndirectionCache.instance.load(cfs.metadata, buffer);
+                    return Pair.create(new RowCacheKey(cfs.metadata.cfId, buffer), entry);
+                }
+            });
+        }
+    }
+
     public class KeyCacheSerializer implements CacheSerializer<KeyCacheKey, RowIndexEntry>
     {
         public void serialize(KeyCacheKey key, DataOutput out) throws IOException
@@ -47,8 +47,21 @@ public interface CacheServiceMBean
 
     public void setKeyCacheCapacityInMB(long capacity);
 
+    public int getIndirectionCacheSavePeriodInSeconds();
+    public void setIndirectionCacheSavePeriodInSeconds(int icspis);
+
+    /**
+     * invalidate the cache of decoded reference information of annotated keys
+     */
+    public void invalidateIndirectionCache();
+
+    public long getIndirectionCacheCapacityInMB();
+    public void setIndirectionCacheCapacityInMB(long capacity);
+
+    public long getIndirectionCacheEntries();
+
     /**
-     * save row and key caches
+     * save row, key and indirection caches
      *
      * @throws ExecutionException when attempting to retrieve the result of a task that aborted by throwing an exception
      * @throws InterruptedException when a thread is waiting, sleeping, or otherwise occupied, and the thread is interrupted, either before or during the activity.
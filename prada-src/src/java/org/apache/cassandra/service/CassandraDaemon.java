@@ -383,7 +383,16 @@ public class CassandraDaemon
         nativeServer = new org.apache.cassandra.transport.Server(nativeAddr, nativePort);
 
         // Bootstrap Data Annotation Support
-        IndirectionSupport.Bootstrap();
+        try
+        {
+            IndirectionSupport.Bootstrap();
+        }
+        catch (ConfigurationException e)
+        {
+            logger.error("Fatal configuration error", e);
+            System.err.println(e.getMessage() + "\nFatal configuration error; unable to start server.  See log for stacktrace.");
+            System.exit(1);
+        }
     }
 
     /**
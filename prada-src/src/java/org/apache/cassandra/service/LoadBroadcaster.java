@@ -25,6 +25,9 @@ import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.cassandra.concurrent.JMXEnabledThreadPoolExecutor;
+import org.apache.cassandra.concurrent.Stage;
+import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.gms.*;
 import org.apache.cassandra.utils.FBUtilities;
@@ -41,6 +44,11 @@ public class LoadBroadcaster implements IEndpointStateChangeSubscriber
 
     private ConcurrentMap<InetAddress, AtomicDouble> loadInfoCache = new ConcurrentHashMap<InetAddress, AtomicDouble>();
 
+    // pending tasks of the INDIRECTION_DATA_MESSAGE stage of each node
+    private ConcurrentMap<InetAddress, Long> pendingInfo = new ConcurrentHashMap<InetAddress, Long>();
+
+    private volatile long lastPending = -1;
+
     private LoadBroadcaster()
     {
         Gossiper.instance.register(this);
@@ -68,10 +76,15 @@ public class LoadBroadcaster implements IEndpointStateChangeSubscriber
 
     public void onChange(InetAddress endpoint, ApplicationState state, VersionedValue value)
     {
-        if (state != ApplicationState.LOAD)
-            return;
-        loadInfo.put(endpoint, Double.valueOf(value.value));
-        loadInfoCache.put(endpoint, new AtomicDouble());
+        if (state == ApplicationState.LOAD)
+        {
+            loadInfo.put(endpoint, Double.valueOf(value.value));
+            loadInfoCache.put(endpoint, new AtomicDouble());
+        }
+        else if (state == ApplicationState.INDIRECTION_LOAD)
+        {
+            pendingInfo.put(endpoint, Long.valueOf(value.value));
+        }
     }
 
     public void onJoin(InetAddress endpoint, EndpointState epState)
@@ -81,6 +94,9 @@ public class LoadBroadcaster implements IEndpointStateChangeSubscriber
         {
             onChange(endpoint, ApplicationState.LOAD, localValue);
         }
+        VersionedValue pendingValue = epState.getApplicationState(ApplicationState.INDIRECTION_LOAD);
+        if (pendingValue != null)
+            onChange(endpoint, ApplicationState.INDIRECTION_LOAD, pendingValue);
     }
     
     public void beforeChange(InetAddress endpoint, EndpointState currentState, ApplicationState newStateKey, VersionedValue newValue) {}
@@ -95,6 +111,7 @@ public class LoadBroadcaster implements IEndpointStateChangeSubscriber
     {
         loadInfo.remove(endpoint);
         loadInfoCache.remove(endpoint);
+        pendingInfo.remove(endpoint);
     }
 
     public Map<InetAddress, Double> getLoadInfo()
@@ -107,6 +124,23 @@ public class LoadBroadcaster implements IEndpointStateChangeSubscriber
         return Collections.unmodifiableMap(loadInfoCache);
     }
 
+    /**
+     * @return the pending tasks of the INDIRECTION_DATA_MESSAGE stage of the given node, read directly for the
+     * local node and as last gossiped (rounded down to a power of two) for others, 0 if unknown
+     */
+    public long getPendingTasks(InetAddress endpoint)
+    {
+        if (endpoint.equals(FBUtilities.getBroadcastAddress()))
+            return getLocalPendingTasks();
+        Long pending = pendingInfo.get(endpoint);
+        return pending == null ? 0 : pending;
+    }
+
+    private static long getLocalPendingTasks()
+    {
+        return ((JMXEnabledThreadPoolExecutor) StageManager.getStage(Stage.INDIRECTION_DATA_MESSAGE)).getPendingTasks();
+    }
+
     public void startBroadcasting()
     {
         // send the first broadcast "right away" (i.e., in 2 gossip heartbeats, when we should have someone to talk to);
@@ -123,6 +157,22 @@ public class LoadBroadcaster implements IEndpointStateChangeSubscriber
             }
         };
         StorageService.scheduledTasks.scheduleWithFixedDelay(runnable, 2 * Gossiper.intervalInMillis, DatabaseDescriptor.getLoadBroadcastInterval(), TimeUnit.MILLISECONDS);
+
+        // the queue depth changes quickly, so it is checked every gossip round, but only a change of its power of two
+        // bucket is gossiped to keep the number of state versions small
+        Runnable pending = new Runnable()
+        {
+            public void run()
+            {
+                long current = Long.highestOneBit(getLocalPendingTasks());
+                if (current == lastPending)
+                    return;
+                lastPending = current;
+                Gossiper.instance.addLocalApplicationState(ApplicationState.INDIRECTION_LOAD,
+                                                           StorageService.instance.valueFactory.indirectionLoad(current));
+            }
+        };
+        StorageService.scheduledTasks.scheduleWithFixedDelay(pending, 2 * Gossiper.intervalInMillis, Gossiper.intervalInMillis, TimeUnit.MILLISECONDS);
     }
 }
 
@@ -18,25 +18,19 @@
 package org.apache.cassandra.service;
 
 import java.net.InetAddress;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
 
-import org.apache.cassandra.annotation.IndirectionInformation;
+import org.apache.cassandra.annotation.IndirectionReadSupport;
 import org.apache.cassandra.db.AbstractRangeCommand;
-import org.apache.cassandra.db.RangeSliceCommand;
 import org.apache.cassandra.db.RangeSliceReply;
 import org.apache.cassandra.db.Row;
 import org.apache.cassandra.db.filter.TombstoneOverwhelmingException;
+import org.apache.cassandra.exceptions.ReadTimeoutException;
+import org.apache.cassandra.exceptions.UnavailableException;
 import org.apache.cassandra.net.IVerbHandler;
 import org.apache.cassandra.net.MessageIn;
-import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.tracing.Tracing;
-import org.apache.cassandra.utils.ByteBufferUtil;
 
 public class RangeSliceVerbHandler implements IVerbHandler<AbstractRangeCommand>
 {
@@ -50,7 +44,7 @@ public class RangeSliceVerbHandler implements IVerbHandler<AbstractRangeCommand>
                 throw new RuntimeException("Cannot service reads while bootstrapping!");
             }
             boolean redirected = message.payload.origin != null;
-            RangeSliceReply reply = processRangeSliceCommand(message.payload, message.from, id);
+            RangeSliceReply reply = processRangeSliceCommand(message.payload, message.from);
             Tracing.trace("Enqueuing response to {}", message.from);
             if (!redirected)
                 MessagingService.instance().sendReply(reply.createMessage(), id, message.from);
@@ -61,55 +55,25 @@ public class RangeSliceVerbHandler implements IVerbHandler<AbstractRangeCommand>
         {
             // error already logged.  Drop the request
         }
+        catch (UnavailableException | ReadTimeoutException e)
+        {
+            // redirected data could not be read, let the coordinator time out
+        }
         catch (Exception ex)
         {
             throw new RuntimeException(ex);
         }
     }
 
-    public static RangeSliceReply processRangeSliceCommand(AbstractRangeCommand payload, InetAddress from, int id)
+    public static RangeSliceReply processRangeSliceCommand(AbstractRangeCommand payload, InetAddress from) throws UnavailableException, ReadTimeoutException
     {
+        // commands redirected to this node by a replica read the redirected data only
         boolean redirected = payload.origin != null;
-        List<Row> rows = payload.executeLocally();
-        RangeSliceReply reply;
-        if (rows.isEmpty() || (!rows.get(0).indirection && !rows.get(rows.size()-1).indirection) || !(payload instanceof RangeSliceCommand))
-        {
-            // no indirection rows
-            reply = new RangeSliceReply(rows);
-            reply.count = 1;
-            if (redirected)
-                reply.origin = from;
-        }
-        else
-        {
-            assert(!redirected);
-            // at least one indirection row
-            List<Row> rrows = new ArrayList<>();
-            Set<InetAddress> addresses = new HashSet<InetAddress>();
-            for (Row r : rows)
-            {
-                IndirectionInformation ind = null;
-                if (r.indirection && (ind = IndirectionInformation.RowToIndirectionInformation(r)) != null)
-                {
-                    for (ByteBuffer target : ind.getNodes())
-                    {
-                        addresses.add(StorageService.instance.getAssociatedEndpoint(ByteBufferUtil.stringWOException(target)));
-                    }
-                }
-                else if (!r.indirection)
-                {
-                    rrows.add(r);
-                }
-            }
-            reply = new RangeSliceReply(rrows);
-            reply.count = addresses.size()+1;
-            RangeSliceCommand comm = (RangeSliceCommand)payload;
-            comm.origin = from;
-            comm.originId = id;
-            MessageOut<RangeSliceCommand> msg = comm.createMessage();
-            for (InetAddress addr : addresses)
-                MessagingService.instance().sendOneWay(msg, addr);
-        }
+        List<Row> rows = redirected ? payload.executeLocally() : IndirectionReadSupport.getRangeSlice(payload);
+        RangeSliceReply reply = new RangeSliceReply(rows);
+        reply.count = 1;
+        if (redirected)
+            reply.origin = from;
         return reply;
     }
 }
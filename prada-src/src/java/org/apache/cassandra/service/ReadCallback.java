@@ -28,7 +28,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.apache.cassandra.annotation.IndirectionSupport;
 import org.apache.cassandra.concurrent.Stage;
 import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.config.DatabaseDescriptor;
@@ -56,7 +55,7 @@ public class ReadCallback<TMessage, TResolved> implements IAsyncCallback<TMessag
     final int blockfor;
     final List<InetAddress> endpoints;
     private final IReadCommand command;
-    private final ConsistencyLevel consistencyLevel;
+    final ConsistencyLevel consistencyLevel;
     private final AtomicInteger received = new AtomicInteger(0);
     private final Keyspace keyspace; // TODO push this into ConsistencyLevel?
     private final boolean rangeResponse;
@@ -150,8 +149,7 @@ public class ReadCallback<TMessage, TResolved> implements IAsyncCallback<TMessag
         if (n >= blockfor && resolver.isDataPresent())
         {
             condition.signalAll();
-            if (!keyspace.getName().endsWith(IndirectionSupport.DataKeyspacePostfix))
-                maybeResolveForRepair(n);
+            maybeResolveForRepair(n);
         }
     }
 
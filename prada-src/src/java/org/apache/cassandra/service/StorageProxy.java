@@ -71,7 +71,7 @@ import org.apache.cassandra.tracing.Tracing;
 import org.apache.cassandra.triggers.TriggerExecutor;
 import org.apache.cassandra.utils.*;
 import org.apache.cassandra.annotation.*;
-import org.apache.cassandra.annotation.messages.AsyncMultipleResponses;
+import org.apache.cassandra.annotation.messages.IndirectionWriteHandler;
 
 public class StorageProxy implements StorageProxyMBean
 {
@@ -568,10 +568,12 @@ public class StorageProxy implements StorageProxyMBean
         }
     }
 
-    public static void mutateWithTriggers(Collection<? extends IMutation> mutations, ConsistencyLevel consistencyLevel, boolean mutateAtomically) throws WriteTimeoutException, UnavailableException,
-            OverloadedException, InvalidRequestException
+    public static void mutateWithTriggers(Collection<? extends IMutation> mutations, ConsistencyLevel consistencyLevel, boolean mutateAtomically) throws RequestExecutionException,
+            InvalidRequestException
     {
         Collection<RowMutation> tmutations = TriggerExecutor.instance.execute(mutations);
+        // deleted partitions may have redirected data, which is deleted alongside the regular write
+        IndirectionWriteHandler indirectionHandler = IndirectionWriteSupport.deleteData(mutations, consistencyLevel);
         if (mutateAtomically || tmutations != null)
         {
             Collection<RowMutation> allMutations = (Collection<RowMutation>) mutations;
@@ -583,6 +585,8 @@ public class StorageProxy implements StorageProxyMBean
         {
             StorageProxy.mutate(mutations, consistencyLevel);
         }
+        if (indirectionHandler != null)
+            indirectionHandler.await(DatabaseDescriptor.getTimeout(Verb.INDIRECTION_DELETE_MESSAGE));
     }
 
     /**
@@ -997,54 +1001,9 @@ public class StorageProxy implements StorageProxyMBean
                 IMutation processed = SinkManager.processWriteRequest(rm);
                 if (processed != null)
                 {
-                    RowMutation m = null;
-                    if (processed instanceof RowMutation)
-                    {
-                        m = (RowMutation)processed;
-                        if (!rm.getColumnFamilies().isEmpty())
-                        {
-                            ColumnFamily cf = rm.getColumnFamilies().iterator().next();
-                            if (cf.deletionInfo().getTopLevelDeletion() != null && cf.deletionInfo().isDeleted(null, System.currentTimeMillis()) && IndirectionSupport.isRegularKeyspace(m.getKeyspaceName()))
-                            {
-                                String key = ByteBufferUtil.stringWOException(m.key());
-                                IndirectionInformation exRefInfo = IndirectionInformation.getExistingIndirectionInformation(rm.getKeyspaceName(), cf.metadata().cfName, key);
-                                List<InetAddress> existingNodes = null;
-                                if (exRefInfo != null)
-                                    existingNodes = exRefInfo.getEndpoints();
-                                if (existingNodes != null)
-                                {
-                                    CFMetaData cfm = Keyspace.open(rm.getKeyspaceName() + IndirectionSupport.DataKeyspacePostfix).getColumnFamilyStore(cf.metadata().cfName).metadata;
-                                    ColumnFamily dcf = TreeMapBackedSortedColumns.factory.create(cfm);
-                                    dcf.delete(new DeletionInfo(cf.deletionInfo().getTopLevelDeletion().markedForDeleteAt, cf.deletionInfo().getTopLevelDeletion().localDeletionTime));
-                                    MessageOut<RowMutation> delMsg = new MessageOut<RowMutation>(Verb.MUTATION, new RowMutation(rm.key(), dcf), RowMutation.serializer);
-                                    AsyncMultipleResponses<RowMutation> callback = new AsyncMultipleResponses<>(null, ConsistencyLevel.ONE, Keyspace.open(m.getKeyspaceName()), existingNodes.size());
-                                    for (InetAddress addr : existingNodes)
-                                    {
-                                        int id = MessagingService.instance().addCallback(callback, delMsg, addr, delMsg.getTimeout(), ConsistencyLevel.ONE);
-                                        MessagingService.instance().sendOneWay(delMsg, id, addr);
-                                    }
-                                }
-                                else
-                                {
-                                    rm.apply();
-                                }
-                                if (existingNodes != null)
-                                {
-                                    CFMetaData cfm = Keyspace.open(rm.getKeyspaceName() + IndirectionSupport.ReferenceKeyspacePostfix).getColumnFamilyStore(cf.metadata().cfName).metadata;
-                                    ColumnFamily dcf = TreeMapBackedSortedColumns.factory.create(cfm);
-                                    dcf.delete(new DeletionInfo(cf.deletionInfo().getTopLevelDeletion().markedForDeleteAt, cf.deletionInfo().getTopLevelDeletion().localDeletionTime));
-                                    RowMutation refMut = new RowMutation(rm.key(), dcf);
-                                    refMut.apply();
-                                }
-                            }
-                            else
-                                processed.apply();
-                        }
-                        else
-                            processed.apply();
-                    }
+                    ((RowMutation) processed).apply();
                     responseHandler.response(null);
-                    for (ColumnFamily c : m.getColumnFamilies())
+                    for (ColumnFamily c : processed.getColumnFamilies())
                         LoadBroadcaster.instance.updateLoadCache(null, c.dataSize());
                 }
             }
@@ -1317,6 +1276,8 @@ public class StorageProxy implements StorageProxyMBean
                     {
                         exec.command.maybeTrim(row);
                         rows.add(row);
+                        if (row.cf != null && row.cf.metadata().ksName.endsWith(IndirectionSupport.DataKeyspacePostfix))
+                            IndirectionPlacementHints.instance.learn(exec.command);
                         if (row.indirection)
                             IndirectionSupport.sendToLog("Received an IndirectionRow for Key " + row.key.toString() + ": " + row.toString(), false, true, "StorageProxy");
                         else
@@ -1466,7 +1427,7 @@ public class StorageProxy implements StorageProxyMBean
                 List<Row> rows;
                 try
                 {
-                    rows = IndirectionReadSupport.fetchRowsForIndirectionRows(Lists.newArrayList(r));
+                    rows = IndirectionReadSupport.fetchRowsForIndirectionRows(Lists.newArrayList(r), handler.consistencyLevel);
                     handler.response(new ReadResponse(rows.get(0)));
                 } catch (UnavailableException e)
                 {
@@ -1502,56 +1463,10 @@ public class StorageProxy implements StorageProxyMBean
             long time = System.nanoTime();
             try
             {
-                rows = command.executeLocally();
+                rows = IndirectionReadSupport.getRangeSlice(command);
                 time = System.nanoTime();
-                Set<Row> rrows = new HashSet<>();
-                Set<InetAddress> addresses = new HashSet<InetAddress>();
-                for (Row r : rows)
-                {
-                    IndirectionInformation ind = null;
-                    if (r.indirection && (ind = IndirectionInformation.RowToIndirectionInformation(r)) != null)
-                    {
-                        for (ByteBuffer target : ind.getNodes())
-                        {
-                            addresses.add(StorageService.instance.getAssociatedEndpoint(ByteBufferUtil.stringWOException(target)));
-                        }
-                    }
-                    else if (!r.indirection)
-                    {
-                        rrows.add(r);
-                    }
-                }
-                ArrayList<ReadCallback<RangeSliceReply, Iterable<Row>>> handlers = new ArrayList<>();
-                for (InetAddress addr : addresses)
-                {
-                    RangeSliceResponseResolver resolver = new RangeSliceResponseResolver(command.keyspace, command.timestamp);
-                    ArrayList<InetAddress> addrList = Lists.newArrayList(addr);
-                    ReadCallback<RangeSliceReply, Iterable<Row>> handler = new ReadCallback<>(resolver, ConsistencyLevel.ONE, command, addrList);
-                    handler.assureSufficientLiveNodes();
-                    resolver.setSources(addrList);
-                    handlers.add(handler);
-                    AbstractRangeCommand newCmd = ((RangeSliceCommand)command).forKeyspace(command.keyspace + IndirectionSupport.DataKeyspacePostfix);
-                    MessagingService.instance().sendRR(newCmd.createMessage(), addr, handler);
-                }
-                for (ReadCallback<RangeSliceReply, Iterable<Row>> h : handlers)
-                {
-                    try
-                    {
-                        for (Row r : h.get())
-                            rrows.add(r);
-                    }
-                    catch (DigestMismatchException e)
-                    {
-                        throw new AssertionError(e); // no digests in range slices yet
-                    }
-                    catch (ReadTimeoutException e)
-                    {
-                        throw new UnavailableException(ConsistencyLevel.ONE, 1, 0);
-                    }
-                }
-                rows = new ArrayList<>();
-                rows.addAll(rrows);
-            } catch (UnavailableException e)
+            }
+            catch (UnavailableException | ReadTimeoutException e)
             {
                 // handler will throw timeout exception
             }
@@ -2873,6 +2873,21 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
             rangesToStream.put(keyspaceName, rangesMM);
         }
 
+        // redirected data is not covered by the ranges, this node relocates every placement it holds
+        setMode(Mode.LEAVING, "relocating redirected data", true);
+        long keysFailed;
+        try
+        {
+            keysFailed = IndirectionRelocation.instance.relocateAll();
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+        // the data of these keys would leave the cluster with this node
+        if (keysFailed > 0)
+            throw new RuntimeException("Redirected data of " + keysFailed + " keys could not be relocated, see the log; decommission aborted");
+
         setMode(Mode.LEAVING, "streaming data to other nodes", true);
 
         Future<StreamState> streamSuccess = streamRanges(rangesToStream);
@@ -36,7 +36,6 @@ import com.google.common.collect.Maps;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.apache.cassandra.annotation.Evaluation;
 import org.apache.cassandra.auth.AuthenticatedUser;
 import org.apache.cassandra.auth.Permission;
 import org.apache.cassandra.config.CFMetaData;
@@ -1956,23 +1955,7 @@ public class CassandraServer implements Cassandra.Iface
             }
 
             ThriftClientState cState = state();
-            CqlResult res;
-            if (Evaluation.evalMode && !Evaluation.details)
-            {
-                long et = System.nanoTime();
-                try
-                {
-                    res = org.apache.cassandra.cql3.QueryProcessor.process(queryString, ThriftConversion.fromThrift(cLevel), cState.getQueryState()).toThriftResult();
-                }
-                finally
-                {
-                    long et2 = System.nanoTime();
-                    Evaluation.addSimpleTimestamp("QueryProcessor.process(String, QueryState, QueryOptions)", queryString, et2-et);
-                }
-            }
-            else
-                res = org.apache.cassandra.cql3.QueryProcessor.process(queryString, ThriftConversion.fromThrift(cLevel), cState.getQueryState()).toThriftResult();
-            return res;
+            return org.apache.cassandra.cql3.QueryProcessor.process(queryString, ThriftConversion.fromThrift(cLevel), cState.getQueryState()).toThriftResult();
         }
         catch (RequestExecutionException e)
         {
@@ -32,6 +32,7 @@ import javax.management.openmbean.TabularData;
 import com.google.common.base.Joiner;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Maps;
+import com.yammer.metrics.reporting.JmxReporter;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.commons.cli.*;
@@ -141,6 +142,7 @@ public class NodeCmd
         GETSSTABLES,
         GOSSIPINFO,
         HELP,
+        INDIRECTIONSTATS,
         INFO,
         INVALIDATEKEYCACHE,
         INVALIDATEROWCACHE,
@@ -151,6 +153,8 @@ public class NodeCmd
         PROXYHISTOGRAMS,
         REBUILD,
         REFRESH,
+        RELOCATE,
+        RELOCATIONSTATS,
         REMOVETOKEN,
         REMOVENODE,
         REPAIR,
@@ -1009,6 +1013,36 @@ public class NodeCmd
         }
     }
 
+    private void printIndirectionStats(PrintStream output)
+    {
+        String[] stages = { "Query", "ConstraintResolution", "Placement", "DataSend", "ReferenceUpdate", "ReadHop", "RangeFanOut" };
+
+        output.println("indirection stats (micros)");
+        output.println(String.format("%-22s%12s%12s%12s%12s%12s%12s",
+                                     "Stage", "Count", "Mean", "50%", "95%", "99%", "Max"));
+        for (String stage : stages)
+        {
+            JmxReporter.TimerMBean latency = probe.getIndirectionLatency(stage);
+            output.println(String.format("%-22s%12d%12.0f%12.0f%12.0f%12.0f%12.0f",
+                                         stage, latency.getCount(), latency.getMean(), latency.get50thPercentile(),
+                                         latency.get95thPercentile(), latency.get99thPercentile(), latency.getMax()));
+        }
+
+        JmxReporter.HistogramMBean targets = probe.getIndirectionHistogram("RangeFanOutTargets");
+        output.println();
+        output.println(String.format("%-22s%12d%12.1f%12.0f%12.0f%12.0f%12.0f",
+                                     "RangeFanOutTargets", targets.getCount(), targets.getMean(), targets.get50thPercentile(),
+                                     targets.get95thPercentile(), targets.get99thPercentile(), targets.getMax()));
+    }
+
+    private void printRelocationStats(PrintStream output)
+    {
+        output.println("Relocation: " + probe.getRelocationStatus());
+        output.println("Throughput: " + probe.getRelocationThroughput() + " KB/s");
+        for (Map.Entry<String, Long> entry : probe.getRelocationProgress().entrySet())
+            output.println(String.format("%-22s%12d", entry.getKey(), entry.getValue()));
+    }
+
     private void printEndPoints(String keySpace, String cf, String key, PrintStream output)
     {
         List<InetAddress> endpoints = this.probe.getEndpoints(keySpace, cf, key);
@@ -1312,6 +1346,22 @@ public class NodeCmd
                     nodeCmd.printProxyHistograms(System.out);
                     break;
 
+                case INDIRECTIONSTATS :
+                    if (arguments.length != 0) { badUse("indirectionstats does not take arguments"); }
+                    nodeCmd.printIndirectionStats(System.out);
+                    break;
+
+                case RELOCATE :
+                    if (arguments.length > 1) { badUse("Too many arguments."); }
+                    probe.relocate(arguments.length == 1 ? arguments[0] : null);
+                    nodeCmd.printRelocationStats(System.out);
+                    break;
+
+                case RELOCATIONSTATS :
+                    if (arguments.length != 0) { badUse("relocationstats does not take arguments"); }
+                    nodeCmd.printRelocationStats(System.out);
+                    break;
+
                 case GETSSTABLES:
                     if (arguments.length != 3) { badUse("getsstables requires ks, cf and key args"); }
                     nodeCmd.printSSTables(arguments[0], arguments[1], arguments[2], System.out);
@@ -42,7 +42,10 @@ import javax.management.openmbean.TabularData;
 import com.google.common.base.Function;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
+import com.yammer.metrics.reporting.JmxReporter;
 
+import org.apache.cassandra.annotation.IndirectionRelocation;
+import org.apache.cassandra.annotation.IndirectionRelocationMBean;
 import org.apache.cassandra.concurrent.JMXEnabledThreadPoolExecutorMBean;
 import org.apache.cassandra.db.ColumnFamilyStoreMBean;
 import org.apache.cassandra.db.HintedHandOffManager;
@@ -52,6 +55,7 @@ import org.apache.cassandra.db.compaction.CompactionManagerMBean;
 import org.apache.cassandra.gms.FailureDetector;
 import org.apache.cassandra.gms.FailureDetectorMBean;
 import org.apache.cassandra.locator.EndpointSnitchInfoMBean;
+import org.apache.cassandra.metrics.IndirectionMetrics;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.net.MessagingServiceMBean;
 import org.apache.cassandra.service.*;
@@ -85,6 +89,7 @@ public class NodeProbe
     private CacheServiceMBean cacheService;
     private StorageProxyMBean spProxy;
     private HintedHandOffManagerMBean hhProxy;
+    private IndirectionRelocationMBean relocationProxy;
     private boolean failed;
 
     /**
@@ -168,6 +173,8 @@ public class NodeProbe
             spProxy = JMX.newMBeanProxy(mbeanServerConn, name, StorageProxyMBean.class);
             name = new ObjectName(HintedHandOffManager.MBEAN_NAME);
             hhProxy = JMX.newMBeanProxy(mbeanServerConn, name, HintedHandOffManagerMBean.class);
+            name = new ObjectName(IndirectionRelocation.MBEAN_NAME);
+            relocationProxy = JMX.newMBeanProxy(mbeanServerConn, name, IndirectionRelocationMBean.class);
         } catch (MalformedObjectNameException e)
         {
             throw new RuntimeException(
@@ -649,6 +656,53 @@ public class NodeProbe
         return spProxy;
     }
 
+    /**
+     * Retrieve the latency timer of a stage of reads and writes with Data Annotations
+     * @param stage name prefix of the metric, as listed by IndirectionMetrics.stages()
+     */
+    public JmxReporter.TimerMBean getIndirectionLatency(String stage)
+    {
+        return getIndirectionMetric(stage + "Latency", JmxReporter.TimerMBean.class);
+    }
+
+    public JmxReporter.HistogramMBean getIndirectionHistogram(String name)
+    {
+        return getIndirectionMetric(name, JmxReporter.HistogramMBean.class);
+    }
+
+    public void relocate(String keyspace)
+    {
+        relocationProxy.relocate(keyspace);
+    }
+
+    public String getRelocationStatus()
+    {
+        return relocationProxy.getStatus();
+    }
+
+    public Map<String, Long> getRelocationProgress()
+    {
+        return relocationProxy.getProgress();
+    }
+
+    public int getRelocationThroughput()
+    {
+        return relocationProxy.getThroughputInKB();
+    }
+
+    private <T> T getIndirectionMetric(String name, Class<T> type)
+    {
+        try
+        {
+            return JMX.newMBeanProxy(mbeanServerConn,
+                    new ObjectName("org.apache.cassandra.metrics:type=" + IndirectionMetrics.TYPE_NAME + ",name=" + name), type);
+        }
+        catch (MalformedObjectNameException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
     public String getEndpoint()
     {
         // Try to find the endpoint using the local token, doing so in a crazy manner
@@ -20,6 +20,11 @@ package org.apache.cassandra.transport;
 import java.util.EnumSet;
 import java.util.UUID;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.*;
@@ -28,6 +33,8 @@ import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.exceptions.RequestExecutionException;
+import org.apache.cassandra.exceptions.RequestValidationException;
 import org.apache.cassandra.transport.messages.*;
 import org.apache.cassandra.service.QueryState;
 
@@ -160,6 +167,41 @@ public abstract class Message
 
         public abstract Response execute(QueryState queryState);
 
+        /**
+         * Executes the request without waiting for work which completes on its own, such as annotated writes, so
+         * the executing thread is free for other requests. The response is sent once the future completes.
+         */
+        public ListenableFuture<Response> executeAsync(QueryState queryState)
+        {
+            return Futures.immediateFuture(execute(queryState));
+        }
+
+        /**
+         * @return the future response of the given future result, which is the error message of its failure if it
+         * fails
+         */
+        protected static ListenableFuture<Response> respond(ListenableFuture<? extends Response> result, final boolean skipMetadata)
+        {
+            ListenableFuture<Response> response = Futures.transform(result, new Function<Response, Response>()
+            {
+                public Response apply(Response input)
+                {
+                    if (skipMetadata && input instanceof ResultMessage.Rows)
+                        ((ResultMessage.Rows)input).result.metadata.setSkipMetadata();
+                    return input;
+                }
+            });
+            return Futures.withFallback(response, new FutureFallback<Response>()
+            {
+                public ListenableFuture<Response> create(Throwable t)
+                {
+                    if (!((t instanceof RequestValidationException) || (t instanceof RequestExecutionException)))
+                        logger.error("Unexpected error during query", t);
+                    return Futures.<Response>immediateFuture(ErrorMessage.fromException(t));
+                }
+            });
+        }
+
         public void setTracingRequested()
         {
             this.tracingRequested = true;
@@ -291,29 +333,49 @@ public abstract class Message
             if (e.getMessage() instanceof Response)
                 throw new ProtocolException("Invalid response message received, expecting requests");
 
-            Request request = (Request)e.getMessage();
+            final Request request = (Request)e.getMessage();
+            final Channel channel = ctx.getChannel();
 
             try
             {
                 assert request.connection() instanceof ServerConnection;
-                ServerConnection connection = (ServerConnection)request.connection();
+                final ServerConnection connection = (ServerConnection)request.connection();
                 QueryState qstate = connection.validateNewMessage(request.type, connection.getVersion(), request.getStreamId());
 
                 logger.debug("Received: {}, v={}", request, connection.getVersion());
 
-                Response response = request.execute(qstate);
-                response.setStreamId(request.getStreamId());
-                response.attach(connection);
-                connection.applyStateTransition(request.type, response.type);
+                // The response is written by whichever thread completes the request, for annotated writes that is
+                // the callback of their last message
+                Futures.addCallback(request.executeAsync(qstate), new FutureCallback<Response>()
+                {
+                    public void onSuccess(Response response)
+                    {
+                        try
+                        {
+                            response.setStreamId(request.getStreamId());
+                            response.attach(connection);
+                            connection.applyStateTransition(request.type, response.type);
+
+                            logger.debug("Responding: {}, v={}", response, connection.getVersion());
 
-                logger.debug("Responding: {}, v={}", response, connection.getVersion());
+                            channel.write(response);
+                        }
+                        catch (Exception ex)
+                        {
+                            onFailure(ex);
+                        }
+                    }
 
-                ctx.getChannel().write(response);
+                    public void onFailure(Throwable t)
+                    {
+                        channel.write(ErrorMessage.fromException(t).setStreamId(request.getStreamId()));
+                    }
+                });
             }
             catch (Exception ex)
             {
                 // Don't let the exception propagate to exceptionCaught() if we can help it so that we can assign the right streamID.
-                ctx.getChannel().write(ErrorMessage.fromException(ex).setStreamId(request.getStreamId()));
+                channel.write(ErrorMessage.fromException(ex).setStreamId(request.getStreamId()));
             }
         }
 
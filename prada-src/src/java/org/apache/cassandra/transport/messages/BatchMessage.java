@@ -23,6 +23,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.jboss.netty.buffer.ChannelBuffer;
 
 import org.apache.cassandra.cql3.Attributes;
@@ -31,9 +33,12 @@ import org.apache.cassandra.cql3.QueryProcessor;
 import org.apache.cassandra.cql3.statements.BatchStatement;
 import org.apache.cassandra.cql3.statements.ModificationStatement;
 import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.exceptions.IndirectionException;
 import org.apache.cassandra.exceptions.InvalidRequestException;
 import org.apache.cassandra.exceptions.PreparedQueryNotFoundException;
+import org.apache.cassandra.exceptions.RequestValidationException;
 import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.tracing.Tracing;
 import org.apache.cassandra.transport.*;
 import org.apache.cassandra.utils.MD5Digest;
@@ -144,6 +149,68 @@ public class BatchMessage extends Message.Request
         this.consistency = consistency;
     }
 
+    @Override
+    public ListenableFuture<Message.Response> executeAsync(QueryState state)
+    {
+        // tracing sessions are bound to the executing thread, so traced batches are left to execute()
+        if (isTracingRequested() || StorageService.instance.getTracingProbability() != 0)
+            return super.executeAsync(state);
+
+        try
+        {
+            return respond(QueryProcessor.processBatchAsync(prepareBatch(state), consistency, state, values, queryOrIdList), false);
+        }
+        catch (Exception e)
+        {
+            return respond(Futures.<Message.Response>immediateFailedFuture(e), false);
+        }
+    }
+
+    private BatchStatement prepareBatch(QueryState state) throws RequestValidationException, IndirectionException
+    {
+        List<ModificationStatement> statements = new ArrayList<ModificationStatement>(queryOrIdList.size());
+        for (int i = 0; i < queryOrIdList.size(); i++)
+        {
+            Object query = queryOrIdList.get(i);
+            CQLStatement statement;
+            if (query instanceof String)
+            {
+                statement = QueryProcessor.parseStatement((String)query, state);
+            }
+            else
+            {
+                statement = QueryProcessor.getPrepared((MD5Digest)query);
+                if (statement == null)
+                    throw new PreparedQueryNotFoundException((MD5Digest)query);
+            }
+
+            List<ByteBuffer> queryValues = values.get(i);
+            if (queryValues.size() != statement.getBoundTerms())
+                throw new InvalidRequestException(String.format("There were %d markers(?) in CQL but %d bound variables",
+                                                                statement.getBoundTerms(),
+                                                                queryValues.size()));
+            if (!(statement instanceof ModificationStatement))
+                throw new InvalidRequestException("Invalid statement in batch: only UPDATE, INSERT and DELETE statements are allowed.");
+
+            ModificationStatement mst = (ModificationStatement)statement;
+            if (mst.isCounter())
+            {
+                if (type != BatchStatement.Type.COUNTER)
+                    throw new InvalidRequestException("Cannot include counter statement in a non-counter batch");
+            }
+            else
+            {
+                if (type == BatchStatement.Type.COUNTER)
+                    throw new InvalidRequestException("Cannot include non-counter statement in a counter batch");
+            }
+            statements.add(mst);
+        }
+
+        // Note: It's ok at this point to pass a bogus value for the number of bound terms in the BatchState ctor
+        // (and no value would be really correct, so we prefer passing a clearly wrong one).
+        return new BatchStatement(-1, type, statements, Attributes.none());
+    }
+
     public Message.Response execute(QueryState state)
     {
         try
@@ -162,47 +229,7 @@ public class BatchMessage extends Message.Request
                 Tracing.instance.begin("Execute batch of CQL3 queries", Collections.<String, String>emptyMap());
             }
 
-            List<ModificationStatement> statements = new ArrayList<ModificationStatement>(queryOrIdList.size());
-            for (int i = 0; i < queryOrIdList.size(); i++)
-            {
-                Object query = queryOrIdList.get(i);
-                CQLStatement statement;
-                if (query instanceof String)
-                {
-                    statement = QueryProcessor.parseStatement((String)query, state);
-                }
-                else
-                {
-                    statement = QueryProcessor.getPrepared((MD5Digest)query);
-                    if (statement == null)
-                        throw new PreparedQueryNotFoundException((MD5Digest)query);
-                }
-
-                List<ByteBuffer> queryValues = values.get(i);
-                if (queryValues.size() != statement.getBoundTerms())
-                    throw new InvalidRequestException(String.format("There were %d markers(?) in CQL but %d bound variables",
-                                                                    statement.getBoundTerms(),
-                                                                    queryValues.size()));
-                if (!(statement instanceof ModificationStatement))
-                    throw new InvalidRequestException("Invalid statement in batch: only UPDATE, INSERT and DELETE statements are allowed.");
-
-                ModificationStatement mst = (ModificationStatement)statement;
-                if (mst.isCounter())
-                {
-                    if (type != BatchStatement.Type.COUNTER)
-                        throw new InvalidRequestException("Cannot include counter statement in a non-counter batch");
-                }
-                else
-                {
-                    if (type == BatchStatement.Type.COUNTER)
-                        throw new InvalidRequestException("Cannot include non-counter statement in a counter batch");
-                }
-                statements.add(mst);
-            }
-
-            // Note: It's ok at this point to pass a bogus value for the number of bound terms in the BatchState ctor
-            // (and no value would be really correct, so we prefer passing a clearly wrong one).
-            BatchStatement batch = new BatchStatement(-1, type, statements, Attributes.none());
+            BatchStatement batch = prepareBatch(state);
             Message.Response response = QueryProcessor.processBatch(batch, consistency, state, values, queryOrIdList);
 
             if (tracingId != null)
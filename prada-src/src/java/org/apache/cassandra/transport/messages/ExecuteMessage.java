@@ -23,6 +23,8 @@ import java.util.List;
 import java.util.UUID;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 
@@ -32,6 +34,7 @@ import org.apache.cassandra.cql3.QueryOptions;
 import org.apache.cassandra.db.ConsistencyLevel;
 import org.apache.cassandra.exceptions.PreparedQueryNotFoundException;
 import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.tracing.Tracing;
 import org.apache.cassandra.transport.*;
 import org.apache.cassandra.utils.MD5Digest;
@@ -97,6 +100,31 @@ public class ExecuteMessage extends Message.Request
         this.options = options;
     }
 
+    @Override
+    public ListenableFuture<Message.Response> executeAsync(QueryState state)
+    {
+        // tracing sessions are bound to the executing thread, so traced queries are left to execute()
+        if (isTracingRequested() || StorageService.instance.getTracingProbability() != 0)
+            return super.executeAsync(state);
+
+        try
+        {
+            CQLStatement statement = QueryProcessor.getPrepared(statementId);
+
+            if (statement == null)
+                throw new PreparedQueryNotFoundException(statementId);
+
+            if (options.getPageSize() == 0)
+                throw new ProtocolException("The page size cannot be 0");
+
+            return respond(QueryProcessor.processPreparedAsync(statement, state, options), options.skipMetadata());
+        }
+        catch (Exception e)
+        {
+            return respond(Futures.<Message.Response>immediateFailedFuture(e), false);
+        }
+    }
+
     public Message.Response execute(QueryState state)
     {
         try
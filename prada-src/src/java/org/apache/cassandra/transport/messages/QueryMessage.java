@@ -22,15 +22,17 @@ import java.util.Collections;
 import java.util.UUID;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
-import org.apache.cassandra.annotation.Evaluation;
 import org.apache.cassandra.cql3.QueryProcessor;
 import org.apache.cassandra.cql3.QueryOptions;
 import org.apache.cassandra.db.ConsistencyLevel;
 import org.apache.cassandra.exceptions.*;
 import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.tracing.Tracing;
 import org.apache.cassandra.transport.*;
 import org.apache.cassandra.utils.UUIDGen;
@@ -91,6 +93,26 @@ public class QueryMessage extends Message.Request
         this.options = options;
     }
 
+    @Override
+    public ListenableFuture<Message.Response> executeAsync(QueryState state)
+    {
+        // tracing sessions are bound to the executing thread, so traced queries are left to execute()
+        if (isTracingRequested() || StorageService.instance.getTracingProbability() != 0)
+            return super.executeAsync(state);
+
+        try
+        {
+            if (options.getPageSize() == 0)
+                throw new ProtocolException("The page size cannot be 0");
+
+            return respond(QueryProcessor.processAsync(query, state, options), options.skipMetadata());
+        }
+        catch (Exception e)
+        {
+            return respond(Futures.<Message.Response>immediateFailedFuture(e), false);
+        }
+    }
+
     public Message.Response execute(QueryState state)
     {
         try
@@ -117,22 +139,7 @@ public class QueryMessage extends Message.Request
                 Tracing.instance.begin("Execute CQL3 query", builder.build());
             }
 
-            Message.Response response;
-            if (Evaluation.evalMode && !Evaluation.details)
-            {
-                long et = System.nanoTime();
-                try
-                {
-                    response = QueryProcessor.process(query, state, options);
-                }
-                finally
-                {
-                    long et2 = System.nanoTime();
-                    Evaluation.addSimpleTimestamp("QueryProcessor.process(String, QueryState, QueryOptions)", query, et2-et);
-                }
-            }
-            else
-                response = QueryProcessor.process(query, state, options);
+            Message.Response response = QueryProcessor.process(query, state, options);
 
             if (options.skipMetadata() && response instanceof ResultMessage.Rows)
                 ((ResultMessage.Rows)response).result.metadata.setSkipMetadata();
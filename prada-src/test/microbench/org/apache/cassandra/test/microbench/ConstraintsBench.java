@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.apache.cassandra.annotation.CompiledConstraints;
+import org.apache.cassandra.annotation.Constraints;
+import org.apache.cassandra.exceptions.RequestValidationException;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+/**
+ * Resolution of the nodes satisfying the annotations of a write and the choice of its targets.
+ *
+ * getSatisfyingNodes resolves the annotations against the CapabilityIndex on every invocation, while forWrite
+ * reuses the resolution of the statement like a prepared statement does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConstraintsBench
+{
+    @Param({ "10", "100", "1000" })
+    public int nodes;
+
+    @Param({ "location", "collection", "combined" })
+    public String annotations;
+
+    private CompiledConstraints compiled;
+    private Constraints statement;
+    private ByteBuffer[] keys;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        new SyntheticCluster(nodes);
+        compiled = CompiledConstraints.compile(SyntheticCluster.annotations(annotations));
+        statement = new Constraints(compiled);
+        statement.forWrite();
+
+        keys = new ByteBuffer[1024];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = ByteBufferUtil.bytes("key" + i);
+    }
+
+    @Benchmark
+    public Set<String> getSatisfyingNodes() throws RequestValidationException
+    {
+        return new Constraints(compiled).getSatisfyingNodes();
+    }
+
+    @Benchmark
+    public void makeDirectWithAnnotations(Blackhole bh) throws RequestValidationException
+    {
+        Constraints write = new Constraints(compiled);
+        write.makeDirectWithAnnotations(Integer.parseInt(SyntheticCluster.REPLICATION_FACTOR), SyntheticCluster.KEYSPACE, nextKey());
+        bh.consume(write.getTargets());
+    }
+
+    @Benchmark
+    public void makeDirectWithAnnotationsPrepared(Blackhole bh) throws RequestValidationException
+    {
+        Constraints write = statement.forWrite();
+        write.makeDirectWithAnnotations(Integer.parseInt(SyntheticCluster.REPLICATION_FACTOR), SyntheticCluster.KEYSPACE, nextKey());
+        bh.consume(write.getTargets());
+    }
+
+    private ByteBuffer nextKey()
+    {
+        return keys[next++ & (keys.length - 1)];
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.apache.cassandra.annotation.dataannotations.StringDataAnnotation;
+
+/**
+ * Minimization of the values of a String Data Annotation, which drops collections whose members are listed as well.
+ * The number of collections and values grows with the number of distinct locations of the cluster.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataAnnotationBench
+{
+    @Param({ "10", "100", "1000" })
+    public int nodes;
+
+    private StringDataAnnotation annotation;
+    private Set<String> values;
+
+    @Setup
+    public void setup()
+    {
+        // every ten nodes form a location, every ten locations a collection
+        HashMap<String, HashSet<String>> collections = new HashMap<>();
+        values = new HashSet<>();
+        for (int location = 0; location < Math.max(1, nodes / 10); location++)
+        {
+            String collection = "region" + location / 10;
+            if (!collections.containsKey(collection))
+                collections.put(collection, new HashSet<String>());
+            collections.get(collection).add("location" + location);
+
+            values.add(collection);
+            if (location % 2 == 0)
+                values.add("location" + location);
+        }
+        annotation = new StringDataAnnotation(SyntheticCluster.LOCATION, 1, new HashSet<String>(), collections);
+    }
+
+    @Benchmark
+    public Set<String> minimize()
+    {
+        Set<String> set = new HashSet<>(values);
+        annotation.minimize(set);
+        return set;
+    }
+}
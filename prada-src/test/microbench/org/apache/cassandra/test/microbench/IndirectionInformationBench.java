@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.apache.cassandra.annotation.CompiledConstraints;
+import org.apache.cassandra.annotation.Constraints;
+import org.apache.cassandra.annotation.IndirectionInformation;
+import org.apache.cassandra.db.Row;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+/**
+ * Conversion of reference rows from and to IndirectionInformation, both for reference tables storing placement
+ * groups and for reference tables storing nodes and annotations in every row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndirectionInformationBench
+{
+    @Param({ "10", "100", "1000" })
+    public int nodes;
+
+    @Param({ SyntheticCluster.TABLE, SyntheticCluster.NODES_TABLE })
+    public String table;
+
+    private IndirectionInformation information;
+    private Row row;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        SyntheticCluster cluster = new SyntheticCluster(nodes);
+        String key = "key";
+        Constraints constraints = new Constraints(CompiledConstraints.compile(SyntheticCluster.annotations("combined")));
+        constraints.makeDirectWithAnnotations(Integer.parseInt(SyntheticCluster.REPLICATION_FACTOR), SyntheticCluster.KEYSPACE, ByteBufferUtil.bytes(key));
+
+        information = new IndirectionInformation(key, SyntheticCluster.KEYSPACE, table, constraints);
+        row = new Row(StorageService.getPartitioner().decorateKey(ByteBufferUtil.bytes(key)), information.toReferenceRow(cluster.referenceTable(table)));
+    }
+
+    @Benchmark
+    public IndirectionInformation rowToIndirectionInformation()
+    {
+        return IndirectionInformation.RowToIndirectionInformation(row);
+    }
+
+    @Benchmark
+    public String getInsertQuery()
+    {
+        return information.getInsertQuery();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.apache.cassandra.annotation.CompiledConstraints;
+import org.apache.cassandra.annotation.messages.IndirectionDataMessage;
+import org.apache.cassandra.annotation.messages.IndirectionDeleteMessage;
+import org.apache.cassandra.annotation.messages.IndirectionDeleteMessage.RowDeletion;
+import org.apache.cassandra.annotation.messages.IndirectionMessage;
+import org.apache.cassandra.annotation.messages.IndirectionUpdateReferencesMessage;
+import org.apache.cassandra.annotation.messages.IndirectionUpdateReferencesMessage.ReferenceUpdate;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.ArrayBackedSortedColumns;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+/**
+ * Serialization of the messages of an annotated write, carrying the given number of rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndirectionMessageBench
+{
+    @Param({ "1", "10", "100" })
+    public int rows;
+
+    @Param({ "data", "references", "delete" })
+    public String type;
+
+    private IndirectionMessage message;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        SyntheticCluster cluster = new SyntheticCluster(10);
+        CFMetaData data = cluster.dataTable();
+        CompiledConstraints annotations = CompiledConstraints.compile(SyntheticCluster.annotations("combined"));
+        long timestamp = System.currentTimeMillis() * 1000;
+
+        List<RowMutation> mutations = new ArrayList<>();
+        List<ReferenceUpdate> updates = new ArrayList<>();
+        List<RowDeletion> deletions = new ArrayList<>();
+        for (int i = 0; i < rows; i++)
+        {
+            ByteBuffer key = ByteBufferUtil.bytes("key" + i);
+            ColumnFamily cf = ArrayBackedSortedColumns.factory.create(data);
+            cf.addColumn(data.getCfDef().getColumnNameBuilder().add(ByteBufferUtil.bytes("value")).build(), ByteBuffer.allocate(64), timestamp);
+            mutations.add(new RowMutation(data.ksName, key, cf));
+
+            List<ByteBuffer> tokens = new ArrayList<>();
+            for (int j = 0; j < Integer.parseInt(SyntheticCluster.REPLICATION_FACTOR); j++)
+                tokens.add(ByteBufferUtil.bytes(cluster.tokens[(i + j) % cluster.tokens.length]));
+            updates.add(new ReferenceUpdate(data.cfId, key, tokens, annotations, timestamp));
+            deletions.add(new RowDeletion(data.cfId, key, timestamp));
+        }
+
+        switch (type)
+        {
+        case "data":
+            message = new IndirectionDataMessage(mutations);
+            break;
+        case "references":
+            message = new IndirectionUpdateReferencesMessage(updates);
+            break;
+        case "delete":
+            message = new IndirectionDeleteMessage(deletions);
+            break;
+        default:
+            throw new IllegalArgumentException(type);
+        }
+        serialized = serialize();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer((int) IndirectionMessage.serializer.serializedSize(message, MessagingService.current_version));
+        IndirectionMessage.serializer.serialize(message, out, MessagingService.current_version);
+        return out.getData();
+    }
+
+    @Benchmark
+    public IndirectionMessage deserialize() throws IOException
+    {
+        return IndirectionMessage.serializer.deserialize(new DataInputStream(new ByteArrayInputStream(serialized)), MessagingService.current_version);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.net.InetAddress;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.apache.cassandra.annotation.CompiledConstraints;
+import org.apache.cassandra.annotation.loadbalancing.LoadBalancer;
+
+/**
+ * Choice of the targets of a write among the candidates, for every load balancer. The candidates are the nodes
+ * satisfying the given annotations, so the number of candidates grows with the cluster.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadBalancerBench
+{
+    @Param({ "10", "100", "1000" })
+    public int nodes;
+
+    @Param({ "SimpleLoadBalancer", "RandomLoadBalancer", "SimpleScoringLoadBalancer", "LRULoadBalancer", "CounterMinLoadBalancer", "PowerOfChoicesLoadBalancer" })
+    public String balancer;
+
+    @Param({ "location", "combined" })
+    public String annotations;
+
+    private SyntheticCluster cluster;
+    private LoadBalancer loadBalancer;
+    private BitSet candidates;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        cluster = new SyntheticCluster(nodes);
+        loadBalancer = LoadBalancer.create(LoadBalancer.LoadBalancers.valueOf(balancer));
+        candidates = cluster.index.getSatisfyingNodes(CompiledConstraints.compile(SyntheticCluster.annotations(annotations)).getParameters());
+    }
+
+    @Benchmark
+    public List<InetAddress> getNodes()
+    {
+        return loadBalancer.getNodes(cluster.index, candidates, Integer.parseInt(SyntheticCluster.REPLICATION_FACTOR));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cassandra.test.microbench;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+
+import org.apache.cassandra.annotation.CapabilityIndex;
+import org.apache.cassandra.annotation.DataAnnotationConfig;
+import org.apache.cassandra.annotation.IndirectionSupport;
+import org.apache.cassandra.annotation.dataannotations.AbstractDataAnnotation;
+import org.apache.cassandra.annotation.dataannotations.BoolDataAnnotation;
+import org.apache.cassandra.annotation.dataannotations.IntegerDataAnnotation;
+import org.apache.cassandra.annotation.dataannotations.StringDataAnnotation;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.KSMetaData;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.gms.ApplicationState;
+import org.apache.cassandra.locator.SimpleStrategy;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.service.LoadBroadcaster;
+import org.apache.cassandra.service.StorageService;
+
+/**
+ * A cluster of synthetic nodes for the annotation layer: the nodes are only known to the token metadata and the
+ * CapabilityIndex, no node is contacted.
+ *
+ * Node i is located in LOCATIONS[i % LOCATIONS.length], supports encryption if i is even and has the security tier
+ * i % 4. The location "EU" is a collection of the European locations. Load and pending tasks of the nodes are
+ * known as if they had been gossiped.
+ */
+public class SyntheticCluster
+{
+    public static final String KEYSPACE = "microbench";
+    public static final String TABLE = "annotated";
+    // reference table storing nodes and annotations in every row instead of a placement group
+    public static final String NODES_TABLE = "annotated_nodes";
+    public static final String REPLICATION_FACTOR = "3";
+
+    public static final String LOCATION = "location";
+    public static final String ENCRYPTION = "encryption";
+    public static final String TIER = "tier";
+    public static final String[] LOCATIONS = { "DE", "FR", "NL", "US", "JP", "BR", "IN", "AU" };
+
+    public final String[] tokens;
+    public final InetAddress[] endpoints;
+    public final CapabilityIndex.Snapshot index;
+
+    public SyntheticCluster(int size) throws Exception
+    {
+        tokens = new String[size];
+        endpoints = new InetAddress[size];
+
+        IPartitioner<?> partitioner = StorageService.getPartitioner();
+        TokenMetadata metadata = StorageService.instance.getTokenMetadata();
+        metadata.clearUnsafe();
+        for (int i = 0; i < size; i++)
+        {
+            Token<?> token = partitioner.getRandomToken();
+            tokens[i] = partitioner.getTokenFactory().toString(token);
+            endpoints[i] = endpoint(i);
+            metadata.updateNormalToken(token, endpoints[i]);
+            // loads and pending tasks as gossiped, for the load balancers relying on them
+            LoadBroadcaster.instance.onChange(endpoints[i], ApplicationState.LOAD, StorageService.instance.valueFactory.load(1024 * (i % 16 + 1)));
+            LoadBroadcaster.instance.onChange(endpoints[i], ApplicationState.INDIRECTION_LOAD, StorageService.instance.valueFactory.indirectionLoad(i % 8));
+        }
+
+        IndirectionSupport.DataAnnotationConfiguration = configuration();
+        index = CapabilityIndex.instance.load(capabilities());
+        loadSchema();
+    }
+
+    private static InetAddress endpoint(int i) throws UnknownHostException
+    {
+        return InetAddress.getByAddress(new byte[]{ 10, (byte) (i >> 16), (byte) (i >> 8), (byte) i });
+    }
+
+    private static DataAnnotationConfig configuration()
+    {
+        HashMap<String, HashSet<String>> collections = new HashMap<>();
+        collections.put("EU", new HashSet<>(Arrays.asList("DE", "FR", "NL")));
+
+        HashMap<String, AbstractDataAnnotation<?>> annotations = new HashMap<>();
+        annotations.put(LOCATION, new StringDataAnnotation(LOCATION, 1, new HashSet<String>(), collections));
+        annotations.put(ENCRYPTION, new BoolDataAnnotation(ENCRYPTION, false));
+        annotations.put(TIER, new IntegerDataAnnotation(TIER, new HashSet<Integer>(), IntegerDataAnnotation.IntegerComparators.GREATEREQUAL, 1));
+        return new DataAnnotationConfig(Integer.parseInt(REPLICATION_FACTOR), "SimpleStrategy", "SimpleLoadBalancer", annotations);
+    }
+
+    private Map<String, Map<String, Collection<String>>> capabilities()
+    {
+        Map<String, Collection<String>> location = new HashMap<>();
+        Map<String, Collection<String>> encryption = new HashMap<>();
+        Map<String, Collection<String>> tier = new HashMap<>();
+        for (int i = 0; i < tokens.length; i++)
+        {
+            location.put(tokens[i], Collections.singleton(LOCATIONS[i % LOCATIONS.length]));
+            encryption.put(tokens[i], i % 2 == 0 ? Collections.singleton("true") : Collections.<String>emptySet());
+            tier.put(tokens[i], Collections.singleton(String.valueOf(i % 4)));
+        }
+
+        Map<String, Map<String, Collection<String>>> capabilities = new HashMap<>();
+        capabilities.put(LOCATION, location);
+        capabilities.put(ENCRYPTION, encryption);
+        capabilities.put(TIER, tier);
+        return capabilities;
+    }
+
+    private static void loadSchema() throws Exception
+    {
+        if (Schema.instance.getKSMetaData(KEYSPACE) != null)
+            return;
+
+        Map<String, String> options = Collections.singletonMap("replication_factor", REPLICATION_FACTOR);
+        CFMetaData data = CFMetaData.compile("CREATE TABLE " + TABLE + " (key varchar PRIMARY KEY, value blob)", KEYSPACE + IndirectionSupport.DataKeyspacePostfix);
+        CFMetaData references = CFMetaData.compile("CREATE TABLE " + TABLE + " (key varchar PRIMARY KEY, placement_group uuid)", KEYSPACE + IndirectionSupport.ReferenceKeyspacePostfix);
+        CFMetaData nodeReferences = CFMetaData.compile("CREATE TABLE " + NODES_TABLE + " (key varchar PRIMARY KEY, node1 varchar, node2 varchar, node3 varchar, saved_annotations varchar)", KEYSPACE + IndirectionSupport.ReferenceKeyspacePostfix);
+
+        Schema.instance.load(KSMetaData.newKeyspace(KEYSPACE, SimpleStrategy.class, options, false, Collections.<CFMetaData>emptyList()));
+        Schema.instance.load(KSMetaData.newKeyspace(KEYSPACE + IndirectionSupport.DataKeyspacePostfix, SimpleStrategy.class, options, false, Collections.singletonList(data)));
+        Schema.instance.load(KSMetaData.newKeyspace(KEYSPACE + IndirectionSupport.ReferenceKeyspacePostfix, SimpleStrategy.class, options, false, Arrays.asList(references, nodeReferences)));
+    }
+
+    /**
+     * @return the annotations of a write, from the most common to a rarely satisfied combination
+     */
+    public static Map<String, List<String>> annotations(String kind)
+    {
+        Map<String, List<String>> annotations = new HashMap<>();
+        switch (kind)
+        {
+        case "location":
+            annotations.put(LOCATION, Arrays.asList("DE", "US"));
+            break;
+        case "collection":
+            annotations.put(LOCATION, Arrays.asList("EU"));
+            break;
+        case "combined":
+            annotations.put(LOCATION, Arrays.asList("EU"));
+            annotations.put(ENCRYPTION, Arrays.asList("true"));
+            annotations.put(TIER, Arrays.asList("2"));
+            break;
+        default:
+            throw new IllegalArgumentException(kind);
+        }
+        return annotations;
+    }
+
+    public CFMetaData dataTable()
+    {
+        return Schema.instance.getCFMetaData(KEYSPACE + IndirectionSupport.DataKeyspacePostfix, TABLE);
+    }
+
+    public CFMetaData referenceTable(String table)
+    {
+        return Schema.instance.getCFMetaData(KEYSPACE + IndirectionSupport.ReferenceKeyspacePostfix, table);
+    }
+}
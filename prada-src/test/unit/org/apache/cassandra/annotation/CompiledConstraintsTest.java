@@ -0,0 +1,101 @@
+package org.apache.cassandra.annotation;
+
+import java.util.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.annotation.dataannotations.AbstractDataAnnotation;
+import org.apache.cassandra.annotation.dataannotations.StringDataAnnotation;
+
+import static org.junit.Assert.*;
+
+public class CompiledConstraintsTest
+{
+    @BeforeClass
+    public static void setup()
+    {
+        HashMap<String, HashSet<String>> collections = new HashMap<>();
+        collections.put("EU", new HashSet<>(Arrays.asList("DE", "FR")));
+        HashMap<String, AbstractDataAnnotation<?>> annotations = new HashMap<>();
+        annotations.put("location", new StringDataAnnotation("location", 10, new HashSet<>(Arrays.asList("DE")), collections));
+        IndirectionSupport.DataAnnotationConfiguration = new DataAnnotationConfig(1, "SimpleStrategy", "SimpleLoadBalancer", annotations);
+    }
+
+    private static CompiledConstraints compile(String... nameAndValues)
+    {
+        Map<String, Collection<String>> parameters = new LinkedHashMap<>();
+        for (String nameAndValue : nameAndValues)
+        {
+            String[] parts = nameAndValue.split("=");
+            parameters.put(parts[0], Arrays.asList(parts[1].split(",")));
+        }
+        return CompiledConstraints.compile(parameters);
+    }
+
+    @Test
+    public void testInterning()
+    {
+        CompiledConstraints c = compile("location=FR,DE", "tier=gold");
+        assertSame(c, compile("tier=gold", "location=DE,FR"));
+        assertSame(c, compile("location=DE,FR,DE", "tier=gold"));
+        assertNotSame(c, compile("location=DE", "tier=gold"));
+        assertSame(CompiledConstraints.EMPTY, CompiledConstraints.compile(Collections.<String, List<String>>emptyMap()));
+        assertTrue(CompiledConstraints.EMPTY.isEmpty());
+    }
+
+    @Test
+    public void testFromAnnotationString()
+    {
+        CompiledConstraints c = compile("location=DE,FR", "tier=gold");
+        assertSame(c, CompiledConstraints.fromAnnotationString("WITH ANNOTATIONS 'location' = { 'FR', 'DE' } AND 'tier' = { 'gold' }"));
+        assertSame(c, CompiledConstraints.fromAnnotationString("WITH ANNOTATIONS \"tier\" = {\"gold\"} AND \"location\" = {\"DE\",\"FR\"}"));
+        assertSame(c, CompiledConstraints.fromAnnotationString(c.getAnnotationString()));
+        assertEquals(new HashSet<>(Arrays.asList("DE", "FR")), c.getParameters().get("location"));
+        assertEquals(Collections.singleton("gold"), c.getParameters().get("tier"));
+        assertSame(CompiledConstraints.EMPTY, CompiledConstraints.fromAnnotationString(""));
+    }
+
+    @Test
+    public void testCanonicalStringAndHash()
+    {
+        CompiledConstraints c = compile("tier=gold", "location=FR,DE");
+        assertEquals("WITH ANNOTATIONS \"location\" = { \"DE\", \"FR\" } AND \"tier\" = { \"gold\" }", c.getAnnotationString());
+        assertEquals("", CompiledConstraints.EMPTY.getAnnotationString());
+
+        CompiledConstraints same = compile("location=DE,FR", "tier=gold");
+        assertEquals(c, same);
+        assertEquals(c.hashCode(), same.hashCode());
+        assertFalse(c.equals(compile("location=DE", "tier=gold")));
+        assertFalse(c.equals(compile("location=DE,FR", "tiers=gold")));
+    }
+
+    @Test
+    public void testMerge()
+    {
+        CompiledConstraints location = compile("location=DE");
+        CompiledConstraints tier = compile("tier=gold");
+        assertSame(location, location.merge(location));
+        assertSame(location, location.merge(CompiledConstraints.EMPTY));
+        assertSame(location, CompiledConstraints.EMPTY.merge(location));
+
+        CompiledConstraints merged = location.merge(tier);
+        assertSame(compile("location=DE", "tier=gold"), merged);
+        assertSame(merged, location.merge(tier));
+        assertSame(merged, tier.merge(location));
+
+        assertSame(compile("location=DE,FR", "tier=gold,silver"), compile("location=DE", "tier=gold").merge(compile("location=FR", "tier=silver")));
+    }
+
+    @Test
+    public void testMinimize()
+    {
+        // a collection is dropped as soon as one of its members is requested
+        assertSame(compile("location=DE"), compile("location=EU").merge(compile("location=DE")));
+        assertSame(compile("location=FR"), compile("location=FR").merge(compile("location=EU")));
+        assertSame(compile("location=EU,IT"), compile("location=EU").merge(compile("location=IT")));
+
+        // annotations without configuration are not minimized
+        assertSame(compile("unconfigured=DE,EU"), compile("unconfigured=EU").merge(compile("unconfigured=DE")));
+    }
+}
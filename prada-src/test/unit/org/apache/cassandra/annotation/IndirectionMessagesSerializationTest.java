@@ -0,0 +1,134 @@
+package org.apache.cassandra.annotation;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Test;
+
+import org.apache.cassandra.AbstractSerializationsTester;
+import org.apache.cassandra.annotation.messages.*;
+import org.apache.cassandra.annotation.messages.IndirectionDeleteMessage.RowDeletion;
+import org.apache.cassandra.annotation.messages.IndirectionMessage.IndirectionMessageType;
+import org.apache.cassandra.annotation.messages.IndirectionUpdateReferencesMessage.ReferenceUpdate;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.*;
+
+public class IndirectionMessagesSerializationTest extends AbstractSerializationsTester
+{
+    private static final String KS = "Keyspace1";
+    private static final String CF = "Standard1";
+
+    private IndirectionMessage roundTrip(IndirectionMessage message) throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer();
+        IndirectionMessage.serializer.serialize(message, out, getVersion());
+        assertEquals(IndirectionMessage.serializer.serializedSize(message, getVersion()), out.getLength());
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.getData(), 0, out.getLength()));
+        IndirectionMessage result = IndirectionMessage.serializer.deserialize(in, getVersion());
+        assertEquals(0, in.available());
+        assertEquals(message.getType(), result.getType());
+        return result;
+    }
+
+    private static RowMutation mutation(String key, String column, String value)
+    {
+        RowMutation rm = new RowMutation(KS, ByteBufferUtil.bytes(key));
+        rm.add(CF, ByteBufferUtil.bytes(column), ByteBufferUtil.bytes(value), 1L);
+        return rm;
+    }
+
+    @Test
+    public void testDataMessage() throws IOException
+    {
+        List<RowMutation> mutations = Arrays.asList(mutation("key1", "c1", "v1"), mutation("key2", "c2", "v2"));
+        IndirectionDataMessage result = (IndirectionDataMessage) roundTrip(new IndirectionDataMessage(mutations));
+
+        assertEquals(mutations.size(), result.mutations.size());
+        for (int i = 0; i < mutations.size(); i++)
+        {
+            assertEquals(mutations.get(i).key(), result.mutations.get(i).key());
+            ColumnFamily cf = mutations.get(i).getColumnFamily(Schema.instance.getId(KS, CF));
+            assertEquals(cf, result.mutations.get(i).getColumnFamily(cf.id()));
+        }
+
+        assertTrue(((IndirectionDataMessage) roundTrip(new IndirectionDataMessage(Collections.<RowMutation>emptyList()))).mutations.isEmpty());
+    }
+
+    @Test
+    public void testDeleteMessage() throws IOException
+    {
+        UUID cfId = Schema.instance.getId(KS, CF);
+        List<RowDeletion> deletions = Arrays.asList(new RowDeletion(cfId, ByteBufferUtil.bytes("key1"), 1L),
+                                                    new RowDeletion(cfId, ByteBufferUtil.bytes("key2"), Long.MAX_VALUE));
+        IndirectionDeleteMessage result = (IndirectionDeleteMessage) roundTrip(new IndirectionDeleteMessage(deletions));
+
+        assertEquals(deletions.size(), result.deletions.size());
+        for (int i = 0; i < deletions.size(); i++)
+        {
+            assertEquals(deletions.get(i).cfId, result.deletions.get(i).cfId);
+            assertEquals(deletions.get(i).key, result.deletions.get(i).key);
+            assertEquals(deletions.get(i).timestamp, result.deletions.get(i).timestamp);
+        }
+    }
+
+    @Test
+    public void testUpdateReferencesMessage() throws IOException
+    {
+        UUID cfId = Schema.instance.getId(KS, CF);
+        CompiledConstraints annotations = CompiledConstraints.fromAnnotationString("WITH ANNOTATIONS \"location\" = { \"DE\", \"FR\" }");
+        List<ByteBuffer> tokens = Arrays.asList(ByteBufferUtil.bytes("42"), ByteBufferUtil.bytes("4711"));
+        List<ReferenceUpdate> updates = Arrays.asList(new ReferenceUpdate(cfId, ByteBufferUtil.bytes("key1"), tokens, annotations, 1L),
+                                                      ReferenceUpdate.deletion(cfId, ByteBufferUtil.bytes("key2"), 2L));
+        IndirectionUpdateReferencesMessage result = (IndirectionUpdateReferencesMessage) roundTrip(new IndirectionUpdateReferencesMessage(updates));
+
+        assertEquals(updates.size(), result.updates.size());
+        for (int i = 0; i < updates.size(); i++)
+        {
+            ReferenceUpdate expected = updates.get(i);
+            ReferenceUpdate update = result.updates.get(i);
+            assertEquals(expected.cfId, update.cfId);
+            assertEquals(expected.key, update.key);
+            assertEquals(expected.tokens, update.tokens);
+            assertSame(expected.annotations, update.annotations);
+            assertEquals(expected.timestamp, update.timestamp);
+            assertEquals(expected.isDeletion(), update.isDeletion());
+        }
+    }
+
+    @Test
+    public void testResponse() throws IOException
+    {
+        List<List<InetAddress>> staleReplicas = Arrays.asList(Arrays.asList(InetAddress.getByName("127.0.0.2"), InetAddress.getByName("127.0.0.3")),
+                                                              Collections.<InetAddress>emptyList());
+        IndirectionResponse result = (IndirectionResponse) roundTrip(new IndirectionResponse(IndirectionMessageType.UPDATE_REFERENCES, 123.0, staleReplicas, null));
+        assertEquals(IndirectionMessageType.UPDATE_REFERENCES, result.requestType);
+        assertEquals(123.0, result.size, 0);
+        assertEquals(staleReplicas, result.staleReplicas);
+        assertNull(result.error);
+        assertTrue(result.isSuccess());
+
+        // no stale replicas
+        result = (IndirectionResponse) roundTrip(new IndirectionResponse(IndirectionMessageType.DATA, 0));
+        assertEquals(IndirectionMessageType.DATA, result.requestType);
+        assertTrue(result.staleReplicas.isEmpty());
+        assertNull(result.error);
+        assertTrue(result.isSuccess());
+
+        // failed request
+        result = (IndirectionResponse) roundTrip(new IndirectionResponse(IndirectionMessageType.UPDATE_REFERENCES, -1, "IND_REF_UPDATE_FAILED:UNKNOWN_TABLE"));
+        assertEquals(IndirectionMessageType.UPDATE_REFERENCES, result.requestType);
+        assertTrue(result.staleReplicas.isEmpty());
+        assertEquals("IND_REF_UPDATE_FAILED:UNKNOWN_TABLE", result.error);
+        assertFalse(result.isSuccess());
+    }
+}
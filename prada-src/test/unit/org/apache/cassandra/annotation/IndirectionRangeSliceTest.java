@@ -0,0 +1,116 @@
+package org.apache.cassandra.annotation;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.filter.SliceQueryFilter;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.junit.Assert.*;
+
+public class IndirectionRangeSliceTest extends SchemaLoader
+{
+    private static final String KS = "range_slice_test";
+    private static final String CF = "annotated";
+    private static final String ANNOTATIONS = "WITH ANNOTATIONS \"location\" = { \"DE\" }";
+    private static final int KEYS = 15;
+
+    // the keys with a regular or a redirected row, in token order
+    private static final List<String> expected = new ArrayList<>();
+
+    @BeforeClass
+    public static void createRows() throws Exception
+    {
+        StorageService.instance.getTokenMetadata().updateNormalToken(StorageService.getPartitioner().getRandomToken(), FBUtilities.getBroadcastAddress());
+        MessagingService.instance().listen(FBUtilities.getBroadcastAddress());
+        QueryProcessor.process("CREATE KEYSPACE " + KS + " WITH REPLICATION = { 'class' : 'SimpleStrategy', 'replication_factor' : '1' };", ConsistencyLevel.ONE);
+        QueryProcessor.process("CREATE TABLE " + KS + "." + CF + " (key varchar PRIMARY KEY, value varchar);", ConsistencyLevel.ONE);
+
+        CFMetaData cfm = Schema.instance.getCFMetaData(KS, CF);
+        List<ByteBuffer> tokens = Collections.singletonList(ByteBufferUtil.bytes(IndirectionSupport.getLocalTokens().get(0)));
+        // the ByteOrderedPartitioner of the tests keeps the keys in token order
+        for (int i = 0; i < KEYS; i++)
+        {
+            String key = String.format("key%02d", i);
+            switch (i % 3)
+            {
+            case 0:
+                QueryProcessor.processInternal("INSERT INTO " + KS + "." + CF + " (key, value) VALUES ('" + key + "', 'regular')");
+                expected.add(key);
+                break;
+            case 1:
+                QueryProcessor.processInternal("INSERT INTO " + KS + IndirectionSupport.DataKeyspacePostfix + "." + CF + " (key, value) VALUES ('" + key + "', 'redirected')");
+                IndirectionInformation.insertReferences(cfm, key, tokens, ANNOTATIONS, 1L);
+                expected.add(key);
+                break;
+            default:
+                // a reference whose redirected data is gone
+                IndirectionInformation.insertReferences(cfm, key, tokens, ANNOTATIONS, 1L);
+                break;
+            }
+        }
+    }
+
+    private static List<Row> getRangeSlice(AbstractBounds<RowPosition> range, int limit) throws Exception
+    {
+        SliceQueryFilter filter = new SliceQueryFilter(ByteBufferUtil.EMPTY_BYTE_BUFFER, ByteBufferUtil.EMPTY_BYTE_BUFFER, false, Integer.MAX_VALUE);
+        return IndirectionReadSupport.getRangeSlice(new RangeSliceCommand(KS, CF, System.currentTimeMillis(), filter, range, limit));
+    }
+
+    private static AbstractBounds<RowPosition> fullRange()
+    {
+        Token<?> minimum = StorageService.getPartitioner().getMinimumToken();
+        return Range.makeRowRange(minimum, minimum, StorageService.getPartitioner());
+    }
+
+    private static List<String> keys(List<Row> rows) throws Exception
+    {
+        List<String> keys = new ArrayList<>(rows.size());
+        for (Row row : rows)
+            keys.add(ByteBufferUtil.string(row.key.key));
+        return keys;
+    }
+
+    @Test
+    public void testMerge() throws Exception
+    {
+        List<Row> rows = getRangeSlice(fullRange(), 100);
+        assertEquals(expected, keys(rows));
+        for (Row row : rows)
+        {
+            // annotated keys are answered with their redirected rows
+            boolean annotated = Integer.parseInt(ByteBufferUtil.string(row.key.key).substring(3)) % 3 == 1;
+            assertEquals(annotated, row.cf.metadata().ksName.endsWith(IndirectionSupport.DataKeyspacePostfix));
+        }
+    }
+
+    @Test
+    public void testLimit() throws Exception
+    {
+        // references without data must not leave the result short, StorageProxy would take the range as exhausted
+        for (int limit = 1; limit <= expected.size(); limit++)
+            assertEquals(expected.subList(0, limit), keys(getRangeSlice(fullRange(), limit)));
+    }
+
+    @Test
+    public void testPaging() throws Exception
+    {
+        List<Row> page = getRangeSlice(fullRange(), 4);
+        AbstractBounds<RowPosition> rest = IndirectionReadSupport.remainder(fullRange(), page.get(page.size() - 1).key);
+        assertEquals(expected.subList(4, expected.size()), keys(getRangeSlice(rest, 100)));
+    }
+}
@@ -0,0 +1,131 @@
+package org.apache.cassandra.annotation;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.annotation.dataannotations.AbstractDataAnnotation;
+import org.apache.cassandra.annotation.dataannotations.StringDataAnnotation;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.gms.Gossiper;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.junit.Assert.*;
+
+public class IndirectionRelocationTest extends SchemaLoader
+{
+    private static final String KS = "Keyspace1";
+    private static final String DE = "WITH ANNOTATIONS \"location\" = { \"DE\" }";
+
+    // the ByteOrderedPartitioner of the tests, node 0 is this node
+    private static final String[] tokens = { "10", "20", "30", "40" };
+    private static final String[] locations = { "DE", "DE", "DE", "FR" };
+    private static final InetAddress[] endpoints = new InetAddress[tokens.length];
+
+    @BeforeClass
+    public static void createRing() throws Exception
+    {
+        HashMap<String, AbstractDataAnnotation<?>> annotations = new HashMap<>();
+        annotations.put("location", new StringDataAnnotation("location", 1, new HashSet<String>(), new HashMap<String, HashSet<String>>()));
+        IndirectionSupport.DataAnnotationConfiguration = new DataAnnotationConfig(2, "SimpleStrategy", "SimpleLoadBalancer", annotations);
+
+        TokenMetadata metadata = StorageService.instance.getTokenMetadata();
+        metadata.clearUnsafe();
+        Map<String, Collection<String>> location = new HashMap<>();
+        for (int i = 0; i < tokens.length; i++)
+        {
+            endpoints[i] = i == 0 ? FBUtilities.getBroadcastAddress() : InetAddress.getByName("127.0.0." + (i + 1));
+            if (i > 0)
+                Gossiper.instance.initializeNodeUnsafe(endpoints[i], UUID.randomUUID(), 1);
+            metadata.updateNormalToken(token(tokens[i]), endpoints[i]);
+            location.put(tokens[i], Collections.singleton(locations[i]));
+        }
+        CapabilityIndex.instance.load(Collections.singletonMap("location", location));
+    }
+
+    private static Token<?> token(String token)
+    {
+        return StorageService.getPartitioner().getTokenFactory().fromString(token);
+    }
+
+    private static List<ByteBuffer> placement(int... nodes)
+    {
+        List<ByteBuffer> placement = new ArrayList<>();
+        for (int node : nodes)
+            placement.add(ByteBufferUtil.bytes(tokens[node]));
+        return placement;
+    }
+
+    private static IndirectionRelocation.Relocation plan(List<ByteBuffer> placement, int replicationFactor)
+    {
+        return IndirectionRelocation.instance.plan(KS, placement, DE, replicationFactor);
+    }
+
+    @Test
+    public void testValidPlacement()
+    {
+        assertNull(plan(placement(0, 1), 2));
+        assertNull(plan(placement(1, 2), 2));
+    }
+
+    @Test
+    public void testRelocation()
+    {
+        // node 3 does not satisfy the annotations any more, this node keeps its data and relocates it
+        IndirectionRelocation.Relocation relocation = plan(placement(0, 3), 2);
+        assertNotNull(relocation);
+        assertEquals(2, relocation.tokens.size());
+        assertTrue(relocation.tokens.contains(ByteBufferUtil.bytes(tokens[0])));
+        assertFalse(relocation.tokens.contains(ByteBufferUtil.bytes(tokens[3])));
+        assertEquals(1, relocation.targets.size());
+        assertTrue(relocation.targets.get(0).equals(endpoints[1]) || relocation.targets.get(0).equals(endpoints[2]));
+        assertSame(CompiledConstraints.fromAnnotationString(DE), relocation.annotations);
+
+        // the first live holder satisfying the annotations relocates
+        assertNull(plan(placement(1, 3), 2));
+    }
+
+    @Test
+    public void testNotEnoughNodes()
+    {
+        // a placement held here which cannot be relocated counts as failed
+        assertSame(IndirectionRelocation.Relocation.FAILED, plan(placement(0, 3), 4));
+        assertNull(plan(placement(1, 3), 4));
+    }
+
+    @Test
+    public void testLeaving()
+    {
+        TokenMetadata metadata = StorageService.instance.getTokenMetadata();
+        metadata.addLeavingEndpoint(endpoints[0]);
+        try
+        {
+            // node 1 would relocate the placement, but a leaving node moves the placements it holds itself
+            IndirectionRelocation.Relocation relocation = plan(placement(0, 1), 2);
+            assertNotNull(relocation);
+            assertEquals(placement(1, 2), sorted(relocation.tokens));
+            assertEquals(Collections.singletonList(endpoints[2]), relocation.targets);
+
+            assertNull(plan(placement(1, 2), 2));
+        }
+        finally
+        {
+            metadata.updateNormalToken(token(tokens[0]), endpoints[0]);
+        }
+        assertNull(plan(placement(0, 1), 2));
+    }
+
+    private static List<ByteBuffer> sorted(List<ByteBuffer> tokens)
+    {
+        List<ByteBuffer> sorted = new ArrayList<>(tokens);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,107 @@
+package org.apache.cassandra.annotation;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.SystemKeyspace;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.gms.Gossiper;
+import org.apache.cassandra.metrics.IndirectionMetrics;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.junit.Assert.*;
+
+public class IndirectionWriteSupportTest extends SchemaLoader
+{
+    private static final String KS = "write_support_test";
+
+    @BeforeClass
+    public static void createKeyspace() throws Exception
+    {
+        StorageService.instance.getTokenMetadata().updateNormalToken(StorageService.getPartitioner().getRandomToken(), FBUtilities.getBroadcastAddress());
+        MessagingService.instance().listen(FBUtilities.getBroadcastAddress());
+        QueryProcessor.process("CREATE KEYSPACE " + KS + " WITH REPLICATION = { 'class' : 'SimpleStrategy', 'replication_factor' : '1' };", ConsistencyLevel.ONE);
+    }
+
+    private static ColumnDefinition dataColumn(String table, String column)
+    {
+        CFMetaData dataCfm = Schema.instance.getCFMetaData(KS + IndirectionSupport.DataKeyspacePostfix, table);
+        return dataCfm.getColumnDefinition(ByteBufferUtil.bytes(column));
+    }
+
+    @Test
+    public void testSyncIndexes() throws Exception
+    {
+        QueryProcessor.process("CREATE TABLE " + KS + ".indexed (key varchar PRIMARY KEY, value varchar, other varchar);", ConsistencyLevel.ONE);
+        assertNull(dataColumn("indexed", "value").getIndexType());
+
+        // the index is mirrored onto the redirected data under the same name
+        QueryProcessor.process("CREATE INDEX value_index ON " + KS + ".indexed (value);", ConsistencyLevel.ONE);
+        ColumnDefinition source = Schema.instance.getCFMetaData(KS, "indexed").getColumnDefinition(ByteBufferUtil.bytes("value"));
+        ColumnDefinition mirrored = dataColumn("indexed", "value");
+        assertEquals(source.getIndexType(), mirrored.getIndexType());
+        assertEquals("value_index", mirrored.getIndexName());
+        assertEquals(source.getIndexOptions(), mirrored.getIndexOptions());
+        assertNull(dataColumn("indexed", "other").getIndexType());
+
+        // so targets can evaluate indexed queries against the redirected rows they store
+        String dataTable = KS + IndirectionSupport.DataKeyspacePostfix + ".indexed";
+        QueryProcessor.processInternal("INSERT INTO " + dataTable + " (key, value) VALUES ('key1', 'v1')");
+        QueryProcessor.processInternal("INSERT INTO " + dataTable + " (key, value) VALUES ('key2', 'v2')");
+        assertEquals(1, QueryProcessor.processInternal("SELECT * FROM " + dataTable + " WHERE value = 'v1'").size());
+
+        // DROP INDEX only takes the index name, the keyspace comes from the session
+        QueryState state = QueryState.forInternalCalls();
+        state.getClientState().setKeyspace(KS);
+        QueryProcessor.process("DROP INDEX value_index;", ConsistencyLevel.ONE, state);
+        assertNull(dataColumn("indexed", "value").getIndexType());
+        assertNull(dataColumn("indexed", "value").getIndexName());
+        assertTrue(Keyspace.open(KS + IndirectionSupport.DataKeyspacePostfix).getColumnFamilyStore("indexed").indexManager.getIndexes().isEmpty());
+    }
+
+    @Test
+    public void testHintDownTargets() throws Exception
+    {
+        InetAddress down = InetAddress.getByName("127.0.0.2");
+        UUID hostId = UUID.randomUUID();
+        Token<?> downToken = StorageService.getPartitioner().getRandomToken();
+        Gossiper.instance.initializeNodeUnsafe(down, hostId, 1);
+        StorageService.instance.getTokenMetadata().updateNormalToken(downToken, down);
+        StorageService.instance.getTokenMetadata().updateHostId(hostId, down);
+        Gossiper.instance.convict(down, Double.MAX_VALUE);
+
+        QueryProcessor.process("CREATE KEYSPACE hinted_test WITH REPLICATION = { 'class' : 'SimpleStrategy', 'replication_factor' : '2' };", ConsistencyLevel.ONE);
+        QueryProcessor.process("CREATE TABLE hinted_test.annotated (key varchar PRIMARY KEY, value varchar);", ConsistencyLevel.ONE);
+
+        // the live target acknowledges the write, the down one gets a hint instead of failing it
+        long hints = IndirectionMetrics.redirectedHints.count();
+        QueryProcessor.process("INSERT INTO hinted_test.annotated (key, value) VALUES ('key1', 'v1') WITH ANNOTATIONS REDIRECT '"
+                               + IndirectionSupport.getLocalTokens().get(0) + "' AND '" + IndirectionSupport.tokenToString(downToken) + "';", ConsistencyLevel.ONE);
+        assertEquals(hints + 1, IndirectionMetrics.redirectedHints.count());
+        assertEquals(1, QueryProcessor.processInternal("SELECT * FROM hinted_test" + IndirectionSupport.DataKeyspacePostfix + ".annotated WHERE key = 'key1'").size());
+
+        // hints are written in the background
+        UntypedResultSet stored = null;
+        for (int i = 0; i < 100 && (stored == null || stored.isEmpty()); i++)
+        {
+            Thread.sleep(50);
+            stored = QueryProcessor.processInternal("SELECT * FROM system." + SystemKeyspace.HINTS_CF + " WHERE target_id = " + hostId);
+        }
+        assertEquals(1, stored.size());
+    }
+}
@@ -0,0 +1,115 @@
+package org.apache.cassandra.annotation;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.filter.QueryFilter;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.UUIDGen;
+
+import static org.junit.Assert.*;
+
+public class PlacementGroupsTest extends SchemaLoader
+{
+    private static final String KS = "placement_groups_test";
+    private static final String CF = "annotated";
+    private static final String ANNOTATIONS = "WITH ANNOTATIONS \"location\" = { \"DE\" }";
+
+    @BeforeClass
+    public static void createTables() throws Exception
+    {
+        StorageService.instance.getTokenMetadata().updateNormalToken(StorageService.getPartitioner().getRandomToken(), FBUtilities.getBroadcastAddress());
+        QueryProcessor.process("CREATE KEYSPACE " + KS + " WITH REPLICATION = { 'class' : 'SimpleStrategy', 'replication_factor' : '1' };", ConsistencyLevel.ONE);
+        QueryProcessor.process("CREATE TABLE " + KS + "." + CF + " (key varchar PRIMARY KEY, value varchar);", ConsistencyLevel.ONE);
+    }
+
+    private static List<ByteBuffer> tokens(String... tokens)
+    {
+        List<ByteBuffer> result = new ArrayList<>();
+        for (String token : tokens)
+            result.add(ByteBufferUtil.bytes(token));
+        return result;
+    }
+
+    @Test
+    public void testIntern()
+    {
+        PlacementGroups.PlacementGroup group = PlacementGroups.instance.intern(tokens("2", "1", "3"), ANNOTATIONS);
+        assertEquals(tokens("1", "2", "3"), group.tokens);
+        assertEquals(ANNOTATIONS, group.annotationString);
+
+        // the id only depends on the content, so every node derives the same one
+        assertSame(group, PlacementGroups.instance.intern(tokens("3", "2", "1"), ANNOTATIONS));
+        assertFalse(group.id.equals(PlacementGroups.instance.intern(tokens("1", "2"), ANNOTATIONS).id));
+        assertFalse(group.id.equals(PlacementGroups.instance.intern(tokens("1", "2", "3"), "WITH ANNOTATIONS \"location\" = { \"FR\" }").id));
+    }
+
+    @Test
+    public void testStore() throws Exception
+    {
+        PlacementGroups.PlacementGroup group = PlacementGroups.instance.intern(tokens("11", "12"), ANNOTATIONS);
+        PlacementGroups.instance.store(group);
+
+        // groups are kept in a local system table, which is neither replicated nor cleaned up
+        UntypedResultSet result = QueryProcessor.processInternal("SELECT * FROM system." + SystemKeyspace.PLACEMENT_GROUPS_CF + " WHERE id = " + group.id);
+        assertEquals(1, result.size());
+        UntypedResultSet.Row row = result.one();
+        assertEquals(Arrays.asList("11", "12"), row.getList("nodes", UTF8Type.instance));
+        assertEquals(ANNOTATIONS, row.getString(IndirectionInformation.AnnotationRowName));
+        assertSame(group, PlacementGroups.instance.get(group.id));
+    }
+
+    @Test
+    public void testUnknownGroup()
+    {
+        UUID id = UUIDGen.getTimeUUID();
+        assertNull(PlacementGroups.instance.get(id));
+        // no other replica of the reference row can be asked for it
+        assertNull(PlacementGroups.instance.get(id, KS + IndirectionSupport.ReferenceKeyspacePostfix, ByteBufferUtil.bytes("key")));
+    }
+
+    @Test
+    public void testReferenceRow() throws Exception
+    {
+        CFMetaData cfm = Schema.instance.getCFMetaData(KS, CF);
+        CFMetaData refCfm = Schema.instance.getCFMetaData(KS + IndirectionSupport.ReferenceKeyspacePostfix, CF);
+        assertTrue(IndirectionInformation.usesPlacementGroups(refCfm));
+
+        IndirectionInformation.insertReferences(cfm, "key1", tokens("22", "21"), ANNOTATIONS, 1L);
+        IndirectionInformation.insertReferences(cfm, "key2", tokens("21", "22"), ANNOTATIONS, 1L);
+
+        Keyspace refKeyspace = Keyspace.open(refCfm.ksName);
+        DecoratedKey key1 = StorageService.getPartitioner().decorateKey(ByteBufferUtil.bytes("key1"));
+        ColumnFamily cf = refKeyspace.getColumnFamilyStore(CF).getColumnFamily(QueryFilter.getIdentityFilter(key1, CF, System.currentTimeMillis()));
+
+        // the row only holds the columns of the reference table
+        for (Column column : cf)
+        {
+            String name = ByteBufferUtil.string(column.name()).replaceAll("[^\\p{Print}]", "");
+            assertTrue(name, name.isEmpty() || name.equals(IndirectionInformation.PlacementGroupColumnName));
+        }
+
+        IndirectionInformation refInfo = IndirectionInformation.RowToIndirectionInformation(new Row(key1, cf));
+        assertEquals("key1", refInfo.getKey());
+        assertEquals(tokens("21", "22"), refInfo.getNodes());
+        assertEquals(ANNOTATIONS, refInfo.getAnnotationString());
+        assertEquals(1L, refInfo.getTimestamp());
+
+        // keys of the same placement share their group
+        DecoratedKey key2 = StorageService.getPartitioner().decorateKey(ByteBufferUtil.bytes("key2"));
+        ColumnFamily cf2 = refKeyspace.getColumnFamilyStore(CF).getColumnFamily(QueryFilter.getIdentityFilter(key2, CF, System.currentTimeMillis()));
+        assertSame(refInfo.getNodes(), IndirectionInformation.RowToIndirectionInformation(new Row(key2, cf2)).getNodes());
+    }
+}
@@ -58,6 +58,9 @@ public class Session implements Serializable
     public final AtomicInteger operations = new AtomicInteger();
     public final AtomicInteger keys = new AtomicInteger();
     public final com.yammer.metrics.core.Timer latency = Metrics.newTimer(Session.class, "latency");
+    // latencies of ANNOTATED_INSERT and ANNOTATED_READ by whether the key is written with Data Annotations
+    public final com.yammer.metrics.core.Timer annotatedLatency = Metrics.newTimer(Session.class, "annotated-latency");
+    public final com.yammer.metrics.core.Timer plainLatency = Metrics.newTimer(Session.class, "plain-latency");
 
     private static final String SSL_TRUSTSTORE = "truststore";
     private static final String SSL_TRUSTSTORE_PW = "truststore-password";
@@ -82,7 +85,7 @@ public class Session implements Serializable
         availableOptions.addOption("r",  "random",               false,  "Use random key generator (STDEV will have no effect), default:false");
         availableOptions.addOption("f",  "file",                 true,   "Write output to given file");
         availableOptions.addOption("p",  "port",                 true,   "Thrift port, default:9160");
-        availableOptions.addOption("o",  "operation",            true,   "Operation to perform (INSERT, READ, RANGE_SLICE, INDEXED_RANGE_SLICE, MULTI_GET, COUNTER_ADD, COUNTER_GET), default:INSERT");
+        availableOptions.addOption("o",  "operation",            true,   "Operation to perform (INSERT, READ, RANGE_SLICE, INDEXED_RANGE_SLICE, MULTI_GET, COUNTER_ADD, COUNTER_GET, ANNOTATED_INSERT, ANNOTATED_READ), default:INSERT");
         availableOptions.addOption("u",  "supercolumns",         true,   "Number of super columns per key, default:1");
         availableOptions.addOption("y",  "family-type",          true,   "Column Family Type (Super, Standard), default:Standard");
         availableOptions.addOption("K",  "keep-trying",          true,   "Retry on-going operation N times (in case of failure). positive integer, default:10");
@@ -116,6 +119,10 @@ public class Session implements Serializable
         availableOptions.addOption("th", "throttle",             true, "Throttle the total number of operations per second to a maximum amount.");
         availableOptions.addOption("un", "username",             true, "Username for authentication.");
         availableOptions.addOption("pw", "password",             true, "Password for authentication.");
+        availableOptions.addOption("an", "annotations",          true, "Data Annotations of ANNOTATED_INSERT, alternatives separated by ';' and chosen per key, e.g. \"'country' = {'c0', 'c1'};'country' = {'c2'}\"");
+        availableOptions.addOption("ar", "annotation-redirect",  true, "Target tokens of ANNOTATED_INSERT instead of Data Annotations, alternatives separated by ';' and tokens by ','");
+        availableOptions.addOption("af", "annotated-fraction",   true, "Fraction of the keys ANNOTATED_INSERT writes with Data Annotations, the others are written plain, default:1");
+        availableOptions.addOption("ao", "annotated-overlap",    true, "Fraction of ANNOTATED_INSERT operations updating a key written before, default:0");
     }
 
     private int numKeys          = 1000 * 1000;
@@ -146,6 +153,11 @@ public class Session implements Serializable
     public boolean use_native_protocol = false;
     private double maxOpsPerSecond = Double.MAX_VALUE;
 
+    // annotation clauses of annotated writes, chosen by key
+    private final List<String> annotationClauses = new ArrayList<String>();
+    private double annotatedFraction = 1.0;
+    private double annotatedOverlap = 0.0;
+
     private final String outFileName;
 
     private IndexType indexType = null;
@@ -461,6 +473,46 @@ public class Session implements Serializable
 
             if (cmd.hasOption("pw"))
                 password = cmd.getOptionValue("pw");
+
+            if (cmd.hasOption("an") && cmd.hasOption("ar"))
+                throw new IllegalArgumentException("Only one of --annotations and --annotation-redirect can be used");
+
+            if (cmd.hasOption("an"))
+            {
+                for (String annotations : StringUtils.split(cmd.getOptionValue("an"), ';'))
+                    annotationClauses.add(" WITH ANNOTATIONS " + annotations.trim());
+            }
+
+            if (cmd.hasOption("ar"))
+            {
+                for (String targets : StringUtils.split(cmd.getOptionValue("ar"), ';'))
+                {
+                    List<String> tokens = new ArrayList<String>();
+                    for (String token : StringUtils.split(targets, ','))
+                        tokens.add("'" + token.trim() + "'");
+                    annotationClauses.add(" WITH ANNOTATIONS REDIRECT " + StringUtils.join(tokens, " AND "));
+                }
+            }
+
+            if (cmd.hasOption("af"))
+                annotatedFraction = Double.parseDouble(cmd.getOptionValue("af"));
+
+            if (cmd.hasOption("ao"))
+                annotatedOverlap = Double.parseDouble(cmd.getOptionValue("ao"));
+
+            if (operation == Stress.Operations.ANNOTATED_INSERT || operation == Stress.Operations.ANNOTATED_READ)
+            {
+                if (!(enable_cql && cqlVersion.startsWith("3")))
+                {
+                    System.err.println(operation + " is only applicable with CQL3 (-L3/--enable-cql3)");
+                    System.exit(-1);
+                }
+                if (operation == Stress.Operations.ANNOTATED_INSERT && annotationClauses.isEmpty() && annotatedFraction > 0)
+                {
+                    System.err.println("ANNOTATED_INSERT requires --annotations or --annotation-redirect");
+                    System.exit(-1);
+                }
+            }
         }
         catch (ParseException e)
         {
@@ -655,6 +707,33 @@ public class Session implements Serializable
         return captureStatistics;
     }
 
+    public boolean isAnnotatedWorkload()
+    {
+        return operation == Stress.Operations.ANNOTATED_INSERT || operation == Stress.Operations.ANNOTATED_READ;
+    }
+
+    /**
+     * Whether ANNOTATED_INSERT writes the given key with Data Annotations. Decided by a hash of the key, so reads
+     * of a later ANNOTATED_READ run with the same --annotated-fraction are attributed to the same path.
+     */
+    public boolean isAnnotatedKey(int key)
+    {
+        return ((key * 2654435761L) & 0xFFFFFFFFL) < annotatedFraction * 0x100000000L;
+    }
+
+    /**
+     * @return the annotation clause of the given key, the same for every write of the key
+     */
+    public String getAnnotationClause(int key)
+    {
+        return annotationClauses.get(key % annotationClauses.size());
+    }
+
+    public double getAnnotatedOverlap()
+    {
+        return annotatedOverlap;
+    }
+
     /**
      * Create Keyspace with Standard and Super/Counter column families
      */
@@ -756,6 +835,49 @@ public class Session implements Serializable
         }
     }
 
+    /**
+     * Create Keyspace1 and the table of annotated operations with CQL3, so the reference and data tables of
+     * Data Annotations are created along with them
+     */
+    public void createAnnotatedKeySpace()
+    {
+        StringBuilder keyspace = new StringBuilder("CREATE KEYSPACE \"").append(KEYSPACE_NAME).append("\" WITH replication = {'class': '")
+                                 .append(replicationStrategy).append("'");
+        for (Map.Entry<String, String> option : replicationStrategyOptions.entrySet())
+            keyspace.append(", '").append(option.getKey()).append("': '").append(option.getValue()).append("'");
+        keyspace.append("};");
+
+        StringBuilder table = new StringBuilder("CREATE TABLE \"").append(KEYSPACE_NAME).append("\".\"Annotated1\" (key varchar PRIMARY KEY");
+        for (int i = 0; i < getColumnsPerKey(); i++)
+            table.append(", \"C").append(i).append("\" blob");
+        table.append(");");
+
+        CassandraClient client = getClient(false);
+
+        try
+        {
+            client.set_cql_version("3.0.0");
+            for (String statement : Arrays.asList(keyspace.toString(), table.toString()))
+            {
+                try
+                {
+                    client.execute_cql3_query(ByteBufferUtil.bytes(statement), Compression.NONE, ConsistencyLevel.ONE);
+                }
+                catch (InvalidRequestException e)
+                {
+                    System.err.println("Unable to create stress keyspace: " + e.getWhy());
+                }
+            }
+
+            System.out.println(String.format("Created keyspaces. Sleeping %ss for propagation.", nodes.length));
+            Thread.sleep(nodes.length * 1000); // seconds
+        }
+        catch (Exception e)
+        {
+            System.err.println(e.getMessage());
+        }
+    }
+
     /**
      * Thrift client connection with Keyspace1 set.
      * @return cassandra client connection
@@ -62,6 +62,8 @@ public class StressAction extends Thread
         // creating keyspace and column families
         if (client.getOperation() == Stress.Operations.INSERT || client.getOperation() == Stress.Operations.COUNTER_ADD)
             client.createKeySpaces();
+        else if (client.getOperation() == Stress.Operations.ANNOTATED_INSERT)
+            client.createAnnotatedKeySpace();
 
         int threadCount = client.getThreads();
         Consumer[] consumers = new Consumer[threadCount];
@@ -326,6 +328,12 @@ public class StressAction extends Thread
 
             case MULTI_GET:
                 return client.isCQL() ? new CqlMultiGetter(client, index) : new MultiGetter(client, index);
+
+            case ANNOTATED_INSERT:
+                return new CqlAnnotatedInserter(client, index);
+
+            case ANNOTATED_READ:
+                return new CqlAnnotatedReader(client, index);
         }
 
         throw new UnsupportedOperationException();
@@ -18,6 +18,7 @@
 
 package org.apache.cassandra.stress;
 
+import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.stats.Snapshot;
 import java.io.PrintStream;
 import org.apache.commons.lang3.time.DurationFormatUtils;
@@ -119,6 +120,27 @@ public class StressStatistics
         }
         output.println("Total operation time      : " + DurationFormatUtils.formatDuration(
             durationInSeconds*1000, "HH:mm:ss", true));
+
+        if (client.isAnnotatedWorkload())
+        {
+            output.println();
+            output.println("path,operations,op_rate,latency,95th,99.9th");
+            printPathStats("annotated", client.annotatedLatency);
+            printPathStats("plain", client.plainLatency);
+        }
+    }
+
+    /**
+     * Print the operations of either the annotated or the plain path over the whole run
+     */
+    private void printPathStats(String path, Timer latency)
+    {
+        Snapshot snapshot = latency.getSnapshot();
+        output.println(String.format("%s,%d,%d,%.1f,%.1f,%.1f",
+                                     path,
+                                     latency.count(),
+                                     durationInSeconds > 0 ? latency.count() / durationInSeconds : latency.count(),
+                                     snapshot.getMedian(), snapshot.get95thPercentile(), snapshot.get999thPercentile()));
     }
 
 }
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cassandra.stress.operations;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cassandra.stress.Session;
+import org.apache.cassandra.stress.Stress;
+import org.apache.cassandra.thrift.CqlResult;
+import org.apache.cassandra.transport.messages.ResultMessage;
+
+/**
+ * Inserts keys into the table of annotated keys, a fraction of them with Data Annotations or redirected to
+ * given targets. Keys are written with the same annotations every time, a fraction of the operations overwrites a
+ * key written before instead of the key of the operation.
+ */
+public class CqlAnnotatedInserter extends CqlAnnotatedOperation
+{
+    private static List<ByteBuffer> values;
+
+    public CqlAnnotatedInserter(Session client, int idx)
+    {
+        super(client, idx);
+    }
+
+    protected void run(CQLQueryExecutor executor) throws IOException
+    {
+        if (values == null)
+            values = generateValues();
+
+        int key = index;
+        if (index > 0 && Stress.randomizer.nextDouble() < session.getAnnotatedOverlap())
+            key = Stress.randomizer.nextInt(index);
+        boolean annotated = session.isAnnotatedKey(key);
+
+        StringBuilder query = new StringBuilder("INSERT INTO ").append(wrapInQuotesIfRequired(TABLE_NAME)).append(" (key");
+        for (int i = 0; i < session.getColumnsPerKey(); i++)
+            query.append(", ").append(wrapInQuotesIfRequired("C" + i));
+        query.append(") VALUES (?");
+        for (int i = 0; i < session.getColumnsPerKey(); i++)
+            query.append(", ?");
+        query.append(")");
+        if (annotated)
+            query.append(session.getAnnotationClause(key));
+
+        String keyString = formatKey(key);
+        List<String> queryParams = new ArrayList<String>();
+        queryParams.add(keyParameter(keyString));
+        for (int i = 0; i < session.getColumnsPerKey(); i++)
+            queryParams.add(getUnQuotedCqlBlob(values.get(i % values.size()).array(), true));
+
+        execute(executor, query.toString(), queryParams, keyString, annotated, "inserting");
+    }
+
+    protected boolean validateThriftResult(CqlResult result)
+    {
+        return true;
+    }
+
+    protected boolean validateNativeResult(ResultMessage result)
+    {
+        return true;
+    }
+}
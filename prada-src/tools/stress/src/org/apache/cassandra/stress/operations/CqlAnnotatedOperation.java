@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cassandra.stress.operations;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.yammer.metrics.core.TimerContext;
+import org.apache.cassandra.stress.Session;
+
+/**
+ * Base of the operations on the table of annotated keys, which record their latency both in the overall latency
+ * of the session and in the latency of either the annotated or the plain path.
+ */
+public abstract class CqlAnnotatedOperation extends CQLOperation
+{
+    protected static final String TABLE_NAME = "Annotated1";
+
+    public CqlAnnotatedOperation(Session client, int idx)
+    {
+        super(client, idx);
+    }
+
+    protected String formatKey(int key)
+    {
+        return String.format("%0" + session.getTotalKeysLength() + "d", key);
+    }
+
+    /**
+     * @return the key as a query parameter of a varchar column
+     */
+    protected String keyParameter(String key)
+    {
+        return session.usePreparedStatements() ? getUnQuotedCqlBlob(key, true) : "'" + key + "'";
+    }
+
+    protected void execute(CQLQueryExecutor executor, String query, List<String> queryParams, String key, boolean annotated, String action) throws IOException
+    {
+        TimerContext context = session.latency.time();
+        long start = System.nanoTime();
+
+        boolean success = false;
+        String exceptionMessage = null;
+
+        for (int t = 0; t < session.getRetryTimes(); t++)
+        {
+            if (success)
+                break;
+
+            try
+            {
+                success = executor.execute(query, queryParams);
+            }
+            catch (Exception e)
+            {
+                exceptionMessage = getExceptionMessage(e);
+                success = false;
+            }
+        }
+
+        if (!success)
+        {
+            error(String.format("Operation [%d] retried %d times - error %s key %s %s%n with query %s",
+                                index,
+                                session.getRetryTimes(),
+                                action,
+                                key,
+                                (exceptionMessage == null) ? "" : "(" + exceptionMessage + ")",
+                                query));
+        }
+
+        session.operations.getAndIncrement();
+        session.keys.getAndIncrement();
+        context.stop();
+        (annotated ? session.annotatedLatency : session.plainLatency).update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cassandra.stress.operations;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.apache.cassandra.stress.Session;
+import org.apache.cassandra.thrift.CqlResult;
+import org.apache.cassandra.transport.messages.ResultMessage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads keys written by ANNOTATED_INSERT, attributing each read to the path its key was written on.
+ */
+public class CqlAnnotatedReader extends CqlAnnotatedOperation
+{
+    private static String cqlQuery = null;
+
+    public CqlAnnotatedReader(Session client, int idx)
+    {
+        super(client, idx);
+    }
+
+    protected void run(CQLQueryExecutor executor) throws IOException
+    {
+        if (cqlQuery == null)
+            cqlQuery = "SELECT * FROM " + wrapInQuotesIfRequired(TABLE_NAME) + " WHERE key=?";
+
+        String key = new String(generateKey(), UTF_8);
+        execute(executor, cqlQuery, Collections.singletonList(keyParameter(key)), key, session.isAnnotatedKey(Integer.parseInt(key)), "reading");
+    }
+
+    protected boolean validateThriftResult(CqlResult result)
+    {
+        return result.rows.size() != 0;
+    }
+
+    protected boolean validateNativeResult(ResultMessage result)
+    {
+        return result instanceof ResultMessage.Rows && ((ResultMessage.Rows)result).result.size() != 0;
+    }
+}